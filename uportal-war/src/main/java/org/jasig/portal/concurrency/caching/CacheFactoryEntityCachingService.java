@@ -23,6 +23,7 @@ import java.io.Serializable;
 import java.util.Map;
 
 import org.apache.commons.collections.map.ReferenceMap;
+import org.jasig.portal.EntityIdentifier;
 import org.jasig.portal.IBasicEntity;
 import org.jasig.portal.concurrency.CachingException;
 import org.jasig.portal.concurrency.IEntityCache;
@@ -33,7 +34,7 @@ import org.springframework.stereotype.Service;
 
 /**
  * Creates {@link MapBackedEntityCache} instances that wrap {@link Map} caches retrieved from the {@link CacheFactory}
- * service. 
+ * service. Removes and updates are sent to the other servers in the cluster via the {@link ICacheInvalidationService}.
  * 
  * @author Eric Dalquist
  * @version $Revision$
@@ -42,6 +43,7 @@ import org.springframework.stereotype.Service;
 public class CacheFactoryEntityCachingService extends AbstractEntityCachingService {
     private final EntityCacheCreator entityCacheCreator = new EntityCacheCreator();
     private CacheFactory cacheFactory;
+    private ICacheInvalidationService cacheInvalidationService;
     
     /**
      * @return the cacheFactory
@@ -57,6 +59,11 @@ public class CacheFactoryEntityCachingService extends AbstractEntityCachingServi
         this.cacheFactory = cacheFactory;
     }
     
+    @Autowired
+    public void setCacheInvalidationService(ICacheInvalidationService cacheInvalidationService) {
+        this.cacheInvalidationService = cacheInvalidationService;
+    }
+    
 
     /* (non-Javadoc)
      * @see org.jasig.portal.concurrency.caching.AbstractEntityCachingService#getCache(java.lang.Class)
@@ -66,6 +73,25 @@ public class CacheFactoryEntityCachingService extends AbstractEntityCachingServi
         return this.entityCacheCreator.get(entityType);
     }
 
+    /* (non-Javadoc)
+     * @see org.jasig.portal.concurrency.caching.AbstractEntityCachingService#remove(java.lang.Class, java.lang.String)
+     */
+    @Override
+    public void remove(Class<? extends IBasicEntity> entityType, String key) throws CachingException {
+        super.remove(entityType, key);
+        this.cacheInvalidationService.invalidatePeers(entityType.getName(), key);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.jasig.portal.concurrency.caching.AbstractEntityCachingService#update(org.jasig.portal.IBasicEntity)
+     */
+    @Override
+    public void update(IBasicEntity entity) throws CachingException {
+        super.update(entity);
+        final EntityIdentifier entityIdentifier = entity.getEntityIdentifier();
+        this.cacheInvalidationService.invalidatePeers(entityIdentifier.getType().getName(), entityIdentifier.getKey());
+    }
+
     private class EntityCacheCreator extends MapCachingDoubleCheckedCreator<String, IEntityCache> {
         public EntityCacheCreator() {
             super(new ReferenceMap(ReferenceMap.HARD, ReferenceMap.SOFT));
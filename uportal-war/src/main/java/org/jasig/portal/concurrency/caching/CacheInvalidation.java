@@ -0,0 +1,95 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.caching;
+
+import java.io.Serializable;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * A request to remove a key, or every key, from a named cache on all servers in the cluster. The
+ * sequence and server id are assigned when the invalidation is published.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public final class CacheInvalidation implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    private final long sequence;
+    private final String serverId;
+    private final String cacheName;
+    private final Serializable key;
+    
+    /**
+     * @param sequence Sequence assigned by the transport, -1 if not yet published
+     * @param serverId Name of the server that published the invalidation
+     * @param cacheName Name of the cache to invalidate
+     * @param key Key to remove from the cache, null to remove all keys
+     */
+    public CacheInvalidation(long sequence, String serverId, String cacheName, Serializable key) {
+        Validate.notNull(cacheName, "cacheName");
+        this.sequence = sequence;
+        this.serverId = serverId;
+        this.cacheName = cacheName;
+        this.key = key;
+    }
+
+    /**
+     * @return Sequence assigned by the transport, sequences increase in publish order
+     */
+    public long getSequence() {
+        return this.sequence;
+    }
+
+    /**
+     * @return Name of the server that published the invalidation
+     */
+    public String getServerId() {
+        return this.serverId;
+    }
+
+    /**
+     * @return Name of the cache to invalidate
+     */
+    public String getCacheName() {
+        return this.cacheName;
+    }
+
+    /**
+     * @return Key to remove from the cache, null if all keys should be removed
+     */
+    public Serializable getKey() {
+        return this.key;
+    }
+    
+    /**
+     * @return true if every key in the cache should be removed
+     */
+    public boolean isRemoveAll() {
+        return this.key == null;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheInvalidation [sequence=" + this.sequence + ", serverId=" + this.serverId + ", cacheName="
+                + this.cacheName + ", key=" + this.key + "]";
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.caching;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import javax.persistence.TableGenerator;
+
+import org.apache.commons.lang.Validate;
+import org.hibernate.annotations.Index;
+
+/**
+ * Row in the cache invalidation log used by {@link JpaCacheInvalidationTransport}. The generated id is
+ * used as the invalidation sequence.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+@Entity
+@Table(name = "UP_CACHE_INVALIDATION")
+@SequenceGenerator(
+        name="UP_CACHE_INVALIDATION_GEN",
+        sequenceName="UP_CACHE_INVALIDATION_SEQ",
+        allocationSize=1
+    )
+@TableGenerator(
+        name="UP_CACHE_INVALIDATION_GEN",
+        pkColumnValue="UP_CACHE_INVALIDATION_PROP",
+        allocationSize=1
+    )
+//THIS CLASS CANNOT BE CACHED
+class CacheInvalidationEntry implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @GeneratedValue(generator = "UP_CACHE_INVALIDATION_GEN")
+    @Column(name="INVALIDATION_ID")
+    private final long id;
+    
+    @Column(name="SERVER_ID", length=200, nullable=false, updatable=false)
+    private final String serverId;
+    
+    @Column(name="CACHE_NAME", length=200, nullable=false, updatable=false)
+    private final String cacheName;
+    
+    @Lob
+    @Column(name="CACHE_KEY", updatable=false)
+    private final byte[] key;
+    
+    @Column(name="CREATED", nullable=false, updatable=false)
+    @Index(name = "IDX_UP_CACHE_INVAL__CREATED", columnNames = "CREATED")
+    private final Date created;
+    
+    @SuppressWarnings("unused")
+    private CacheInvalidationEntry() {
+        this.id = -1;
+        this.serverId = null;
+        this.cacheName = null;
+        this.key = null;
+        this.created = null;
+    }
+
+    CacheInvalidationEntry(String serverId, String cacheName, byte[] key) {
+        Validate.notNull(serverId, "serverId");
+        Validate.notNull(cacheName, "cacheName");
+        
+        this.id = -1;
+        this.serverId = serverId;
+        this.cacheName = cacheName;
+        this.key = key;
+        this.created = new Date();
+    }
+
+    public long getId() {
+        return this.id;
+    }
+
+    public String getServerId() {
+        return this.serverId;
+    }
+
+    public String getCacheName() {
+        return this.cacheName;
+    }
+
+    /**
+     * @return The serialized cache key, null if all keys should be removed
+     */
+    public byte[] getKey() {
+        return this.key;
+    }
+
+    public Date getCreated() {
+        return this.created;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheInvalidationEntry [id=" + this.id + ", serverId=" + this.serverId + ", cacheName="
+                + this.cacheName + ", created=" + this.created + "]";
+    }
+}
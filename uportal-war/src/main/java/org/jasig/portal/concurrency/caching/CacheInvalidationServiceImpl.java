@@ -0,0 +1,325 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.caching;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+
+import org.jasig.portal.IPortalInfoProvider;
+import org.joda.time.Duration;
+import org.joda.time.ReadableDuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Publishes invalidations via the configured {@link ICacheInvalidationTransport} and applies the
+ * invalidations published by other servers. Invalidations published by this server are skipped
+ * when received as they were applied locally when published.
+ * <p/>
+ * Transports assign sequences when an invalidation is written but concurrent writers may not become
+ * visible in sequence order. Sequences skipped over while polling are tracked and re-requested for
+ * {@link #setMissingSequenceTimeout(ReadableDuration)} before they are assumed to be rolled back.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+@Service("cacheInvalidationService")
+public class CacheInvalidationServiceImpl implements ICacheInvalidationService, InitializingBean {
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+    
+    private final ConcurrentMap<String, ICacheInvalidationHandler> handlers = new ConcurrentHashMap<String, ICacheInvalidationHandler>();
+    //sequence -> time the gap was first seen, only accessed from receiveInvalidations
+    private final Map<Long, Long> missingSequences = new LinkedHashMap<Long, Long>();
+    
+    private CacheManager cacheManager;
+    private ICacheInvalidationTransport cacheInvalidationTransport;
+    private IPortalInfoProvider portalInfoProvider;
+    private boolean enabled = true;
+    private int maxResults = 1000;
+    private int maxMissingSequences = 1000;
+    private ReadableDuration missingSequenceTimeout = Duration.standardSeconds(60);
+    
+    private long lastSequence = -1;
+
+    @Autowired
+    public void setCacheManager(CacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+    }
+
+    @Autowired
+    public void setCacheInvalidationTransport(ICacheInvalidationTransport cacheInvalidationTransport) {
+        this.cacheInvalidationTransport = cacheInvalidationTransport;
+    }
+
+    @Autowired
+    public void setPortalInfoProvider(IPortalInfoProvider portalInfoProvider) {
+        this.portalInfoProvider = portalInfoProvider;
+    }
+
+    /**
+     * If false invalidations are only applied locally and nothing is published or received. Defaults to true.
+     */
+    @Value("${org.jasig.portal.concurrency.caching.CacheInvalidationService.enabled:true}")
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Maximum number of invalidations to read per poll, defaults to 1000
+     */
+    @Value("${org.jasig.portal.concurrency.caching.CacheInvalidationService.maxResults:1000}")
+    public void setMaxResults(int maxResults) {
+        this.maxResults = maxResults;
+    }
+
+    /**
+     * How long to wait for a skipped sequence to become visible before assuming it was rolled back.
+     * Must be longer than the longest publishing transaction. Defaults to 60 seconds.
+     */
+    @Value("${org.jasig.portal.concurrency.caching.CacheInvalidationService.missingSequenceTimeout:PT60S}")
+    public void setMissingSequenceTimeout(ReadableDuration missingSequenceTimeout) {
+        this.missingSequenceTimeout = missingSequenceTimeout;
+    }
+
+    /**
+     * Maximum number of skipped sequences to track, defaults to 1000
+     */
+    public void setMaxMissingSequences(int maxMissingSequences) {
+        this.maxMissingSequences = maxMissingSequences;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (!this.enabled) {
+            return;
+        }
+        
+        //Start from the current end of the log, any caches populated after this point need invalidations
+        try {
+            this.initializeSequence();
+        }
+        catch (RuntimeException e) {
+            this.logger.warn("Failed to load the latest cache invalidation sequence, will retry on the first poll", e);
+        }
+    }
+
+    @Override
+    public void invalidate(String cacheName, Serializable key) {
+        this.invalidate(cacheName, Collections.singleton(key));
+    }
+
+    @Override
+    public void invalidate(String cacheName, Collection<? extends Serializable> keys) {
+        final List<CacheInvalidation> invalidations = new ArrayList<CacheInvalidation>(keys.size());
+        for (final Serializable key : keys) {
+            final CacheInvalidation invalidation = this.createInvalidation(cacheName, key);
+            this.apply(invalidation);
+            invalidations.add(invalidation);
+        }
+        
+        this.publish(invalidations);
+    }
+
+    @Override
+    public void invalidateAll(String cacheName) {
+        final CacheInvalidation invalidation = this.createInvalidation(cacheName, null);
+        this.apply(invalidation);
+        this.publish(Collections.singletonList(invalidation));
+    }
+
+    @Override
+    public void invalidatePeers(String cacheName, Serializable key) {
+        final CacheInvalidation invalidation = this.createInvalidation(cacheName, key);
+        this.publish(Collections.singletonList(invalidation));
+    }
+
+    @Override
+    public void registerHandler(String cacheName, ICacheInvalidationHandler handler) {
+        this.handlers.put(cacheName, handler);
+    }
+
+    @Override
+    public synchronized void receiveInvalidations() {
+        if (!this.enabled) {
+            return;
+        }
+        
+        if (this.lastSequence < 0) {
+            this.initializeSequence();
+            return;
+        }
+        
+        final long now = System.currentTimeMillis();
+        final long missingExpiration = now - this.missingSequenceTimeout.getMillis();
+        for (final Iterator<Long> missingTimeItr = this.missingSequences.values().iterator(); missingTimeItr.hasNext(); ) {
+            if (missingTimeItr.next() < missingExpiration) {
+                missingTimeItr.remove();
+            }
+        }
+        
+        final List<CacheInvalidation> invalidations = this.cacheInvalidationTransport.receive(this.lastSequence, 
+                new ArrayList<Long>(this.missingSequences.keySet()), this.maxResults);
+        
+        final String serverName = this.portalInfoProvider.getServerName();
+        for (final CacheInvalidation invalidation : invalidations) {
+            final long sequence = invalidation.getSequence();
+            if (this.missingSequences.remove(sequence) == null) {
+                if (sequence <= this.lastSequence) {
+                    //Already seen
+                    continue;
+                }
+                
+                for (long skipped = this.lastSequence + 1; skipped < sequence && this.missingSequences.size() < this.maxMissingSequences; skipped++) {
+                    this.missingSequences.put(skipped, now);
+                }
+                this.lastSequence = sequence;
+            }
+            
+            if (serverName.equals(invalidation.getServerId())) {
+                continue;
+            }
+            
+            this.logger.debug("Applying {}", invalidation);
+            this.apply(invalidation);
+        }
+    }
+    
+    /**
+     * @return The sequence of the last invalidation received, -1 if not yet initialized
+     */
+    public synchronized long getLastSequence() {
+        return this.lastSequence;
+    }
+
+    /**
+     * @return The number of skipped sequences that may still become visible
+     */
+    public synchronized int getMissingSequenceCount() {
+        return this.missingSequences.size();
+    }
+
+    protected synchronized void initializeSequence() {
+        if (this.lastSequence < 0) {
+            this.lastSequence = this.cacheInvalidationTransport.getLatestSequence();
+        }
+    }
+    
+    protected CacheInvalidation createInvalidation(String cacheName, Serializable key) {
+        return new CacheInvalidation(-1, this.portalInfoProvider.getServerName(), cacheName, key);
+    }
+
+    /**
+     * Apply the invalidation to the local cache, failures are logged and ignored
+     */
+    protected void apply(CacheInvalidation invalidation) {
+        final String cacheName = invalidation.getCacheName();
+        final Serializable key = invalidation.getKey();
+        try {
+            final ICacheInvalidationHandler handler = this.handlers.get(cacheName);
+            if (handler != null) {
+                if (key == null) {
+                    handler.invalidateAll();
+                }
+                else {
+                    handler.invalidate(key);
+                }
+                return;
+            }
+            
+            final Ehcache cache = this.cacheManager.getEhcache(cacheName);
+            if (cache == null) {
+                this.logger.debug("No cache or handler exists for {}, ignoring invalidation", cacheName);
+                return;
+            }
+            
+            if (key == null) {
+                cache.removeAll();
+            }
+            else {
+                cache.remove(key);
+            }
+        }
+        catch (RuntimeException e) {
+            this.logger.warn("Failed to apply " + invalidation, e);
+        }
+    }
+    
+    /**
+     * Publish the invalidations, if a transaction is active the invalidations are queued and published
+     * after it commits. Failures are logged and ignored, peers will fall back on cache expiration.
+     */
+    protected void publish(List<CacheInvalidation> invalidations) {
+        if (!this.enabled || invalidations.isEmpty()) {
+            return;
+        }
+        
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            this.doPublish(invalidations);
+            return;
+        }
+        
+        @SuppressWarnings("unchecked")
+        List<CacheInvalidation> pending = (List<CacheInvalidation>) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            final List<CacheInvalidation> transactionInvalidations = new ArrayList<CacheInvalidation>();
+            TransactionSynchronizationManager.bindResource(this, transactionInvalidations);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    doPublish(transactionInvalidations);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(CacheInvalidationServiceImpl.this);
+                }
+            });
+            pending = transactionInvalidations;
+        }
+        
+        pending.addAll(invalidations);
+    }
+
+    protected void doPublish(List<CacheInvalidation> invalidations) {
+        try {
+            this.cacheInvalidationTransport.publish(invalidations);
+        }
+        catch (RuntimeException e) {
+            this.logger.warn("Failed to publish " + invalidations.size() + " cache invalidations, peers will rely on cache expiration", e);
+        }
+    }
+}
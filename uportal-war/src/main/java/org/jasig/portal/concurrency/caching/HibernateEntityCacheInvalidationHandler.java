@@ -0,0 +1,89 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.caching;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.Cache;
+import org.hibernate.SessionFactory;
+import org.hibernate.ejb.HibernateEntityManagerFactory;
+
+/**
+ * Evicts a JPA entity from the Hibernate second level cache. Invalidating a key evicts the entity
+ * with that id, its collections and the entity's query cache region. Invalidating all keys evicts
+ * the entire entity and collection regions.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class HibernateEntityCacheInvalidationHandler implements ICacheInvalidationHandler {
+    private final Cache cache;
+    private final Class<?> entityClass;
+    private final List<String> collectionRoles;
+    private final String queryRegion;
+    
+    /**
+     * @param entityManagerFactory The factory the entity is managed by, must be backed by Hibernate
+     * @param entityClass The entity type to evict
+     * @param queryRegion The query cache region to evict with the entity, may be null
+     */
+    public HibernateEntityCacheInvalidationHandler(EntityManagerFactory entityManagerFactory, Class<?> entityClass, String queryRegion) {
+        final SessionFactory sessionFactory = ((HibernateEntityManagerFactory) entityManagerFactory).getSessionFactory();
+        this.cache = sessionFactory.getCache();
+        this.entityClass = entityClass;
+        this.queryRegion = queryRegion;
+        
+        final String rolePrefix = entityClass.getName() + ".";
+        this.collectionRoles = new ArrayList<String>();
+        for (final Object role : sessionFactory.getAllCollectionMetadata().keySet()) {
+            if (((String) role).startsWith(rolePrefix)) {
+                this.collectionRoles.add((String) role);
+            }
+        }
+    }
+
+    @Override
+    public void invalidate(Serializable key) {
+        this.cache.evictEntity(this.entityClass, key);
+        for (final String role : this.collectionRoles) {
+            this.cache.evictCollection(role, key);
+        }
+        this.evictQueryRegion();
+    }
+
+    @Override
+    public void invalidateAll() {
+        this.cache.evictEntityRegion(this.entityClass);
+        for (final String role : this.collectionRoles) {
+            this.cache.evictCollectionRegion(role);
+        }
+        this.evictQueryRegion();
+    }
+    
+    private void evictQueryRegion() {
+        if (this.queryRegion != null) {
+            this.cache.evictQueryRegion(this.queryRegion);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.caching;
+
+import java.io.Serializable;
+
+/**
+ * Applies invalidations for a cache that can't simply be cleared by removing the key from the
+ * Ehcache of the same name.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public interface ICacheInvalidationHandler {
+    /**
+     * Remove the data cached for the key
+     */
+    void invalidate(Serializable key);
+    
+    /**
+     * Remove all cached data
+     */
+    void invalidateAll();
+}
@@ -0,0 +1,66 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.caching;
+
+import java.io.Serializable;
+import java.util.Collection;
+
+/**
+ * Broadcasts key level cache invalidations to every server in the cluster. Invalidations published
+ * within a transaction are sent after the transaction commits so peers don't reload the old data.
+ * <p/>
+ * By default an invalidation removes the key from the Ehcache with the same name, caches with
+ * more complex key structures can register an {@link ICacheInvalidationHandler}.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public interface ICacheInvalidationService {
+    /**
+     * Remove the key from the named cache on this server and all peers
+     */
+    void invalidate(String cacheName, Serializable key);
+    
+    /**
+     * Remove the keys from the named cache on this server and all peers
+     */
+    void invalidate(String cacheName, Collection<? extends Serializable> keys);
+    
+    /**
+     * Remove all keys from the named cache on this server and all peers
+     */
+    void invalidateAll(String cacheName);
+    
+    /**
+     * Remove the key from the named cache on all peers, used when the local cache already
+     * contains the updated data.
+     */
+    void invalidatePeers(String cacheName, Serializable key);
+    
+    /**
+     * Register the handler to use for invalidations of the named cache, replaces any existing handler
+     */
+    void registerHandler(String cacheName, ICacheInvalidationHandler handler);
+    
+    /**
+     * Read invalidations published by peers and apply them, called periodically
+     */
+    void receiveInvalidations();
+}
@@ -0,0 +1,53 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.caching;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Moves {@link CacheInvalidation}s between the servers in a cluster. Implementations assign each published
+ * invalidation a sequence number that increases in publish order, readers poll for sequences after the last
+ * one they have seen.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public interface ICacheInvalidationTransport {
+    /**
+     * Publish the invalidations to every server in the cluster. Sequences on the passed invalidations are ignored.
+     */
+    void publish(List<CacheInvalidation> invalidations);
+    
+    /**
+     * @return The largest sequence published so far, 0 if nothing has been published
+     */
+    long getLatestSequence();
+    
+    /**
+     * Read published invalidations, ordered by sequence
+     * 
+     * @param afterSequence Return invalidations with a sequence greater than this value
+     * @param missingSequences Sequences lower than afterSequence which the caller has not seen yet, these are
+     *                         returned as well if they have become visible
+     * @param maxResults Maximum number of invalidations after afterSequence to return
+     */
+    List<CacheInvalidation> receive(long afterSequence, Collection<Long> missingSequences, int maxResults);
+}
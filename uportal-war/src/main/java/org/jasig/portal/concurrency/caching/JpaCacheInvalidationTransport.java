@@ -0,0 +1,163 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.caching;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+
+import org.apache.commons.lang.SerializationException;
+import org.apache.commons.lang.SerializationUtils;
+import org.jasig.portal.jpa.BaseJpaDao;
+import org.joda.time.Duration;
+import org.joda.time.ReadableDuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Uses a database table as the invalidation log, every server polls the table for rows newer than the
+ * last one it has seen. Rows older than {@link #setRetention(ReadableDuration)} are purged by
+ * {@link #purgeInvalidations()}.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+@Repository
+public class JpaCacheInvalidationTransport extends BaseJpaDao implements ICacheInvalidationTransport {
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+    
+    private EntityManager entityManager;
+    private ReadableDuration retention = Duration.standardMinutes(5);
+    
+    /**
+     * How long invalidations are kept before being purged, must be much longer than the polling delay
+     * of the slowest server. Defaults to 5 minutes.
+     */
+    @Value("${org.jasig.portal.concurrency.caching.JpaCacheInvalidationTransport.retention:PT5M}")
+    public void setRetention(ReadableDuration retention) {
+        this.retention = retention;
+    }
+
+    @PersistenceContext(unitName = "uPortalPersistence")
+    public final void setEntityManager(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.jasig.portal.jpa.BaseJpaDao#getEntityManager()
+     */
+    @Override
+    protected EntityManager getEntityManager() {
+        return this.entityManager;
+    }
+
+    /**
+     * Published in a new transaction as this is normally called after the transaction that modified
+     * the cached data has committed.
+     */
+    @Override
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void publish(List<CacheInvalidation> invalidations) {
+        for (final CacheInvalidation invalidation : invalidations) {
+            final Serializable key = invalidation.getKey();
+            final byte[] serializedKey = key != null ? SerializationUtils.serialize(key) : null;
+            
+            final CacheInvalidationEntry entry = new CacheInvalidationEntry(invalidation.getServerId(), invalidation.getCacheName(), serializedKey);
+            this.entityManager.persist(entry);
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public long getLatestSequence() {
+        final TypedQuery<Long> query = this.entityManager.createQuery(
+                "SELECT MAX(e.id) FROM CacheInvalidationEntry e", Long.class);
+        final Long latestSequence = query.getSingleResult();
+        return latestSequence != null ? latestSequence : 0;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<CacheInvalidation> receive(long afterSequence, Collection<Long> missingSequences, int maxResults) {
+        final List<CacheInvalidation> result = new ArrayList<CacheInvalidation>();
+        
+        if (!missingSequences.isEmpty()) {
+            final TypedQuery<CacheInvalidationEntry> missingQuery = this.entityManager.createQuery(
+                    "SELECT e FROM CacheInvalidationEntry e WHERE e.id IN (:ids) ORDER BY e.id", CacheInvalidationEntry.class);
+            missingQuery.setParameter("ids", missingSequences);
+            for (final CacheInvalidationEntry entry : missingQuery.getResultList()) {
+                result.add(this.toInvalidation(entry));
+            }
+        }
+        
+        final TypedQuery<CacheInvalidationEntry> query = this.entityManager.createQuery(
+                "SELECT e FROM CacheInvalidationEntry e WHERE e.id > :afterSequence ORDER BY e.id", CacheInvalidationEntry.class);
+        query.setParameter("afterSequence", afterSequence);
+        query.setMaxResults(maxResults);
+        for (final CacheInvalidationEntry entry : query.getResultList()) {
+            result.add(this.toInvalidation(entry));
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Delete invalidations older than the retention period
+     */
+    @Transactional
+    public int purgeInvalidations() {
+        final Query query = this.entityManager.createQuery("DELETE FROM CacheInvalidationEntry e WHERE e.created < :before");
+        query.setParameter("before", new Date(System.currentTimeMillis() - this.retention.getMillis()));
+        final int purged = query.executeUpdate();
+        
+        if (purged > 0) {
+            this.logger.debug("Purged {} cache invalidations", purged);
+        }
+        
+        return purged;
+    }
+
+    protected CacheInvalidation toInvalidation(CacheInvalidationEntry entry) {
+        final byte[] serializedKey = entry.getKey();
+        Serializable key = null;
+        if (serializedKey != null) {
+            try {
+                key = (Serializable) SerializationUtils.deserialize(serializedKey);
+            }
+            catch (SerializationException e) {
+                //Falling back to clearing the whole cache is always safe
+                this.logger.warn("Failed to deserialize key for " + entry + ", all keys in the cache will be invalidated", e);
+            }
+        }
+        
+        return new CacheInvalidation(entry.getId(), entry.getServerId(), entry.getCacheName(), key);
+    }
+}
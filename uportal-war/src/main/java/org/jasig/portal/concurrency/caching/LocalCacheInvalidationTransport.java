@@ -0,0 +1,86 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.caching;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * In memory transport, only useful for tests or for sharing invalidations between multiple
+ * {@link ICacheInvalidationService}s in the same JVM. The most recent {@link #setMaxSize(int)}
+ * invalidations are retained.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class LocalCacheInvalidationTransport implements ICacheInvalidationTransport {
+    private final TreeMap<Long, CacheInvalidation> invalidations = new TreeMap<Long, CacheInvalidation>();
+    private long sequence = 0;
+    private int maxSize = 10000;
+    
+    /**
+     * Maximum number of invalidations to retain, defaults to 10000
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public synchronized void publish(List<CacheInvalidation> invalidations) {
+        for (final CacheInvalidation invalidation : invalidations) {
+            this.sequence++;
+            this.invalidations.put(this.sequence, new CacheInvalidation(this.sequence, invalidation.getServerId(),
+                    invalidation.getCacheName(), invalidation.getKey()));
+        }
+        
+        while (this.invalidations.size() > this.maxSize) {
+            this.invalidations.pollFirstEntry();
+        }
+    }
+
+    @Override
+    public synchronized long getLatestSequence() {
+        return this.sequence;
+    }
+
+    @Override
+    public synchronized List<CacheInvalidation> receive(long afterSequence, Collection<Long> missingSequences, int maxResults) {
+        final List<CacheInvalidation> result = new ArrayList<CacheInvalidation>();
+        for (final Long missingSequence : new TreeSet<Long>(missingSequences)) {
+            final CacheInvalidation invalidation = this.invalidations.get(missingSequence);
+            if (invalidation != null && missingSequence <= afterSequence) {
+                result.add(invalidation);
+            }
+        }
+        
+        int count = 0;
+        for (final CacheInvalidation invalidation : this.invalidations.tailMap(afterSequence, false).values()) {
+            if (count++ >= maxResults) {
+                break;
+            }
+            result.add(invalidation);
+        }
+        
+        return result;
+    }
+}
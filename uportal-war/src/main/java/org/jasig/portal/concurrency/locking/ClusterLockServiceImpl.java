@@ -19,16 +19,22 @@
 
 package org.jasig.portal.concurrency.locking;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.jasig.portal.utils.DurationHistogram;
 import org.joda.time.Duration;
 import org.joda.time.ReadableDuration;
 import org.slf4j.Logger;
@@ -58,10 +64,17 @@ public class ClusterLockServiceImpl implements IClusterLockService {
                 }
             });
 
+    private final ConcurrentMap<String, HeldLock> heldLocks = new ConcurrentHashMap<String, HeldLock>();
+    private final AtomicBoolean leaseRenewerRunning = new AtomicBoolean(false);
+    private final DurationHistogram lockWaitTimes = new DurationHistogram();
+    private final DurationHistogram lockHoldTimes = new DurationHistogram();
+
     private ExecutorService lockMonitorExecutorService;
     private IClusterLockDao clusterLockDao;
     private ReadableDuration updateLockRate = Duration.millis(500);
     private ReadableDuration maximumLockDuration = Duration.standardMinutes(15);
+    private boolean useLeases = false;
+    private ReadableDuration leaseRenewalRate = Duration.standardSeconds(1);
 
     @Autowired
     public void setClusterLockDao(IClusterLockDao clusterLockDao) {
@@ -73,9 +86,10 @@ public class ClusterLockServiceImpl implements IClusterLockService {
         this.lockMonitorExecutorService = lockMonitorExecutorService;
     }
     /**
-     * Rate at which {@link IClusterLockDao#updateLock(String)} is called while a mutex is locked, defaults to 500ms
+     * Rate at which {@link IClusterLockDao#updateLock(String)} is called while a mutex is locked, defaults to 500ms.
+     * Not used when {@link #setUseLeases(boolean)} is true.
      */
-    @Value("${org.jasig.portal.concurrency.locking.ClusterLockDao.abandonedLockAge:PT0.500S}")
+    @Value("${org.jasig.portal.concurrency.locking.ClusterLockServiceImpl.updateLockRate:PT0.500S}")
     public void setUpdateLockRate(ReadableDuration updateLockRate) {
         this.updateLockRate = updateLockRate;
     }
@@ -84,41 +98,118 @@ public class ClusterLockServiceImpl implements IClusterLockService {
      * Maximum duration that a lock can be held, functionally longest duration that the lockFunction can take to execute.
      * Defaults to 15 minutes
      */
-    @Value("${org.jasig.portal.concurrency.locking.ClusterLockDao.abandonedLockAge:PT900S}")
+    @Value("${org.jasig.portal.concurrency.locking.ClusterLockServiceImpl.maximumLockDuration:PT900S}")
     public void setMaximumLockDuration(ReadableDuration maximumLockDuration) {
         this.maximumLockDuration = maximumLockDuration;
     }
 
+    /**
+     * If true database locks are held as leases. Instead of a lock thread per held mutex updating the database
+     * every {@link #setUpdateLockRate(ReadableDuration)} a single thread renews all leases held by this server
+     * with one statement every {@link #setLeaseRenewalRate(ReadableDuration)}. Defaults to false.
+     */
+    @Value("${org.jasig.portal.concurrency.locking.ClusterLockServiceImpl.useLeases:false}")
+    public void setUseLeases(boolean useLeases) {
+        this.useLeases = useLeases;
+    }
+
+    /**
+     * Rate at which held leases are renewed, defaults to 1 second. The lease duration is the
+     * {@link JpaClusterLockDao#setAbandonedLockAge(ReadableDuration)}, this rate must be well below it
+     * so that several renewals can fail before a lease expires.
+     */
+    @Value("${org.jasig.portal.concurrency.locking.ClusterLockServiceImpl.leaseRenewalRate:PT1S}")
+    public void setLeaseRenewalRate(ReadableDuration leaseRenewalRate) {
+        this.leaseRenewalRate = leaseRenewalRate;
+    }
+    
+    /**
+     * @return Histogram of the time taken to acquire cluster locks, in milliseconds
+     */
+    public Map<String, Long> getLockWaitTimeHistogram() {
+        return this.lockWaitTimes.getBuckets();
+    }
+    
+    /**
+     * @return Histogram of how long cluster locks were held, in milliseconds
+     */
+    public Map<String, Long> getLockHoldTimeHistogram() {
+        return this.lockHoldTimes.getBuckets();
+    }
+    
+    public long getMeanLockWaitTime() {
+        return this.lockWaitTimes.getMean();
+    }
+    
+    public long getMeanLockHoldTime() {
+        return this.lockHoldTimes.getMean();
+    }
+    
+    public long getMaxLockHoldTime() {
+        return this.lockHoldTimes.getMax();
+    }
+    
+    /**
+     * @return The number of cluster locks currently held by this server
+     */
+    public int getHeldLockCount() {
+        return this.heldLocks.size();
+    }
+    
+    public void resetLockStatistics() {
+        this.lockWaitTimes.reset();
+        this.lockHoldTimes.reset();
+    }
+
     /* (non-Javadoc)
      * @see org.jasig.portal.concurrency.locking.IClusterLockService#doInTryLock(java.lang.String, com.google.common.base.Function)
      */
     @Override
     public <T> TryLockFunctionResult<T> doInTryLock(final String mutexName, Function<String, T> lockFunction) throws InterruptedException {
+        this.logger.trace("doInLock({})", mutexName);
+        
+        final long waitStart = System.currentTimeMillis();
+        
+        final ReentrantLock lock = getLocalLock(mutexName);
+        final boolean lockedLocally = lock.tryLock();
+        if (!lockedLocally) {
+            this.logger.trace("local lock already held for {}", mutexName);
+            return TryLockFunctionResultImpl.getNotExecutedInstance();
+        }
+        try {
+            this.logger.trace("acquired local lock for {}", mutexName);
+            
+            if (this.useLeases) {
+                return this.doInLease(mutexName, lockFunction, waitStart);
+            }
+            
+            return this.doInDatabaseLock(mutexName, lockFunction, waitStart);
+        }
+        finally {
+            //Release the local lock
+            lock.unlock();
+            this.logger.trace("released local lock for: {}", mutexName);
+        }
+    }
+    
+    /**
+     * Execute the lockFunction while holding a database lock that is updated by a dedicated lock thread
+     */
+    protected <T> TryLockFunctionResult<T> doInDatabaseLock(final String mutexName, Function<String, T> lockFunction, long waitStart) throws InterruptedException {
         /*
          * locking strategy requires 2 threads
          * the caller thread is the 'work thread', it executes the lockFunction
          * an additional 'lock thread' is used to acquire and maintain the database lock
          */
         
-        this.logger.trace("doInLock({})", mutexName);
-        
         //Thread coordination objects
         final CountDownLatch dbLockLatch = new CountDownLatch(1);
         final CountDownLatch workCompleteLatch = new CountDownLatch(1);
         final AtomicBoolean dbLocked = new AtomicBoolean(false);
         
-        
         Future<Boolean> lockFuture = null;
-        
-        final ReentrantLock lock = getLocalLock(mutexName);
-        final boolean lockedLocally = lock.tryLock();
-        if (!lockedLocally) {
-            this.logger.trace("local lock already held for {}", mutexName);
-            return TryLockFunctionResultImpl.getNotExecutedInstance();
-        }
+        long lockStart = -1;
         try {
-            this.logger.trace("acquired local lock for {}", mutexName);
-            
             final DatabaseLockWorker databaseLockWorker = new DatabaseLockWorker(dbLocked, mutexName, dbLockLatch, workCompleteLatch);
             lockFuture = this.lockMonitorExecutorService.submit(databaseLockWorker);
             
@@ -131,6 +222,10 @@ public class ClusterLockServiceImpl implements IClusterLockService {
                 return TryLockFunctionResultImpl.getNotExecutedInstance();
             }
             
+            lockStart = System.currentTimeMillis();
+            this.lockWaitTimes.add(lockStart - waitStart);
+            this.heldLocks.put(mutexName, new HeldLock(mutexName, this.getLockedFencingToken(mutexName), lockStart));
+            
             //Execute the lockFunction
             return new TryLockFunctionResultImpl<T>(lockFunction.apply(mutexName));
         }
@@ -148,9 +243,42 @@ public class ClusterLockServiceImpl implements IClusterLockService {
                 }
             }
             
-            //Release the local lock
-            lock.unlock();
-            this.logger.trace("released local lock for: {}", mutexName);
+            if (lockStart >= 0) {
+                this.heldLocks.remove(mutexName);
+                this.lockHoldTimes.add(System.currentTimeMillis() - lockStart);
+            }
+        }
+    }
+    
+    /**
+     * Execute the lockFunction while holding a database lease that is renewed by the shared lease renewal thread
+     */
+    protected <T> TryLockFunctionResult<T> doInLease(final String mutexName, Function<String, T> lockFunction, long waitStart) {
+        if (!this.clusterLockDao.getLock(mutexName)) {
+            this.logger.trace("failed to acquire lease, returning notExecuted result for: {}", mutexName);
+            return TryLockFunctionResultImpl.getNotExecutedInstance();
+        }
+        
+        final long lockStart = System.currentTimeMillis();
+        this.lockWaitTimes.add(lockStart - waitStart);
+        try {
+            this.heldLocks.put(mutexName, new HeldLock(mutexName, this.getLockedFencingToken(mutexName), lockStart));
+            this.startLeaseRenewer();
+            this.logger.trace("acquired lease for: {}", mutexName);
+            
+            //Execute the lockFunction
+            return new TryLockFunctionResultImpl<T>(lockFunction.apply(mutexName));
+        }
+        finally {
+            final HeldLock heldLock = this.heldLocks.remove(mutexName);
+            try {
+                this.clusterLockDao.releaseLock(mutexName);
+                this.logger.trace("released lease for: {}", mutexName);
+            }
+            catch (IllegalMonitorStateException e) {
+                this.logger.warn("The lease on " + mutexName + " was lost before the lock function completed: " + heldLock, e);
+            }
+            this.lockHoldTimes.add(System.currentTimeMillis() - lockStart);
         }
     }
 
@@ -160,7 +288,29 @@ public class ClusterLockServiceImpl implements IClusterLockService {
     @Override
     public boolean isLockOwner(String mutexName) {
         final ReentrantLock lock = getLocalLock(mutexName);
-        return lock.isHeldByCurrentThread();
+        if (!lock.isHeldByCurrentThread()) {
+            return false;
+        }
+        
+        final HeldLock heldLock = this.heldLocks.get(mutexName);
+        return heldLock == null || !heldLock.lost;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.jasig.portal.concurrency.locking.IClusterLockService#getFencingToken(java.lang.String)
+     */
+    @Override
+    public long getFencingToken(String mutexName) {
+        if (!this.isLockOwner(mutexName)) {
+            return -1;
+        }
+        
+        final HeldLock heldLock = this.heldLocks.get(mutexName);
+        if (heldLock == null) {
+            return -1;
+        }
+        
+        return heldLock.fencingToken;
     }
     
     /* (non-Javadoc)
@@ -184,6 +334,133 @@ public class ClusterLockServiceImpl implements IClusterLockService {
     protected ReentrantLock getLocalLock(final String mutexName) {
         return this.localLocks.get(mutexName);
     }
+    
+    /**
+     * The fencing token of a mutex this server just locked
+     */
+    protected long getLockedFencingToken(String mutexName) {
+        final ClusterMutex clusterMutex = this.clusterLockDao.getClusterMutex(mutexName);
+        return clusterMutex.getFencingToken();
+    }
+    
+    /**
+     * Renews all leases held by this server with a single update. Leases that could not be renewed or that
+     * have been held for longer than the maximum lock duration are marked as lost.
+     */
+    protected void renewLeases() {
+        final long now = System.currentTimeMillis();
+        
+        final List<String> mutexNames = new ArrayList<String>(this.heldLocks.size());
+        for (final HeldLock heldLock : this.heldLocks.values()) {
+            if (heldLock.lost) {
+                continue;
+            }
+            
+            if (heldLock.lockStart + maximumLockDuration.getMillis() < now) {
+                heldLock.lost = true;
+                this.logger.error("The lease on " + heldLock.mutexName + " has been held for more than " + maximumLockDuration + ", it will no longer be renewed");
+                continue;
+            }
+            
+            mutexNames.add(heldLock.mutexName);
+        }
+        
+        if (mutexNames.isEmpty()) {
+            return;
+        }
+        
+        final int renewed = this.clusterLockDao.updateLocks(mutexNames);
+        if (renewed == mutexNames.size()) {
+            this.logger.trace("renewed leases for: {}", mutexNames);
+            return;
+        }
+        
+        //Some leases were not renewed, either they were released concurrently or they have been lost
+        for (final String mutexName : mutexNames) {
+            final HeldLock heldLock = this.heldLocks.get(mutexName);
+            if (heldLock == null) {
+                continue;
+            }
+            
+            final ClusterMutex clusterMutex = this.clusterLockDao.getClusterMutex(mutexName);
+            if (!clusterMutex.isLocked() || clusterMutex.getFencingToken() != heldLock.fencingToken) {
+                heldLock.lost = true;
+                this.logger.error("The lease on " + mutexName + " has been lost, the mutex is now: " + clusterMutex);
+            }
+        }
+    }
+    
+    /**
+     * Starts the lease renewal thread if it is not already running
+     */
+    private void startLeaseRenewer() {
+        if (this.leaseRenewerRunning.compareAndSet(false, true)) {
+            try {
+                this.lockMonitorExecutorService.submit(new LeaseRenewer());
+            }
+            catch (RejectedExecutionException e) {
+                this.leaseRenewerRunning.set(false);
+                throw e;
+            }
+        }
+    }
+    
+    /**
+     * Renews held leases until no leases are held
+     */
+    private final class LeaseRenewer implements Runnable {
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Thread.sleep(leaseRenewalRate.getMillis());
+                    
+                    if (heldLocks.isEmpty()) {
+                        leaseRenewerRunning.set(false);
+                        
+                        //A lease may have been acquired between the check and clearing the running flag
+                        if (heldLocks.isEmpty() || !leaseRenewerRunning.compareAndSet(false, true)) {
+                            logger.trace("no leases held, stopping lease renewal");
+                            return;
+                        }
+                    }
+                    
+                    try {
+                        renewLeases();
+                    }
+                    catch (RuntimeException e) {
+                        logger.warn("Failed to renew cluster lock leases, renewal will be retried", e);
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                leaseRenewerRunning.set(false);
+                logger.warn("Lease renewal thread was interrupted, it will be restarted when the next lease is acquired");
+            }
+        }
+    }
+    
+    /**
+     * Tracks a cluster lock held by this server
+     */
+    private static final class HeldLock {
+        private final String mutexName;
+        private final long fencingToken;
+        private final long lockStart;
+        private volatile boolean lost = false;
+        
+        private HeldLock(String mutexName, long fencingToken, long lockStart) {
+            this.mutexName = mutexName;
+            this.fencingToken = fencingToken;
+            this.lockStart = lockStart;
+        }
+
+        @Override
+        public String toString() {
+            return "HeldLock [mutexName=" + this.mutexName + ", fencingToken=" + this.fencingToken + ", lockStart="
+                    + this.lockStart + ", lost=" + this.lost + "]";
+        }
+    }
 
     /**
      * Callable that acquires, maintains, and releases a database lock
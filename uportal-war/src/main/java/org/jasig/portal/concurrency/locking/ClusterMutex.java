@@ -89,6 +89,9 @@ class ClusterMutex implements Serializable {
     @Column(name="LOCK_END", nullable=false)
     private Date lockEnd = new Date(0);
     
+    @Column(name="FENCING_TOKEN", nullable=false)
+    private long fencingToken = 0;
+    
     @SuppressWarnings("unused")
     private ClusterMutex() {
         this.id = -1;
@@ -152,6 +155,14 @@ class ClusterMutex implements Serializable {
     public long getLockEnd() {
         return this.lockEnd.getTime();
     }
+
+    /**
+     * @return Token that is incremented every time the mutex is locked. Work done under the lock can pass
+     * the token along so stale lock holders can be detected.
+     */
+    public long getFencingToken() {
+        return this.fencingToken;
+    }
     
 
     /**
@@ -166,6 +177,7 @@ class ClusterMutex implements Serializable {
         this.lockStart = new Date();
         this.lastUpdate = this.lockStart;
         this.serverId = serverId;
+        this.fencingToken++;
     }
     
     void unlock() {
@@ -220,6 +232,6 @@ class ClusterMutex implements Serializable {
     public String toString() {
         return "ClusterMutex [id=" + this.id + ", name=" + this.name + ", locked=" + this.locked + ", serverId="
                 + this.serverId + ", lockStart=" + this.lockStart + ", lastUpdate=" + this.lastUpdate + ", lockEnd="
-                + this.lockEnd + "]";
+                + this.lockEnd + ", fencingToken=" + this.fencingToken + "]";
     }
 }
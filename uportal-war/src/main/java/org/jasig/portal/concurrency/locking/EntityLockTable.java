@@ -0,0 +1,220 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.locking;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jasig.portal.concurrency.IEntityLock;
+import org.jasig.portal.concurrency.IEntityLockService;
+import org.jasig.portal.utils.Tuple;
+
+/**
+ * In-memory table of the entity locks held by this server, used by {@link HybridEntityLockStore} to
+ * answer lock queries without going to the database. The table stores copies of the locks so that
+ * changes made to a lock by the lock service do not affect the table.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+class EntityLockTable {
+    private final ConcurrentMap<Tuple<Class, String>, EntityLocks> lockTable = new ConcurrentHashMap<Tuple<Class, String>, EntityLocks>();
+    
+    /**
+     * Add a copy of the lock to the table
+     */
+    public void add(IEntityLock lock) {
+        final IEntityLock lockCopy = new EntityLockImpl(lock.getEntityType(), lock.getEntityKey(),
+                lock.getLockType(), new Date(lock.getExpirationTime().getTime()), lock.getLockOwner());
+        
+        final Tuple<Class, String> key = getKey(lock);
+        while (true) {
+            EntityLocks entityLocks = this.lockTable.get(key);
+            if (entityLocks == null) {
+                entityLocks = new EntityLocks();
+                final EntityLocks existingLocks = this.lockTable.putIfAbsent(key, entityLocks);
+                if (existingLocks != null) {
+                    entityLocks = existingLocks;
+                }
+            }
+            
+            synchronized (entityLocks) {
+                //Entry was removed from the table concurrently, try again
+                if (entityLocks.removed) {
+                    continue;
+                }
+                
+                entityLocks.locks.add(lockCopy);
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Remove the lock from the table
+     */
+    public void remove(IEntityLock lock) {
+        final Tuple<Class, String> key = getKey(lock);
+        final EntityLocks entityLocks = this.lockTable.get(key);
+        if (entityLocks == null) {
+            return;
+        }
+        
+        synchronized (entityLocks) {
+            entityLocks.locks.remove(lock);
+            this.removeIfEmpty(key, entityLocks);
+        }
+    }
+    
+    /**
+     * Replace the lock with a copy that has the new expiration and lock type
+     * 
+     * @param newLockType The new lock type, null to keep the current type
+     */
+    public void update(IEntityLock lock, Date newExpiration, Integer newLockType) {
+        this.remove(lock);
+        
+        final int lockType = newLockType != null ? newLockType : lock.getLockType();
+        this.add(new EntityLockImpl(lock.getEntityType(), lock.getEntityKey(), lockType, newExpiration, lock.getLockOwner()));
+    }
+    
+    /**
+     * @return true if the table contains a lock equal to the specified lock
+     */
+    public boolean contains(IEntityLock lock) {
+        final EntityLocks entityLocks = this.lockTable.get(getKey(lock));
+        if (entityLocks == null) {
+            return false;
+        }
+        
+        synchronized (entityLocks) {
+            return entityLocks.locks.contains(lock);
+        }
+    }
+    
+    /**
+     * Find the locks on the entity that are unexpired as of <code>expiration</code>, but only if the table
+     * is known to contain all of them. That is the case when this server holds an unexpired write lock on
+     * the entity since no other lock can exist alongside a write lock.
+     * 
+     * @return The unexpired locks on the entity, null if the table may not know about all of them
+     */
+    public List<IEntityLock> findIfComplete(Date expiration, Class entityType, String entityKey) {
+        final EntityLocks entityLocks = this.lockTable.get(new Tuple<Class, String>(entityType, entityKey));
+        if (entityLocks == null) {
+            return null;
+        }
+        
+        final List<IEntityLock> unexpiredLocks = new ArrayList<IEntityLock>();
+        boolean writeLocked = false;
+        synchronized (entityLocks) {
+            for (final IEntityLock lock : entityLocks.locks) {
+                if (lock.getExpirationTime().after(expiration)) {
+                    unexpiredLocks.add(lock);
+                    writeLocked = writeLocked || lock.getLockType() == IEntityLockService.WRITE_LOCK;
+                }
+            }
+        }
+        
+        if (!writeLocked) {
+            return null;
+        }
+        
+        return unexpiredLocks;
+    }
+    
+    /**
+     * Remove all locks that expired before the specified date
+     * 
+     * @return The number of locks removed
+     */
+    public int deleteExpired(Date expiration) {
+        int removed = 0;
+        for (final Iterator<Map.Entry<Tuple<Class, String>, EntityLocks>> entryItr = this.lockTable.entrySet().iterator(); entryItr.hasNext();) {
+            final Map.Entry<Tuple<Class, String>, EntityLocks> entry = entryItr.next();
+            final EntityLocks entityLocks = entry.getValue();
+            
+            synchronized (entityLocks) {
+                for (final Iterator<IEntityLock> lockItr = entityLocks.locks.iterator(); lockItr.hasNext();) {
+                    final IEntityLock lock = lockItr.next();
+                    if (lock.getExpirationTime().before(expiration)) {
+                        lockItr.remove();
+                        removed++;
+                    }
+                }
+                this.removeIfEmpty(entry.getKey(), entityLocks);
+            }
+        }
+        return removed;
+    }
+    
+    /**
+     * Remove all locks from the table
+     */
+    public void clear() {
+        for (final EntityLocks entityLocks : this.lockTable.values()) {
+            synchronized (entityLocks) {
+                entityLocks.locks.clear();
+                entityLocks.removed = true;
+            }
+        }
+        this.lockTable.clear();
+    }
+    
+    /**
+     * @return The number of locks in the table
+     */
+    public int size() {
+        int size = 0;
+        for (final EntityLocks entityLocks : this.lockTable.values()) {
+            synchronized (entityLocks) {
+                size += entityLocks.locks.size();
+            }
+        }
+        return size;
+    }
+    
+    /**
+     * Must be called while holding the entityLocks monitor
+     */
+    private void removeIfEmpty(Tuple<Class, String> key, EntityLocks entityLocks) {
+        if (entityLocks.locks.isEmpty()) {
+            entityLocks.removed = true;
+            this.lockTable.remove(key, entityLocks);
+        }
+    }
+    
+    private static Tuple<Class, String> getKey(IEntityLock lock) {
+        return new Tuple<Class, String>(lock.getEntityType(), lock.getEntityKey());
+    }
+    
+    /**
+     * The locks on a single entity, all access must be synchronized on the instance
+     */
+    private static final class EntityLocks {
+        private final List<IEntityLock> locks = new ArrayList<IEntityLock>(2);
+        private boolean removed = false;
+    }
+}
@@ -0,0 +1,330 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.locking;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jasig.portal.EntityTypes;
+import org.jasig.portal.RDBMServices;
+import org.jasig.portal.concurrency.IEntityLock;
+import org.jasig.portal.concurrency.IEntityLockService;
+import org.jasig.portal.concurrency.LockingException;
+
+/**
+ * RDBMS-based store for <code>IEntityLocks</code> that keeps an in-memory table of the locks held by this
+ * server. The database stays authoritative: locks are acquired with a conditional insert that only
+ * succeeds if no conflicting lock exists on any server. Reads are answered from the in-memory table when
+ * it is known to be complete, either a check for a lock this server holds or a lookup on an entity this
+ * server has write locked, and from the database otherwise.
+ * <p/>
+ * The conditional insert is not atomic at the usual isolation levels, two servers can both find no
+ * conflict and insert. As with <code>ReferenceEntityLockService</code> adding to a plain RDBMS store, the
+ * database is checked again after a write lock is inserted and the lock is removed if any other lock
+ * snuck in.
+ * <p/>
+ * Locks are not deleted when they expire, instead expired locks are removed from the database and the
+ * in-memory table with a single bulk delete at most once per sweep interval. Only locks that expired
+ * more than the clock tolerance ago are deleted, other servers may still consider newer ones unexpired.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class HybridEntityLockStore extends RDBMEntityLockStore implements IConditionalEntityLockStore {
+    private static final Log log = LogFactory.getLog(HybridEntityLockStore.class);
+    private static IConditionalEntityLockStore singleton;
+    
+    private static final String ADD_SQL = 
+        "INSERT INTO UP_ENTITY_LOCK (ENTITY_TYPE_ID, ENTITY_KEY, LOCK_TYPE, EXPIRATION_TIME, LOCK_OWNER) VALUES (?, ?, ?, ?, ?)";
+    
+    /*
+     * UP_ENTITY_TYPE is used as a single row source for the insert so the statement is portable across
+     * databases, no row is inserted if a conflicting unexpired lock exists. An identical lock is treated
+     * as a conflict instead of failing on the primary key.
+     */
+    private static final String ADD_IF_UNLOCKED_SQL =
+        "INSERT INTO UP_ENTITY_LOCK (ENTITY_TYPE_ID, ENTITY_KEY, LOCK_TYPE, EXPIRATION_TIME, LOCK_OWNER) " +
+        "SELECT ENTITY_TYPE_ID, ?, ?, ?, ? FROM UP_ENTITY_TYPE WHERE ENTITY_TYPE_ID = ? " +
+        "AND NOT EXISTS (SELECT 1 FROM UP_ENTITY_LOCK " +
+            "WHERE ENTITY_TYPE_ID = ? AND ENTITY_KEY = ? AND EXPIRATION_TIME > ? AND LOCK_TYPE IN (?, ?)) " +
+        "AND NOT EXISTS (SELECT 1 FROM UP_ENTITY_LOCK " +
+            "WHERE ENTITY_TYPE_ID = ? AND ENTITY_KEY = ? AND LOCK_OWNER = ? AND EXPIRATION_TIME = ?)";
+    
+    private static final String DELETE_EXPIRED_SQL = "DELETE FROM UP_ENTITY_LOCK WHERE EXPIRATION_TIME < ?";
+    
+    private final EntityLockTable lockTable = new EntityLockTable();
+    private final AtomicLong lastSweep = new AtomicLong(System.currentTimeMillis());
+    private final long sweepInterval;
+    private final long lockTolerance;
+
+    /**
+     * @param sweepInterval Minimum number of milliseconds between bulk deletes of expired locks
+     * @param lockTolerance Milliseconds a lock must have been expired for before the sweep deletes it
+     */
+    public HybridEntityLockStore(long sweepInterval, long lockTolerance) throws LockingException {
+        super();
+        this.sweepInterval = sweepInterval;
+        this.lockTolerance = lockTolerance;
+    }
+    
+    /**
+     * @return The number of locks in the in-memory lock table
+     */
+    public int getLocalLockCount() {
+        return this.lockTable.size();
+    }
+
+    @Override
+    public void add(IEntityLock lock) throws LockingException {
+        this.sweepIfDue();
+        
+        final Integer typeID = EntityTypes.getEntityTypeID(lock.getEntityType());
+        final Connection conn = RDBMServices.getConnection();
+        try {
+            final PreparedStatement ps = conn.prepareStatement(ADD_SQL);
+            try {
+                ps.setInt(1, typeID);
+                ps.setString(2, lock.getEntityKey());
+                ps.setInt(3, lock.getLockType());
+                ps.setTimestamp(4, new Timestamp(lock.getExpirationTime().getTime()));
+                ps.setString(5, lock.getLockOwner());
+
+                if (log.isDebugEnabled()) {
+                    log.debug("HybridEntityLockStore.add(): " + lock);
+                }
+                
+                final int rc = ps.executeUpdate();
+                if (rc != 1) {
+                    throw new LockingException("Problem adding " + lock);
+                }
+            }
+            finally {
+                ps.close();
+            }
+        }
+        catch (SQLException sqle) {
+            throw new LockingException("Problem creating " + lock, sqle);
+        }
+        finally {
+            RDBMServices.releaseConnection(conn);
+        }
+        
+        this.lockTable.add(lock);
+    }
+
+    @Override
+    public boolean addIfUnlocked(IEntityLock lock, Date expiration) throws LockingException {
+        this.sweepIfDue();
+        
+        //A write lock held by this server conflicts with every lock, no need to ask the database
+        if (this.lockTable.findIfComplete(expiration, lock.getEntityType(), lock.getEntityKey()) != null) {
+            if (log.isDebugEnabled()) {
+                log.debug("HybridEntityLockStore.addIfUnlocked(): " + lock + " conflicts with a local write lock");
+            }
+            return false;
+        }
+        
+        final Integer typeID = EntityTypes.getEntityTypeID(lock.getEntityType());
+        final String key = lock.getEntityKey();
+        final Timestamp ts = new Timestamp(lock.getExpirationTime().getTime());
+        final String owner = lock.getLockOwner();
+        
+        //A write lock conflicts with read and write locks, a read lock only with write locks
+        final int conflictingLockType = lock.getLockType() == IEntityLockService.WRITE_LOCK
+                ? IEntityLockService.READ_LOCK : IEntityLockService.WRITE_LOCK;
+
+        final int rc;
+        final Connection conn = RDBMServices.getConnection();
+        try {
+            final PreparedStatement ps = conn.prepareStatement(ADD_IF_UNLOCKED_SQL);
+            try {
+                ps.setString(1, key);
+                ps.setInt(2, lock.getLockType());
+                ps.setTimestamp(3, ts);
+                ps.setString(4, owner);
+                ps.setInt(5, typeID);
+                ps.setInt(6, typeID);
+                ps.setString(7, key);
+                ps.setTimestamp(8, new Timestamp(expiration.getTime()));
+                ps.setInt(9, IEntityLockService.WRITE_LOCK);
+                ps.setInt(10, conflictingLockType);
+                ps.setInt(11, typeID);
+                ps.setString(12, key);
+                ps.setString(13, owner);
+                ps.setTimestamp(14, ts);
+                
+                rc = ps.executeUpdate();
+            }
+            finally {
+                ps.close();
+            }
+        }
+        catch (SQLException sqle) {
+            throw new LockingException("Problem creating " + lock, sqle);
+        }
+        finally {
+            RDBMServices.releaseConnection(conn);
+        }
+        
+        if (log.isDebugEnabled()) {
+            log.debug("HybridEntityLockStore.addIfUnlocked(): " + (rc == 1 ? "added " : "conflict for ") + lock);
+        }
+        
+        if (rc != 1) {
+            return false;
+        }
+        
+        //Another server may have inserted a lock concurrently, check the database since the lock table only knows local locks
+        if (lock.getLockType() == IEntityLockService.WRITE_LOCK) {
+            final IEntityLock[] locks = super.findUnexpired(expiration, lock.getEntityType(), key, null, null);
+            if (locks.length > 1) {
+                if (log.isDebugEnabled()) {
+                    log.debug("HybridEntityLockStore.addIfUnlocked(): another lock snuck in, removing " + lock);
+                }
+                super.delete(lock);
+                return false;
+            }
+        }
+        
+        this.lockTable.add(lock);
+        return true;
+    }
+
+    @Override
+    public void delete(IEntityLock lock) throws LockingException {
+        //Remove from memory first so a failed delete can't leave a stale positive answer
+        this.lockTable.remove(lock);
+        super.delete(lock);
+    }
+
+    @Override
+    public void deleteAll() throws LockingException {
+        this.lockTable.clear();
+        super.deleteAll();
+    }
+
+    /**
+     * Delete all expired IEntityLocks with a single statement
+     */
+    @Override
+    public void deleteExpired(Date expiration) throws LockingException {
+        final int localDeleted = this.lockTable.deleteExpired(expiration);
+        
+        final Connection conn = RDBMServices.getConnection();
+        try {
+            final PreparedStatement ps = conn.prepareStatement(DELETE_EXPIRED_SQL);
+            try {
+                ps.setTimestamp(1, new Timestamp(expiration.getTime()));
+                final int rc = ps.executeUpdate();
+                
+                if (log.isDebugEnabled()) {
+                    log.debug("HybridEntityLockStore.deleteExpired(): Deleted " + rc + " expired locks, " + localDeleted + " held by this server.");
+                }
+            }
+            finally {
+                ps.close();
+            }
+        }
+        catch (SQLException sqle) {
+            throw new LockingException("Problem deleting expired locks", sqle);
+        }
+        finally {
+            RDBMServices.releaseConnection(conn);
+        }
+    }
+
+    @Override
+    public IEntityLock[] find(Class entityType, String entityKey, Integer lockType, Date expiration, String lockOwner)
+            throws LockingException {
+        
+        //Checking for a specific lock held by this server
+        if (entityType != null && entityKey != null && lockType != null && expiration != null && lockOwner != null) {
+            final IEntityLock lock = new EntityLockImpl(entityType, entityKey, lockType, expiration, lockOwner);
+            if (this.lockTable.contains(lock)) {
+                return new IEntityLock[] { lock };
+            }
+        }
+        
+        return super.find(entityType, entityKey, lockType, expiration, lockOwner);
+    }
+
+    @Override
+    public IEntityLock[] findUnexpired(Date expiration, Class entityType, String entityKey, Integer lockType, String lockOwner) 
+            throws LockingException {
+        
+        if (entityType != null && entityKey != null) {
+            final List<IEntityLock> locks = this.lockTable.findIfComplete(expiration, entityType, entityKey);
+            if (locks != null) {
+                final List<IEntityLock> matchingLocks = new ArrayList<IEntityLock>(locks.size());
+                for (final IEntityLock lock : locks) {
+                    if ((lockType == null || lockType == lock.getLockType()) && (lockOwner == null || lockOwner.equals(lock.getLockOwner()))) {
+                        matchingLocks.add(lock);
+                    }
+                }
+                return matchingLocks.toArray(new IEntityLock[matchingLocks.size()]);
+            }
+        }
+        
+        return super.findUnexpired(expiration, entityType, entityKey, lockType, lockOwner);
+    }
+
+    @Override
+    public void update(IEntityLock lock, Date newExpiration, Integer newLockType) throws LockingException {
+        super.update(lock, newExpiration, newLockType);
+        this.lockTable.update(lock, newExpiration, newLockType);
+    }
+    
+    /**
+     * Deletes expired locks if more than the sweep interval has passed since the last sweep, only one
+     * thread performs the sweep.
+     */
+    protected void sweepIfDue() {
+        final long now = System.currentTimeMillis();
+        final long last = this.lastSweep.get();
+        if (now - last < this.sweepInterval || !this.lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        
+        try {
+            this.deleteExpired(new Date(now - this.lockTolerance));
+        }
+        catch (LockingException e) {
+            log.warn("Failed to delete expired entity locks, they will be deleted by the next sweep", e);
+        }
+    }
+    
+    /**
+     * @return org.jasig.portal.concurrency.locking.HybridEntityLockStore
+     */
+    public static synchronized IConditionalEntityLockStore singleton(long sweepInterval, long lockTolerance) throws LockingException {
+        if (singleton == null) {
+            singleton = new HybridEntityLockStore(sweepInterval, lockTolerance);
+        }
+        return singleton;
+    }
+}
@@ -19,6 +19,7 @@
 
 package org.jasig.portal.concurrency.locking;
 
+import java.util.Collection;
 
 /**
  * DB based locking DAO.
@@ -57,6 +58,15 @@ interface IClusterLockDao {
      */
     void updateLock(String mutexName);
     
+    /**
+     * Update all of the specified mutexes with a single statement, only mutexes that are locked by this
+     * server are updated. Used to renew lock leases in bulk.
+     * 
+     * @param mutexNames The mutexes to update
+     * @return The number of mutexes that were updated
+     */
+    int updateLocks(Collection<String> mutexNames);
+    
     /**
      * Release the specified mutex, the mutex must already be locked by this server.
      * 
@@ -59,6 +59,16 @@ public interface IClusterLockService {
      */
     boolean isLockOwner(String mutexName);
     
+    /**
+     * Get the fencing token for the lock owned by the current thread. The token increases every time the
+     * mutex is locked, work done while holding the lock can record it so that writes from a server that
+     * has lost the lock can be detected.
+     * 
+     * @param mutexName Name of the lock (case sensitive)
+     * @return The fencing token of the lock, -1 if the current thread does not own the lock
+     */
+    long getFencingToken(String mutexName);
+    
     /**
      * Check if any thread or server owns the specified lock
      * 
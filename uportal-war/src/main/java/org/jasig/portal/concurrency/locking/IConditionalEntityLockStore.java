@@ -0,0 +1,44 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.locking;
+
+import java.util.Date;
+
+import org.jasig.portal.concurrency.IEntityLock;
+import org.jasig.portal.concurrency.LockingException;
+
+/**
+ * An {@link IEntityLockStore} that can atomically check for conflicting locks and add a new lock.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public interface IConditionalEntityLockStore extends IEntityLockStore {
+    /**
+     * Adds the lock to the store if no conflicting lock is unexpired as of <code>expiration</code>. A
+     * write lock conflicts with any other lock on the entity, a read lock conflicts with write locks.
+     * 
+     * @param lock The lock to add
+     * @param expiration Locks that expire before this date are ignored
+     * @return true if the lock was added, false if a conflicting lock exists
+     * @exception LockingException - wraps an Exception specific to the store.
+     */
+    public boolean addIfUnlocked(IEntityLock lock, Date expiration) throws LockingException;
+}
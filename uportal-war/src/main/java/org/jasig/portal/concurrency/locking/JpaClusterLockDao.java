@@ -19,12 +19,15 @@
 
 package org.jasig.portal.concurrency.locking;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 
 import javax.persistence.EntityManager;
 import javax.persistence.OptimisticLockException;
 import javax.persistence.PersistenceContext;
 import javax.persistence.PersistenceException;
+import javax.persistence.Query;
 import javax.persistence.RollbackException;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
@@ -217,6 +220,31 @@ public class JpaClusterLockDao extends BaseJpaDao implements IClusterLockDao {
         });
     }
 
+    @Override
+    public int updateLocks(final Collection<String> mutexNames) {
+        if (mutexNames.isEmpty()) {
+            return 0;
+        }
+        
+        final Integer updated = this.executeIgnoreRollback(new TransactionCallback<Integer>() {
+            @Override
+            public Integer doInTransaction(TransactionStatus status) {
+                //Bulk updates bypass optimistic locking so the version is incremented explicitly
+                final Query query = entityManager.createQuery(
+                        "UPDATE ClusterMutex m SET m.lastUpdate = :lastUpdate, m.entityVersion = m.entityVersion + 1 " +
+                        "WHERE m.locked = true AND m.serverId = :serverId AND m.name IN (:names)");
+                query.setParameter("lastUpdate", new Date());
+                query.setParameter("serverId", portalInfoProvider.getServerName());
+                query.setParameter("names", mutexNames);
+                final int updated = query.executeUpdate();
+                logger.trace("Updated {} of {} mutexes", updated, mutexNames);
+                return updated;
+            }
+        }, 0);
+        
+        return updated;
+    }
+
     @Override
     public void releaseLock(final String mutexName) {
         this.executeIgnoreRollback(new TransactionCallbackWithoutResult() {
@@ -49,6 +49,13 @@ public class ReferenceEntityLockService implements IEntityLockService
     // will be in persistent storage.
     private boolean multiServer = false;
 
+    // In a multi-server environment, should the hybrid store that keeps this server's
+    // locks in memory and acquires locks with conditional inserts be used?
+    private boolean hybridLockStore = false;
+
+    // Minimum interval in seconds between bulk deletes of expired locks by the hybrid store.
+    private int lockSweepIntervalSecs = 60;
+
     // Lifetime of a lock in seconds, defaults to 5 minutes.
     private int defaultLockPeriod = 300;
 
@@ -158,10 +165,19 @@ private void initialize() throws LockingException
     try
     {
         multiServer = PropertiesManager.getPropertyAsBoolean("org.jasig.portal.concurrency.multiServer", false);
+        hybridLockStore = PropertiesManager.getPropertyAsBoolean("org.jasig.portal.concurrency.hybridLockStore", false);
+        lockSweepIntervalSecs = PropertiesManager.getPropertyAsInt("org.jasig.portal.concurrency.hybridLockStore.sweepInterval", lockSweepIntervalSecs);
 
-        lockStore = ( multiServer )
-            ? RDBMEntityLockStore.singleton()
-            : MemoryEntityLockStore.singleton();
+        if ( ! multiServer )
+            { lockStore = MemoryEntityLockStore.singleton(); }
+        else if ( hybridLockStore )
+        {
+            // the sweep must not delete locks that other servers still treat as unexpired:
+            int lockTolerance = PropertiesManager.getPropertyAsInt("org.jasig.portal.concurrency.clockTolerance", getLockToleranceMillis());
+            lockStore = HybridEntityLockStore.singleton(lockSweepIntervalSecs * 1000L, lockTolerance);
+        }
+        else
+            { lockStore = RDBMEntityLockStore.singleton(); }
     }
     catch ( Exception e )
     {
@@ -288,6 +304,10 @@ throws LockingException
     Date expires = getNewExpiration(expirationSecs);
     IEntityLock newLock = new EntityLockImpl(entityType, entityKey, lockType, expires, owner, this);
 
+    // let the store check for conflicting locks and add the new lock in one step:
+    if ( getLockStore() instanceof IConditionalEntityLockStore )
+        { return newConditionalLock(newLock, expirationSecs); }
+
     // retrieve potentially conflicting locks:
     IEntityLock[] locks = retrieveLocks(entityType, entityKey, null);
 
@@ -327,6 +347,27 @@ throws LockingException
     }
     return newLock;
 }
+/**
+ * Adds the new lock using the store's conditional add.  A read lock that is rejected
+ * may collide with another read lock from the same owner with the same expiration time,
+ * in that case the expiration time is bumped and the add is tried once more.
+ */
+private IEntityLock newConditionalLock(IEntityLock newLock, int expirationSecs) throws LockingException
+{
+    IConditionalEntityLockStore store = (IConditionalEntityLockStore) getLockStore();
+    if ( store.addIfUnlocked(newLock, getConflictExpiration()) )
+        { return newLock; }
+
+    if ( newLock.getLockType() == READ_LOCK )
+    {
+        Date expires = getNewExpiration(expirationSecs + 1);
+        newLock = new EntityLockImpl(newLock.getEntityType(), newLock.getEntityKey(), READ_LOCK, expires, newLock.getLockOwner(), this);
+        if ( store.addIfUnlocked(newLock, getConflictExpiration()) )
+            { return newLock; }
+    }
+
+    throw new LockingException("Could not create lock: entity already locked.");
+}
 /**
  * Returns a lock for the entity, lock type and owner if no conflicting locks exist.
  * @return org.jasig.portal.groups.IEntityLock
@@ -400,11 +441,17 @@ public void renew(IEntityLock lock, int duration) throws LockingException
  */
 private IEntityLock[] retrieveLocks(Class entityType, String entityKey, Integer lockType) throws LockingException
 {
-    Date expiration = ( multiServer )
+    return getLockStore().findUnexpired(getConflictExpiration(), entityType, entityKey, lockType, null);
+}
+/**
+ * Locks that expire after the returned date are potential conflicts.
+ * @return java.util.Date
+ */
+private Date getConflictExpiration()
+{
+    return ( multiServer )
         ? new Date(System.currentTimeMillis() - getLockToleranceMillis())
         : new Date();
-
-    return getLockStore().findUnexpired(expiration, entityType, entityKey, lockType, null);
 }
 /**
  * @param newDefaultLockPeriod int
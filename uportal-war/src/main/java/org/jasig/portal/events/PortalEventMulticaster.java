@@ -0,0 +1,322 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jasig.portal.spring.context.SynchronousApplicationListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.SimpleApplicationEventMulticaster;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Delivers {@link PortalEvent}s to listeners asynchronously so event handling happens off of the request thread.
+ * Published events are placed in a bounded buffer that is drained in batches by consumer threads which call the
+ * listeners. Listeners that implement {@link SynchronousApplicationListener} are still called on the publishing
+ * thread. All other application events are delivered synchronously.
+ * <p/>
+ * When the buffer is full the {@link OverflowPolicy} determines what happens to newly published events.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+@Service("applicationEventMulticaster")
+public class PortalEventMulticaster extends SimpleApplicationEventMulticaster implements InitializingBean, DisposableBean {
+    /**
+     * What to do with a published event when the buffer is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * Drop the event
+         */
+        DROP,
+        /**
+         * Block the publishing thread until there is room for the event
+         */
+        BLOCK,
+        /**
+         * Block for one of every sampleRate events and drop the rest, keeps a sample of the events
+         * while limiting how often publishers wait
+         */
+        SAMPLE;
+    }
+    
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+    
+    private final AtomicLong overflowedEvents = new AtomicLong();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final List<Thread> consumers = new ArrayList<Thread>();
+    
+    private boolean asynchronous = true;
+    private int bufferSize = 8192;
+    private int batchSize = 100;
+    private int consumerThreads = 1;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+    private int sampleRate = 10;
+    
+    private volatile BlockingQueue<PortalEvent> eventBuffer;
+
+    /**
+     * If {@link PortalEvent}s should be delivered asynchronously, defaults to true
+     */
+    @Value("${org.jasig.portal.events.PortalEventMulticaster.asynchronous:true}")
+    public void setAsynchronous(boolean asynchronous) {
+        this.asynchronous = asynchronous;
+    }
+
+    /**
+     * Maximum number of events waiting for delivery, defaults to 8192
+     */
+    @Value("${org.jasig.portal.events.PortalEventMulticaster.bufferSize:8192}")
+    public void setBufferSize(int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize must be at least 1. Is: " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Maximum number of events a consumer takes from the buffer at a time, defaults to 100
+     */
+    @Value("${org.jasig.portal.events.PortalEventMulticaster.batchSize:100}")
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1. Is: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Number of threads delivering events, defaults to 1. With more than one thread listeners may
+     * see events out of order.
+     */
+    @Value("${org.jasig.portal.events.PortalEventMulticaster.consumerThreads:1}")
+    public void setConsumerThreads(int consumerThreads) {
+        if (consumerThreads < 1) {
+            throw new IllegalArgumentException("consumerThreads must be at least 1. Is: " + consumerThreads);
+        }
+        this.consumerThreads = consumerThreads;
+    }
+
+    /**
+     * What to do with events published while the buffer is full, defaults to {@link OverflowPolicy#DROP}
+     */
+    @Value("${org.jasig.portal.events.PortalEventMulticaster.overflowPolicy:DROP}")
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * For {@link OverflowPolicy#SAMPLE} one of every sampleRate events published while the buffer is full is
+     * kept, defaults to 10
+     */
+    @Value("${org.jasig.portal.events.PortalEventMulticaster.sampleRate:10}")
+    public void setSampleRate(int sampleRate) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("sampleRate must be at least 1. Is: " + sampleRate);
+        }
+        this.sampleRate = sampleRate;
+    }
+    
+    /**
+     * @return Number of events dropped because the buffer was full
+     */
+    public long getDroppedEventCount() {
+        return this.droppedEvents.get();
+    }
+    
+    /**
+     * @return Number of events waiting for delivery
+     */
+    public int getBufferedEventCount() {
+        final BlockingQueue<PortalEvent> eventBuffer = this.eventBuffer;
+        return eventBuffer != null ? eventBuffer.size() : 0;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (!this.asynchronous) {
+            return;
+        }
+        
+        this.eventBuffer = new ArrayBlockingQueue<PortalEvent>(this.bufferSize);
+        
+        final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("uPortal-PortalEventConsumer-");
+        threadFactory.setDaemon(true);
+        for (int i = 0; i < this.consumerThreads; i++) {
+            final Thread consumer = threadFactory.newThread(new EventConsumer());
+            this.consumers.add(consumer);
+            consumer.start();
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        final BlockingQueue<PortalEvent> eventBuffer = this.eventBuffer;
+        if (eventBuffer == null) {
+            return;
+        }
+        
+        //Stop accepting events, wake up the consumers and wait for them to exit before draining the buffer
+        this.eventBuffer = null;
+        for (final Thread consumer : this.consumers) {
+            consumer.interrupt();
+        }
+        for (final Thread consumer : this.consumers) {
+            consumer.join();
+        }
+        this.consumers.clear();
+        
+        //Deliver anything left in the buffer
+        final List<PortalEvent> events = new ArrayList<PortalEvent>(eventBuffer.size());
+        eventBuffer.drainTo(events);
+        this.deliverEvents(events);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Override
+    public void multicastEvent(ApplicationEvent event) {
+        final BlockingQueue<PortalEvent> eventBuffer = this.eventBuffer;
+        if (eventBuffer == null || !(event instanceof PortalEvent)) {
+            super.multicastEvent(event);
+            return;
+        }
+        
+        //Listeners that need the event before the publisher continues are called now
+        for (final ApplicationListener listener : this.getApplicationListeners(event)) {
+            if (listener instanceof SynchronousApplicationListener) {
+                listener.onApplicationEvent(event);
+            }
+        }
+        
+        this.bufferEvent(eventBuffer, (PortalEvent)event);
+    }
+    
+    private void bufferEvent(BlockingQueue<PortalEvent> eventBuffer, PortalEvent event) {
+        if (eventBuffer.offer(event)) {
+            return;
+        }
+        
+        switch (this.overflowPolicy) {
+            case BLOCK: {
+                this.putEvent(eventBuffer, event);
+                return;
+            }
+            case SAMPLE: {
+                if (this.overflowedEvents.incrementAndGet() % this.sampleRate == 0) {
+                    this.putEvent(eventBuffer, event);
+                }
+                else {
+                    this.dropEvent(event);
+                }
+                return;
+            }
+            default: {
+                this.dropEvent(event);
+            }
+        }
+    }
+    
+    private void putEvent(BlockingQueue<PortalEvent> eventBuffer, PortalEvent event) {
+        try {
+            //Wait in steps so a publisher doesn't block forever if the multicaster is shut down
+            while (!eventBuffer.offer(event, 1, TimeUnit.SECONDS)) {
+                if (this.eventBuffer != eventBuffer) {
+                    this.dropEvent(event);
+                    return;
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.dropEvent(event);
+        }
+    }
+    
+    private void dropEvent(PortalEvent event) {
+        final long dropped = this.droppedEvents.incrementAndGet();
+        
+        //Log the first drop and then periodically to avoid flooding the log while the buffer is full
+        if (dropped == 1 || dropped % 1000 == 0) {
+            this.logger.warn("PortalEvent buffer is full, {} events have been dropped. Most recently dropped: {}", dropped, event);
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void deliverEvents(List<PortalEvent> events) {
+        for (final PortalEvent event : events) {
+            for (final ApplicationListener listener : this.getApplicationListeners(event)) {
+                if (listener instanceof SynchronousApplicationListener) {
+                    continue;
+                }
+                
+                try {
+                    listener.onApplicationEvent(event);
+                }
+                catch (Throwable t) {
+                    this.logger.error("ApplicationListener " + listener + " failed to handle " + event, t);
+                }
+            }
+        }
+    }
+    
+    private final class EventConsumer implements Runnable {
+        @Override
+        public void run() {
+            final List<PortalEvent> events = new ArrayList<PortalEvent>(batchSize);
+            
+            BlockingQueue<PortalEvent> eventBuffer;
+            while ((eventBuffer = PortalEventMulticaster.this.eventBuffer) != null) {
+                try {
+                    final PortalEvent event = eventBuffer.poll(1, TimeUnit.SECONDS);
+                    if (event == null) {
+                        continue;
+                    }
+                    
+                    events.add(event);
+                    eventBuffer.drainTo(events, batchSize - 1);
+                    deliverEvents(events);
+                }
+                catch (InterruptedException e) {
+                    if (PortalEventMulticaster.this.eventBuffer != null) {
+                        logger.warn("PortalEvent consumer interrupted, no longer delivering events");
+                    }
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                finally {
+                    events.clear();
+                }
+            }
+        }
+    }
+}
@@ -28,6 +28,11 @@ import org.joda.time.DateTime;
  * @version $Revision$
  */
 public interface IEventAggregatorStatus {
+    /**
+     * Partition of the status that tracks processing of all events
+     */
+    int NO_PARTITION = -1;
+    
     /**
      * Types of aggregator processing
      */
@@ -47,6 +52,11 @@ public interface IEventAggregatorStatus {
      */
     ProcessingType getProcessingType();
     
+    /**
+     * @return Partition of the events the status tracks, {@link #NO_PARTITION} if the status tracks all events
+     */
+    int getPartition();
+    
     /**
      * @return Server name that last ran the processing
      */
@@ -0,0 +1,128 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.aggr;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.joda.time.DateTime;
+
+/**
+ * Accumulates aggregate data in memory per interval and group so that aggregators can write each
+ * aggregate once per interval instead of once per event. Accumulators for an interval are handed to
+ * {@link #flush(AggregationIntervalInfo, Map)} when {@link #flush(AggregationInterval)} is called for the
+ * interval, normally from {@link IPortalEventAggregator#handleIntervalBoundary(AggregationInterval, Map)},
+ * and by {@link #flushAll()} at the end of an aggregation batch.
+ * <p/>
+ * Nothing is written until one of the flush methods is called. When events move on to the next interval
+ * without a boundary notification, as happens when partitions are aggregated concurrently, the accumulators
+ * of every interval seen are kept until they are flushed so the caller controls when aggregates are written.
+ * <p/>
+ * This class is not thread safe, a buffer should be used by a single aggregation run.
+ * 
+ * @param <A> The accumulator type
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public abstract class IntervalAggregationBuffer<A> {
+    private final Map<AggregationInterval, Map<DateTime, IntervalAccumulators>> intervals = new EnumMap<AggregationInterval, Map<DateTime, IntervalAccumulators>>(AggregationInterval.class);
+    
+    /**
+     * Get the accumulator for the interval and group, creating it if needed
+     */
+    public final A getAccumulator(AggregationIntervalInfo intervalInfo, AggregatedGroupMapping aggregatedGroup) {
+        final AggregationInterval interval = intervalInfo.getAggregationInterval();
+        
+        Map<DateTime, IntervalAccumulators> pendingIntervals = this.intervals.get(interval);
+        if (pendingIntervals == null) {
+            pendingIntervals = new LinkedHashMap<DateTime, IntervalAccumulators>();
+            this.intervals.put(interval, pendingIntervals);
+        }
+        
+        IntervalAccumulators intervalAccumulators = pendingIntervals.get(intervalInfo.getStart());
+        if (intervalAccumulators == null) {
+            intervalAccumulators = new IntervalAccumulators(intervalInfo);
+            pendingIntervals.put(intervalInfo.getStart(), intervalAccumulators);
+        }
+        
+        A accumulator = intervalAccumulators.accumulators.get(aggregatedGroup);
+        if (accumulator == null) {
+            accumulator = this.createAccumulator();
+            intervalAccumulators.accumulators.put(aggregatedGroup, accumulator);
+        }
+        return accumulator;
+    }
+    
+    /**
+     * Write out and discard the accumulators for the interval, oldest first
+     */
+    public final void flush(AggregationInterval interval) {
+        final Map<DateTime, IntervalAccumulators> pendingIntervals = this.intervals.remove(interval);
+        if (pendingIntervals == null) {
+            return;
+        }
+        
+        for (final IntervalAccumulators intervalAccumulators : pendingIntervals.values()) {
+            if (!intervalAccumulators.accumulators.isEmpty()) {
+                this.flush(intervalAccumulators.intervalInfo, intervalAccumulators.accumulators);
+            }
+        }
+    }
+    
+    /**
+     * Write out and discard all accumulators
+     */
+    public final void flushAll() {
+        for (final AggregationInterval interval : AggregationInterval.values()) {
+            this.flush(interval);
+        }
+    }
+    
+    /**
+     * @return true if no accumulators are buffered
+     */
+    public final boolean isEmpty() {
+        return this.intervals.isEmpty();
+    }
+    
+    /**
+     * @return A new, empty accumulator
+     */
+    protected abstract A createAccumulator();
+    
+    /**
+     * Write the accumulated data for an interval
+     * 
+     * @param intervalInfo The interval the data was accumulated for
+     * @param accumulators The accumulators for each group that had data in the interval
+     */
+    protected abstract void flush(AggregationIntervalInfo intervalInfo, Map<AggregatedGroupMapping, A> accumulators);
+    
+    private final class IntervalAccumulators {
+        private final AggregationIntervalInfo intervalInfo;
+        private final Map<AggregatedGroupMapping, A> accumulators = new LinkedHashMap<AggregatedGroupMapping, A>();
+        
+        public IntervalAccumulators(AggregationIntervalInfo intervalInfo) {
+            this.intervalInfo = intervalInfo;
+        }
+    }
+}
@@ -22,6 +22,7 @@ package org.jasig.portal.events.aggr;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -57,6 +58,7 @@ import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 import org.springframework.transaction.support.TransactionOperations;
 import org.springframework.transaction.support.TransactionTemplate;
 
@@ -72,6 +74,7 @@ import com.google.common.collect.Maps;
 public class PortalEventAggregationManagerImpl implements IPortalEventAggregationManager {
     private static final String DIMENSION_LOCK_NAME = PortalEventAggregationManagerImpl.class.getName() + ".DIMENSION_LOCK";
     private static final String AGGREGATION_LOCK_NAME = PortalEventAggregationManagerImpl.class.getName() + ".AGGREGATION_LOCK";
+    private static final String AGGREGATION_PARTITION_LOCK_NAME_PREFIX = PortalEventAggregationManagerImpl.class.getName() + ".AGGREGATION_PARTITION_LOCK.";
     private static final String PURGE_RAW_EVENTS_LOCK_NAME = PortalEventAggregationManagerImpl.class.getName() + ".PURGE_RAW_EVENTS_LOCK";
     private static final String PURGE_EVENT_SESSION_LOCK_NAME = PortalEventAggregationManagerImpl.class.getName() + ".PURGE_EVENT_SESSION_LOCK_NAME";
     
@@ -90,6 +93,7 @@ public class PortalEventAggregationManagerImpl implements IPortalEventAggregatio
     private TransactionOperations aggrEventsTransactionOperations;
     
     private int eventAggregationBatchSize = 5000;
+    private int eventAggregationPartitions = 1;
     private ReadablePeriod aggregationDelay = Period.seconds(30);
     private ReadablePeriod purgeDelay = Period.days(1);
     private ReadablePeriod dimensionBuffer = Period.days(30);
@@ -163,6 +167,19 @@ public class PortalEventAggregationManagerImpl implements IPortalEventAggregatio
         this.eventAggregationBatchSize = eventAggregationBatchSize;
     }
 
+    /**
+     * Number of partitions raw events are split into for aggregation, defaults to 1. With more than one partition
+     * each partition is aggregated under its own lock so servers (or threads) can aggregate different partitions
+     * concurrently. Events are partitioned by event session so all events for a session are in the same partition.
+     */
+    @Value("${org.jasig.portal.event.aggr.PortalEventAggregationManager.eventAggregationPartitions:1}")
+    public void setEventAggregationPartitions(int eventAggregationPartitions) {
+        if (eventAggregationPartitions < 1) {
+            throw new IllegalArgumentException("eventAggregationPartitions must be at least 1. Is: " + eventAggregationPartitions);
+        }
+        this.eventAggregationPartitions = eventAggregationPartitions;
+    }
+
     @Value("${org.jasig.portal.event.aggr.PortalEventAggregationManager.dimensionBuffer:P30D}")
     public void setDimensionBuffer(ReadablePeriod dimensionBuffer) {
         if (new Period(dimensionBuffer).toStandardDays().getDays() < 1) {
@@ -193,6 +210,73 @@ public class PortalEventAggregationManagerImpl implements IPortalEventAggregatio
 
     @Override
     public boolean aggregateRawEvents() {
+        if (this.eventAggregationPartitions > 1) {
+            return this.aggregatePartitionedRawEvents(this.eventAggregationPartitions);
+        }
+        
+        return this.aggregateRawEvents(AGGREGATION_LOCK_NAME, new Function<String, Boolean>() {
+            @Override
+            public Boolean apply(String input) {
+                return doAggregateRawEvents();
+            }
+        });
+    }
+    
+    /**
+     * Aggregate each partition that is not locked by another thread or server then complete the intervals
+     * that every partition has aggregated past.
+     */
+    protected boolean aggregatePartitionedRawEvents(final int partitionCount) {
+        //Make sure the status partitions lock on when writing aggregations exists before any partition runs
+        aggrEventsTransactionOperations.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, true);
+            }
+        });
+        
+        //Start with a different partition on each server to spread concurrently running servers over the partitions
+        final String serverName = this.portalInfoProvider.getServerName();
+        final int firstPartition = serverName != null ? (serverName.hashCode() & Integer.MAX_VALUE) % partitionCount : 0;
+        
+        boolean aggregated = false;
+        for (int i = 0; i < partitionCount; i++) {
+            final int partition = (firstPartition + i) % partitionCount;
+            aggregated = this.aggregateRawEvents(AGGREGATION_PARTITION_LOCK_NAME_PREFIX + partition, new Function<String, Boolean>() {
+                @Override
+                public Boolean apply(String input) {
+                    return doAggregateRawEvents(partition, partitionCount);
+                }
+            }) || aggregated;
+        }
+        
+        final TryLockFunctionResult<Object> result = aggrEventsTransactionOperations.execute(new TransactionCallback<TryLockFunctionResult<Object>>() {
+            @Override
+            public TryLockFunctionResult<Object> doInTransaction(TransactionStatus status) {
+                try {
+                    return clusterLockService.doInTryLock(AGGREGATION_LOCK_NAME, new FunctionWithoutResult<String>() {
+                        @Override
+                        protected void applyWithoutResult(String input) {
+                            doCompleteAggregationIntervals(partitionCount);
+                        }
+                    });
+                }
+                catch (InterruptedException e) {
+                    logger.warn("Interrupted while completing aggregation intervals", e);
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        });
+        
+        return aggregated || (result != null && result.isExecuted());
+    }
+    
+    /**
+     * Run the aggregation function under the named lock, repeating while it reports that not all events were
+     * aggregated in a single transaction.
+     */
+    private boolean aggregateRawEvents(final String lockName, final Function<String, Boolean> aggregationFunction) {
         TryLockFunctionResult<Boolean> result = null;
         do {
             if (result != null) {
@@ -203,12 +287,7 @@ public class PortalEventAggregationManagerImpl implements IPortalEventAggregatio
                 @Override
                 public TryLockFunctionResult<Boolean> doInTransaction(TransactionStatus status) {
                     try {
-                        return clusterLockService.doInTryLock(AGGREGATION_LOCK_NAME, new Function<String, Boolean>() {
-                            @Override
-                            public Boolean apply(String input) {
-                                return doAggregateRawEvents();
-                            }
-                        });
+                        return clusterLockService.doInTryLock(lockName, aggregationFunction);
                     }
                     catch (InterruptedException e) {
                         logger.warn("Interrupted while aggregating", e);
@@ -404,13 +483,7 @@ public class PortalEventAggregationManagerImpl implements IPortalEventAggregatio
      * @return true if all events for the time period were aggregated, false if not
      */
     boolean doAggregateRawEvents() {
-        if (!this.checkedDimensions.get() && this.checkedDimensions.compareAndSet(false, true)) {
-            //First time aggregation has happened, run populateDimensions to ensure enough dimension data exists
-            final boolean populatedDimensions = this.populateDimensions();
-            if (!populatedDimensions) {
-                this.logger.warn("First time doAggregateRawEvents has run and populateDimensions returned false, assuming current dimension data is available");
-            }
-        }
+        this.checkDimensions();
 
         final IEventAggregatorStatus eventAggregatorStatus = eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, true);
         
@@ -432,7 +505,8 @@ public class PortalEventAggregationManagerImpl implements IPortalEventAggregatio
         //Do aggregation, capturing the start and end dates
         eventAggregatorStatus.setLastStart(DateTime.now());
         final long start = System.nanoTime();
-        portalEventDao.aggregatePortalEvents(lastAggregated, newestEventTime, this.eventAggregationBatchSize, new AggregateEventsHandler(events, eventAggregatorStatus));
+        final Set<Class<? extends PortalEvent>> eventTypes = this.getAggregatedEventTypes(lastAggregated, newestEventTime);
+        portalEventDao.aggregatePortalEvents(lastAggregated, newestEventTime, this.eventAggregationBatchSize, eventTypes, new AggregateEventsHandler(events, eventAggregatorStatus, true));
         eventAggregatorStatus.setLastEnd(new DateTime());
         
         logger.debug("Aggregated {} events between {} and {} in {}ms", new Object[] { events, lastAggregated, newestEventTime, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) });
@@ -442,6 +516,148 @@ public class PortalEventAggregationManagerImpl implements IPortalEventAggregatio
         
         return this.eventAggregationBatchSize <= 0 || events.intValue() < this.eventAggregationBatchSize;
     }
+    
+    /**
+     * Aggregate the events in one partition. Interval boundaries are not handled here, they are handled by
+     * {@link #doCompleteAggregationIntervals(int)} once every partition has aggregated past them.
+     * 
+     * @return true if all events in the partition for the time period were aggregated, false if not
+     */
+    boolean doAggregateRawEvents(int partition, int partitionCount) {
+        this.checkDimensions();
+        
+        final IEventAggregatorStatus eventAggregatorStatus = eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, partition, true);
+        
+        //Update status with current server name
+        final String serverName = this.portalInfoProvider.getServerName();
+        eventAggregatorStatus.setServerName(serverName);
+        
+        //Calculate date range for aggregation, a new partition continues from the completed intervals
+        final IEventAggregatorStatus aggregationStatus = eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, false);
+        DateTime lastAggregated = eventAggregatorStatus.getLastEventDate();
+        if (lastAggregated == null && aggregationStatus != null) {
+            lastAggregated = aggregationStatus.getLastEventDate();
+        }
+        if (lastAggregated == null) {
+            lastAggregated = new DateTime(0);
+        }
+        
+        final DateTime newestEventTime = DateTime.now().minus(this.aggregationDelay).secondOfMinute().roundFloorCopy();
+        
+        logger.debug("Starting aggregation of partition {} events between {} (inc) and {} (exc)", new Object[] { partition, lastAggregated, newestEventTime });
+        final MutableInt events = new MutableInt();
+        
+        //Do aggregation, capturing the start and end dates
+        eventAggregatorStatus.setLastStart(DateTime.now());
+        final long start = System.nanoTime();
+        final Set<Class<? extends PortalEvent>> eventTypes = this.getAggregatedEventTypes(lastAggregated, newestEventTime);
+        portalEventDao.aggregatePortalEvents(lastAggregated, newestEventTime, this.eventAggregationBatchSize, eventTypes, partition, partitionCount, new AggregateEventsHandler(events, eventAggregatorStatus, false));
+        eventAggregatorStatus.setLastEnd(new DateTime());
+        
+        logger.debug("Aggregated {} partition {} events between {} and {} in {}ms", new Object[] { events, partition, lastAggregated, newestEventTime, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) });
+        
+        final boolean complete = this.eventAggregationBatchSize <= 0 || events.intValue() < this.eventAggregationBatchSize;
+        if (complete) {
+            //Record that the partition is aggregated up to the end time so intervals can complete even if it had no events
+            eventAggregatorStatus.setLastEventDate(newestEventTime);
+        }
+
+        //Store the results of the aggregation
+        eventAggregationManagementDao.updateEventAggregatorStatus(eventAggregatorStatus);
+        
+        //Partitions update the same aggregations. Aggregators only buffer while the partition is scanned and write
+        //their aggregations when the transaction commits, take the shared status lock now so the writes are serialized
+        if (aggregationStatus != null) {
+            eventAggregationManagementDao.lockEventAggregatorStatus(aggregationStatus);
+        }
+        
+        return complete;
+    }
+    
+    /**
+     * Handle the boundaries of all intervals that every partition has aggregated past. The date of the last
+     * event on the {@link ProcessingType#AGGREGATION} status tracks how far intervals have been completed.
+     */
+    void doCompleteAggregationIntervals(int partitionCount) {
+        final IEventAggregatorStatus eventAggregatorStatus = eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, true);
+        
+        //Keep partitions from writing aggregations while intervals are completed
+        eventAggregationManagementDao.lockEventAggregatorStatus(eventAggregatorStatus);
+        
+        //Intervals can be completed up to the point every partition has been aggregated to
+        DateTime completeTo = null;
+        for (int partition = 0; partition < partitionCount; partition++) {
+            final IEventAggregatorStatus partitionStatus = eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, partition, false);
+            if (partitionStatus == null || partitionStatus.getLastEventDate() == null) {
+                logger.debug("Partition {} has not been aggregated yet, no intervals can be completed", partition);
+                return;
+            }
+            
+            final DateTime partitionLastEventDate = partitionStatus.getLastEventDate();
+            if (completeTo == null || partitionLastEventDate.isBefore(completeTo)) {
+                completeTo = partitionLastEventDate;
+            }
+        }
+        
+        DateTime completedTo = eventAggregatorStatus.getLastEventDate();
+        if (completedTo == null) {
+            completedTo = this.portalEventDao.getOldestPortalEventTimestamp();
+        }
+        if (completedTo == null || !completedTo.isBefore(completeTo)) {
+            return;
+        }
+        
+        logger.debug("Completing aggregation intervals between {} and {}", completedTo, completeTo);
+        
+        eventAggregatorStatus.setServerName(this.portalInfoProvider.getServerName());
+        eventAggregatorStatus.setLastStart(DateTime.now());
+        
+        final AggregateEventsHandler aggregateEventsHandler = new AggregateEventsHandler(new MutableInt(), eventAggregatorStatus, true);
+        for (final AggregationInterval interval : AggregationInterval.values()) {
+            aggregateEventsHandler.doHandleIntervalBoundaries(interval, completedTo, completeTo);
+        }
+        
+        eventAggregatorStatus.setLastEventDate(completeTo);
+        eventAggregatorStatus.setLastEnd(new DateTime());
+        eventAggregationManagementDao.updateEventAggregatorStatus(eventAggregatorStatus);
+    }
+    
+    private void checkDimensions() {
+        if (!this.checkedDimensions.get() && this.checkedDimensions.compareAndSet(false, true)) {
+            //First time aggregation has happened, run populateDimensions to ensure enough dimension data exists
+            final boolean populatedDimensions = this.populateDimensions();
+            if (!populatedDimensions) {
+                this.logger.warn("First time doAggregateRawEvents has run and populateDimensions returned false, assuming current dimension data is available");
+            }
+        }
+    }
+
+    /**
+     * Determine the event types in the time range that need to be aggregated, filtering by type in the
+     * persistent store avoids loading events that no aggregator would use. The store marks the events of
+     * the other types as aggregated so they are not considered again.
+     */
+    protected Set<Class<? extends PortalEvent>> getAggregatedEventTypes(DateTime start, DateTime end) {
+        final Set<Class<? extends PortalEvent>> eventTypes = new HashSet<Class<? extends PortalEvent>>();
+        
+        for (final Class<? extends PortalEvent> eventType : portalEventDao.getPortalEventTypes(start, end)) {
+            //Login events are always needed to create event sessions
+            if (LoginEvent.class.isAssignableFrom(eventType)) {
+                eventTypes.add(eventType);
+                continue;
+            }
+            
+            for (final IPortalEventAggregator<PortalEvent> portalEventAggregator : portalEventAggregators) {
+                if (portalEventAggregator.supports(eventType)) {
+                    eventTypes.add(eventType);
+                    break;
+                }
+            }
+        }
+        
+        logger.debug("Aggregating event types {} between {} and {}", new Object[] { eventTypes, start, end });
+        return eventTypes;
+    }
 
     void doPurgeRawEvents() {
         final IEventAggregatorStatus eventPurgerStatus = eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.PURGING, true);
@@ -481,6 +697,7 @@ public class PortalEventAggregationManagerImpl implements IPortalEventAggregatio
     private final class AggregateEventsHandler extends FunctionWithoutResult<PortalEvent> {
         private final MutableInt eventCounter;
         private final IEventAggregatorStatus eventAggregatorStatus;
+        private final boolean handleIntervalBoundaries;
         
         private final Map<AggregationInterval, AggregationIntervalInfo> currentIntervalInfo = new EnumMap<AggregationInterval, AggregationIntervalInfo>(AggregationInterval.class);
         private final Map<AggregationInterval, AggregationIntervalInfo> readOnlyIntervalInfo = Collections.unmodifiableMap(currentIntervalInfo);
@@ -493,9 +710,13 @@ public class PortalEventAggregationManagerImpl implements IPortalEventAggregatio
         private final AggregatedIntervalConfig defaultAggregatedIntervalConfig;
         
         
-        private AggregateEventsHandler(MutableInt eventCounter, IEventAggregatorStatus eventAggregatorStatus) {
+        /**
+         * @param handleIntervalBoundaries If aggregators should be notified of interval boundaries crossed by the events
+         */
+        private AggregateEventsHandler(MutableInt eventCounter, IEventAggregatorStatus eventAggregatorStatus, boolean handleIntervalBoundaries) {
             this.eventCounter = eventCounter;
             this.eventAggregatorStatus = eventAggregatorStatus;
+            this.handleIntervalBoundaries = handleIntervalBoundaries;
             this.defaultAggregatedGroupConfig = eventAggregationManagementDao.getDefaultAggregatedGroupConfig();
             this.defaultAggregatedIntervalConfig = eventAggregationManagementDao.getDefaultAggregatedIntervalConfig();
         }
@@ -580,7 +801,31 @@ public class PortalEventAggregationManagerImpl implements IPortalEventAggregatio
             }
         }
         
+        /**
+         * Handle the boundary of each interval that ends after the start and at or before the end. The interval
+         * containing the start may have been aggregated before the start so it is always handled, after that only
+         * intervals that contain events are handled as no aggregations exist for the intervals in between.
+         */
+        private void doHandleIntervalBoundaries(AggregationInterval interval, DateTime start, DateTime end) {
+            AggregationIntervalInfo intervalInfo = intervalHelper.getIntervalInfo(interval, start);
+            while (intervalInfo != null && !intervalInfo.getEnd().isAfter(end)) {
+                this.currentIntervalInfo.put(interval, intervalInfo);
+                this.doHandleIntervalBoundary(interval, this.currentIntervalInfo);
+                
+                //Skip ahead to the interval of the next event instead of walking every empty interval
+                final DateTime nextEventDate = portalEventDao.getOldestPortalEventTimestamp(intervalInfo.getEnd(), end);
+                if (nextEventDate == null) {
+                    return;
+                }
+                intervalInfo = intervalHelper.getIntervalInfo(interval, nextEventDate);
+            }
+        }
+        
         private void doHandleIntervalBoundary(AggregationInterval interval, Map<AggregationInterval, AggregationIntervalInfo> intervals) {
+            if (!this.handleIntervalBoundaries) {
+                return;
+            }
+            
             for (final IPortalEventAggregator<PortalEvent> portalEventAggregator : portalEventAggregators) {
                 
                 final Class<? extends IPortalEventAggregator> aggregatorType = portalEventAggregator.getClass();
@@ -42,10 +42,23 @@ public interface IEventAggregationManagementDao {
      */
     IEventAggregatorStatus getEventAggregatorStatus(IEventAggregatorStatus.ProcessingType processingType, boolean create);
     
+    /**
+     * Get the aggregation status for the specified processing type and event partition
+     * 
+     * @see IEventAggregatorStatus#getPartition()
+     */
+    IEventAggregatorStatus getEventAggregatorStatus(IEventAggregatorStatus.ProcessingType processingType, int partition, boolean create);
+    
     /**
      * Update changes to the aggregation status object
      */
     void updateEventAggregatorStatus(IEventAggregatorStatus eventAggregatorStatus);
+    
+    /**
+     * Lock the aggregation status until the current transaction completes, blocking if another
+     * transaction holds the lock. Used to serialize writes made by concurrently running aggregation partitions.
+     */
+    void lockEventAggregatorStatus(IEventAggregatorStatus eventAggregatorStatus);
 
     
     /**
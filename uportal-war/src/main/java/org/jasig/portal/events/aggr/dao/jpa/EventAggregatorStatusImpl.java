@@ -59,6 +59,10 @@ class EventAggregatorStatusImpl implements IEventAggregatorStatus {
     @Enumerated(EnumType.STRING)
     private final ProcessingType processingType;
     
+    @NaturalId
+    @Column(name = "PARTITION_ID", nullable = false)
+    private final int partition;
+    
     @Column(name = "SERVER_NAME", length = 200)
     private String serverName;
     
@@ -79,12 +83,14 @@ class EventAggregatorStatusImpl implements IEventAggregatorStatus {
         this.id = -1;
         this.entityVersion = -1;
         this.processingType = null;
+        this.partition = NO_PARTITION;
     }
 
-    EventAggregatorStatusImpl(ProcessingType processingType) {
+    EventAggregatorStatusImpl(ProcessingType processingType, int partition) {
         this.id = -1;
         this.entityVersion = -1;
         this.processingType = processingType;
+        this.partition = partition;
     }
 
     @Override
@@ -132,10 +138,16 @@ class EventAggregatorStatusImpl implements IEventAggregatorStatus {
         return this.processingType;
     }
 
+    @Override
+    public int getPartition() {
+        return this.partition;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
         int result = 1;
+        result = prime * result + this.partition;
         result = prime * result + ((this.processingType == null) ? 0 : this.processingType.hashCode());
         return result;
     }
@@ -149,6 +161,8 @@ class EventAggregatorStatusImpl implements IEventAggregatorStatus {
         if (getClass() != obj.getClass())
             return false;
         EventAggregatorStatusImpl other = (EventAggregatorStatusImpl) obj;
+        if (this.partition != other.partition)
+            return false;
         if (this.processingType != other.processingType)
             return false;
         return true;
@@ -157,7 +171,7 @@ class EventAggregatorStatusImpl implements IEventAggregatorStatus {
     @Override
     public String toString() {
         return "EventAggregatorStatusImpl [id=" + this.id + ", entityVersion=" + this.entityVersion
-                + ", processingType=" + this.processingType + ", serverName=" + this.serverName + ", lastStart="
+                + ", processingType=" + this.processingType + ", partition=" + this.partition + ", serverName=" + this.serverName + ", lastStart="
                 + this.lastStart + ", lastEnd=" + this.lastEnd + ", lastEventDateTime=" + this.lastEventDateTime + "]";
     }
 }
@@ -25,6 +25,7 @@ import java.util.List;
 import java.util.Set;
 
 import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
@@ -74,6 +75,7 @@ public class JpaEventAggregationManagementDao extends BaseJpaDao implements IEve
     private String deleteAllQuarterDetailsQuery;
 
     private ParameterExpression<ProcessingType> processingTypeParameter;
+    private ParameterExpression<Integer> partitionParameter;
     private ParameterExpression<Class> aggregatorTypeParameter;
     
     private TransactionOperations transactionOperations;
@@ -97,6 +99,7 @@ public class JpaEventAggregationManagementDao extends BaseJpaDao implements IEve
     @Override
     public void afterPropertiesSet() throws Exception {
         this.processingTypeParameter = this.createParameterExpression(ProcessingType.class, "processingType");
+        this.partitionParameter = this.createParameterExpression(Integer.class, "partition");
         this.aggregatorTypeParameter = this.createParameterExpression(Class.class, "aggregatorType");
         
         this.findEventAggregatorStatusByProcessingTypeQuery = this.createCriteriaQuery(new Function<CriteriaBuilder, CriteriaQuery<EventAggregatorStatusImpl>>() {
@@ -106,7 +109,10 @@ public class JpaEventAggregationManagementDao extends BaseJpaDao implements IEve
                 final Root<EventAggregatorStatusImpl> entityRoot = criteriaQuery.from(EventAggregatorStatusImpl.class);
                 criteriaQuery.select(entityRoot);
                 criteriaQuery.where(
-                    cb.equal(entityRoot.get(EventAggregatorStatusImpl_.processingType), processingTypeParameter)
+                    cb.and(
+                        cb.equal(entityRoot.get(EventAggregatorStatusImpl_.processingType), processingTypeParameter),
+                        cb.equal(entityRoot.get(EventAggregatorStatusImpl_.partition), partitionParameter)
+                    )
                 );
                 
                 return criteriaQuery;
@@ -207,8 +213,14 @@ public class JpaEventAggregationManagementDao extends BaseJpaDao implements IEve
 
     @Override
     public IEventAggregatorStatus getEventAggregatorStatus(final ProcessingType processingType, boolean create) {
+        return this.getEventAggregatorStatus(processingType, IEventAggregatorStatus.NO_PARTITION, create);
+    }
+
+    @Override
+    public IEventAggregatorStatus getEventAggregatorStatus(final ProcessingType processingType, final int partition, boolean create) {
         final TypedQuery<EventAggregatorStatusImpl> query = this.createCachedQuery(findEventAggregatorStatusByProcessingTypeQuery);
         query.setParameter(this.processingTypeParameter, processingType);
+        query.setParameter(this.partitionParameter, partition);
 
         final List<EventAggregatorStatusImpl> resultList = query.getResultList();
         EventAggregatorStatusImpl status = DataAccessUtils.uniqueResult(resultList);
@@ -218,7 +230,7 @@ public class JpaEventAggregationManagementDao extends BaseJpaDao implements IEve
             status = this.transactionOperations.execute(new TransactionCallback<EventAggregatorStatusImpl>() {
                 @Override
                 public EventAggregatorStatusImpl doInTransaction(TransactionStatus status) {
-                    final EventAggregatorStatusImpl eventAggregatorStatus = new EventAggregatorStatusImpl(processingType);
+                    final EventAggregatorStatusImpl eventAggregatorStatus = new EventAggregatorStatusImpl(processingType, partition);
                     entityManager.persist(eventAggregatorStatus);
                     return eventAggregatorStatus;
                 }
@@ -234,6 +246,13 @@ public class JpaEventAggregationManagementDao extends BaseJpaDao implements IEve
         this.entityManager.persist(eventAggregatorStatus);
     }
 
+    @Override
+    @Transactional(value="aggrEventsTransactionManager")
+    public void lockEventAggregatorStatus(IEventAggregatorStatus eventAggregatorStatus) {
+        //Refresh instead of lock so a status changed by the previous lock holder doesn't fail the version check
+        this.entityManager.refresh(eventAggregatorStatus, LockModeType.PESSIMISTIC_WRITE);
+    }
+
     @Override
     public AggregatedGroupConfig getDefaultAggregatedGroupConfig() {
         AggregatedGroupConfig groupConfig = this.getAggregatedGroupConfig(DEFAULT_AGGREGATOR_TYPE);
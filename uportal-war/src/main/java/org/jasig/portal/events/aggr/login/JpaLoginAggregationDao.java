@@ -20,8 +20,10 @@
 package org.jasig.portal.events.aggr.login;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.persistence.EntityManager;
@@ -59,6 +61,7 @@ public class JpaLoginAggregationDao extends BaseJpaDao implements LoginAggregati
 
     private CriteriaQuery<LoginAggregationImpl> findLoginAggregationByDateTimeIntervalQuery;
     private CriteriaQuery<LoginAggregationImpl> findLoginAggregationByDateTimeIntervalGroupQuery;
+    private CriteriaQuery<LoginAggregationImpl> findLoginAggregationsByDateTimeIntervalGroupsQuery;
     private CriteriaQuery<LoginAggregationImpl> findLoginAggregationsByDateRangeQuery;
     private ParameterExpression<TimeDimension> timeDimensionParameter;
     private ParameterExpression<DateDimension> dateDimensionParameter;
@@ -132,6 +135,27 @@ public class JpaLoginAggregationDao extends BaseJpaDao implements LoginAggregati
         });
 
         
+        //User names are not fetched, aggregations that estimate unique users never load them
+        this.findLoginAggregationsByDateTimeIntervalGroupsQuery = this.createCriteriaQuery(new Function<CriteriaBuilder, CriteriaQuery<LoginAggregationImpl>>() {
+            @Override
+            public CriteriaQuery<LoginAggregationImpl> apply(CriteriaBuilder cb) {
+                final CriteriaQuery<LoginAggregationImpl> criteriaQuery = cb.createQuery(LoginAggregationImpl.class);
+                final Root<LoginAggregationImpl> root = criteriaQuery.from(LoginAggregationImpl.class);
+                criteriaQuery.select(root);
+                criteriaQuery.where(
+                        cb.and(
+                            cb.equal(root.get(LoginAggregationImpl_.dateDimension), dateDimensionParameter),
+                            cb.equal(root.get(LoginAggregationImpl_.timeDimension), timeDimensionParameter),
+                            cb.equal(root.get(LoginAggregationImpl_.interval), intervalParameter),
+                            root.get(LoginAggregationImpl_.aggregatedGroup).in(aggregatedGroupsParameter)
+                        )
+                    );
+                
+                return criteriaQuery;
+            }
+        });
+
+        
         this.findLoginAggregationsByDateRangeQuery = this.createCriteriaQuery(new Function<CriteriaBuilder, CriteriaQuery<LoginAggregationImpl>>() {
             @Override
             public CriteriaQuery<LoginAggregationImpl> apply(CriteriaBuilder cb) {
@@ -205,5 +229,38 @@ public class JpaLoginAggregationDao extends BaseJpaDao implements LoginAggregati
     public void updateLoginAggregation(LoginAggregationImpl loginAggregation) {
         this.entityManager.persist(loginAggregation);
     }
+    
+    @Transactional("aggrEvents")
+    @Override
+    public void updateLoginAggregations(DateDimension dateDimension, TimeDimension timeDimension, AggregationInterval interval, Map<AggregatedGroupMapping, LoginAccumulator> accumulators) {
+        if (accumulators.isEmpty()) {
+            return;
+        }
+        
+        final Map<AggregatedGroupMapping, LoginAccumulator> remaining = new LinkedHashMap<AggregatedGroupMapping, LoginAccumulator>(accumulators);
+        
+        final TypedQuery<LoginAggregationImpl> query = this.createQuery(this.findLoginAggregationsByDateTimeIntervalGroupsQuery);
+        query.setParameter(this.dateDimensionParameter, dateDimension);
+        query.setParameter(this.timeDimensionParameter, timeDimension);
+        query.setParameter(this.intervalParameter, interval);
+        query.setParameter(this.aggregatedGroupsParameter, ImmutableSet.copyOf(accumulators.keySet()));
+        
+        for (final LoginAggregationImpl loginAggregation : query.getResultList()) {
+            final LoginAccumulator accumulator = remaining.remove(loginAggregation.getAggregatedGroup());
+            if (accumulator != null) {
+                loginAggregation.countUsers(accumulator);
+            }
+        }
+        
+        //Create any left over groups
+        for (final Map.Entry<AggregatedGroupMapping, LoginAccumulator> accumulatorEntry : remaining.entrySet()) {
+            final LoginAggregationImpl loginAggregation = new LoginAggregationImpl(timeDimension, dateDimension, interval, accumulatorEntry.getKey());
+            loginAggregation.countUsers(accumulatorEntry.getValue());
+            this.entityManager.persist(loginAggregation);
+        }
+        
+        //Write the interval now so its inserts and updates go out as one JDBC batch
+        this.entityManager.flush();
+    }
         
 }
@@ -0,0 +1,90 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.events.aggr.login;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jasig.portal.utils.HyperLogLog;
+
+/**
+ * Logins and distinct users for one group in one interval, accumulated in memory and added to the
+ * {@link LoginAggregationImpl} for the interval when the buffer is flushed.
+ * <p/>
+ * When unique users are estimated only the counters and a {@link HyperLogLog} of the users are kept, which is
+ * merged into the aggregation's sketch. Otherwise the distinct user names are kept as the aggregation stores
+ * each of them.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+final class LoginAccumulator {
+    private final HyperLogLog uniqueUsers;
+    private final Set<String> userNames;
+    private int loginCount;
+    private int duration;
+    
+    /**
+     * @param uniqueUserSketchPrecision Precision of the unique user estimator, -1 to track user names instead
+     */
+    public LoginAccumulator(int uniqueUserSketchPrecision) {
+        if (uniqueUserSketchPrecision < 0) {
+            this.uniqueUsers = null;
+            this.userNames = new HashSet<String>();
+        }
+        else {
+            this.uniqueUsers = new HyperLogLog(uniqueUserSketchPrecision);
+            this.userNames = Collections.emptySet();
+        }
+    }
+    
+    public void countUser(String userName, int duration) {
+        if (this.uniqueUsers != null) {
+            this.uniqueUsers.offer(userName);
+        }
+        else {
+            this.userNames.add(userName);
+        }
+        this.loginCount++;
+        this.duration = Math.max(this.duration, duration);
+    }
+    
+    /**
+     * @return The estimator of the users counted, null if user names are tracked
+     */
+    public HyperLogLog getUniqueUsers() {
+        return this.uniqueUsers;
+    }
+    
+    /**
+     * @return The distinct user names counted, empty if unique users are estimated
+     */
+    public Set<String> getUserNames() {
+        return this.userNames;
+    }
+    
+    public int getLoginCount() {
+        return this.loginCount;
+    }
+    
+    public int getDuration() {
+        return this.duration;
+    }
+}
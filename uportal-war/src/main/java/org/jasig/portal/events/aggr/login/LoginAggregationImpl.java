@@ -20,6 +20,7 @@
 package org.jasig.portal.events.aggr.login;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
@@ -36,10 +37,13 @@ import javax.persistence.Inheritance;
 import javax.persistence.InheritanceType;
 import javax.persistence.JoinColumn;
 import javax.persistence.JoinTable;
+import javax.persistence.Lob;
 import javax.persistence.ManyToOne;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 import javax.persistence.TableGenerator;
+import javax.persistence.Transient;
+import javax.persistence.Version;
 
 import org.apache.commons.lang.Validate;
 import org.hibernate.annotations.Cache;
@@ -52,6 +56,7 @@ import org.jasig.portal.events.aggr.dao.jpa.DateDimensionImpl;
 import org.jasig.portal.events.aggr.dao.jpa.TimeDimensionImpl;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMappingImpl;
+import org.jasig.portal.utils.HyperLogLog;
 
 /**
  * @author Eric Dalquist
@@ -81,6 +86,10 @@ public class LoginAggregationImpl implements LoginAggregation, Serializable {
     @SuppressWarnings("unused")
     private final long id;
     
+    @Version
+    @Column(name = "ENTITY_VERSION")
+    private final long entityVersion;
+    
     @NaturalId
     @ManyToOne(targetEntity=TimeDimensionImpl.class)
     @JoinColumn(name = "TIME_DIMENSION_ID", nullable = false)
@@ -110,16 +119,34 @@ public class LoginAggregationImpl implements LoginAggregation, Serializable {
     @Column(name = "UNIQUE_LOGIN_COUNT", nullable = false)
     private int uniqueLoginCount;
     
-    @ElementCollection(fetch=FetchType.EAGER)
+    @ElementCollection(fetch=FetchType.LAZY)
     @JoinTable(
             name = "UP_LOGIN_EVENT_AGGREGATE__UIDS",
             joinColumns = @JoinColumn(name = "LOGIN_AGGR_ID")
         )
     private Set<String> uniqueUserNames = new LinkedHashSet<String>();
     
+    /**
+     * {@link HyperLogLog} registers, when set unique users are estimated instead of tracked in uniqueUserNames
+     */
+    @Lob
+    @Column(name = "UNIQUE_USER_SKETCH")
+    private byte[] uniqueUserSketch;
+    
+    @Transient
+    private transient HyperLogLog uniqueUserEstimator;
+    
+    /**
+     * Set by {@link #intervalComplete(int)}, aggregations that use a sketch keep it once complete so the
+     * empty uniqueUserNames can't be used to detect completion. Null for rows stored before the column existed.
+     */
+    @Column(name = "INTERVAL_COMPLETE")
+    private Boolean complete;
+    
     @SuppressWarnings("unused")
     private LoginAggregationImpl() {
         this.id = -1;
+        this.entityVersion = -1;
         this.timeDimension = null;
         this.dateDimension = null;
         this.interval = null;
@@ -134,6 +161,7 @@ public class LoginAggregationImpl implements LoginAggregation, Serializable {
         Validate.notNull(aggregatedGroup);
         
         this.id = -1;
+        this.entityVersion = -1;
         this.timeDimension = timeDimension;
         this.dateDimension = dateDimension;
         this.interval = interval;
@@ -184,14 +212,122 @@ public class LoginAggregationImpl implements LoginAggregation, Serializable {
     void countUser(String userName) {
         checkState();
         
-        if (this.uniqueUserNames.add(userName)) {
+        if (this.uniqueUserSketch != null) {
+            final HyperLogLog estimator = this.getUniqueUserEstimator();
+            if (estimator.offer(userName)) {
+                this.uniqueLoginCount = (int) estimator.cardinality();
+            }
+        }
+        else if (this.uniqueUserNames.add(userName)) {
             this.uniqueLoginCount++;
         }
         this.loginCount++;
     }
     
+    /**
+     * Add the logins accumulated for part of the interval
+     * 
+     * @param logins The number of logins
+     * @param userNames The distinct users that logged in
+     */
+    void countUsers(int logins, Collection<String> userNames) {
+        checkState();
+        
+        if (this.uniqueUserSketch != null) {
+            final HyperLogLog estimator = this.getUniqueUserEstimator();
+            boolean changed = false;
+            for (final String userName : userNames) {
+                changed |= estimator.offer(userName);
+            }
+            if (changed) {
+                this.uniqueLoginCount = (int) estimator.cardinality();
+            }
+        }
+        else {
+            for (final String userName : userNames) {
+                if (this.uniqueUserNames.add(userName)) {
+                    this.uniqueLoginCount++;
+                }
+            }
+        }
+        this.loginCount += logins;
+    }
+    
+    /**
+     * Add the logins accumulated for part of the interval. If the accumulator estimated unique users the
+     * aggregation switches to a sketch of the same precision and the estimators are merged.
+     * 
+     * @throws IllegalArgumentException If the aggregation already has a sketch of a different precision
+     */
+    void countUsers(LoginAccumulator accumulator) {
+        checkState();
+        
+        this.duration = accumulator.getDuration();
+        
+        final HyperLogLog uniqueUsers = accumulator.getUniqueUsers();
+        if (uniqueUsers == null) {
+            this.countUsers(accumulator.getLoginCount(), accumulator.getUserNames());
+            return;
+        }
+        
+        this.useUniqueUserSketch(uniqueUsers.getPrecision());
+        final HyperLogLog estimator = this.getUniqueUserEstimator();
+        estimator.merge(uniqueUsers);
+        this.uniqueLoginCount = (int) estimator.cardinality();
+        this.loginCount += accumulator.getLoginCount();
+    }
+    
+    /**
+     * Switch from tracking unique user names to estimating unique users with a {@link HyperLogLog}
+     * of the specified precision. The names seen so far are added to the estimator and discarded.
+     * Does nothing if the aggregation is already using an estimator.
+     */
+    void useUniqueUserSketch(int precision) {
+        if (this.uniqueUserSketch != null) {
+            return;
+        }
+        checkState();
+        
+        final HyperLogLog estimator = new HyperLogLog(precision);
+        for (final String userName : this.uniqueUserNames) {
+            estimator.offer(userName);
+        }
+        this.uniqueUserNames.clear();
+        this.uniqueUserSketch = estimator.getRegisters();
+        this.uniqueUserEstimator = estimator;
+    }
+    
+    /**
+     * @return true if unique users are estimated with a {@link HyperLogLog}
+     */
+    public boolean isUniqueUserSketch() {
+        return this.uniqueUserSketch != null;
+    }
+    
+    /**
+     * A copy of the unique user estimator, estimators for finer intervals can be merged to estimate the
+     * unique users of a coarser interval. The estimator is kept after the interval is complete.
+     * 
+     * @return null if unique users are not estimated, see {@link #isUniqueUserSketch()}
+     */
+    public HyperLogLog getUniqueUserSketch() {
+        if (this.uniqueUserSketch == null) {
+            return null;
+        }
+        return HyperLogLog.wrap(this.uniqueUserSketch.clone());
+    }
+    
+    private HyperLogLog getUniqueUserEstimator() {
+        //Wrap the persistent array so changes are picked up by the dirty check
+        if (this.uniqueUserEstimator == null || this.uniqueUserEstimator.getRegisters() != this.uniqueUserSketch) {
+            this.uniqueUserEstimator = HyperLogLog.wrap(this.uniqueUserSketch);
+        }
+        return this.uniqueUserEstimator;
+    }
+    
     private void checkState() {
-        if (this.loginCount > 0 && this.uniqueUserNames.isEmpty()) {
+        if ((this.complete != null && this.complete) || 
+                (this.loginCount > 0 && this.uniqueUserNames.isEmpty() && this.uniqueUserSketch == null)) {
             throw new IllegalStateException("intervalComplete has been called, countUser can no longer be called");
         }
     }
@@ -199,6 +335,7 @@ public class LoginAggregationImpl implements LoginAggregation, Serializable {
     void intervalComplete(int duration) {
         this.duration = duration;
         this.uniqueUserNames.clear();
+        this.complete = true;
     }
 
     @Override
@@ -19,6 +19,8 @@
 
 package org.jasig.portal.events.aggr.login;
 
+import java.util.Map;
+
 import org.jasig.portal.events.aggr.DateDimension;
 import org.jasig.portal.events.aggr.AggregationInterval;
 import org.jasig.portal.events.aggr.TimeDimension;
@@ -38,5 +40,12 @@ interface LoginAggregationPrivateDao extends LoginAggregationDao<LoginAggregatio
     LoginAggregationImpl createLoginAggregation(DateDimension dateDimension, TimeDimension timeDimension, AggregationInterval interval, AggregatedGroupMapping aggregatedGroup);
     
     void updateLoginAggregation(LoginAggregationImpl loginAggregation);
+    
+    /**
+     * Add the accumulated logins to the aggregations of each group for the date, time and interval, creating the
+     * aggregations that do not exist yet. The existing aggregations are loaded with a single query and all of
+     * the inserts and updates for the interval are written together.
+     */
+    void updateLoginAggregations(DateDimension dateDimension, TimeDimension timeDimension, AggregationInterval interval, Map<AggregatedGroupMapping, LoginAccumulator> accumulators);
 
 }
\ No newline at end of file
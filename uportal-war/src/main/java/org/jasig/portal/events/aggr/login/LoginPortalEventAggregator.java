@@ -27,17 +27,22 @@ import org.jasig.portal.events.LoginEvent;
 import org.jasig.portal.events.PortalEvent;
 import org.jasig.portal.events.aggr.DateDimension;
 import org.jasig.portal.events.aggr.IPortalEventAggregator;
+import org.jasig.portal.events.aggr.IntervalAggregationBuffer;
 import org.jasig.portal.events.aggr.AggregationInterval;
 import org.jasig.portal.events.aggr.AggregationIntervalInfo;
 import org.jasig.portal.events.aggr.TimeDimension;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.jasig.portal.events.aggr.session.EventSession;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
- * Event aggregator that uses {@link LoginAggregationPrivateDao} to aggregate login events 
+ * Event aggregator that uses {@link LoginAggregationPrivateDao} to aggregate login events. Within a transaction
+ * logins are accumulated in memory and each aggregation is written once per interval boundary or commit.
  * 
  * @author Eric Dalquist
  * @version $Revision$
@@ -45,6 +50,8 @@ import org.springframework.transaction.annotation.Transactional;
 @Service
 public class LoginPortalEventAggregator implements IPortalEventAggregator<LoginEvent> {
     private LoginAggregationPrivateDao loginAggregationDao;
+    private boolean uniqueUserSketch = false;
+    private int uniqueUserSketchPrecision = 12;
 
     @Override
     public boolean supports(Class<? extends PortalEvent> type) {
@@ -56,13 +63,45 @@ public class LoginPortalEventAggregator implements IPortalEventAggregator<LoginE
         this.loginAggregationDao = loginAggregationDao;
     }
 
+    /**
+     * If true unique logins are estimated with a {@link org.jasig.portal.utils.HyperLogLog} instead of
+     * storing every user name seen in the interval. Aggregations already in progress are converted
+     * the next time they are updated. Defaults to false.
+     */
+    @Value("${org.jasig.portal.events.aggr.login.LoginPortalEventAggregator.uniqueUserSketch:false}")
+    public void setUniqueUserSketch(boolean uniqueUserSketch) {
+        this.uniqueUserSketch = uniqueUserSketch;
+    }
+
+    /**
+     * Precision of the unique user estimator, uses 2^precision bytes per aggregation with a relative
+     * standard error of 1.04/sqrt(2^precision). Defaults to 12, 4KB with a 1.6% error. Sketches of different
+     * precisions can't be merged so it should only be changed once the intervals in progress are complete.
+     */
+    @Value("${org.jasig.portal.events.aggr.login.LoginPortalEventAggregator.uniqueUserSketchPrecision:12}")
+    public void setUniqueUserSketchPrecision(int uniqueUserSketchPrecision) {
+        this.uniqueUserSketchPrecision = uniqueUserSketchPrecision;
+    }
+
     @Transactional("aggrEvents")
     @Override
     public void aggregateEvent(LoginEvent e, EventSession eventSession, Map<AggregationInterval, AggregationIntervalInfo> currentIntervals) {
+        final LoginAggregationBuffer buffer = this.getTransactionBuffer();
         
         for (Map.Entry<AggregationInterval, AggregationIntervalInfo> intervalInfoEntry : currentIntervals.entrySet()) {
-            final AggregationInterval interval = intervalInfoEntry.getKey();
             final AggregationIntervalInfo intervalInfo = intervalInfoEntry.getValue();
+            
+            if (buffer != null) {
+                //Accumulate in memory, written out at the interval boundary or when the transaction commits
+                final String userName = e.getUserName();
+                final int duration = intervalInfo.getDurationTo(e.getTimestampAsDate());
+                for (final AggregatedGroupMapping aggregatedGroup : eventSession.getGroupMappings()) {
+                    buffer.getAccumulator(intervalInfo, aggregatedGroup).countUser(userName, duration);
+                }
+                continue;
+            }
+            
+            final AggregationInterval interval = intervalInfoEntry.getKey();
             final DateDimension dateDimension = intervalInfo.getDateDimension();
             final TimeDimension timeDimension = intervalInfo.getTimeDimension();
             
@@ -89,12 +128,21 @@ public class LoginPortalEventAggregator implements IPortalEventAggregator<LoginE
         final String userName = e.getUserName();
         final int duration = intervalInfo.getDurationTo(e.getTimestampAsDate());
         loginAggregation.setDuration(duration);
+        if (this.uniqueUserSketch) {
+            loginAggregation.useUniqueUserSketch(this.uniqueUserSketchPrecision);
+        }
         loginAggregation.countUser(userName);
     }
 
     @Transactional("aggrEvents")
     @Override
     public void handleIntervalBoundary(AggregationInterval interval, Map<AggregationInterval, AggregationIntervalInfo> intervals) {
+        //Write out anything accumulated for the interval before completing it
+        final LoginAggregationBuffer buffer = (LoginAggregationBuffer) TransactionSynchronizationManager.getResource(this);
+        if (buffer != null) {
+            buffer.flush(interval);
+        }
+        
         final AggregationIntervalInfo intervalInfo = intervals.get(interval);
         final DateDimension dateDimension = intervalInfo.getDateDimension();
         final TimeDimension timeDimension = intervalInfo.getTimeDimension();
@@ -106,4 +154,48 @@ public class LoginPortalEventAggregator implements IPortalEventAggregator<LoginE
             this.loginAggregationDao.updateLoginAggregation(loginAggregation);
         }
     }
+    
+    /**
+     * Get the buffer bound to the current transaction, creating it if needed. The buffer is flushed
+     * before the transaction commits and discarded if it rolls back.
+     * 
+     * @return null if there is no transaction to bind the buffer to
+     */
+    private LoginAggregationBuffer getTransactionBuffer() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        
+        LoginAggregationBuffer buffer = (LoginAggregationBuffer) TransactionSynchronizationManager.getResource(this);
+        if (buffer == null) {
+            final LoginAggregationBuffer transactionBuffer = new LoginAggregationBuffer();
+            TransactionSynchronizationManager.bindResource(this, transactionBuffer);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    transactionBuffer.flushAll();
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(LoginPortalEventAggregator.this);
+                }
+            });
+            buffer = transactionBuffer;
+        }
+        
+        return buffer;
+    }
+    
+    private final class LoginAggregationBuffer extends IntervalAggregationBuffer<LoginAccumulator> {
+        @Override
+        protected LoginAccumulator createAccumulator() {
+            return new LoginAccumulator(uniqueUserSketch ? uniqueUserSketchPrecision : -1);
+        }
+
+        @Override
+        protected void flush(AggregationIntervalInfo intervalInfo, Map<AggregatedGroupMapping, LoginAccumulator> accumulators) {
+            loginAggregationDao.updateLoginAggregations(intervalInfo.getDateDimension(), intervalInfo.getTimeDimension(), intervalInfo.getAggregationInterval(), accumulators);
+        }
+    }
 }
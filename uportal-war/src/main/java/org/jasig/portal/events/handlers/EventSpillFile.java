@@ -0,0 +1,206 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Append-only local file of length prefixed records. Used to hold events that could not be handled, for example
+ * while the database is unavailable, so they can be handled later.
+ * <p/>
+ * Records are appended to the file, {@link #replay(int, RecordHandler)} moves the file aside and hands the
+ * records back in batches. Records from a batch that fails, and all records after it, are appended back to
+ * the file. A record only partially written when the JVM stopped is ignored, as is everything after a length
+ * prefix that can't be valid. Records that can never be handled, for example because they can't be decoded, can be
+ * moved to a quarantine file with {@link #quarantine(List)} so they don't hold up the records after them.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class EventSpillFile {
+    /**
+     * Largest record that will be read, a longer length prefix is treated as the start of a partially written record
+     */
+    public static final int MAX_RECORD_LENGTH = 1024 * 1024;
+    
+    private static final Log LOG = LogFactory.getLog(EventSpillFile.class);
+    
+    /**
+     * Handles a batch of records read from the spill file
+     */
+    public interface RecordHandler {
+        void handleRecords(List<byte[]> records) throws Exception;
+    }
+    
+    private final File file;
+    private final File replayFile;
+    private final File quarantineFile;
+    
+    public EventSpillFile(File file) {
+        this.file = file;
+        this.replayFile = new File(file.getPath() + ".replay");
+        this.quarantineFile = new File(file.getPath() + ".quarantine");
+    }
+    
+    /**
+     * @return The file records are appended to
+     */
+    public File getFile() {
+        return this.file;
+    }
+    
+    /**
+     * @return The file records that can't be handled are moved to
+     */
+    public File getQuarantineFile() {
+        return this.quarantineFile;
+    }
+    
+    /**
+     * @return true if there are no records to replay
+     */
+    public synchronized boolean isEmpty() {
+        return this.file.length() == 0 && this.replayFile.length() == 0;
+    }
+    
+    /**
+     * Append the records to the end of the file
+     */
+    public synchronized void append(List<byte[]> records) throws IOException {
+        appendRecords(this.file, records);
+    }
+    
+    /**
+     * Append the records to the quarantine file, they will not be replayed
+     */
+    public synchronized void quarantine(List<byte[]> records) throws IOException {
+        appendRecords(this.quarantineFile, records);
+    }
+    
+    private static void appendRecords(File file, List<byte[]> records) throws IOException {
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory for spill file: " + parent);
+        }
+        
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        try {
+            for (final byte[] record : records) {
+                out.writeInt(record.length);
+                out.write(record);
+            }
+        }
+        finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+    
+    /**
+     * Hand the spilled records to the handler in batches, must not be called concurrently.
+     * 
+     * @return The number of records successfully handled
+     * @throws Exception The exception thrown by the handler, the records not handled are back in the file
+     */
+    public int replay(int batchSize, RecordHandler handler) throws Exception {
+        synchronized (this) {
+            //A replay file is left behind if a previous replay was interrupted, finish it before starting on new records
+            if (!this.replayFile.exists()) {
+                if (this.file.length() == 0) {
+                    return 0;
+                }
+                if (!this.file.renameTo(this.replayFile)) {
+                    throw new IOException("Failed to rename " + this.file + " to " + this.replayFile);
+                }
+            }
+        }
+        
+        int handled = 0;
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.replayFile)));
+        try {
+            for (List<byte[]> records = readRecords(in, batchSize); !records.isEmpty(); records = readRecords(in, batchSize)) {
+                try {
+                    handler.handleRecords(records);
+                    handled += records.size();
+                }
+                catch (Exception e) {
+                    //Put the failed batch and everything after it back in the spill file
+                    this.append(records);
+                    for (records = readRecords(in, batchSize); !records.isEmpty(); records = readRecords(in, batchSize)) {
+                        this.append(records);
+                    }
+                    this.deleteReplayFile(in);
+                    throw e;
+                }
+            }
+        }
+        catch (IOException e) {
+            //Leave the replay file so the remaining records are replayed next time
+            IOUtils.closeQuietly(in);
+            throw e;
+        }
+        
+        this.deleteReplayFile(in);
+        return handled;
+    }
+    
+    private void deleteReplayFile(DataInputStream in) throws IOException {
+        IOUtils.closeQuietly(in);
+        if (!this.replayFile.delete()) {
+            throw new IOException("Failed to delete " + this.replayFile + ", its records will be replayed again");
+        }
+    }
+    
+    private List<byte[]> readRecords(DataInputStream in, int batchSize) throws IOException {
+        final List<byte[]> records = new ArrayList<byte[]>(batchSize);
+        try {
+            while (records.size() < batchSize) {
+                final int length = in.readInt();
+                if (length < 0 || length > MAX_RECORD_LENGTH) {
+                    //The rest of the file can't be trusted, treat it like a partially written record
+                    final long skipped = IOUtils.skip(in, Long.MAX_VALUE);
+                    LOG.warn("Invalid record length " + length + " in " + this.replayFile + ", ignoring the last " + (skipped + 4) + " bytes");
+                    break;
+                }
+                
+                final byte[] record = new byte[length];
+                in.readFully(record);
+                records.add(record);
+            }
+        }
+        catch (EOFException e) {
+            //End of the file, or a partially written record
+        }
+        return records;
+    }
+}
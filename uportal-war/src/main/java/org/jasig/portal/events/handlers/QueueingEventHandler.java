@@ -19,21 +19,32 @@
 
 package org.jasig.portal.events.handlers;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.jasig.portal.spring.context.FilteringApplicationListener;
+import org.jasig.portal.utils.DurationHistogram;
 import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationEvent;
 
 /**
- * Queues PortalEvents in a local {@link ConcurrentLinkedQueue} and flushes the events to the configured
- * {@link BatchingEventHandler} when {@link #flush()} is called. This class must be used with some external
- * timer that will call {@link #flush()} at regular intervals
+ * Queues events in a bounded local queue and flushes the events to {@link #onApplicationEvents(Iterable)} when
+ * {@link #flush()} is called. This class must be used with some external timer that will call {@link #flush()}
+ * at regular intervals.
+ * <p/>
+ * When the queue depth reaches the high watermark the thread queueing the event flushes the queue down to the low
+ * watermark instead of waiting for the timer. Events that arrive while the queue is full, or that fail to be handled,
+ * are appended to the spill file if one is configured and the subclass can encode events, otherwise they are dropped.
+ * Spilled events are handled again by the next flush.
  * 
  * @author Eric Dalquist
  * @version $Revision$
@@ -41,9 +52,15 @@ import org.springframework.context.ApplicationEvent;
 public abstract class QueueingEventHandler<E extends ApplicationEvent> 
         extends FilteringApplicationListener<E> implements DisposableBean {
     
-    private final Queue<E> eventQueue = new ConcurrentLinkedQueue<E>();
     private final Lock flushLock = new ReentrantLock();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong spilledEvents = new AtomicLong();
+    private final DurationHistogram flushDurations = new DurationHistogram();
+    private BlockingQueue<E> eventQueue = new ArrayBlockingQueue<E>(10000);
     private int batchSize = 25;
+    private int highWatermark = 5000;
+    private int lowWatermark = 1000;
+    private EventSpillFile spillFile;
     
     //Used to hold events to flush, MUST only be read/written from within the flushLock 
     private List<E> eventBuffer = new ArrayList<E>(this.batchSize);
@@ -58,6 +75,67 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
         eventBuffer = new ArrayList<E>(this.batchSize);
     }
     
+    /**
+     * The maximum number of events held in memory, defaults to 10000. Must be set before events are queued.
+     */
+    @Value("${org.jasig.portal.events.handlers.QueueingEventHandler.queueCapacity:10000}")
+    public void setQueueCapacity(int queueCapacity) {
+        this.eventQueue = new ArrayBlockingQueue<E>(queueCapacity);
+    }
+
+    /**
+     * Queue depth that triggers a flush from the thread queueing an event, defaults to 5000
+     */
+    @Value("${org.jasig.portal.events.handlers.QueueingEventHandler.highWatermark:5000}")
+    public void setHighWatermark(int highWatermark) {
+        this.highWatermark = highWatermark;
+    }
+
+    /**
+     * Queue depth a flush triggered by the high watermark stops at, defaults to 1000
+     */
+    @Value("${org.jasig.portal.events.handlers.QueueingEventHandler.lowWatermark:1000}")
+    public void setLowWatermark(int lowWatermark) {
+        this.lowWatermark = lowWatermark;
+    }
+
+    /**
+     * Local file to append events to that can't be queued or handled, null to drop them. Spilling requires
+     * {@link #encodeEvent(ApplicationEvent)} and {@link #decodeEvent(byte[])} to be implemented. Spilled events
+     * that can't be decoded are moved to the spill file's quarantine file.
+     */
+    public void setSpillFile(File spillFile) {
+        this.spillFile = spillFile != null ? new EventSpillFile(spillFile) : null;
+    }
+    
+    /**
+     * @return The number of events waiting to be flushed
+     */
+    public int getQueueDepth() {
+        return this.eventQueue.size();
+    }
+    
+    /**
+     * @return The number of events that were dropped because the queue was full or the events failed to be handled
+     */
+    public long getDroppedEventCount() {
+        return this.droppedEvents.get();
+    }
+    
+    /**
+     * @return The number of events written to the spill file
+     */
+    public long getSpilledEventCount() {
+        return this.spilledEvents.get();
+    }
+    
+    /**
+     * @return Durations of calls to {@link #onApplicationEvents(Iterable)}
+     */
+    public DurationHistogram getFlushDurations() {
+        return this.flushDurations;
+    }
+    
     /* (non-Javadoc)
      * @see org.springframework.beans.factory.DisposableBean#destroy()
      */
@@ -71,7 +149,14 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
      */
     @Override
     protected final void onFilteredApplicationEvent(E event) {
-        this.eventQueue.offer(event);
+        if (!this.eventQueue.offer(event)) {
+            this.spillOrDrop(Collections.singletonList(event), "the queue is full");
+        }
+        
+        //Flush early instead of waiting for the timer when events are arriving faster than they are flushed
+        if (this.eventQueue.size() >= this.highWatermark) {
+            this.flush(this.lowWatermark);
+        }
     }
     
     /**
@@ -83,15 +168,38 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
     protected abstract void onApplicationEvents(Iterable<E> events);
     
     /**
-     * Flushes the queued PortalEvents to the configured {@link BatchingEventHandler}. If <code>force</code> is false
-     * flushing only happens if there are enough events in the queue and a flush isn't already under way. If 
-     * <code>force</code> is true all queued events will be flushed and the calling thread will wait until any previously
-     * executing flush call completes before flushing
+     * Encode an event to be written to the spill file, subclasses that encode events must also implement
+     * {@link #decodeEvent(byte[])}
      * 
-     * @param force Forces flushing events to the {@link BatchingEventHandler} even if there are fewer than <code>flushCount</code> PortalEvents in the queue.
+     * @return The encoded event, null if the event can't be spilled
+     */
+    protected byte[] encodeEvent(E event) {
+        return null;
+    }
+    
+    /**
+     * Decode an event read from the spill file, only called for data returned by {@link #encodeEvent(ApplicationEvent)}
+     * 
+     * @return The decoded event, null if the data can't be decoded
+     */
+    protected E decodeEvent(byte[] data) {
+        return null;
+    }
+    
+    /**
+     * Flushes all queued events to {@link #onApplicationEvents(Iterable)}, and first any events in the spill
+     * file. If a flush is already under way this returns immediately.
      */
     public final void flush() {
-        if (eventQueue.isEmpty()) {
+        this.flush(0);
+    }
+    
+    /**
+     * Flushes queued events until the queue depth is no more than <code>depth</code>
+     */
+    private void flush(int depth) {
+        final EventSpillFile spillFile = this.spillFile;
+        if (this.eventQueue.size() <= depth && (spillFile == null || spillFile.isEmpty())) {
             //No events to flush
             logger.trace("No events to flush, returning.");
             return;
@@ -104,15 +212,18 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
             return;
         }
         try {
-            while (!this.eventQueue.isEmpty()) {
+            if (spillFile != null && !this.replaySpilledEvents(spillFile)) {
+                //Spilled events still can't be handled, spill the queued events too rather than holding them in memory
+                this.spillQueuedEvents(depth);
+                return;
+            }
+            
+            while (this.eventQueue.size() > depth) {
                 //Clear the buffer for re-use
                 eventBuffer.clear();
                 
                 //Pop events off the queue into the buffer
-                while (!this.eventQueue.isEmpty() && eventBuffer.size() < this.batchSize) {
-                    final E event = eventQueue.poll();
-                    eventBuffer.add(event);
-                }
+                this.eventQueue.drainTo(eventBuffer, this.batchSize);
 
                 if (this.logger.isDebugEnabled()) {
                     this.logger.debug("Flushing " + eventBuffer.size() + " events");
@@ -120,26 +231,12 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
 
                 //Write events out to batching listener
                 try {
-                    this.onApplicationEvents(eventBuffer);
+                    this.handleEvents(eventBuffer);
                 }
                 catch (Throwable t) {
                     this.logger.error("An exception was thrown while trying to flush " + eventBuffer.size() + " events", t);
 
-                    final StringBuilder failedEvents = new StringBuilder();
-                    failedEvents.append("The following events that were being flushed, some may have been persisted correctly");
-
-                    for (final E portalEvent : eventBuffer) {
-                        failedEvents.append("\n\t");
-                        try {
-                            failedEvents.append(portalEvent.toString());
-                        }
-                        catch (Exception e) {
-                            failedEvents.append("toString failed on a PortalEvent of type '")
-                                .append(portalEvent.getClass()).append("': ").append(e);
-                        }
-                    }
-
-                    this.logger.error(failedEvents.toString(), t);
+                    this.spillOrDrop(eventBuffer, "they failed to be handled");
                 }
             }
 
@@ -151,4 +248,138 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
             this.flushLock.unlock();
         }
     }
+    
+    private void handleEvents(Iterable<E> events) {
+        final long start = System.nanoTime();
+        try {
+            this.onApplicationEvents(events);
+        }
+        finally {
+            this.flushDurations.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+    
+    /**
+     * @return true if all spilled events were handled
+     */
+    private boolean replaySpilledEvents(final EventSpillFile spillFile) {
+        if (spillFile.isEmpty()) {
+            return true;
+        }
+        
+        try {
+            final int replayed = spillFile.replay(this.batchSize, new EventSpillFile.RecordHandler() {
+                @Override
+                public void handleRecords(List<byte[]> records) throws Exception {
+                    final List<E> events = new ArrayList<E>(records.size());
+                    final List<byte[]> undecodableRecords = new ArrayList<byte[]>(0);
+                    for (final byte[] record : records) {
+                        final E event = decodeSpilledEvent(record);
+                        if (event != null) {
+                            events.add(event);
+                        }
+                        else {
+                            undecodableRecords.add(record);
+                        }
+                    }
+                    
+                    //Retrying can't fix a record that doesn't decode, move it aside instead of failing the batch
+                    if (!undecodableRecords.isEmpty()) {
+                        spillFile.quarantine(undecodableRecords);
+                        logger.error("Moved " + undecodableRecords.size() + " spilled events that could not be decoded to " + spillFile.getQuarantineFile());
+                    }
+                    
+                    if (!events.isEmpty()) {
+                        handleEvents(events);
+                    }
+                }
+            });
+            this.logger.info("Flushed " + replayed + " events from spill file " + spillFile.getFile());
+            return true;
+        }
+        catch (Exception e) {
+            this.logger.warn("Events in spill file " + spillFile.getFile() + " still can't be flushed, will try again on the next flush: " + e);
+            return false;
+        }
+    }
+    
+    private E decodeSpilledEvent(byte[] record) {
+        try {
+            return this.decodeEvent(record);
+        }
+        catch (RuntimeException e) {
+            this.logger.warn("Failed to decode spilled event", e);
+            return null;
+        }
+    }
+    
+    /**
+     * Spill queued events until the queue depth is no more than <code>depth</code>, MUST be called from within the flushLock
+     */
+    private void spillQueuedEvents(int depth) {
+        while (this.eventQueue.size() > depth) {
+            eventBuffer.clear();
+            this.eventQueue.drainTo(eventBuffer, this.batchSize);
+            this.spillOrDrop(eventBuffer, "they can't be handled");
+        }
+    }
+    
+    /**
+     * Append the events to the spill file, dropping any that can't be spilled
+     */
+    private void spillOrDrop(List<E> events, String reason) {
+        final EventSpillFile spillFile = this.spillFile;
+        if (spillFile != null) {
+            final List<byte[]> records = new ArrayList<byte[]>(events.size());
+            final List<E> unencodedEvents = new ArrayList<E>(0);
+            for (final E event : events) {
+                final byte[] record = this.encodeEvent(event);
+                if (record != null) {
+                    records.add(record);
+                }
+                else {
+                    unencodedEvents.add(event);
+                }
+            }
+            
+            try {
+                spillFile.append(records);
+                this.spilledEvents.addAndGet(records.size());
+                this.logger.debug("Spilled {} events to {} because {}", new Object[] { records.size(), spillFile.getFile(), reason });
+                
+                this.dropEvents(unencodedEvents, reason);
+                return;
+            }
+            catch (Exception e) {
+                this.logger.error("Failed to append " + records.size() + " events to spill file " + spillFile.getFile(), e);
+            }
+        }
+        
+        this.dropEvents(events, reason);
+    }
+    
+    private void dropEvents(List<E> events, String reason) {
+        if (events.isEmpty()) {
+            return;
+        }
+        
+        final long dropped = this.droppedEvents.addAndGet(events.size());
+        
+        final StringBuilder droppedEvents = new StringBuilder();
+        droppedEvents.append("Dropped ").append(events.size()).append(" events because ").append(reason)
+            .append(", ").append(dropped).append(" events dropped in total. Some may have been handled:");
+
+        for (final E event : events) {
+            droppedEvents.append("\n\t");
+            try {
+                droppedEvents.append(event.toString());
+            }
+            catch (Exception e) {
+                droppedEvents.append("toString failed on an event of type '")
+                    .append(event.getClass()).append("': ").append(e);
+            }
+        }
+
+        this.logger.error(droppedEvents.toString());
+    }
 }
@@ -0,0 +1,511 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.namespace.QName;
+
+import org.codehaus.jackson.annotate.JsonIgnore;
+import org.jasig.portal.events.PortalEvent;
+
+/**
+ * Compact binary encoding of {@link PortalEvent}s. The persistent fields of each event class are discovered
+ * using the same rules as the Jackson JSON mapping (all non-static, non-transient fields that are not
+ * annotated with {@link JsonIgnore}).
+ * <p/>
+ * Each encoded event starts with the codec format version and the number of fields written. Every field is
+ * tagged with a 16 bit hash of its name and its type, so like the JSON mapping data written for an older version
+ * of an event class can still be read: fields the class no longer has, or whose type changed, are skipped and
+ * fields missing from the data keep the value set by the class's default constructor. Enums are stored by name.
+ * <p/>
+ * Supported field types are String, primitive long, int and boolean, enums, {@link QName}, collections of
+ * Strings and maps of String to a List of Strings. Event classes with other field types can not be encoded,
+ * see {@link #isSupported(Class)}.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class BinaryPortalEventCodec {
+    static final byte FORMAT_VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    
+    private final ConcurrentMap<Class<?>, EventSchema> schemas = new ConcurrentHashMap<Class<?>, EventSchema>();
+    private final ConcurrentMap<Class<?>, String> unsupportedClasses = new ConcurrentHashMap<Class<?>, String>();
+    
+    /**
+     * @return true if events of the specified type can be encoded by this codec
+     */
+    public boolean isSupported(Class<? extends PortalEvent> eventType) {
+        return this.getSchema(eventType) != null;
+    }
+    
+    /**
+     * Encode the event
+     * 
+     * @throws IllegalArgumentException if the event type is not supported
+     */
+    public byte[] encode(PortalEvent event) {
+        final EventSchema schema = this.getRequiredSchema(event.getClass());
+        
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        final DataOutputStream out = new DataOutputStream(buffer);
+        try {
+            out.writeByte(FORMAT_VERSION);
+            writeVarLong(out, schema.fields.size());
+            for (final EventField field : schema.fields) {
+                out.writeShort(field.id);
+                out.writeByte(field.fieldType.ordinal());
+                field.write(event, out);
+            }
+            out.flush();
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Failed to encode PortalEvent data: " + event, e);
+        }
+        catch (IllegalAccessException e) {
+            throw new RuntimeException("Failed to encode PortalEvent data: " + event, e);
+        }
+        
+        return buffer.toByteArray();
+    }
+    
+    /**
+     * Decode an event of the specified type
+     * 
+     * @throws IllegalArgumentException if the event type is not supported or the data was written with a different format version
+     */
+    public <E extends PortalEvent> E decode(byte[] eventData, Class<E> eventType) {
+        final EventSchema schema = this.getRequiredSchema(eventType);
+        
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(eventData));
+        try {
+            final byte formatVersion = in.readByte();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported binary PortalEvent format version " + formatVersion + " for " + eventType.getName());
+            }
+            
+            final E event = eventType.cast(schema.constructor.newInstance());
+            
+            final long fieldCount = readVarLong(in);
+            for (long i = 0; i < fieldCount; i++) {
+                final short fieldId = in.readShort();
+                final FieldType fieldType = readFieldType(in);
+                
+                final EventField field = schema.fieldsById.get(fieldId);
+                if (field != null && field.fieldType == fieldType) {
+                    field.read(event, in);
+                }
+                else {
+                    //Field removed from or changed in the event class since the data was written
+                    readValue(in, fieldType, null);
+                }
+            }
+            return event;
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Failed to decode PortalEvent data for " + eventType.getName(), e);
+        }
+        catch (InstantiationException e) {
+            throw new RuntimeException("Failed to decode PortalEvent data for " + eventType.getName(), e);
+        }
+        catch (IllegalAccessException e) {
+            throw new RuntimeException("Failed to decode PortalEvent data for " + eventType.getName(), e);
+        }
+        catch (InvocationTargetException e) {
+            throw new RuntimeException("Failed to decode PortalEvent data for " + eventType.getName(), e);
+        }
+    }
+    
+    private EventSchema getRequiredSchema(Class<?> eventType) {
+        final EventSchema schema = this.getSchema(eventType);
+        if (schema == null) {
+            throw new IllegalArgumentException(eventType.getName() + " can not be binary encoded: " + this.unsupportedClasses.get(eventType));
+        }
+        return schema;
+    }
+    
+    private EventSchema getSchema(Class<?> eventType) {
+        EventSchema schema = this.schemas.get(eventType);
+        if (schema != null) {
+            return schema;
+        }
+        if (this.unsupportedClasses.containsKey(eventType)) {
+            return null;
+        }
+        
+        try {
+            schema = new EventSchema(eventType);
+        }
+        catch (IllegalArgumentException e) {
+            this.unsupportedClasses.put(eventType, e.getMessage());
+            return null;
+        }
+        
+        final EventSchema existingSchema = this.schemas.putIfAbsent(eventType, schema);
+        return existingSchema != null ? existingSchema : schema;
+    }
+    
+    /**
+     * The ordered persistent fields of an event class
+     */
+    private static final class EventSchema {
+        private final Constructor<?> constructor;
+        private final List<EventField> fields;
+        private final Map<Short, EventField> fieldsById;
+        
+        public EventSchema(Class<?> eventType) {
+            if (Modifier.isAbstract(eventType.getModifiers())) {
+                throw new IllegalArgumentException("abstract class");
+            }
+            
+            try {
+                this.constructor = eventType.getDeclaredConstructor();
+            }
+            catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException("no default constructor");
+            }
+            this.constructor.setAccessible(true);
+            
+            //Order fields from the root of the hierarchy down, sorted by name within each class
+            final LinkedList<Class<?>> hierarchy = new LinkedList<Class<?>>();
+            for (Class<?> type = eventType; type != null && type != Object.class; type = type.getSuperclass()) {
+                hierarchy.addFirst(type);
+            }
+            
+            final List<EventField> fields = new ArrayList<EventField>();
+            final Map<Short, EventField> fieldsById = new LinkedHashMap<Short, EventField>();
+            for (final Class<?> type : hierarchy) {
+                final Field[] declaredFields = type.getDeclaredFields();
+                Arrays.sort(declaredFields, FieldNameComparator.INSTANCE);
+                
+                for (final Field field : declaredFields) {
+                    final int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isAnnotationPresent(JsonIgnore.class)) {
+                        continue;
+                    }
+                    
+                    final EventField eventField = new EventField(field);
+                    final EventField existingField = fieldsById.put(eventField.id, eventField);
+                    if (existingField != null) {
+                        throw new IllegalArgumentException("field id of " + field + " collides with " + existingField.field);
+                    }
+                    fields.add(eventField);
+                }
+            }
+            this.fields = Collections.unmodifiableList(fields);
+            this.fieldsById = Collections.unmodifiableMap(fieldsById);
+        }
+    }
+    
+    private enum FieldType {
+        STRING, LONG, INT, BOOLEAN, ENUM, QNAME, STRING_COLLECTION, STRING_LIST_MAP;
+    }
+    
+    /**
+     * Reads and writes a single field of an event
+     */
+    private static final class EventField {
+        private final Field field;
+        private final FieldType fieldType;
+        private final short id;
+        
+        public EventField(Field field) {
+            this.field = field;
+            this.fieldType = getFieldType(field);
+            this.id = (short)field.getName().hashCode();
+            this.field.setAccessible(true);
+        }
+        
+        public void write(Object event, DataOutput out) throws IOException, IllegalAccessException {
+            switch (this.fieldType) {
+                case STRING: {
+                    writeString(out, (String)this.field.get(event));
+                    break;
+                }
+                case LONG: {
+                    writeVarLong(out, this.field.getLong(event));
+                    break;
+                }
+                case INT: {
+                    writeVarLong(out, this.field.getInt(event));
+                    break;
+                }
+                case BOOLEAN: {
+                    out.writeBoolean(this.field.getBoolean(event));
+                    break;
+                }
+                case ENUM: {
+                    final Enum<?> value = (Enum<?>)this.field.get(event);
+                    writeString(out, value == null ? null : value.name());
+                    break;
+                }
+                case QNAME: {
+                    final QName value = (QName)this.field.get(event);
+                    out.writeBoolean(value != null);
+                    if (value != null) {
+                        writeString(out, value.getNamespaceURI());
+                        writeString(out, value.getLocalPart());
+                        writeString(out, value.getPrefix());
+                    }
+                    break;
+                }
+                case STRING_COLLECTION: {
+                    writeStrings(out, (Collection<?>)this.field.get(event));
+                    break;
+                }
+                case STRING_LIST_MAP: {
+                    final Map<?, ?> value = (Map<?, ?>)this.field.get(event);
+                    writeVarLong(out, value == null ? 0 : value.size() + 1);
+                    if (value != null) {
+                        for (final Map.Entry<?, ?> entry : value.entrySet()) {
+                            writeString(out, (String)entry.getKey());
+                            writeStrings(out, (Collection<?>)entry.getValue());
+                        }
+                    }
+                    break;
+                }
+            }
+        }
+        
+        public void read(Object event, DataInput in) throws IOException, IllegalAccessException {
+            this.field.set(event, readValue(in, this.fieldType, this.field.getType()));
+        }
+        
+        private static FieldType getFieldType(Field field) {
+            final Class<?> type = field.getType();
+            if (type == String.class) {
+                return FieldType.STRING;
+            }
+            if (type == long.class) {
+                return FieldType.LONG;
+            }
+            if (type == int.class) {
+                return FieldType.INT;
+            }
+            if (type == boolean.class) {
+                return FieldType.BOOLEAN;
+            }
+            if (type.isEnum()) {
+                return FieldType.ENUM;
+            }
+            if (type == QName.class) {
+                return FieldType.QNAME;
+            }
+            if ((type == Collection.class || type == List.class || type == Set.class) && isParameterizedWith(field.getGenericType(), String.class)) {
+                return FieldType.STRING_COLLECTION;
+            }
+            if (type == Map.class && field.getGenericType() instanceof ParameterizedType) {
+                final Type[] typeArguments = ((ParameterizedType)field.getGenericType()).getActualTypeArguments();
+                if (typeArguments[0] == String.class && typeArguments[1] instanceof ParameterizedType
+                        && ((ParameterizedType)typeArguments[1]).getRawType() == List.class
+                        && isParameterizedWith(typeArguments[1], String.class)) {
+                    return FieldType.STRING_LIST_MAP;
+                }
+            }
+            
+            throw new IllegalArgumentException("unsupported type " + field.getGenericType() + " for field " + field);
+        }
+        
+        private static boolean isParameterizedWith(Type genericType, Class<?> argument) {
+            return genericType instanceof ParameterizedType && ((ParameterizedType)genericType).getActualTypeArguments()[0] == argument;
+        }
+    }
+    
+    private static final class FieldNameComparator implements Comparator<Field> {
+        public static final FieldNameComparator INSTANCE = new FieldNameComparator();
+        
+        @Override
+        public int compare(Field o1, Field o2) {
+            return o1.getName().compareTo(o2.getName());
+        }
+    }
+    
+    private static FieldType readFieldType(DataInput in) throws IOException {
+        final int ordinal = in.readUnsignedByte();
+        final FieldType[] fieldTypes = FieldType.values();
+        if (ordinal >= fieldTypes.length) {
+            throw new IOException("Unknown binary PortalEvent field type " + ordinal);
+        }
+        return fieldTypes[ordinal];
+    }
+    
+    /**
+     * Read a single field value
+     * 
+     * @param type The type of the field the value is read into, null if the value is being skipped
+     */
+    private static Object readValue(DataInput in, FieldType fieldType, Class<?> type) throws IOException {
+        switch (fieldType) {
+            case STRING: {
+                return readString(in);
+            }
+            case LONG: {
+                return readVarLong(in);
+            }
+            case INT: {
+                return (int)readVarLong(in);
+            }
+            case BOOLEAN: {
+                return in.readBoolean();
+            }
+            case ENUM: {
+                final String name = readString(in);
+                if (name == null || type == null) {
+                    return null;
+                }
+                
+                //A constant that has since been removed from the enum is read as null
+                for (final Object constant : type.getEnumConstants()) {
+                    if (((Enum<?>)constant).name().equals(name)) {
+                        return constant;
+                    }
+                }
+                return null;
+            }
+            case QNAME: {
+                if (in.readBoolean()) {
+                    return new QName(readString(in), readString(in), readString(in));
+                }
+                return null;
+            }
+            case STRING_COLLECTION: {
+                if (type != null && Set.class.isAssignableFrom(type)) {
+                    return readStrings(in, new LinkedHashSet<String>());
+                }
+                return readStrings(in, new ArrayList<String>());
+            }
+            case STRING_LIST_MAP: {
+                final int size = (int)readVarLong(in) - 1;
+                if (size < 0) {
+                    return null;
+                }
+                
+                final Map<String, List<String>> value = new LinkedHashMap<String, List<String>>(size * 2);
+                for (int i = 0; i < size; i++) {
+                    final String key = readString(in);
+                    value.put(key, readStrings(in, new ArrayList<String>()));
+                }
+                return value;
+            }
+            default: {
+                throw new IOException("Unknown binary PortalEvent field type " + fieldType);
+            }
+        }
+    }
+    
+    /**
+     * Write an unsigned variable length long, 7 bits per byte
+     */
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int)value);
+    }
+    
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = in.readByte();
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length long");
+    }
+    
+    /**
+     * Strings are written as length + 1 followed by the UTF-8 bytes, a length of 0 is null
+     */
+    static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            writeVarLong(out, 0);
+            return;
+        }
+        
+        final byte[] bytes = value.getBytes(UTF_8);
+        writeVarLong(out, bytes.length + 1);
+        out.write(bytes);
+    }
+    
+    static String readString(DataInput in) throws IOException {
+        final int length = (int)readVarLong(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+    
+    private static void writeStrings(DataOutput out, Collection<?> values) throws IOException {
+        if (values == null) {
+            writeVarLong(out, 0);
+            return;
+        }
+        
+        writeVarLong(out, values.size() + 1);
+        for (final Object value : values) {
+            writeString(out, (String)value);
+        }
+    }
+    
+    private static <C extends Collection<String>> C readStrings(DataInput in, C values) throws IOException {
+        final int size = (int)readVarLong(in) - 1;
+        if (size < 0) {
+            return null;
+        }
+        
+        for (int i = 0; i < size; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+}
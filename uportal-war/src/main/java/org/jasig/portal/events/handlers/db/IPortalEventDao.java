@@ -19,6 +19,9 @@
 
 package org.jasig.portal.events.handlers.db;
 
+import java.util.List;
+import java.util.Set;
+
 import org.jasig.portal.concurrency.FunctionWithoutResult;
 import org.jasig.portal.events.PortalEvent;
 import org.joda.time.DateTime;
@@ -61,11 +64,70 @@ public interface IPortalEventDao {
      */
     void aggregatePortalEvents(DateTime startTime, DateTime endTime, int maxEvents, FunctionWithoutResult<PortalEvent> handler);
     
+    /**
+     * Gets un-aggregated persisted events of the specified types in the time range. The type filter is applied by
+     * the persistent store so events of other types are never loaded, instead all un-aggregated events of other
+     * types in the time range are marked as aggregated. After the handler is called on each event it is marked
+     * as aggregated.
+     * 
+     * @param startTime The inclusive start time to get events for
+     * @param endTime The exclusive end time to get events for
+     * @param maxEvents The maximum number events to retrieve. -1 means no limit
+     * @param eventTypes The event types to get, if empty no events are returned and all events in the time range are marked as aggregated
+     * @param handler Function which will be called for each event.
+     * @see #aggregatePortalEvents(DateTime, DateTime, int, FunctionWithoutResult)
+     */
+    void aggregatePortalEvents(DateTime startTime, DateTime endTime, int maxEvents, Set<Class<? extends PortalEvent>> eventTypes, FunctionWithoutResult<PortalEvent> handler);
+    
+    /**
+     * Gets un-aggregated persisted events of the specified types in the time range for one partition of the
+     * events. Events are partitioned by event session so all events for a session are in the same partition.
+     * Un-aggregated events of other types in the time range and partition are marked as aggregated without being
+     * loaded. After the handler is called on each event it is marked as aggregated.
+     * 
+     * @param startTime The inclusive start time to get events for
+     * @param endTime The exclusive end time to get events for
+     * @param maxEvents The maximum number events to retrieve. -1 means no limit
+     * @param eventTypes The event types to get, if empty no events are returned
+     * @param partition The partition to get events for, from 0 to partitionCount - 1
+     * @param partitionCount The number of partitions the events are split into
+     * @param handler Function which will be called for each event.
+     * @see #aggregatePortalEvents(DateTime, DateTime, int, Set, FunctionWithoutResult)
+     */
+    void aggregatePortalEvents(DateTime startTime, DateTime endTime, int maxEvents, Set<Class<? extends PortalEvent>> eventTypes, int partition, int partitionCount, FunctionWithoutResult<PortalEvent> handler);
+    
+    /**
+     * @param startTime The inclusive start time to get event types for
+     * @param endTime The exclusive end time to get event types for
+     * @return The distinct types of the un-aggregated persisted events in the time range
+     */
+    Set<Class<? extends PortalEvent>> getPortalEventTypes(DateTime startTime, DateTime endTime);
+    
+    /**
+     * Gets execution time statistics grouped by event type and portlet fname for the un-aggregated persisted
+     * events of the specified types in the time range. The filtering and grouping is done by the persistent store
+     * on the fname and execution time columns so the event data is never loaded. Events without an fname or
+     * execution time are ignored.
+     * 
+     * @param startTime The inclusive start time to get statistics for
+     * @param endTime The exclusive end time to get statistics for
+     * @param eventTypes The event types to get statistics for, if empty no statistics are returned
+     * @return Statistics for each event type and fname combination in the time range
+     */
+    List<PortletExecutionStatistics> getPortletExecutionStatistics(DateTime startTime, DateTime endTime, Set<Class<? extends PortalEvent>> eventTypes);
+    
     /**
      * @return The timestamp of the oldest event in the persitent store
      */
     DateTime getOldestPortalEventTimestamp();
     
+    /**
+     * @param startTime The inclusive start time to look for events from
+     * @param endTime The exclusive end time to look for events to
+     * @return The timestamp of the oldest event in the time range, null if there are no events in the range
+     */
+    DateTime getOldestPortalEventTimestamp(DateTime startTime, DateTime endTime);
+    
     /**
      * @return The timestamp of the most recent event in the persitent store
      */
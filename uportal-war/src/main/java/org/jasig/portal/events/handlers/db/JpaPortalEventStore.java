@@ -20,7 +20,11 @@
 package org.jasig.portal.events.handlers.db;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
@@ -46,6 +50,7 @@ import org.jasig.portal.jpa.BaseJpaDao;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.support.DataAccessUtils;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
@@ -62,15 +67,28 @@ import com.google.common.base.Function;
  */
 @Repository
 public class JpaPortalEventStore extends BaseJpaDao implements IPortalEventDao {
+    private static final String EVENT_TYPES_PARAMETER = "eventTypes";
+    private static final String PARTITION_PARAMETER = "partition";
+    private static final String PARTITION_COUNT_PARAMETER = "partitionCount";
+    
     protected final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     private final ObjectMapper mapper;
+    private final BinaryPortalEventCodec binaryCodec = new BinaryPortalEventCodec();
+    private PortalEventDataFormat eventDataFormat = PortalEventDataFormat.JSON;
     private String deleteQuery;
     private String selectQuery;
     private String selectUnaggregatedQuery;
+    private String selectUnaggregatedByTypeQuery;
+    private String selectUnaggregatedByTypeAndPartitionQuery;
+    private String selectEventTypesQuery;
+    private String selectPortletExecutionStatisticsQuery;
+    private String markSkippedAggregatedQuery;
+    private String markSkippedAggregatedByPartitionQuery;
     private int flushPeriod = 1000;
     private CriteriaQuery<DateTime> findNewestPersistentPortalEventTimestampQuery;
     private CriteriaQuery<DateTime> findOldestPersistentPortalEventTimestampQuery;
+    private CriteriaQuery<DateTime> findOldestPersistentPortalEventTimestampInRangeQuery;
     private ParameterExpression<DateTime> startTimeParameter;
     private ParameterExpression<DateTime> endTimeParameter;
 
@@ -89,6 +107,15 @@ public class JpaPortalEventStore extends BaseJpaDao implements IPortalEventDao {
     public void setAggregationFlushPeriod(int flushPeriod) {
         this.flushPeriod = flushPeriod;
     }
+    
+    /**
+     * Format to store new event data in, defaults to {@link PortalEventDataFormat#JSON}. Existing events are
+     * always read using the format they were stored in.
+     */
+    @Value("${org.jasig.portal.events.handlers.db.JpaPortalEventStore.eventDataFormat:JSON}")
+    public void setEventDataFormat(PortalEventDataFormat eventDataFormat) {
+        this.eventDataFormat = eventDataFormat;
+    }
 
 
     /**
@@ -127,6 +154,63 @@ public class JpaPortalEventStore extends BaseJpaDao implements IPortalEventDao {
                      "AND (e." + PersistentPortalEvent_.aggregated.getName() + " is null OR e." + PersistentPortalEvent_.aggregated.getName() + " = false) " +
                 "ORDER BY e." + PersistentPortalEvent_.timestamp.getName() + " ASC";
         
+        this.selectUnaggregatedByTypeQuery = 
+                "SELECT e " +
+                "FROM " + PersistentPortalEvent.class.getName() + " e " +
+                "WHERE e." + PersistentPortalEvent_.timestamp.getName() + " >= :" + this.startTimeParameter.getName() + " " +
+                     "AND e." + PersistentPortalEvent_.timestamp.getName() + " < :" + this.endTimeParameter.getName() + " " +
+                     "AND (e." + PersistentPortalEvent_.aggregated.getName() + " is null OR e." + PersistentPortalEvent_.aggregated.getName() + " = false) " +
+                     "AND e." + PersistentPortalEvent_.eventType.getName() + " IN (:" + EVENT_TYPES_PARAMETER + ") " +
+                "ORDER BY e." + PersistentPortalEvent_.timestamp.getName() + " ASC";
+        
+        //Events stored before the session hash was tracked are all in the first partition
+        this.selectUnaggregatedByTypeAndPartitionQuery = 
+                "SELECT e " +
+                "FROM " + PersistentPortalEvent.class.getName() + " e " +
+                "WHERE e." + PersistentPortalEvent_.timestamp.getName() + " >= :" + this.startTimeParameter.getName() + " " +
+                     "AND e." + PersistentPortalEvent_.timestamp.getName() + " < :" + this.endTimeParameter.getName() + " " +
+                     "AND (e." + PersistentPortalEvent_.aggregated.getName() + " is null OR e." + PersistentPortalEvent_.aggregated.getName() + " = false) " +
+                     "AND e." + PersistentPortalEvent_.eventType.getName() + " IN (:" + EVENT_TYPES_PARAMETER + ") " +
+                     "AND mod(coalesce(e." + PersistentPortalEvent_.eventSessionHash.getName() + ", 0), :" + PARTITION_COUNT_PARAMETER + ") = :" + PARTITION_PARAMETER + " " +
+                "ORDER BY e." + PersistentPortalEvent_.timestamp.getName() + " ASC";
+        
+        this.selectEventTypesQuery = 
+                "SELECT DISTINCT e." + PersistentPortalEvent_.eventType.getName() + " " +
+                "FROM " + PersistentPortalEvent.class.getName() + " e " +
+                "WHERE e." + PersistentPortalEvent_.timestamp.getName() + " >= :" + this.startTimeParameter.getName() + " " +
+                     "AND e." + PersistentPortalEvent_.timestamp.getName() + " < :" + this.endTimeParameter.getName() + " " +
+                     "AND (e." + PersistentPortalEvent_.aggregated.getName() + " is null OR e." + PersistentPortalEvent_.aggregated.getName() + " = false)";
+        
+        //Grouped on the indexed fname and execution time columns so the event data is never read
+        this.selectPortletExecutionStatisticsQuery = 
+                "SELECT e." + PersistentPortalEvent_.eventType.getName() + ", " +
+                       "e." + PersistentPortalEvent_.fname.getName() + ", " +
+                       "count(e), " +
+                       "sum(e." + PersistentPortalEvent_.executionTime.getName() + "), " +
+                       "min(e." + PersistentPortalEvent_.executionTime.getName() + "), " +
+                       "max(e." + PersistentPortalEvent_.executionTime.getName() + ") " +
+                "FROM " + PersistentPortalEvent.class.getName() + " e " +
+                "WHERE e." + PersistentPortalEvent_.timestamp.getName() + " >= :" + this.startTimeParameter.getName() + " " +
+                     "AND e." + PersistentPortalEvent_.timestamp.getName() + " < :" + this.endTimeParameter.getName() + " " +
+                     "AND (e." + PersistentPortalEvent_.aggregated.getName() + " is null OR e." + PersistentPortalEvent_.aggregated.getName() + " = false) " +
+                     "AND e." + PersistentPortalEvent_.eventType.getName() + " IN (:" + EVENT_TYPES_PARAMETER + ") " +
+                     "AND e." + PersistentPortalEvent_.fname.getName() + " is not null " +
+                     "AND e." + PersistentPortalEvent_.executionTime.getName() + " is not null " +
+                "GROUP BY e." + PersistentPortalEvent_.eventType.getName() + ", e." + PersistentPortalEvent_.fname.getName();
+        
+        //Events of types that are not being aggregated are marked as aggregated in bulk so they are never scanned again
+        this.markSkippedAggregatedQuery = 
+                "UPDATE " + PersistentPortalEvent.class.getName() + " e " +
+                "SET e." + PersistentPortalEvent_.aggregated.getName() + " = true " +
+                "WHERE e." + PersistentPortalEvent_.timestamp.getName() + " >= :" + this.startTimeParameter.getName() + " " +
+                     "AND e." + PersistentPortalEvent_.timestamp.getName() + " < :" + this.endTimeParameter.getName() + " " +
+                     "AND (e." + PersistentPortalEvent_.aggregated.getName() + " is null OR e." + PersistentPortalEvent_.aggregated.getName() + " = false) " +
+                     "AND e." + PersistentPortalEvent_.eventType.getName() + " NOT IN (:" + EVENT_TYPES_PARAMETER + ")";
+        
+        this.markSkippedAggregatedByPartitionQuery = 
+                this.markSkippedAggregatedQuery + " " +
+                     "AND mod(coalesce(e." + PersistentPortalEvent_.eventSessionHash.getName() + ", 0), :" + PARTITION_COUNT_PARAMETER + ") = :" + PARTITION_PARAMETER;
+        
         this.deleteQuery = 
                 "DELETE FROM " + PersistentPortalEvent.class.getName() + " e " +
         		"WHERE e." + PersistentPortalEvent_.timestamp.getName() + " < :" + this.endTimeParameter.getName();
@@ -159,6 +243,26 @@ public class JpaPortalEventStore extends BaseJpaDao implements IPortalEventDao {
                 return criteriaQuery;
             }
         });
+        
+        this.findOldestPersistentPortalEventTimestampInRangeQuery = this.createCriteriaQuery(new Function<CriteriaBuilder, CriteriaQuery<DateTime>>() {
+            @Override
+            public CriteriaQuery<DateTime> apply(CriteriaBuilder cb) {
+                final CriteriaQuery<DateTime> criteriaQuery = cb.createQuery(DateTime.class);
+                final Root<PersistentPortalEvent> eventRoot = criteriaQuery.from(PersistentPortalEvent.class);
+                
+                //Get the smallest event timestamp in the time range
+                criteriaQuery
+                    .select(cb.least(eventRoot.get(PersistentPortalEvent_.timestamp)))
+                    .where(
+                        cb.and(
+                            cb.greaterThanOrEqualTo(eventRoot.get(PersistentPortalEvent_.timestamp), startTimeParameter),
+                            cb.lessThan(eventRoot.get(PersistentPortalEvent_.timestamp), endTimeParameter)
+                        )
+                    );
+                
+                return criteriaQuery;
+            }
+        });
     }
     
     
@@ -211,6 +315,15 @@ public class JpaPortalEventStore extends BaseJpaDao implements IPortalEventDao {
         return DataAccessUtils.uniqueResult(results);
     }
     
+    @Override
+    public DateTime getOldestPortalEventTimestamp(DateTime startTime, DateTime endTime) {
+        final TypedQuery<DateTime> query = this.createQuery(this.findOldestPersistentPortalEventTimestampInRangeQuery);
+        query.setParameter(this.startTimeParameter, startTime);
+        query.setParameter(this.endTimeParameter, endTime);
+        final List<DateTime> results = query.getResultList();
+        return DataAccessUtils.uniqueResult(results);
+    }
+    
     @Override
     public DateTime getNewestPortalEventTimestamp() {
         final TypedQuery<DateTime> query = this.createQuery(this.findNewestPersistentPortalEventTimestampQuery);
@@ -229,10 +342,119 @@ public class JpaPortalEventStore extends BaseJpaDao implements IPortalEventDao {
             query.setMaxResults(maxEvents);
         }
 
+        this.aggregatePortalEvents(session, query, handler);
+    }
+    
+    @Override
+    @Transactional(value="rawEvents")
+    public void aggregatePortalEvents(DateTime startTime, DateTime endTime, int maxEvents, Set<Class<? extends PortalEvent>> eventTypes, FunctionWithoutResult<PortalEvent> handler) {
+        final Session session = this.getEntityManager().unwrap(Session.class);
+        
+        final org.hibernate.Query skippedQuery = session.createQuery(this.markSkippedAggregatedQuery);
+        this.markSkippedPortalEventsAggregated(skippedQuery, startTime, endTime, eventTypes);
+        
+        if (eventTypes.isEmpty()) {
+            return;
+        }
+        
+        final org.hibernate.Query query = session.createQuery(this.selectUnaggregatedByTypeQuery);
+        query.setParameter(this.startTimeParameter.getName(), startTime);
+        query.setParameter(this.endTimeParameter.getName(), endTime);
+        query.setParameterList(EVENT_TYPES_PARAMETER, eventTypes);
+        if (maxEvents > 0) {
+            query.setMaxResults(maxEvents);
+        }
+        
+        this.aggregatePortalEvents(session, query, handler);
+    }
+    
+    @Override
+    @Transactional(value="rawEvents")
+    public void aggregatePortalEvents(DateTime startTime, DateTime endTime, int maxEvents, Set<Class<? extends PortalEvent>> eventTypes, int partition, int partitionCount, FunctionWithoutResult<PortalEvent> handler) {
+        final Session session = this.getEntityManager().unwrap(Session.class);
+        
+        final org.hibernate.Query skippedQuery = session.createQuery(this.markSkippedAggregatedByPartitionQuery);
+        skippedQuery.setParameter(PARTITION_PARAMETER, partition);
+        skippedQuery.setParameter(PARTITION_COUNT_PARAMETER, partitionCount);
+        this.markSkippedPortalEventsAggregated(skippedQuery, startTime, endTime, eventTypes);
+        
+        if (eventTypes.isEmpty()) {
+            return;
+        }
+        
+        final org.hibernate.Query query = session.createQuery(this.selectUnaggregatedByTypeAndPartitionQuery);
+        query.setParameter(this.startTimeParameter.getName(), startTime);
+        query.setParameter(this.endTimeParameter.getName(), endTime);
+        query.setParameterList(EVENT_TYPES_PARAMETER, eventTypes);
+        query.setParameter(PARTITION_PARAMETER, partition);
+        query.setParameter(PARTITION_COUNT_PARAMETER, partitionCount);
+        if (maxEvents > 0) {
+            query.setMaxResults(maxEvents);
+        }
+        
+        this.aggregatePortalEvents(session, query, handler);
+    }
+    
+    @Override
+    public Set<Class<? extends PortalEvent>> getPortalEventTypes(DateTime startTime, DateTime endTime) {
+        final Query query = this.entityManager.createQuery(this.selectEventTypesQuery);
+        query.setParameter(this.startTimeParameter.getName(), startTime);
+        query.setParameter(this.endTimeParameter.getName(), endTime);
+        
+        final Set<Class<? extends PortalEvent>> eventTypes = new LinkedHashSet<Class<? extends PortalEvent>>();
+        for (final Object eventType : query.getResultList()) {
+            eventTypes.add(((Class<?>)eventType).asSubclass(PortalEvent.class));
+        }
+        return eventTypes;
+    }
+    
+    @Override
+    public List<PortletExecutionStatistics> getPortletExecutionStatistics(DateTime startTime, DateTime endTime, Set<Class<? extends PortalEvent>> eventTypes) {
+        if (eventTypes.isEmpty()) {
+            return Collections.emptyList();
+        }
+        
+        final Query query = this.entityManager.createQuery(this.selectPortletExecutionStatisticsQuery);
+        query.setParameter(this.startTimeParameter.getName(), startTime);
+        query.setParameter(this.endTimeParameter.getName(), endTime);
+        query.setParameter(EVENT_TYPES_PARAMETER, eventTypes);
+        
+        final List<?> results = query.getResultList();
+        final List<PortletExecutionStatistics> statistics = new ArrayList<PortletExecutionStatistics>(results.size());
+        for (final Object result : results) {
+            final Object[] row = (Object[])result;
+            statistics.add(new PortletExecutionStatistics(
+                    ((Class<?>)row[0]).asSubclass(PortalEvent.class),
+                    (String)row[1],
+                    ((Number)row[2]).longValue(),
+                    ((Number)row[3]).longValue(),
+                    ((Number)row[4]).longValue(),
+                    ((Number)row[5]).longValue()));
+        }
+        return statistics;
+    }
+    
+    /**
+     * Mark the un-aggregated events in the time range whose type is not one of the event types as aggregated
+     * without loading them
+     */
+    private void markSkippedPortalEventsAggregated(org.hibernate.Query query, DateTime startTime, DateTime endTime, Set<Class<? extends PortalEvent>> eventTypes) {
+        query.setParameter(this.startTimeParameter.getName(), startTime);
+        query.setParameter(this.endTimeParameter.getName(), endTime);
+        
+        //PortalEvent itself is abstract and never stored, it stands in for an empty set of types
+        final Set<Class<? extends PortalEvent>> excludedEventTypes = eventTypes.isEmpty() ? Collections.<Class<? extends PortalEvent>>singleton(PortalEvent.class) : eventTypes;
+        query.setParameterList(EVENT_TYPES_PARAMETER, excludedEventTypes);
+        
+        final int skippedEvents = query.executeUpdate();
+        this.logger.debug("Marked {} events of types other than {} as aggregated", skippedEvents, eventTypes);
+    }
+    
+    private void aggregatePortalEvents(Session session, org.hibernate.Query query, FunctionWithoutResult<PortalEvent> handler) {
         int resultCount = 0;
         for (final ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY); results.next(); ) {
             final PersistentPortalEvent persistentPortalEvent = (PersistentPortalEvent)results.get(0);
-            final PortalEvent portalEvent = this.toPortalEvent(persistentPortalEvent.getEventData(), persistentPortalEvent.getEventType());
+            final PortalEvent portalEvent = this.toPortalEvent(persistentPortalEvent);
             handler.apply(portalEvent);
             persistentPortalEvent.setAggregated(true);
             session.persist(persistentPortalEvent);
@@ -263,7 +485,7 @@ public class JpaPortalEventStore extends BaseJpaDao implements IPortalEventDao {
 
         for (final ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY); results.next(); ) {
             final PersistentPortalEvent persistentPortalEvent = (PersistentPortalEvent)results.get(0);
-            final PortalEvent portalEvent = this.toPortalEvent(persistentPortalEvent.getEventData(), persistentPortalEvent.getEventType());
+            final PortalEvent portalEvent = this.toPortalEvent(persistentPortalEvent);
             handler.apply(portalEvent);
             persistentPortalEvent.setAggregated(true);
             session.evict(persistentPortalEvent);
@@ -282,9 +504,24 @@ public class JpaPortalEventStore extends BaseJpaDao implements IPortalEventDao {
     }
     
     protected PersistentPortalEvent wrapPortalEvent(PortalEvent event) {
+        //Event types the binary codec can't handle fall back to JSON
+        if (this.eventDataFormat == PortalEventDataFormat.BINARY && this.binaryCodec.isSupported(event.getClass())) {
+            final byte[] portalEventData = this.binaryCodec.encode(event);
+            return new PersistentPortalEvent(event, portalEventData);
+        }
+        
         final String portalEventData = this.toString(event);
         return new PersistentPortalEvent(event, portalEventData);
     }
+    
+    protected PortalEvent toPortalEvent(PersistentPortalEvent persistentPortalEvent) {
+        final byte[] eventDataBinary = persistentPortalEvent.getEventDataBinary();
+        if (eventDataBinary != null) {
+            return this.binaryCodec.decode(eventDataBinary, persistentPortalEvent.getEventType());
+        }
+        
+        return this.toPortalEvent(persistentPortalEvent.getEventData(), persistentPortalEvent.getEventType());
+    }
 
     protected <E extends PortalEvent> E toPortalEvent(final String eventData, Class<E> eventType) {
         try {
@@ -35,6 +35,11 @@ import javax.persistence.TableGenerator;
 import org.hibernate.annotations.Index;
 import org.hibernate.annotations.Type;
 import org.jasig.portal.events.PortalEvent;
+import org.jasig.portal.events.PortalRenderEvent;
+import org.jasig.portal.events.PortletAddedToLayoutPortalEvent;
+import org.jasig.portal.events.PortletDeletedFromLayoutPortalEvent;
+import org.jasig.portal.events.PortletExecutionEvent;
+import org.jasig.portal.events.PortletMovedInLayoutPortalEvent;
 import org.joda.time.DateTime;
 
 /**
@@ -79,6 +84,9 @@ public class PersistentPortalEvent implements Serializable {
     @SuppressWarnings("unused")
     private final String eventSessionId;
     
+    @Column(name="SESSION_HASH", updatable=false)
+    private final Integer eventSessionHash;
+    
     @Column(name="USER_NAME", length=35, nullable=false, updatable=false)
     @SuppressWarnings("unused")
     private final String userName;
@@ -87,10 +95,22 @@ public class PersistentPortalEvent implements Serializable {
     @Type(type="class")
     private final Class<PortalEvent> eventType;
     
-    @Column(name = "EVENT_DATA", nullable=false, updatable=false)
+    @Index(name = "IDX_UP_RAW_EVENTS_FNAME")
+    @Column(name="FNAME", length=255, updatable=false)
+    private final String fname;
+    
+    @Index(name = "IDX_UP_RAW_EVENTS_EXEC_TIME")
+    @Column(name="EXECUTION_TIME", updatable=false)
+    private final Long executionTime;
+    
+    @Column(name = "EVENT_DATA", updatable=false)
     @Lob
     private final String eventData; 
     
+    @Column(name = "EVENT_DATA_BINARY", updatable=false)
+    @Lob
+    private final byte[] eventDataBinary;
+    
     @Column(name = "AGGREGATED") 
     private Boolean aggregated = false;
     
@@ -101,22 +121,71 @@ public class PersistentPortalEvent implements Serializable {
     private PersistentPortalEvent() {
         this.id = -1;
         this.eventData = null;
+        this.eventDataBinary = null;
         this.timestamp = null;
         this.serverId = null;
         this.eventSessionId = null;
+        this.eventSessionHash = null;
         this.userName = null;
         this.eventType = null;
+        this.fname = null;
+        this.executionTime = null;
     }
     
-    @SuppressWarnings("unchecked")
     PersistentPortalEvent(PortalEvent portalEvent, String eventData) {
+        this(portalEvent, eventData, null);
+    }
+    
+    PersistentPortalEvent(PortalEvent portalEvent, byte[] eventDataBinary) {
+        this(portalEvent, null, eventDataBinary);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private PersistentPortalEvent(PortalEvent portalEvent, String eventData, byte[] eventDataBinary) {
         this.id = -1;
         this.eventData = eventData;
+        this.eventDataBinary = eventDataBinary;
         this.timestamp = new DateTime(portalEvent.getTimestamp());
         this.serverId = portalEvent.getServerId();
         this.eventSessionId = portalEvent.getEventSessionId();
+        this.eventSessionHash = getEventSessionHash(this.eventSessionId);
         this.userName = portalEvent.getUserName();
         this.eventType = (Class<PortalEvent>)portalEvent.getClass();
+        
+        //Promote commonly aggregated event fields to columns so they can be filtered and grouped in SQL
+        if (portalEvent instanceof PortletExecutionEvent) {
+            final PortletExecutionEvent portletExecutionEvent = (PortletExecutionEvent)portalEvent;
+            this.fname = portletExecutionEvent.getFname();
+            this.executionTime = portletExecutionEvent.getExecutionTime();
+        }
+        else if (portalEvent instanceof PortalRenderEvent) {
+            this.fname = null;
+            this.executionTime = ((PortalRenderEvent)portalEvent).getExecutionTime();
+        }
+        else if (portalEvent instanceof PortletAddedToLayoutPortalEvent) {
+            this.fname = ((PortletAddedToLayoutPortalEvent)portalEvent).getFname();
+            this.executionTime = null;
+        }
+        else if (portalEvent instanceof PortletMovedInLayoutPortalEvent) {
+            this.fname = ((PortletMovedInLayoutPortalEvent)portalEvent).getFname();
+            this.executionTime = null;
+        }
+        else if (portalEvent instanceof PortletDeletedFromLayoutPortalEvent) {
+            this.fname = ((PortletDeletedFromLayoutPortalEvent)portalEvent).getFname();
+            this.executionTime = null;
+        }
+        else {
+            this.fname = null;
+            this.executionTime = null;
+        }
+    }
+    
+    /**
+     * Non-negative hash of an event session id, events are partitioned for aggregation by this hash so
+     * that all of the events for a session are aggregated by the same partition.
+     */
+    public static int getEventSessionHash(String eventSessionId) {
+        return eventSessionId.hashCode() & Integer.MAX_VALUE;
     }
     
     public Class<PortalEvent> getEventType() {
@@ -124,12 +193,33 @@ public class PersistentPortalEvent implements Serializable {
     }
 
     /**
-     * @return the eventData
+     * @return The fname of the portlet the event is for, null if the event is not portlet specific
+     */
+    public String getFname() {
+        return this.fname;
+    }
+    
+    /**
+     * @return The execution time of the event in milliseconds, null if the event does not track execution time
+     */
+    public Long getExecutionTime() {
+        return this.executionTime;
+    }
+
+    /**
+     * @return the JSON eventData, null if the event was stored in the {@link PortalEventDataFormat#BINARY} format
      */
     public String getEventData() {
         return this.eventData;
     }
     
+    /**
+     * @return the binary eventData, null if the event was stored in the {@link PortalEventDataFormat#JSON} format
+     */
+    public byte[] getEventDataBinary() {
+        return this.eventDataBinary;
+    }
+    
     public boolean isAggregated() {
         Boolean a = this.aggregated;
         if (a == null) {
@@ -148,6 +238,9 @@ public class PersistentPortalEvent implements Serializable {
      */
     @Override
     public String toString() {
+        if (this.eventData == null && this.eventDataBinary != null) {
+            return this.eventType.getName() + " [" + this.eventDataBinary.length + " bytes of binary data]";
+        }
         return this.eventData;
     }
 }
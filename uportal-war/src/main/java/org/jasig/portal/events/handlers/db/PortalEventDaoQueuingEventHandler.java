@@ -19,19 +19,31 @@
 
 package org.jasig.portal.events.handlers.db;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.lang.StringUtils;
 import org.jasig.portal.events.PortalEvent;
 import org.jasig.portal.events.handlers.QueueingEventHandler;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 /**
- * Hands off queued portal events for storage by the IPortalEventDao
+ * Hands off queued portal events for storage by the IPortalEventDao. If a spill file is configured events that
+ * can't be stored while the database is unavailable are written to it using the {@link BinaryPortalEventCodec}
+ * and stored once the database is available again.
  * 
  * @author Eric Dalquist
  * @version $Revision$
  */
 @Service("PortalEventDaoQueuingEventHandler")
 public class PortalEventDaoQueuingEventHandler extends QueueingEventHandler<PortalEvent> {
+    private final BinaryPortalEventCodec binaryCodec = new BinaryPortalEventCodec();
     private IPortalEventDao portalEventDao;
     
     /**
@@ -41,6 +53,14 @@ public class PortalEventDaoQueuingEventHandler extends QueueingEventHandler<Port
     public void setPortalEventDao(IPortalEventDao portalEventDao) {
         this.portalEventDao = portalEventDao;
     }
+    
+    /**
+     * @param spillFile Local file to write events to that can't be stored, blank to drop them
+     */
+    @Value("${org.jasig.portal.events.handlers.db.PortalEventDaoQueuingEventHandler.spillFile:}")
+    public void setSpillFilePath(String spillFile) {
+        this.setSpillFile(StringUtils.isBlank(spillFile) ? null : new File(spillFile.trim()));
+    }
 
     /* (non-Javadoc)
      * @see org.jasig.portal.events.handlers.QueueingEventHandler#onApplicationEvents(java.lang.Iterable)
@@ -49,4 +69,49 @@ public class PortalEventDaoQueuingEventHandler extends QueueingEventHandler<Port
     protected void onApplicationEvents(Iterable<PortalEvent> events) {
         this.portalEventDao.storePortalEvents(events);
     }
+
+    /* (non-Javadoc)
+     * @see org.jasig.portal.events.handlers.QueueingEventHandler#encodeEvent(org.springframework.context.ApplicationEvent)
+     */
+    @Override
+    protected byte[] encodeEvent(PortalEvent event) {
+        if (!this.binaryCodec.isSupported(event.getClass())) {
+            return null;
+        }
+        
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        final DataOutputStream out = new DataOutputStream(buffer);
+        try {
+            out.writeUTF(event.getClass().getName());
+            out.write(this.binaryCodec.encode(event));
+            out.flush();
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Failed to encode PortalEvent: " + event, e);
+        }
+        
+        return buffer.toByteArray();
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.portal.events.handlers.QueueingEventHandler#decodeEvent(byte[])
+     */
+    @Override
+    protected PortalEvent decodeEvent(byte[] data) {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            final String eventTypeName = in.readUTF();
+            final Class<? extends PortalEvent> eventType = Class.forName(eventTypeName).asSubclass(PortalEvent.class);
+            
+            final byte[] eventData = new byte[in.available()];
+            in.readFully(eventData);
+            return this.binaryCodec.decode(eventData, eventType);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Failed to decode spilled PortalEvent", e);
+        }
+        catch (ClassNotFoundException e) {
+            throw new RuntimeException("Failed to decode spilled PortalEvent", e);
+        }
+    }
 }
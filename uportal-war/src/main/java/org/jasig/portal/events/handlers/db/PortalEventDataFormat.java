@@ -0,0 +1,38 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers.db;
+
+/**
+ * Storage format used for the data of newly stored portal events. Events are always read
+ * in the format they were stored in.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public enum PortalEventDataFormat {
+    /**
+     * Jackson JSON stored in the EVENT_DATA column
+     */
+    JSON,
+    /**
+     * {@link BinaryPortalEventCodec} data stored in the EVENT_DATA_BINARY column
+     */
+    BINARY;
+}
@@ -0,0 +1,86 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.events.handlers.db;
+
+import org.jasig.portal.events.PortalEvent;
+
+/**
+ * Execution time statistics for one portlet and event type, computed by the persistent store from the
+ * promoted fname and execution time columns of the stored events.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ * @see IPortalEventDao#getPortletExecutionStatistics(org.joda.time.DateTime, org.joda.time.DateTime, java.util.Set)
+ */
+public class PortletExecutionStatistics {
+    private final Class<? extends PortalEvent> eventType;
+    private final String fname;
+    private final long count;
+    private final long totalExecutionTime;
+    private final long minExecutionTime;
+    private final long maxExecutionTime;
+    
+    public PortletExecutionStatistics(Class<? extends PortalEvent> eventType, String fname, long count,
+            long totalExecutionTime, long minExecutionTime, long maxExecutionTime) {
+        this.eventType = eventType;
+        this.fname = fname;
+        this.count = count;
+        this.totalExecutionTime = totalExecutionTime;
+        this.minExecutionTime = minExecutionTime;
+        this.maxExecutionTime = maxExecutionTime;
+    }
+
+    public Class<? extends PortalEvent> getEventType() {
+        return this.eventType;
+    }
+
+    public String getFname() {
+        return this.fname;
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    public long getTotalExecutionTime() {
+        return this.totalExecutionTime;
+    }
+
+    public long getMinExecutionTime() {
+        return this.minExecutionTime;
+    }
+
+    public long getMaxExecutionTime() {
+        return this.maxExecutionTime;
+    }
+    
+    public double getAverageExecutionTime() {
+        if (this.count == 0) {
+            return 0;
+        }
+        return this.totalExecutionTime / (double)this.count;
+    }
+
+    @Override
+    public String toString() {
+        return "PortletExecutionStatistics [eventType=" + this.eventType + ", fname=" + this.fname + ", count="
+                + this.count + ", totalExecutionTime=" + this.totalExecutionTime + ", minExecutionTime="
+                + this.minExecutionTime + ", maxExecutionTime=" + this.maxExecutionTime + "]";
+    }
+}
@@ -202,6 +202,13 @@ public boolean deepContains(IGroupMember gm) throws GroupsException
     if ( this.contains(gm) )
         { return true; }
 
+    if ( gm.isGroup() && getLocalGroupService() != null )
+    {
+        Set ancestorKeys = getLocalGroupService().findAncestorGroupKeys((IEntityGroup) gm);
+        if ( ancestorKeys != null )
+            { return ancestorKeys.contains(getKey()); }
+    }
+
     boolean found = false;
     Iterator it = getMemberGroups();
     while (it.hasNext() && !found) {
@@ -343,6 +350,28 @@ public String getGroupID() {
  public java.lang.Class getLeafType() {
     return leafEntityType;
 }
+/**
+ * Returns the groups that recursively contain this group, answered from the
+ * ancestor index of the local group service, or null if there is no index.
+ * @return java.util.Set
+ */
+protected Set getIndexedContainingGroups() throws GroupsException
+{
+    if ( getLocalGroupService() == null )
+        { return null; }
+    Set ancestorKeys = getLocalGroupService().findAncestorGroupKeys(this);
+    if ( ancestorKeys == null )
+        { return null; }
+
+    Set groups = new HashSet(ancestorKeys.size());
+    for ( Iterator it = ancestorKeys.iterator(); it.hasNext(); )
+    {
+        IEntityGroup group = getLocalGroupService().findGroup((String) it.next());
+        if ( group != null )
+            { groups.add(group); }
+    }
+    return groups;
+}
 /**
  * @return IIndividualGroupService
  */
@@ -0,0 +1,133 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Materialized ancestor closure over the group-in-group memberships of a
+ * single group service.  Each member group key maps to the keys of the groups
+ * that directly contain it; the full set of ancestor keys is computed on first
+ * request and memoized.  The index is a snapshot, membership changes are picked
+ * up by loading a new one.  Keys are composite group keys, e.g. <code>local.12</code>.
+ *
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class GroupClosureIndex {
+    private final Map<String, Set<String>> containingGroupKeys = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> ancestorGroupKeys = new HashMap<String, Set<String>>();
+    private final long created = System.currentTimeMillis();
+
+    /**
+     * @param containingGroupKeys Map of member group key to the keys of the groups that directly contain it
+     */
+    public GroupClosureIndex(Map<String, Set<String>> containingGroupKeys) {
+        for (final Map.Entry<String, Set<String>> entry : containingGroupKeys.entrySet()) {
+            for (final String groupKey : entry.getValue()) {
+                this.addEdge(groupKey, entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * @return When this index was loaded from the store
+     */
+    public long getCreated() {
+        return this.created;
+    }
+
+    /**
+     * @return Keys of the groups that directly contain the member group, never null
+     */
+    public synchronized Set<String> getContainingGroupKeys(String memberKey) {
+        final Set<String> groupKeys = this.containingGroupKeys.get(memberKey);
+        if (groupKeys == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(new HashSet<String>(groupKeys));
+    }
+
+    /**
+     * @return Keys of every group that recursively contains the member group, never null
+     */
+    public synchronized Set<String> getAncestorGroupKeys(String memberKey) {
+        Set<String> ancestors = this.ancestorGroupKeys.get(memberKey);
+        if (ancestors == null) {
+            ancestors = Collections.unmodifiableSet(this.computeAncestorGroupKeys(memberKey));
+            this.ancestorGroupKeys.put(memberKey, ancestors);
+        }
+        return ancestors;
+    }
+
+    /**
+     * Answers if the group recursively contains the member group.
+     */
+    public boolean isAncestor(String groupKey, String memberKey) {
+        return this.getAncestorGroupKeys(memberKey).contains(groupKey);
+    }
+
+    private void addEdge(String groupKey, String memberKey) {
+        Set<String> groupKeys = this.containingGroupKeys.get(memberKey);
+        if (groupKeys == null) {
+            groupKeys = new HashSet<String>();
+            this.containingGroupKeys.put(memberKey, groupKeys);
+        }
+        groupKeys.add(groupKey);
+    }
+
+    /**
+     * Walks up from the member, reusing memoized closures of ancestors where they exist.
+     * The visited set guards against circular memberships.
+     */
+    private Set<String> computeAncestorGroupKeys(String memberKey) {
+        final Set<String> ancestors = new HashSet<String>();
+        final LinkedList<String> pending = new LinkedList<String>();
+        pending.add(memberKey);
+
+        while (!pending.isEmpty()) {
+            final Set<String> groupKeys = this.containingGroupKeys.get(pending.removeFirst());
+            if (groupKeys == null) {
+                continue;
+            }
+
+            for (final String groupKey : groupKeys) {
+                if (!ancestors.add(groupKey)) {
+                    continue;
+                }
+
+                final Set<String> memoized = this.ancestorGroupKeys.get(groupKey);
+                if (memoized != null) {
+                    ancestors.addAll(memoized);
+                }
+                else {
+                    pending.add(groupKey);
+                }
+            }
+        }
+
+        return ancestors;
+    }
+}
@@ -348,7 +348,14 @@ protected java.util.Set primGetAllContainingGroups(IGroupMember member, Set s) t
         // avoid stack overflow in case of circular group dependencies
         if (!s.contains(gm)) {
             s.add(gm);
-            primGetAllContainingGroups(gm, s);
+            // groups with an ancestor index answer the rest of the walk in one lookup
+            Set ancestors = ( gm instanceof EntityGroupImpl )
+              ? ((EntityGroupImpl) gm).getIndexedContainingGroups()
+              : null;
+            if ( ancestors != null )
+                { s.addAll(ancestors); }
+            else
+                { primGetAllContainingGroups(gm, s); }
         }
     }
     return s;
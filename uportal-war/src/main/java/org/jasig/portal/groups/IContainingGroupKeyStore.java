@@ -0,0 +1,44 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Optional extension of <code>IEntityGroupStore</code> for stores that can
+ * return all of their group-in-group memberships at once, which lets the
+ * owning service keep a {@link GroupClosureIndex} instead of querying the
+ * store one level at a time.
+ *
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public interface IContainingGroupKeyStore extends IEntityGroupStore
+{
+/**
+ * Returns the keys of the groups that directly contain each member group,
+ * keyed by member group key.  Keys are composite, e.g. <code>local.12</code>;
+ * containing groups are composed with <code>serviceName</code>.
+ * @param serviceName the name of the service that owns this store
+ * @return Map of member group key to the keys of its containing groups
+ */
+public Map<String, Set<String>> findContainingGroupKeysForGroups(String serviceName) throws GroupsException;
+}
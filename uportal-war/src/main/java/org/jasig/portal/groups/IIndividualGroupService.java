@@ -20,6 +20,7 @@
 package org.jasig.portal.groups;
 
 import java.util.Iterator;
+import java.util.Set;
 /**
  * Defines a component group service that finds and maintains
  * <code>IGroupMembers</code> within a composite group service.
@@ -40,6 +41,13 @@ public interface IIndividualGroupService extends ICompositeGroupService {
    * Removes the <code>IEntityGroup</code> from the store.
    */
   public void deleteGroup(IEntityGroup group) throws GroupsException;
+  /**
+   * Returns the keys of the groups in this service that recursively contain
+   * <code>group</code>, or null if the service keeps no index of its
+   * memberships or <code>group</code> belongs to another service.
+   * @param group IEntityGroup
+   */
+  public Set findAncestorGroupKeys(IEntityGroup group) throws GroupsException;
   /**
    * Returns a preexisting <code>IEntityGroup</code> from the store.
    * @param ent CompositeEntityIdentifier
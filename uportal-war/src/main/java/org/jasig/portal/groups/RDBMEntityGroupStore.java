@@ -26,8 +26,12 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -43,7 +47,7 @@ import org.jasig.portal.utils.SqlTransaction;
  * @author Dan Ellentuck
  * @version $Revision$
  */
-public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants {
+public class RDBMEntityGroupStore implements IContainingGroupKeyStore, IGroupConstants {
     private static final Log log = LogFactory.getLog(RDBMEntityGroupStore.class);
     private static RDBMEntityGroupStore singleton;
 
@@ -70,6 +74,7 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
     private static String countAMemberEntitySql;
     private static String findContainingGroupsForEntitySql;
     private static String findContainingGroupsForGroupSql;
+    private static String findContainingGroupKeysForGroupsSql;
     private static String findGroupSql;
     private static String findGroupsByCreatorSql;
     private static String findMemberGroupKeysSql;
@@ -460,6 +465,62 @@ throws GroupsException
     return groups.iterator();
 }
 
+/**
+ * Find the keys of the groups that directly contain each member group, in
+ * a single pass over the membership table.
+ * @param serviceName the name of the service that owns this store
+ * @return Map of member group key to the keys of its containing groups
+ */
+public Map<String, Set<String>> findContainingGroupKeysForGroups(String serviceName)
+throws GroupsException
+{
+    java.sql.Connection conn = null;
+    Map<String, Set<String>> containingGroupKeys = new HashMap<String, Set<String>>();
+
+    try
+    {
+        conn = RDBMServices.getConnection();
+        String sql = getFindContainingGroupKeysForGroupsSql();
+        Statement stmnt = conn.createStatement();
+        try
+        {
+            if (log.isDebugEnabled())
+                log.debug(
+                        "RDBMEntityGroupStore.findContainingGroupKeysForGroups(): " + sql);
+            java.sql.ResultSet rs = stmnt.executeQuery(sql);
+            try
+            {
+                while (rs.next())
+                {
+                    String groupKey = serviceName + GROUP_NODE_SEPARATOR + rs.getString(1);
+                    String memberKey = rs.getString(2) + GROUP_NODE_SEPARATOR + rs.getString(3);
+                    Set<String> groupKeys = containingGroupKeys.get(memberKey);
+                    if ( groupKeys == null )
+                    {
+                        groupKeys = new HashSet<String>();
+                        containingGroupKeys.put(memberKey, groupKeys);
+                    }
+                    groupKeys.add(groupKey);
+                }
+            }
+            finally
+                { rs.close(); }
+        }
+        finally
+            { stmnt.close(); }
+    }
+    catch (Exception e)
+    {
+        log.error( "RDBMEntityGroupStore.findContainingGroupKeysForGroups(): " + e);
+        throw new GroupsException("Problem retrieving containing group keys: " + e);
+    }
+
+    finally
+        { RDBMServices.releaseConnection(conn); }
+
+    return containingGroupKeys;
+}
+
 /**
  * Find the <code>IEntities</code> that are members of the <code>IEntityGroup</code>.
  * @param group the entity group in question
@@ -914,6 +975,26 @@ private static java.lang.String getFindContainingGroupsForGroupSql()
     }
     return findContainingGroupsForGroupSql;
 }
+/**
+ * @return java.lang.String
+ */
+private static java.lang.String getFindContainingGroupKeysForGroupsSql()
+{
+    if ( findContainingGroupKeysForGroupsSql == null)
+    {
+        StringBuffer buff = new StringBuffer(200);
+        buff.append("SELECT ");
+        buff.append(MEMBER_GROUP_ID_COLUMN + ", " + MEMBER_MEMBER_SERVICE_COLUMN + ", " + MEMBER_MEMBER_KEY_COLUMN);
+        buff.append(" FROM ");
+        buff.append(MEMBER_TABLE);
+        buff.append(" WHERE ");
+        buff.append(MEMBER_IS_GROUP_COLUMN + EQ);
+        buff.append(sqlQuote(MEMBER_IS_GROUP));
+
+       findContainingGroupKeysForGroupsSql = buff.toString();
+    }
+    return findContainingGroupKeysForGroupsSql;
+}
 /**
  * @return java.lang.String
  */
@@ -19,12 +19,14 @@
 
 package org.jasig.portal.groups;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.naming.Name;
 
@@ -32,9 +34,13 @@ import org.jasig.portal.EntityIdentifier;
 import org.jasig.portal.concurrency.CachingException;
 import org.jasig.portal.concurrency.IEntityLock;
 import org.jasig.portal.concurrency.LockingException;
+import org.jasig.portal.concurrency.caching.ICacheInvalidationHandler;
+import org.jasig.portal.concurrency.caching.ICacheInvalidationService;
+import org.jasig.portal.properties.PropertiesManager;
 import org.jasig.portal.services.EntityCachingService;
 import org.jasig.portal.services.EntityLockService;
 import org.jasig.portal.services.GroupService;
+import org.jasig.portal.spring.locator.CacheInvalidationServiceLocator;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -49,6 +55,10 @@ implements IIndividualGroupService, ILockableGroupService
 {
     
     private static final Log log = LogFactory.getLog(ReferenceIndividualGroupService.class);
+
+    // Seconds before the containing group index is reloaded, in case an invalidation from a peer server is missed.
+    private static final int CONTAINING_GROUP_INDEX_MAX_AGE = PropertiesManager.getPropertyAsInt(
+            "org.jasig.portal.groups.ReferenceIndividualGroupService.containingGroupIndexMaxAge", 300);
     
     // Describes the attributes of this service.  See compositeGroupServices.xml.
     protected ComponentGroupServiceDescriptor serviceDescriptor;
@@ -57,6 +67,10 @@ implements IIndividualGroupService, ILockableGroupService
 
     // Entity searcher
     protected IEntitySearcher entitySearcher;
+
+    // Ancestor closure over the group-in-group memberships in the store, if the store supports it.
+    private volatile GroupClosureIndex containingGroupIndex;
+    private boolean containingGroupIndexHandlerRegistered = false;
     
 /**
  * ReferenceGroupsService constructor.
@@ -202,6 +216,13 @@ public void deleteGroup(ILockableEntityGroup group) throws GroupsException
  */
 public Iterator findContainingGroups(IGroupMember gm) throws GroupsException
 {
+    if ( gm.isGroup() )
+    {
+        GroupClosureIndex index = getContainingGroupIndex();
+        if ( index != null )
+            { return findGroups(index.getContainingGroupKeys(gm.getKey())).iterator(); }
+    }
+
     Collection groups = new ArrayList(10);
     IEntityGroup group = null;
     for ( Iterator it = getGroupStore().findContainingGroups(gm); it.hasNext(); )
@@ -223,6 +244,39 @@ public Iterator findContainingGroups(IGroupMember gm) throws GroupsException
     return groups.iterator();
 }
 
+/**
+ * Returns the keys of the groups in this service that recursively contain
+ * <code>group</code>, answered from the containing group index in a single
+ * lookup.  Returns null if the group belongs to another service or the store
+ * does not support the index.
+ * @param group IEntityGroup
+ */
+public Set findAncestorGroupKeys(IEntityGroup group) throws GroupsException
+{
+    if ( ! getServiceName().equals(group.getServiceName()) )
+        { return null; }
+    GroupClosureIndex index = getContainingGroupIndex();
+    return ( index == null )
+      ? null
+      : index.getAncestorGroupKeys(group.getKey());
+}
+
+/**
+ * Returns the <code>IEntityGroups</code> for the keys, skipping any that no
+ * longer exist.
+ */
+private Collection findGroups(Set groupKeys) throws GroupsException
+{
+    Collection groups = new ArrayList(groupKeys.size());
+    for ( Iterator it = groupKeys.iterator(); it.hasNext(); )
+    {
+        IEntityGroup group = findGroup((String) it.next());
+        if ( group != null )
+            { groups.add(group); }
+    }
+    return groups;
+}
+
 /**
  * Returns a pre-existing <code>IEntityGroup</code> or null if it
  * does not exist.
@@ -470,6 +524,92 @@ protected IEntityGroup getGroupFromCache(String key) throws CachingException
           underlyingEntityIdentifier.getType());
     }
     
+/**
+ * Returns the ancestor closure over the group-in-group memberships in the store,
+ * loading it on first use and reloading it after a group is added, updated or
+ * deleted on this or a peer server, or once it is older than
+ * <code>containingGroupIndexMaxAge</code> seconds.  Returns null if the store
+ * cannot list its memberships in one pass or the index is disabled.
+ */
+protected GroupClosureIndex getContainingGroupIndex() throws GroupsException
+{
+    if ( ! isContainingGroupIndexEnabled() )
+        { return null; }
+
+    GroupClosureIndex index = containingGroupIndex;
+    if ( index == null || isExpired(index) )
+    {
+        synchronized (this)
+        {
+            index = containingGroupIndex;
+            if ( index == null || isExpired(index) )
+            {
+                registerContainingGroupIndexHandler();
+                IContainingGroupKeyStore store = (IContainingGroupKeyStore) getGroupStore();
+                index = new GroupClosureIndex(store.findContainingGroupKeysForGroups(getServiceName().toString()));
+                containingGroupIndex = index;
+            }
+        }
+    }
+    return index;
+}
+
+/**
+ * Answers if the store supports the containing group index and it is not disabled.
+ */
+private boolean isContainingGroupIndexEnabled() throws GroupsException
+{
+    return CONTAINING_GROUP_INDEX_MAX_AGE > 0 && getGroupStore() instanceof IContainingGroupKeyStore;
+}
+
+/**
+ * Returns the name invalidations of the containing group index are published under.
+ */
+private String getContainingGroupIndexCacheName()
+{
+    return ReferenceIndividualGroupService.class.getName() + ".containingGroupIndex." + getServiceName();
+}
+
+/**
+ * Registers the handler that drops the containing group index when a peer
+ * server changes a group, must be called while holding the monitor.
+ */
+private void registerContainingGroupIndexHandler()
+{
+    if ( containingGroupIndexHandlerRegistered )
+        { return; }
+
+    ICacheInvalidationService cacheInvalidationService = CacheInvalidationServiceLocator.getCacheInvalidationService();
+    cacheInvalidationService.registerHandler(getContainingGroupIndexCacheName(), new ICacheInvalidationHandler() {
+        public void invalidate(Serializable key)
+            { containingGroupIndex = null; }
+        public void invalidateAll()
+            { containingGroupIndex = null; }
+    });
+    containingGroupIndexHandlerRegistered = true;
+}
+
+/**
+ * Drops the containing group index on this server and all peers so it is
+ * reloaded with the changed memberships on next use.
+ */
+protected void invalidateContainingGroupIndex() throws GroupsException
+{
+    if ( ! isContainingGroupIndexEnabled() )
+        { return; }
+
+    containingGroupIndex = null;
+    CacheInvalidationServiceLocator.getCacheInvalidationService().invalidateAll(getContainingGroupIndexCacheName());
+}
+
+/**
+ * Answers if the containing group index should be reloaded from the store.
+ */
+private boolean isExpired(GroupClosureIndex index)
+{
+    return index.getCreated() + CONTAINING_GROUP_INDEX_MAX_AGE * 1000L < System.currentTimeMillis();
+}
+
 /**
  * Returns the implementation of <code>IEntityGroupStore</code> whose class name
  * was retrieved by the PropertiesManager (see initialize()).
@@ -811,6 +951,8 @@ throws GroupsException
         if ( cacheInUse() )
            { cacheUpdate(gmi); }
     }
+
+    invalidateContainingGroupIndex();
 }
 
 /**
@@ -840,6 +982,8 @@ throws GroupsException
         if ( cacheInUse() )
            { cacheUpdate(gmi); }
     }
+
+    invalidateContainingGroupIndex();
 }
 
 /**
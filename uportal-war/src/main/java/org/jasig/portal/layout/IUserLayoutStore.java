@@ -53,6 +53,18 @@ public interface IUserLayoutStore {
      */
     public DistributedUserLayout getUserLayout (IPerson Person, IUserProfile profile);
 
+    /**
+     * Brings a layout previously returned by {@link #getUserLayout(IPerson, IUserProfile)} up to
+     * date with changes to the fragments incorporated into it.
+     *
+     * @param person an <code>IPerson</code> object specifying the user
+     * @param profile a user profile
+     * @param layout the user's current layout
+     * @return the same layout if no incorporated fragment has changed, an updated layout if the changed
+     *         fragments could be patched in or null if the layout must be reloaded
+     */
+    public DistributedUserLayout getUpdatedUserLayout (IPerson person, IUserProfile profile, DistributedUserLayout layout);
+
     /**
      * Returns an <code>Element</code> representing the user's layout and 
      * <code>UserPreferences</code> (but not portlet preferences) formatted for 
@@ -220,15 +220,18 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
     }
 
     protected DistributedUserLayout getDistributedUserLayout() {
-        DistributedUserLayout userLayout = this.layoutCachingService.getCachedLayout(owner, profile);
-        if ( null == userLayout )
+        final DistributedUserLayout cachedLayout = this.layoutCachingService.getCachedLayout(owner, profile);
+        DistributedUserLayout userLayout = this.getUpdatedUserLayout(cachedLayout);
+        if ( null == userLayout || userLayout != cachedLayout )
         {
-            if (LOG.isDebugEnabled())
+            if (null == userLayout && LOG.isDebugEnabled())
             {
                 LOG.debug("Load from store for " +
                     owner.getAttribute(IPerson.USERNAME));
             }
-            userLayout = this.distributedLayoutStore.getUserLayout(this.owner,this.profile);
+            if (null == userLayout) {
+                userLayout = this.distributedLayoutStore.getUserLayout(this.owner,this.profile);
+            }
             
             final Document userLayoutDocument = userLayout.getLayout();
 
@@ -278,6 +281,25 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
         return userLayout;
     }
     
+    /**
+     * Patches fragments that changed since the cached layout was loaded into
+     * the cached layout.
+     * 
+     * @return the layout to use, null if there is no cached layout or it must be reloaded
+     */
+    private synchronized DistributedUserLayout getUpdatedUserLayout(DistributedUserLayout cachedLayout) {
+        if (cachedLayout == null) {
+            return null;
+        }
+        
+        final DistributedUserLayout updatedLayout = this.distributedLayoutStore.getUpdatedUserLayout(this.owner, this.profile, cachedLayout);
+        if (updatedLayout != null && updatedLayout != cachedLayout && LOG.isDebugEnabled()) {
+            LOG.debug("Patched updated fragments into the layout for " + owner.getAttribute(IPerson.USERNAME));
+        }
+        
+        return updatedLayout;
+    }
+    
     @Override
     public XMLEventReader getUserLayoutReader() {
         Document ul = this.getUserLayoutDOM();
@@ -20,7 +20,9 @@
 package org.jasig.portal.layout.dlm;
 
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.jasig.portal.layout.om.IStylesheetUserPreferences;
@@ -37,6 +39,9 @@ public class DistributedUserLayout {
     private final Set<String> fragmentNames;
     private final IStylesheetUserPreferences distributedStructureStylesheetUserPreferences;
     private final IStylesheetUserPreferences distributedThemeStylesheetUserPreferences;
+    private final Map<String, String> fragmentVersions;
+    private final LayoutSnapshot incorporatedLayout;
+    private volatile long userViewSerial;
 
     /**
      * This constructor seems to be used with fragment owners.
@@ -48,6 +53,8 @@ public class DistributedUserLayout {
         this.fragmentNames = Collections.emptySet();
         this.distributedStructureStylesheetUserPreferences = null;
         this.distributedThemeStylesheetUserPreferences = null;
+        this.fragmentVersions = Collections.emptyMap();
+        this.incorporatedLayout = null;
     }
 
     /**
@@ -58,10 +65,28 @@ public class DistributedUserLayout {
     public DistributedUserLayout(Document layout, Set<String> fragmentNames,
             IStylesheetUserPreferences distributedStructureStylesheetUserPreferences,
             IStylesheetUserPreferences distributedThemeStylesheetUserPreferences) {
+        this(layout, fragmentNames, distributedStructureStylesheetUserPreferences,
+                distributedThemeStylesheetUserPreferences, Collections.<String, String>emptyMap(), null, 0);
+    }
+
+    /**
+     * Used for merged layouts that can be updated in place when an incorporated fragment changes.
+     * 
+     * @param fragmentVersions The version of each fragment the layout was merged from, keyed by fragment name
+     * @param incorporatedLayout The fragments as incorporated into the layout before the PLF was applied
+     * @param userViewSerial The {@link FragmentActivator#getUserViewSerial()} when the fragments were read
+     */
+    public DistributedUserLayout(Document layout, Set<String> fragmentNames,
+            IStylesheetUserPreferences distributedStructureStylesheetUserPreferences,
+            IStylesheetUserPreferences distributedThemeStylesheetUserPreferences,
+            Map<String, String> fragmentVersions, LayoutSnapshot incorporatedLayout, long userViewSerial) {
         this.layout = layout;
         this.fragmentNames = Collections.unmodifiableSet(new LinkedHashSet<String>(fragmentNames));
         this.distributedStructureStylesheetUserPreferences = distributedStructureStylesheetUserPreferences;
         this.distributedThemeStylesheetUserPreferences = distributedThemeStylesheetUserPreferences;
+        this.fragmentVersions = Collections.unmodifiableMap(new LinkedHashMap<String, String>(fragmentVersions));
+        this.incorporatedLayout = incorporatedLayout;
+        this.userViewSerial = userViewSerial;
     }
 
     /**
@@ -85,4 +110,29 @@ public class DistributedUserLayout {
     public IStylesheetUserPreferences getDistributedThemeStylesheetUserPreferences() {
         return this.distributedThemeStylesheetUserPreferences;
     }
+
+    /**
+     * @return The version of each fragment the layout was merged from, keyed by fragment name
+     */
+    public Map<String, String> getFragmentVersions() {
+        return this.fragmentVersions;
+    }
+
+    /**
+     * @return The fragments as incorporated into the layout before the PLF was applied, null if not available
+     */
+    public LayoutSnapshot getIncorporatedLayout() {
+        return this.incorporatedLayout;
+    }
+
+    /**
+     * @return The {@link FragmentActivator#getUserViewSerial()} the fragment versions were last verified against
+     */
+    public long getUserViewSerial() {
+        return this.userViewSerial;
+    }
+
+    public void setUserViewSerial(long userViewSerial) {
+        this.userViewSerial = userViewSerial;
+    }
 }
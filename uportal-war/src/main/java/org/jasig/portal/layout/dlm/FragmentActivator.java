@@ -19,10 +19,12 @@
 
 package org.jasig.portal.layout.dlm;
 
+import java.io.Serializable;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
@@ -35,6 +37,8 @@ import org.jasig.portal.AuthorizationException;
 import org.jasig.portal.IUserIdentityStore;
 import org.jasig.portal.IUserProfile;
 import org.jasig.portal.UserProfile;
+import org.jasig.portal.concurrency.caching.ICacheInvalidationHandler;
+import org.jasig.portal.concurrency.caching.ICacheInvalidationService;
 import org.jasig.portal.i18n.LocaleManager;
 import org.jasig.portal.layout.IUserLayoutStore;
 import org.jasig.portal.layout.dao.IStylesheetUserPreferencesDao;
@@ -47,6 +51,7 @@ import org.jasig.portal.utils.threading.ReadResult;
 import org.jasig.portal.utils.threading.ReadWriteCallback;
 import org.jasig.portal.utils.threading.ReadWriteLockTemplate;
 import org.jasig.portal.utils.threading.SingletonDoubleCheckedCreator;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
@@ -60,18 +65,21 @@ import org.w3c.dom.NodeList;
  * @since uPortal 2.5
  */
 @Service
-public class FragmentActivator extends SingletonDoubleCheckedCreator<Boolean>
+public class FragmentActivator extends SingletonDoubleCheckedCreator<Boolean> implements InitializingBean
 {
     public static final String RCS_ID = "@(#) $Header$";
+    public static final String USER_VIEWS_CACHE_NAME = "org.jasig.portal.layout.dlm.FragmentActivator.userViews";
     private static final Log LOG = LogFactory.getLog(FragmentActivator.class);
 
     private final ConcurrentMap<String, ReadWriteLock> userViewLocks = new ConcurrentHashMap<String, ReadWriteLock>();
+    private final AtomicLong userViewSerial = new AtomicLong();
     
     private Ehcache userViews;
     private IUserIdentityStore identityStore;
     private IUserLayoutStore userLayoutStore;
     private IStylesheetUserPreferencesDao stylesheetUserPreferencesDao;
     private ConfigurationLoader configurationLoader;
+    private ICacheInvalidationService cacheInvalidationService;
 
     private static final int CHANNELS = 0;
     private static final int FOLDERS = 1;
@@ -81,10 +89,15 @@ public class FragmentActivator extends SingletonDoubleCheckedCreator<Boolean>
     private static final Pattern EXPANDED_PATTERN = Pattern.compile(".*");
 
     @Autowired
-    public void setUserViews(@Qualifier("org.jasig.portal.layout.dlm.FragmentActivator.userViews") Ehcache userViews) {
+    public void setUserViews(@Qualifier(USER_VIEWS_CACHE_NAME) Ehcache userViews) {
         this.userViews = userViews;
     }
 
+    @Autowired
+    public void setCacheInvalidationService(ICacheInvalidationService cacheInvalidationService) {
+        this.cacheInvalidationService = cacheInvalidationService;
+    }
+
     @Autowired
     public void setConfigurationLoader(ConfigurationLoader configurationLoader) {
         this.configurationLoader = configurationLoader;
@@ -106,6 +119,23 @@ public class FragmentActivator extends SingletonDoubleCheckedCreator<Boolean>
     }
     
 
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        // userViews is keyed by owner and locale, invalidations from other servers are by owner
+        this.cacheInvalidationService.registerHandler(USER_VIEWS_CACHE_NAME, new ICacheInvalidationHandler() {
+            @Override
+            public void invalidate(Serializable key) {
+                clearChacheForOwner((String) key);
+            }
+
+            @Override
+            public void invalidateAll() {
+                userViews.removeAll();
+                userViewSerial.incrementAndGet();
+            }
+        });
+    }
+
     /**
      * Activation will only be run once and will return immediately for every call once activation
      * is complete.
@@ -279,9 +309,18 @@ public class FragmentActivator extends SingletonDoubleCheckedCreator<Boolean>
         }
         
         userViews.put(new net.sf.ehcache.Element(new Tuple<String, String>(ownerId, locale.toString()), v));
+        userViewSerial.incrementAndGet();
         
     }
     
+    /**
+     * @return A serial number that changes every time a UserView is set, layouts merged from fragments
+     * only need to check their fragment versions when this changes
+     */
+    public long getUserViewSerial() {
+        return userViewSerial.get();
+    }
+    
     public boolean hasUserView(FragmentDefinition fd, Locale locale) {
 
         // Assertions...
@@ -577,6 +616,7 @@ public class FragmentActivator extends SingletonDoubleCheckedCreator<Boolean>
                         userViews.remove(key);
                     }
                 }
+                userViewSerial.incrementAndGet();
                 return null;
             }
         });
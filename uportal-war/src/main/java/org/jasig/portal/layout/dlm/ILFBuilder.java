@@ -115,6 +115,56 @@ public class ILFBuilder
     }    
 
 
+    /**
+     * Replaces the nodes incorporated from one fragment into a composite
+     * layout built by constructILF with the children of a new version of that
+     * fragment. The nodes of all other fragments are left in place and the new
+     * nodes are inserted ahead of the nodes of the fragments that follow it.
+     * 
+     * @param fragment the new version of the fragment, null to only remove the
+     * fragment's nodes
+     * @param fragmentIndex the dlm:fragment index of the fragment
+     * @param followingFragmentIndexes the dlm:fragment indexes of the
+     * fragments merged after this fragment
+     * @throws AuthorizationException
+     */
+    public static void replaceFragment( Document fragment,
+                                        String fragmentIndex,
+                                        Set<String> followingFragmentIndexes,
+                                        Document composite,
+                                        IAuthorizationPrincipal ap )
+    throws AuthorizationException
+    {
+        Element compositeLayout = composite.getDocumentElement();
+        Element compositeRoot = (Element) compositeLayout.getFirstChild();
+
+        // remove the old nodes and find where the fragment's nodes belong
+        Node insertBefore = null;
+        Node item = compositeRoot.getFirstChild();
+        while (item != null) {
+            Node next = item.getNextSibling();
+            if (item instanceof Element) {
+                String index = ((Element) item).getAttributeNS(Constants.NS_URI, Constants.LCL_FRAGMENT);
+                if (fragmentIndex.equals(index))
+                    compositeRoot.removeChild(item);
+                else if (insertBefore == null && followingFragmentIndexes.contains(index))
+                    insertBefore = item;
+            }
+            item = next;
+        }
+
+        if (fragment == null)
+            return;
+
+        // merge into a detached element then move the new nodes into place
+        Element fragmentRoot = (Element) fragment.getDocumentElement().getFirstChild();
+        Element merged = composite.createElement(compositeRoot.getTagName());
+        mergeChildren( fragmentRoot, merged, ap, new HashSet<Element>() );
+        while (merged.getFirstChild() != null) {
+            compositeRoot.insertBefore(merged.getFirstChild(), insertBefore);
+        }
+    }
+
     /**
      * @param source parent of children
      * @param dest receiver of children
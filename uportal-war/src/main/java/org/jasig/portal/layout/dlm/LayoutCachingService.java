@@ -32,14 +32,15 @@ import org.jasig.portal.events.LogoutEvent;
 import org.jasig.portal.events.PortalEvent;
 import org.jasig.portal.layout.IUserLayoutStore;
 import org.jasig.portal.security.IPerson;
+import org.jasig.portal.spring.context.SynchronousApplicationListener;
 import org.jasig.portal.spring.locator.UserLayoutStoreLocator;
 import org.jasig.portal.utils.Tuple;
-import org.springframework.context.ApplicationListener;
 
 /**
- * Provides API for layout caching service
+ * Provides API for layout caching service. Login and logout events are handled synchronously so cached
+ * layouts are removed before the next request is rendered.
  */
-public class LayoutCachingService implements ApplicationListener<PortalEvent>, ILayoutCachingService {
+public class LayoutCachingService implements SynchronousApplicationListener<PortalEvent>, ILayoutCachingService {
     protected final Log logger = LogFactory.getLog(this.getClass());
     
     private Map<Serializable, DistributedUserLayout> layoutCache;
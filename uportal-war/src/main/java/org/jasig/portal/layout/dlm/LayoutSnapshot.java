@@ -0,0 +1,484 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout.dlm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Hex;
+import org.jasig.portal.utils.DocumentFactory;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+/**
+ * Compact, immutable copy of a layout {@link Document}. Nodes are stored in document order as parallel
+ * arrays with all names and values interned in a single string table, which is a fraction of the size of
+ * the equivalent DOM. A snapshot can be written to and read from a versioned binary form and converted
+ * back into a new, independently modifiable DOM including ID attribute registrations.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public final class LayoutSnapshot {
+    private static final int MAGIC = 0x4C41594F;
+    private static final int FORMAT_VERSION = 1;
+    
+    private static final int NO_STRING = -1;
+    private static final byte FLAG_NAMESPACE_AWARE = 0x1;
+    private static final byte FLAG_ID = 0x2;
+    
+    private final String[] strings;
+    
+    private final byte[] nodeTypes;
+    private final byte[] nodeFlags;
+    private final int[] nodeNames;
+    private final int[] nodeNamespaces;
+    private final int[] nodeValues;
+    private final int[] childCounts;
+    
+    //attributes of node n are at attributeOffsets[n] (inclusive) to attributeOffsets[n + 1] (exclusive)
+    private final int[] attributeOffsets;
+    private final byte[] attributeFlags;
+    private final int[] attributeNames;
+    private final int[] attributeNamespaces;
+    private final int[] attributeValues;
+    
+    private LayoutSnapshot(String[] strings, byte[] nodeTypes, byte[] nodeFlags, int[] nodeNames,
+            int[] nodeNamespaces, int[] nodeValues, int[] childCounts, int[] attributeOffsets, byte[] attributeFlags,
+            int[] attributeNames, int[] attributeNamespaces, int[] attributeValues) {
+        this.strings = strings;
+        this.nodeTypes = nodeTypes;
+        this.nodeFlags = nodeFlags;
+        this.nodeNames = nodeNames;
+        this.nodeNamespaces = nodeNamespaces;
+        this.nodeValues = nodeValues;
+        this.childCounts = childCounts;
+        this.attributeOffsets = attributeOffsets;
+        this.attributeFlags = attributeFlags;
+        this.attributeNames = attributeNames;
+        this.attributeNamespaces = attributeNamespaces;
+        this.attributeValues = attributeValues;
+    }
+    
+    /**
+     * Create a snapshot of the document. Element, text, CDATA, comment and processing instruction nodes are
+     * supported.
+     * 
+     * @throws IllegalArgumentException if the document contains a node type that cannot be captured
+     */
+    public static LayoutSnapshot fromDocument(Document document) {
+        final Builder builder = new Builder();
+        for (Node child = document.getFirstChild(); child != null; child = child.getNextSibling()) {
+            builder.addNode(child);
+        }
+        return builder.build();
+    }
+    
+    /**
+     * Read a snapshot written by {@link #toBytes()}
+     * 
+     * @throws IllegalArgumentException if the data is not a snapshot or was written in an unsupported format version
+     */
+    public static LayoutSnapshot fromBytes(byte[] data) {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IllegalArgumentException("Data is not a serialized LayoutSnapshot");
+            }
+            final int formatVersion = in.readInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported LayoutSnapshot format version " + formatVersion + ", expected " + FORMAT_VERSION);
+            }
+            
+            final String[] strings = new String[in.readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                final byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                strings[i] = new String(bytes, "UTF-8");
+            }
+            
+            final int nodeCount = in.readInt();
+            final byte[] nodeTypes = new byte[nodeCount];
+            final byte[] nodeFlags = new byte[nodeCount];
+            final int[] nodeNames = new int[nodeCount];
+            final int[] nodeNamespaces = new int[nodeCount];
+            final int[] nodeValues = new int[nodeCount];
+            final int[] childCounts = new int[nodeCount];
+            final int[] attributeOffsets = new int[nodeCount + 1];
+            for (int i = 0; i < nodeCount; i++) {
+                nodeTypes[i] = in.readByte();
+                nodeFlags[i] = in.readByte();
+                nodeNames[i] = in.readInt();
+                nodeNamespaces[i] = in.readInt();
+                nodeValues[i] = in.readInt();
+                childCounts[i] = in.readInt();
+                attributeOffsets[i + 1] = in.readInt();
+            }
+            
+            final int attributeCount = attributeOffsets[nodeCount];
+            final byte[] attributeFlags = new byte[attributeCount];
+            final int[] attributeNames = new int[attributeCount];
+            final int[] attributeNamespaces = new int[attributeCount];
+            final int[] attributeValues = new int[attributeCount];
+            for (int i = 0; i < attributeCount; i++) {
+                attributeFlags[i] = in.readByte();
+                attributeNames[i] = in.readInt();
+                attributeNamespaces[i] = in.readInt();
+                attributeValues[i] = in.readInt();
+            }
+            
+            return new LayoutSnapshot(strings, nodeTypes, nodeFlags, nodeNames, nodeNamespaces, nodeValues,
+                    childCounts, attributeOffsets, attributeFlags, attributeNames, attributeNamespaces, attributeValues);
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Failed to read LayoutSnapshot data", e);
+        }
+    }
+    
+    /**
+     * @return The versioned binary form of the snapshot
+     */
+    public byte[] toBytes() {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(this.getEstimatedSize());
+        final DataOutputStream out = new DataOutputStream(buffer);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            
+            out.writeInt(this.strings.length);
+            for (final String string : this.strings) {
+                final byte[] bytes = string.getBytes("UTF-8");
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            
+            out.writeInt(this.nodeTypes.length);
+            for (int i = 0; i < this.nodeTypes.length; i++) {
+                out.writeByte(this.nodeTypes[i]);
+                out.writeByte(this.nodeFlags[i]);
+                out.writeInt(this.nodeNames[i]);
+                out.writeInt(this.nodeNamespaces[i]);
+                out.writeInt(this.nodeValues[i]);
+                out.writeInt(this.childCounts[i]);
+                out.writeInt(this.attributeOffsets[i + 1]);
+            }
+            
+            for (int i = 0; i < this.attributeNames.length; i++) {
+                out.writeByte(this.attributeFlags[i]);
+                out.writeInt(this.attributeNames[i]);
+                out.writeInt(this.attributeNamespaces[i]);
+                out.writeInt(this.attributeValues[i]);
+            }
+            
+            out.flush();
+        }
+        catch (IOException e) {
+            //Can't happen with a ByteArrayOutputStream
+            throw new IllegalStateException("Failed to write LayoutSnapshot data", e);
+        }
+        return buffer.toByteArray();
+    }
+    
+    /**
+     * @return A digest of the snapshot content, two snapshots of equivalent documents have the same digest
+     */
+    public String getDigest() {
+        try {
+            final MessageDigest md = MessageDigest.getInstance("MD5");
+            return new String(Hex.encodeHex(md.digest(this.toBytes())));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+    
+    /**
+     * @return A new document equivalent to the one the snapshot was created from
+     */
+    public Document toDocument() {
+        final Document document = DocumentFactory.getThreadDocument();
+        
+        //Parents whose children are still being appended and the number of children remaining for each
+        final LinkedList<Node> parents = new LinkedList<Node>();
+        final LinkedList<Integer> remaining = new LinkedList<Integer>();
+        parents.addFirst(document);
+        remaining.addFirst(Integer.MAX_VALUE);
+        
+        for (int n = 0; n < this.nodeTypes.length; n++) {
+            final Node node = this.createNode(document, n);
+            parents.getFirst().appendChild(node);
+            remaining.set(0, remaining.getFirst() - 1);
+            
+            if (this.childCounts[n] > 0) {
+                parents.addFirst(node);
+                remaining.addFirst(this.childCounts[n]);
+            }
+            
+            while (remaining.getFirst() == 0) {
+                parents.removeFirst();
+                remaining.removeFirst();
+            }
+        }
+        
+        return document;
+    }
+    
+    /**
+     * @return The number of nodes, excluding attributes, in the snapshot
+     */
+    public int getNodeCount() {
+        return this.nodeTypes.length;
+    }
+    
+    private int getEstimatedSize() {
+        return 16 + this.strings.length * 24 + this.nodeTypes.length * 22 + this.attributeNames.length * 13;
+    }
+    
+    private Node createNode(Document document, int n) {
+        switch (this.nodeTypes[n]) {
+            case Node.ELEMENT_NODE: {
+                final Element element;
+                if ((this.nodeFlags[n] & FLAG_NAMESPACE_AWARE) != 0) {
+                    element = document.createElementNS(this.getString(this.nodeNamespaces[n]), this.strings[this.nodeNames[n]]);
+                }
+                else {
+                    element = document.createElement(this.strings[this.nodeNames[n]]);
+                }
+                
+                for (int a = this.attributeOffsets[n]; a < this.attributeOffsets[n + 1]; a++) {
+                    final String name = this.strings[this.attributeNames[a]];
+                    final String value = this.strings[this.attributeValues[a]];
+                    if ((this.attributeFlags[a] & FLAG_NAMESPACE_AWARE) != 0) {
+                        final String namespace = this.getString(this.attributeNamespaces[a]);
+                        element.setAttributeNS(namespace, name, value);
+                        if ((this.attributeFlags[a] & FLAG_ID) != 0) {
+                            element.setIdAttributeNode(element.getAttributeNodeNS(namespace, name.substring(name.indexOf(':') + 1)), true);
+                        }
+                    }
+                    else {
+                        element.setAttribute(name, value);
+                        if ((this.attributeFlags[a] & FLAG_ID) != 0) {
+                            element.setIdAttribute(name, true);
+                        }
+                    }
+                }
+                
+                return element;
+            }
+            case Node.TEXT_NODE: {
+                return document.createTextNode(this.strings[this.nodeValues[n]]);
+            }
+            case Node.CDATA_SECTION_NODE: {
+                return document.createCDATASection(this.strings[this.nodeValues[n]]);
+            }
+            case Node.COMMENT_NODE: {
+                return document.createComment(this.strings[this.nodeValues[n]]);
+            }
+            case Node.PROCESSING_INSTRUCTION_NODE: {
+                return document.createProcessingInstruction(this.strings[this.nodeNames[n]], this.strings[this.nodeValues[n]]);
+            }
+            default: {
+                throw new IllegalStateException("Unsupported node type " + this.nodeTypes[n] + " in LayoutSnapshot");
+            }
+        }
+    }
+    
+    private String getString(int index) {
+        return index == NO_STRING ? null : this.strings[index];
+    }
+    
+    /**
+     * Flattens a DOM into the snapshot arrays, interning all names and values
+     */
+    private static final class Builder {
+        private final Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+        private final List<String> strings = new ArrayList<String>();
+        
+        private final ByteList nodeTypes = new ByteList();
+        private final ByteList nodeFlags = new ByteList();
+        private final IntList nodeNames = new IntList();
+        private final IntList nodeNamespaces = new IntList();
+        private final IntList nodeValues = new IntList();
+        private final IntList childCounts = new IntList();
+        private final IntList attributeOffsets = new IntList();
+        
+        private final ByteList attributeFlags = new ByteList();
+        private final IntList attributeNames = new IntList();
+        private final IntList attributeNamespaces = new IntList();
+        private final IntList attributeValues = new IntList();
+        
+        public Builder() {
+            this.attributeOffsets.add(0);
+        }
+        
+        public void addNode(Node node) {
+            final short nodeType = node.getNodeType();
+            switch (nodeType) {
+                case Node.ELEMENT_NODE: {
+                    this.addNode(nodeType, getFlags(node, false), node.getNodeName(), node.getNamespaceURI(), null);
+                    
+                    final NamedNodeMap attributes = node.getAttributes();
+                    for (int i = 0; i < attributes.getLength(); i++) {
+                        final Attr attribute = (Attr) attributes.item(i);
+                        this.attributeFlags.add(getFlags(attribute, attribute.isId()));
+                        this.attributeNames.add(this.intern(attribute.getNodeName()));
+                        this.attributeNamespaces.add(this.intern(attribute.getNamespaceURI()));
+                        this.attributeValues.add(this.intern(attribute.getValue()));
+                    }
+                    break;
+                }
+                case Node.TEXT_NODE:
+                case Node.CDATA_SECTION_NODE:
+                case Node.COMMENT_NODE: {
+                    this.addNode(nodeType, (byte) 0, null, null, node.getNodeValue());
+                    break;
+                }
+                case Node.PROCESSING_INSTRUCTION_NODE: {
+                    final ProcessingInstruction pi = (ProcessingInstruction) node;
+                    this.addNode(nodeType, (byte) 0, pi.getTarget(), null, pi.getData());
+                    break;
+                }
+                default: {
+                    throw new IllegalArgumentException("Node type " + nodeType + " is not supported by LayoutSnapshot: " + node);
+                }
+            }
+            this.attributeOffsets.add(this.attributeNames.size());
+            
+            final int n = this.nodeTypes.size() - 1;
+            int childCount = 0;
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                this.addNode(child);
+                childCount++;
+            }
+            this.childCounts.set(n, childCount);
+        }
+        
+        public LayoutSnapshot build() {
+            return new LayoutSnapshot(this.strings.toArray(new String[this.strings.size()]),
+                    this.nodeTypes.toArray(), this.nodeFlags.toArray(), this.nodeNames.toArray(),
+                    this.nodeNamespaces.toArray(), this.nodeValues.toArray(), this.childCounts.toArray(),
+                    this.attributeOffsets.toArray(), this.attributeFlags.toArray(), this.attributeNames.toArray(),
+                    this.attributeNamespaces.toArray(), this.attributeValues.toArray());
+        }
+        
+        private void addNode(short nodeType, byte flags, String name, String namespace, String value) {
+            this.nodeTypes.add((byte) nodeType);
+            this.nodeFlags.add(flags);
+            this.nodeNames.add(this.intern(name));
+            this.nodeNamespaces.add(this.intern(namespace));
+            this.nodeValues.add(this.intern(value));
+            this.childCounts.add(0);
+        }
+        
+        private static byte getFlags(Node node, boolean id) {
+            byte flags = 0;
+            //DOM Level 1 nodes, created without a namespace, have no local name
+            if (node.getLocalName() != null) {
+                flags |= FLAG_NAMESPACE_AWARE;
+            }
+            if (id) {
+                flags |= FLAG_ID;
+            }
+            return flags;
+        }
+        
+        private int intern(String string) {
+            if (string == null) {
+                return NO_STRING;
+            }
+            
+            final Integer index = this.stringIndex.get(string);
+            if (index != null) {
+                return index;
+            }
+            
+            final int newIndex = this.strings.size();
+            this.strings.add(string);
+            this.stringIndex.put(string, newIndex);
+            return newIndex;
+        }
+    }
+    
+    private static final class IntList {
+        private int[] values = new int[64];
+        private int size = 0;
+        
+        public void add(int value) {
+            if (this.size == this.values.length) {
+                final int[] newValues = new int[this.size * 2];
+                System.arraycopy(this.values, 0, newValues, 0, this.size);
+                this.values = newValues;
+            }
+            this.values[this.size++] = value;
+        }
+        
+        public void set(int index, int value) {
+            this.values[index] = value;
+        }
+        
+        public int size() {
+            return this.size;
+        }
+        
+        public int[] toArray() {
+            final int[] array = new int[this.size];
+            System.arraycopy(this.values, 0, array, 0, this.size);
+            return array;
+        }
+    }
+    
+    private static final class ByteList {
+        private byte[] values = new byte[64];
+        private int size = 0;
+        
+        public void add(byte value) {
+            if (this.size == this.values.length) {
+                final byte[] newValues = new byte[this.size * 2];
+                System.arraycopy(this.values, 0, newValues, 0, this.size);
+                this.values = newValues;
+            }
+            this.values[this.size++] = value;
+        }
+        
+        public int size() {
+            return this.size;
+        }
+        
+        public byte[] toArray() {
+            final byte[] array = new byte[this.size];
+            System.arraycopy(this.values, 0, array, 0, this.size);
+            return array;
+        }
+    }
+}
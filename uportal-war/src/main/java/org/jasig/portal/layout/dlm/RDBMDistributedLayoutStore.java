@@ -19,9 +19,8 @@
 
 package org.jasig.portal.layout.dlm;
 
+import java.io.Serializable;
 import java.io.StringWriter;
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -59,6 +58,7 @@ import org.jasig.portal.IUserIdentityStore;
 import org.jasig.portal.IUserProfile;
 import org.jasig.portal.PortalException;
 import org.jasig.portal.RDBMServices;
+import org.jasig.portal.concurrency.caching.ICacheInvalidationService;
 import org.jasig.portal.i18n.LocaleManager;
 import org.jasig.portal.io.xml.IPortalDataHandlerService;
 import org.jasig.portal.layout.LayoutStructure;
@@ -67,6 +67,7 @@ import org.jasig.portal.layout.StylesheetUserPreferencesImpl;
 import org.jasig.portal.layout.dao.IStylesheetUserPreferencesDao;
 import org.jasig.portal.layout.om.IStylesheetDescriptor;
 import org.jasig.portal.layout.om.IStylesheetUserPreferences;
+import org.jasig.portal.layout.simple.LayoutRows;
 import org.jasig.portal.layout.simple.RDBMUserLayoutStore;
 import org.jasig.portal.portlet.dao.IPortletEntityDao;
 import org.jasig.portal.portlet.dao.jpa.PortletPreferenceImpl;
@@ -80,9 +81,11 @@ import org.jasig.portal.portlet.om.IPortletType;
 import org.jasig.portal.portlet.om.PortletLifecycleState;
 import org.jasig.portal.portlet.registry.IPortletEntityRegistry;
 import org.jasig.portal.properties.PropertiesManager;
+import org.jasig.portal.security.IAuthorizationPrincipal;
 import org.jasig.portal.security.IPerson;
 import org.jasig.portal.security.provider.BrokenSecurityContext;
 import org.jasig.portal.security.provider.PersonImpl;
+import org.jasig.portal.services.AuthorizationService;
 import org.jasig.portal.utils.DocumentFactory;
 import org.jasig.portal.utils.Tuple;
 import org.jasig.portal.xml.XmlUtilities;
@@ -129,6 +132,8 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
     private FragmentActivator fragmentActivator;
 
     private Ehcache fragmentNodeInfoCache;
+    private Ehcache layoutSnapshotCache;
+    private ICacheInvalidationService cacheInvalidationService;
     
     private boolean errorOnMissingPortlet = true;
     private boolean errorOnMissingUser = true;
@@ -195,6 +200,11 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         this.stylesheetUserPreferencesDao = stylesheetUserPreferencesDao;
     }
 
+    @Autowired
+    public void setCacheInvalidationService(ICacheInvalidationService cacheInvalidationService) {
+        this.cacheInvalidationService = cacheInvalidationService;
+    }
+
     @Autowired
     public void setFragmentNodeInfoCache(
             @Qualifier("org.jasig.portal.layout.dlm.RDBMDistributedLayoutStore.fragmentNodeInfoCache")
@@ -202,6 +212,17 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         this.fragmentNodeInfoCache = fragmentNodeInfoCache;
     }
 
+    /**
+     * Cache of merged composite layouts stored as binary {@link LayoutSnapshot}s, if not set every
+     * composite layout is merged when loaded
+     */
+    @Autowired
+    public void setLayoutSnapshotCache(
+            @Qualifier("org.jasig.portal.layout.dlm.RDBMDistributedLayoutStore.layoutSnapshotCache")
+            Ehcache layoutSnapshotCache) {
+        this.layoutSnapshotCache = layoutSnapshotCache;
+    }
+
     @Value("${org.jasig.portal.io.layout.errorOnMissingPortlet}")
     public void setErrorOnMissingPortlet(boolean errorOnMissingPortlet) {
         this.errorOnMissingPortlet = errorOnMissingPortlet;
@@ -1216,6 +1237,26 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         catch (final Exception e) {
             LOG.error("An exception occurred attempting to update a layout.", e);
         }
+
+        // Other servers reload the fragment, node info for both the old and new nodes is stale everywhere
+        this.cacheInvalidationService.invalidatePeers(FragmentActivator.USER_VIEWS_CACHE_NAME, fragment.getOwnerId());
+        final Set<String> nodeIds = new LinkedHashSet<String>();
+        this.collectNodeIds(userView.layout.getDocumentElement(), nodeIds);
+        this.collectNodeIds(view.layout.getDocumentElement(), nodeIds);
+        this.cacheInvalidationService.invalidate(this.fragmentNodeInfoCache.getName(), nodeIds);
+    }
+
+    private void collectNodeIds(Element element, Set<String> nodeIds) {
+        final String id = element.getAttribute(Constants.ATT_ID);
+        if (id.length() > 0) {
+            nodeIds.add(id);
+        }
+
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element) {
+                this.collectNodeIds((Element) child, nodeIds);
+            }
+        }
     }
 
     /**
@@ -1300,6 +1341,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
     {
         final Set<String> fragmentNames = new LinkedHashSet<String>();
         final List<Document> applicables = new LinkedList<Document>();
+        final List<UserView> applicableViews = new LinkedList<UserView>();
         final Locale locale = profile.getLocaleManager().getLocales()[0];
 
         final List<FragmentDefinition> definitions = this.configurationLoader.getFragments();
@@ -1308,7 +1350,11 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
             this.log.debug("About to check applicability of " + definitions.size() + " fragments");
         }
 
+        final Map<String, String> fragmentVersions = new LinkedHashMap<String, String>();
+
         final FragmentActivator activator = this.getFragmentActivator();
+        // read before the user views so a concurrent fragment update is detected later
+        final long userViewSerial = activator.getUserViewSerial();
 
         if (definitions != null) {
             for (final FragmentDefinition fragmentDefinition : definitions) {
@@ -1321,6 +1367,8 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
                     final UserView userView = activator.getUserView(fragmentDefinition, locale);
                     if (userView != null) {
                         applicables.add(userView.layout);
+                        applicableViews.add(userView);
+                        fragmentVersions.put(fragmentDefinition.getName(), userView.getLayoutVersion());
                     }
                     fragmentNames.add(fragmentDefinition.getName());
                 }
@@ -1337,7 +1385,22 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
                     + XmlUtilitiesImpl.toString(PLF));
         }
 
+        // the merge result only depends on the PLF, the applicable fragments and which of the fragment
+        // channels the user can render, reuse the previous merge if none of those have changed
+        final String compositeLayoutVersion = this.getCompositeLayoutVersion(person, PLF, applicableViews);
+        final Tuple<LayoutSnapshot, LayoutSnapshot> cachedSnapshot = this.getCachedCompositeLayout(person, profile, compositeLayoutVersion);
+        if (cachedSnapshot != null) {
+            person.setAttribute(Constants.PLF, PLF);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Using cached ILF snapshot for " + person.getAttribute(IPerson.USERNAME));
+            }
+            return this.createDistributedUserLayout(person, profile, cachedSnapshot.first.toDocument(), fragmentNames,
+                    fragmentVersions, cachedSnapshot.second, userViewSerial);
+        }
+
         final Document ILF = ILFBuilder.constructILF(PLF, applicables, person);
+        // keep the fragments as incorporated, before the PLF is applied, so fragment updates can be patched in
+        final LayoutSnapshot incorporatedLayout = this.createLayoutSnapshot(person, ILF);
         person.setAttribute(Constants.PLF, PLF);
         final IntegrationResult result = new IntegrationResult();
         PLFIntegrator.mergePLFintoILF(PLF, ILF, result);
@@ -1354,7 +1417,18 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
             }
             super.setUserLayout(person, profile, PLF, false);
         }
+        else {
+            // only cache merges of an unchanged PLF, the version was computed from the PLF before the merge
+            this.cacheCompositeLayout(person, profile, compositeLayoutVersion, ILF, incorporatedLayout);
+        }
+
+        return this.createDistributedUserLayout(person, profile, ILF, fragmentNames, fragmentVersions,
+                incorporatedLayout, userViewSerial);
+    }
 
+    private DistributedUserLayout createDistributedUserLayout(IPerson person, IUserProfile profile, Document ILF,
+            Set<String> fragmentNames, Map<String, String> fragmentVersions, LayoutSnapshot incorporatedLayout,
+            long userViewSerial) {
         final int structureStylesheetId = profile.getStructureStylesheetId();
         final IStylesheetUserPreferences distributedStructureStylesheetUserPreferences = this
                 .loadDistributedStylesheetUserPreferences(person, profile, structureStylesheetId, fragmentNames);
@@ -1364,7 +1438,216 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
                 .loadDistributedStylesheetUserPreferences(person, profile, themeStylesheetId, fragmentNames);
 
         return new DistributedUserLayout(ILF, fragmentNames, distributedStructureStylesheetUserPreferences,
-                distributedThemeStylesheetUserPreferences);
+                distributedThemeStylesheetUserPreferences, fragmentVersions, incorporatedLayout, userViewSerial);
+    }
+
+    @Override
+    public DistributedUserLayout getUpdatedUserLayout(IPerson person, IUserProfile profile, DistributedUserLayout layout) {
+        // owners get their own layout without any incorporated fragments
+        if (this.getOwnedFragment(person) != null || this.isLayoutOwnerDefault(person)) {
+            return layout;
+        }
+
+        final FragmentActivator activator = this.getFragmentActivator();
+        final long userViewSerial = activator.getUserViewSerial();
+        if (layout.getUserViewSerial() == userViewSerial) {
+            return layout;
+        }
+
+        final Map<String, String> fragmentVersions = layout.getFragmentVersions();
+        final Locale locale = profile.getLocaleManager().getLocales()[0];
+
+        // re-evaluate the full set of applicable fragments, not just the incorporated ones, so that
+        // fragments added to the configuration or newly applicable to the user are picked up
+        final List<FragmentDefinition> definitions = this.configurationLoader.getFragments();
+        final Set<String> fragmentNames = new LinkedHashSet<String>();
+        final Map<String, UserView> changedViews = new LinkedHashMap<String, UserView>();
+        final Map<String, String> fragmentIndexes = new LinkedHashMap<String, String>();
+        final Map<String, String> updatedVersions = new LinkedHashMap<String, String>();
+        if (definitions != null) {
+            for (final FragmentDefinition fragmentDefinition : definitions) {
+                if (!fragmentDefinition.isApplicable(person)) {
+                    continue;
+                }
+
+                final String fragmentName = fragmentDefinition.getName();
+                fragmentNames.add(fragmentName);
+                fragmentIndexes.put(fragmentName, Integer.toString(fragmentDefinition.getIndex()));
+
+                final UserView userView = activator.getUserView(fragmentDefinition, locale);
+                final String version = userView != null ? userView.getLayoutVersion() : null;
+                if (version != null) {
+                    updatedVersions.put(fragmentName, version);
+                }
+                final String incorporatedVersion = fragmentVersions.get(fragmentName);
+                if (version == null ? incorporatedVersion != null : !version.equals(incorporatedVersion)) {
+                    changedViews.put(fragmentName, userView);
+                }
+            }
+        }
+
+        if (!fragmentNames.equals(layout.getFragmentNames())) {
+            // the applicable fragments changed, the stylesheet preferences have to be reloaded with the layout
+            return null;
+        }
+
+        if (changedViews.isEmpty()) {
+            layout.setUserViewSerial(userViewSerial);
+            return layout;
+        }
+
+        final LayoutSnapshot incorporatedLayout = layout.getIncorporatedLayout();
+        final Document PLF = (Document) person.getAttribute(Constants.PLF);
+        if (incorporatedLayout == null || PLF == null) {
+            return null;
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Patching fragments " + changedViews.keySet() + " into the layout of " + person.getUserName());
+        }
+
+        // replace the changed fragments in the incorporated layout, the nodes of all other fragments are kept as-is
+        final Document incorporatedDocument = incorporatedLayout.toDocument();
+        final EntityIdentifier ei = person.getEntityIdentifier();
+        final IAuthorizationPrincipal ap = AuthorizationService.instance().newPrincipal(ei.getKey(), ei.getType());
+        final List<String> indexes = new ArrayList<String>(fragmentIndexes.values());
+        for (final Map.Entry<String, UserView> changedViewEntry : changedViews.entrySet()) {
+            final String fragmentIndex = fragmentIndexes.get(changedViewEntry.getKey());
+            final Set<String> followingIndexes = new LinkedHashSet<String>(indexes.subList(indexes.indexOf(fragmentIndex) + 1, indexes.size()));
+            final UserView userView = changedViewEntry.getValue();
+            ILFBuilder.replaceFragment(userView != null ? userView.layout : null, fragmentIndex, followingIndexes,
+                    incorporatedDocument, ap);
+        }
+
+        // re-apply the user's PLF to the patched fragments
+        final LayoutSnapshot updatedIncorporatedLayout = this.createLayoutSnapshot(person, incorporatedDocument);
+        if (updatedIncorporatedLayout == null) {
+            return null;
+        }
+        final Document ILF = updatedIncorporatedLayout.toDocument();
+        final IntegrationResult result = new IntegrationResult();
+        PLFIntegrator.mergePLFintoILF(PLF, ILF, result);
+        if (result.changedPLF) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Saving PLF for " + person.getAttribute(IPerson.USERNAME) + " due to changes during merge.");
+            }
+            super.setUserLayout(person, profile, PLF, false);
+        }
+
+        return new DistributedUserLayout(ILF, layout.getFragmentNames(),
+                layout.getDistributedStructureStylesheetUserPreferences(),
+                layout.getDistributedThemeStylesheetUserPreferences(), updatedVersions, updatedIncorporatedLayout,
+                userViewSerial);
+    }
+
+    /**
+     * Computes the version of a composite layout from the inputs of the ILF merge: the content
+     * of the PLF, the content of each applicable fragment and the fragment channels the user
+     * is not allowed to render.
+     * 
+     * @return The version, null if composite layouts are not being cached
+     */
+    protected String getCompositeLayoutVersion(IPerson person, Document PLF, List<UserView> applicableViews) {
+        if (this.layoutSnapshotCache == null) {
+            return null;
+        }
+
+        final StringBuilder version = new StringBuilder(LayoutSnapshot.fromDocument(PLF).getDigest());
+
+        final EntityIdentifier ei = person.getEntityIdentifier();
+        final IAuthorizationPrincipal ap = AuthorizationService.instance().newPrincipal(ei.getKey(), ei.getType());
+        for (final UserView userView : applicableViews) {
+            version.append('|').append(userView.getUserId()).append(':').append(userView.getLayoutVersion());
+            for (final String channelId : userView.getChannelIds()) {
+                if (!ap.canRender(channelId)) {
+                    version.append(",!").append(channelId);
+                }
+            }
+        }
+
+        return version.toString();
+    }
+
+    /**
+     * @return The cached ILF and incorporated layout snapshots, null if no layout is cached for the version
+     */
+    protected Tuple<LayoutSnapshot, LayoutSnapshot> getCachedCompositeLayout(IPerson person, IUserProfile profile, String compositeLayoutVersion) {
+        if (compositeLayoutVersion == null) {
+            return null;
+        }
+
+        final net.sf.ehcache.Element element = this.layoutSnapshotCache.get(this.getLayoutSnapshotKey(person, profile));
+        if (element == null) {
+            return null;
+        }
+
+        final CompositeLayoutSnapshot cachedSnapshot = (CompositeLayoutSnapshot) element.getObjectValue();
+        if (!compositeLayoutVersion.equals(cachedSnapshot.version)) {
+            return null;
+        }
+
+        try {
+            return new Tuple<LayoutSnapshot, LayoutSnapshot>(LayoutSnapshot.fromBytes(cachedSnapshot.layout),
+                    LayoutSnapshot.fromBytes(cachedSnapshot.incorporatedLayout));
+        }
+        catch (final IllegalArgumentException e) {
+            LOG.warn("Ignoring unreadable ILF snapshot for " + person.getUserName() + ", the layout will be merged", e);
+            return null;
+        }
+    }
+
+    /**
+     * Caches a binary snapshot of the merged composite layout for the version
+     */
+    protected void cacheCompositeLayout(IPerson person, IUserProfile profile, String compositeLayoutVersion, Document ILF,
+            LayoutSnapshot incorporatedLayout) {
+        if (compositeLayoutVersion == null || incorporatedLayout == null) {
+            return;
+        }
+
+        final LayoutSnapshot layout = this.createLayoutSnapshot(person, ILF);
+        if (layout == null) {
+            return;
+        }
+
+        final CompositeLayoutSnapshot snapshot = new CompositeLayoutSnapshot(compositeLayoutVersion, layout.toBytes(),
+                incorporatedLayout.toBytes());
+        this.layoutSnapshotCache.put(new net.sf.ehcache.Element(this.getLayoutSnapshotKey(person, profile), snapshot));
+    }
+
+    /**
+     * @return A snapshot of the layout, null if the layout contains nodes that cannot be captured
+     */
+    private LayoutSnapshot createLayoutSnapshot(IPerson person, Document layout) {
+        try {
+            return LayoutSnapshot.fromDocument(layout);
+        }
+        catch (final IllegalArgumentException e) {
+            LOG.warn("Failed to create layout snapshot for " + person.getUserName(), e);
+            return null;
+        }
+    }
+
+    private Serializable getLayoutSnapshotKey(IPerson person, IUserProfile profile) {
+        return new Tuple<String, Integer>(person.getUserName(), profile.getProfileId());
+    }
+
+    /**
+     * Binary snapshots of the ILF and of the fragments incorporated into it before the PLF was
+     * applied, along with the version of the merge inputs they were created from
+     */
+    private static final class CompositeLayoutSnapshot implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String version;
+        private final byte[] layout;
+        private final byte[] incorporatedLayout;
+
+        public CompositeLayoutSnapshot(String version, byte[] layout, byte[] incorporatedLayout) {
+            this.version = version;
+            this.layout = layout;
+            this.incorporatedLayout = incorporatedLayout;
+        }
     }
 
     /**
@@ -1650,14 +1933,13 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
     }
 
     @Override
-    protected int saveStructure(Node node, PreparedStatement structStmt, PreparedStatement parmStmt)
-            throws SQLException {
+    protected int saveStructure(Node node, LayoutRows layoutRows) {
         if (node == null) { // No more
             return 0;
         }
         if (node.getNodeName().equals("parameter")) {
             //parameter, skip it and go on to the next node
-            return this.saveStructure(node.getNextSibling(), structStmt, parmStmt);
+            return this.saveStructure(node.getNextSibling(), layoutRows);
         }
         if (!(node instanceof Element)) {
             return 0;
@@ -1689,59 +1971,40 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         final boolean isChannel = node.getNodeName().equals("channel");
 
         if (node.hasChildNodes()) {
-            childStructId = this.saveStructure(node.getFirstChild(), structStmt, parmStmt);
+            childStructId = this.saveStructure(node.getFirstChild(), layoutRows);
         }
-        nextStructId = this.saveStructure(node.getNextSibling(), structStmt, parmStmt);
-        structStmt.clearParameters();
-        structStmt.setInt(1, saveStructId);
-        structStmt.setInt(2, nextStructId);
-        structStmt.setInt(3, childStructId);
+        nextStructId = this.saveStructure(node.getNextSibling(), layoutRows);
 
         final String externalId = structure.getAttribute("external_id");
-        if (externalId != null && externalId.trim().length() > 0) {
-            final Integer eID = new Integer(externalId);
-            structStmt.setInt(4, eID.intValue());
-        }
-        else {
-            structStmt.setNull(4, java.sql.Types.NUMERIC);
-
-        }
+        final String name;
         if (isChannel) {
             chanId = Integer.parseInt(node.getAttributes().getNamedItem("chanID").getNodeValue());
-            structStmt.setInt(5, chanId);
-            structStmt.setNull(6, java.sql.Types.VARCHAR);
+            name = null;
         }
         else {
-            structStmt.setNull(5, java.sql.Types.NUMERIC);
-            structStmt.setString(6, structure.getAttribute("name"));
-        }
-        final String structType = structure.getAttribute("type");
-        structStmt.setString(7, structType);
-        structStmt.setString(8, RDBMServices.dbFlag(xmlBool(structure.getAttribute("hidden"))));
-        structStmt.setString(9, RDBMServices.dbFlag(xmlBool(structure.getAttribute("immutable"))));
-        structStmt.setString(10, RDBMServices.dbFlag(xmlBool(structure.getAttribute("unremovable"))));
+            name = structure.getAttribute("name");
+        }
+        final LayoutRows.StructureRow structureRow = new LayoutRows.StructureRow(saveStructId, nextStructId,
+                childStructId, externalId != null && externalId.trim().length() > 0 ? externalId.trim() : null,
+                isChannel ? chanId : null, name, structure.getAttribute("type"),
+                RDBMServices.dbFlag(xmlBool(structure.getAttribute("hidden"))),
+                RDBMServices.dbFlag(xmlBool(structure.getAttribute("immutable"))),
+                RDBMServices.dbFlag(xmlBool(structure.getAttribute("unremovable"))));
         if (LOG.isDebugEnabled()) {
-            LOG.debug(structStmt.toString());
+            LOG.debug(structureRow);
         }
-        structStmt.executeUpdate();
+        layoutRows.addStructure(structureRow);
 
         // code to persist extension attributes for dlm
         final NamedNodeMap attribs = node.getAttributes();
         for (int i = 0; i < attribs.getLength(); i++) {
             final Node attrib = attribs.item(i);
-            final String name = attrib.getNodeName();
+            final String attribName = attrib.getNodeName();
 
-            if (name.startsWith(Constants.NS) && !name.equals(Constants.ATT_PLF_ID)
-                    && !name.equals(Constants.ATT_FRAGMENT) && !name.equals(Constants.ATT_PRECEDENCE)) {
+            if (attribName.startsWith(Constants.NS) && !attribName.equals(Constants.ATT_PLF_ID)
+                    && !attribName.equals(Constants.ATT_FRAGMENT) && !attribName.equals(Constants.ATT_PRECEDENCE)) {
                 // a cp extension attribute. Push into param table.
-                parmStmt.clearParameters();
-                parmStmt.setInt(1, saveStructId);
-                parmStmt.setString(2, name);
-                parmStmt.setString(3, attrib.getNodeValue());
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug(parmStmt.toString());
-                }
-                parmStmt.executeUpdate();
+                layoutRows.addParameter(saveStructId, attribName, attrib.getNodeValue());
             }
         }
         final NodeList parameters = node.getChildNodes();
@@ -1764,14 +2027,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
                         // override only for adhoc or if diff from chan def
                         final IPortletDefinitionParameter cp = channelDef.getParameter(parmName);
                         if (cp == null || !cp.getValue().equals(parmValue)) {
-                            parmStmt.clearParameters();
-                            parmStmt.setInt(1, saveStructId);
-                            parmStmt.setString(2, parmName);
-                            parmStmt.setString(3, parmValue);
-                            if (LOG.isDebugEnabled()) {
-                                LOG.debug(parmStmt);
-                            }
-                            parmStmt.executeUpdate();
+                            layoutRows.addParameter(saveStructId, parmName, parmValue);
                         }
                     }
                 }
@@ -19,8 +19,14 @@
 
 package org.jasig.portal.layout.dlm;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.jasig.portal.IUserProfile;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 
 
 /**
@@ -36,6 +42,10 @@ class UserView
     int layoutId = 0;
     int profileId = 1;
     String profileFname = "default"; /* Was 1 when profileId was the key. */
+    
+    // digest of the layout and the chanIDs it contains, computed on first use
+    private volatile String layoutVersion = null;
+    private volatile List<String> channelIds = null;
 
     UserView (int fragmentOwnerUserId)
     {
@@ -55,4 +65,33 @@ class UserView
         return this.userId;
     }
     
+    /**
+     * @return A digest of the fragment layout, changes whenever the layout content changes
+     */
+    public String getLayoutVersion() {
+        String version = this.layoutVersion;
+        if (version == null) {
+            version = LayoutSnapshot.fromDocument(this.layout).getDigest();
+            this.layoutVersion = version;
+        }
+        return version;
+    }
+    
+    /**
+     * @return The chanIDs of all channels in the fragment layout, in document order
+     */
+    public List<String> getChannelIds() {
+        List<String> ids = this.channelIds;
+        if (ids == null) {
+            final NodeList channels = this.layout.getElementsByTagName("channel");
+            ids = new ArrayList<String>(channels.getLength());
+            for (int i = 0; i < channels.getLength(); i++) {
+                ids.add(((Element) channels.item(i)).getAttribute("chanID"));
+            }
+            ids = Collections.unmodifiableList(ids);
+            this.channelIds = ids;
+        }
+        return ids;
+    }
+    
 }
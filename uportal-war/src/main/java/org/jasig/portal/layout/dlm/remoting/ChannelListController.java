@@ -135,8 +135,9 @@ public class ChannelListController {
 	    IAuthorizationPrincipal ap = AuthorizationService.instance().newPrincipal(ei.getKey(), ei.getType());
 
 	    if (type.equals(TYPE_MANAGE)) {
+	        final Map<String, Boolean> canManage = ap.canManage(allChannels);
 	        for (IPortletDefinition channel : allChannels) {
-	            if (ap.canManage(channel.getPortletDefinitionId().getStringId())) {
+	            if (canManage.get(channel.getPortletDefinitionId().getStringId())) {
 	                channels.add(getChannel(channel, request, locale));
 	            }
 	        }
@@ -160,12 +161,12 @@ public class ChannelListController {
 	    IAuthorizationPrincipal ap = AuthorizationService.instance().newPrincipal(ei.getKey(), ei.getType());
 		boolean isManage = type.equals(TYPE_MANAGE);
 		
+		// check manage or subscribe permission for all the child channels at once
+		final Map<String, Boolean> canAccess = isManage ? ap.canManage(portlets) : ap.canSubscribe(portlets);
+		
 		for(IPortletDefinition channelDef : portlets) {
 			
-			if ((isManage && ap.canManage(channelDef.getPortletDefinitionId()
-					.getStringId()))
-					|| (!isManage && ap.canSubscribe(channelDef
-							.getPortletDefinitionId().getStringId()))) {
+			if (canAccess.get(channelDef.getPortletDefinitionId().getStringId())) {
 				// construct a new channel bean from this channel
 				ChannelBean channel = getChannel(channelDef, request, locale);
 				categoryBean.addChannel(channel);
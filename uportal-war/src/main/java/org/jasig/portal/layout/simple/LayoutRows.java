@@ -0,0 +1,266 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout.simple;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.jasig.portal.utils.Tuple;
+
+/**
+ * The UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM rows for a single user layout. Comparing the rows generated
+ * from a layout document to the rows already stored lets a layout be saved by writing only the rows
+ * that actually changed.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public final class LayoutRows {
+    private final Map<Integer, StructureRow> structures = new LinkedHashMap<Integer, StructureRow>();
+    private final Map<Tuple<Integer, String>, String> parameters = new LinkedHashMap<Tuple<Integer, String>, String>();
+    
+    public void addStructure(StructureRow structure) {
+        this.structures.put(structure.getStructId(), structure);
+    }
+    
+    public void addParameter(int structId, String name, String value) {
+        this.parameters.put(new Tuple<Integer, String>(structId, name), value);
+    }
+    
+    /**
+     * @return The UP_LAYOUT_STRUCT rows keyed by STRUCT_ID
+     */
+    public Map<Integer, StructureRow> getStructures() {
+        return Collections.unmodifiableMap(this.structures);
+    }
+    
+    /**
+     * @return The UP_LAYOUT_PARAM values keyed by STRUCT_ID and STRUCT_PARM_NM
+     */
+    public Map<Tuple<Integer, String>, String> getParameters() {
+        return Collections.unmodifiableMap(this.parameters);
+    }
+    
+    /**
+     * @param existing The rows currently stored for the layout
+     * @return The row changes needed to turn the existing rows into these rows
+     */
+    public Changes getChangesFrom(LayoutRows existing) {
+        final Changes changes = new Changes();
+        
+        for (final StructureRow structure : this.structures.values()) {
+            final StructureRow existingStructure = existing.structures.get(structure.getStructId());
+            if (existingStructure == null) {
+                changes.insertedStructures.add(structure);
+            }
+            else if (!existingStructure.equals(structure)) {
+                changes.updatedStructures.add(structure);
+            }
+        }
+        for (final Integer structId : existing.structures.keySet()) {
+            if (!this.structures.containsKey(structId)) {
+                changes.deletedStructures.add(structId);
+            }
+        }
+        
+        for (final Map.Entry<Tuple<Integer, String>, String> parameterEntry : this.parameters.entrySet()) {
+            final Tuple<Integer, String> key = parameterEntry.getKey();
+            if (!existing.parameters.containsKey(key)) {
+                changes.insertedParameters.put(key, parameterEntry.getValue());
+            }
+            else if (!equalColumns(existing.parameters.get(key), parameterEntry.getValue())) {
+                changes.updatedParameters.put(key, parameterEntry.getValue());
+            }
+        }
+        for (final Tuple<Integer, String> key : existing.parameters.keySet()) {
+            if (!this.parameters.containsKey(key)) {
+                changes.deletedParameters.add(key);
+            }
+        }
+        
+        return changes;
+    }
+    
+    /**
+     * Compares column values treating null and empty strings as equal, some databases store empty
+     * strings as null.
+     */
+    static boolean equalColumns(Object a, Object b) {
+        if ("".equals(a)) {
+            a = null;
+        }
+        if ("".equals(b)) {
+            b = null;
+        }
+        return ObjectUtils.equals(a, b);
+    }
+    
+    /**
+     * A single UP_LAYOUT_STRUCT row
+     */
+    public static final class StructureRow {
+        private final int structId;
+        private final int nextStructId;
+        private final int childStructId;
+        private final String externalId;
+        private final Integer chanId;
+        private final String name;
+        private final String type;
+        private final String hidden;
+        private final String immutable;
+        private final String unremovable;
+        
+        public StructureRow(int structId, int nextStructId, int childStructId, String externalId, Integer chanId,
+                String name, String type, String hidden, String immutable, String unremovable) {
+            this.structId = structId;
+            this.nextStructId = nextStructId;
+            this.childStructId = childStructId;
+            this.externalId = externalId;
+            this.chanId = chanId;
+            this.name = name;
+            this.type = type;
+            this.hidden = hidden;
+            this.immutable = immutable;
+            this.unremovable = unremovable;
+        }
+
+        public int getStructId() {
+            return this.structId;
+        }
+        public int getNextStructId() {
+            return this.nextStructId;
+        }
+        public int getChildStructId() {
+            return this.childStructId;
+        }
+        /**
+         * @return The external id, null if not set
+         */
+        public String getExternalId() {
+            return this.externalId;
+        }
+        /**
+         * @return The channel id, null if the structure is a folder
+         */
+        public Integer getChanId() {
+            return this.chanId;
+        }
+        public String getName() {
+            return this.name;
+        }
+        public String getType() {
+            return this.type;
+        }
+        public String getHidden() {
+            return this.hidden;
+        }
+        public String getImmutable() {
+            return this.immutable;
+        }
+        public String getUnremovable() {
+            return this.unremovable;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.structId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof StructureRow)) {
+                return false;
+            }
+            final StructureRow other = (StructureRow) obj;
+            return this.structId == other.structId
+                && this.nextStructId == other.nextStructId
+                && this.childStructId == other.childStructId
+                && equalColumns(this.externalId, other.externalId)
+                && equalColumns(this.chanId, other.chanId)
+                && equalColumns(this.name, other.name)
+                && equalColumns(this.type, other.type)
+                && equalColumns(this.hidden, other.hidden)
+                && equalColumns(this.immutable, other.immutable)
+                && equalColumns(this.unremovable, other.unremovable);
+        }
+
+        @Override
+        public String toString() {
+            return "StructureRow [structId=" + this.structId + ", nextStructId=" + this.nextStructId
+                    + ", childStructId=" + this.childStructId + ", chanId=" + this.chanId + ", name=" + this.name
+                    + ", type=" + this.type + "]";
+        }
+    }
+    
+    /**
+     * The row changes needed to turn one set of layout rows into another
+     */
+    public static final class Changes {
+        private final List<Integer> deletedStructures = new ArrayList<Integer>();
+        private final List<StructureRow> updatedStructures = new ArrayList<StructureRow>();
+        private final List<StructureRow> insertedStructures = new ArrayList<StructureRow>();
+        private final List<Tuple<Integer, String>> deletedParameters = new ArrayList<Tuple<Integer, String>>();
+        private final Map<Tuple<Integer, String>, String> updatedParameters = new LinkedHashMap<Tuple<Integer, String>, String>();
+        private final Map<Tuple<Integer, String>, String> insertedParameters = new LinkedHashMap<Tuple<Integer, String>, String>();
+        
+        public List<Integer> getDeletedStructures() {
+            return this.deletedStructures;
+        }
+        public List<StructureRow> getUpdatedStructures() {
+            return this.updatedStructures;
+        }
+        public List<StructureRow> getInsertedStructures() {
+            return this.insertedStructures;
+        }
+        public List<Tuple<Integer, String>> getDeletedParameters() {
+            return this.deletedParameters;
+        }
+        public Map<Tuple<Integer, String>, String> getUpdatedParameters() {
+            return this.updatedParameters;
+        }
+        public Map<Tuple<Integer, String>, String> getInsertedParameters() {
+            return this.insertedParameters;
+        }
+        
+        /**
+         * @return true if no rows need to be changed
+         */
+        public boolean isEmpty() {
+            return this.deletedStructures.isEmpty() && this.updatedStructures.isEmpty()
+                && this.insertedStructures.isEmpty() && this.deletedParameters.isEmpty()
+                && this.updatedParameters.isEmpty() && this.insertedParameters.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "Changes [structures: " + this.deletedStructures.size() + " deleted, "
+                    + this.updatedStructures.size() + " updated, " + this.insertedStructures.size()
+                    + " inserted; parameters: " + this.deletedParameters.size() + " deleted, "
+                    + this.updatedParameters.size() + " updated, " + this.insertedParameters.size() + " inserted]";
+        }
+    }
+}
@@ -1163,7 +1163,208 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
 
   protected abstract Element getStructure(Document doc, LayoutStructure ls);
 
-  protected abstract int saveStructure (Node node, PreparedStatement structStmt, PreparedStatement parmStmt) throws SQLException;
+  /**
+   * Adds the UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM rows for the node, its following siblings and their
+   * children to the layout rows.
+   * 
+   * @return The STRUCT_ID of the node, 0 if the node is null
+   */
+  protected abstract int saveStructure (Node node, LayoutRows layoutRows);
+
+  /**
+   * Reads the stored UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM rows for a layout
+   */
+  protected LayoutRows loadLayoutRows(Connection con, int userId, int layoutId) throws SQLException {
+      final LayoutRows layoutRows = new LayoutRows();
+
+      String sql = "SELECT STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID, EXTERNAL_ID, CHAN_ID, NAME, TYPE, HIDDEN, IMMUTABLE, UNREMOVABLE "
+              + "FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=?";
+      PreparedStatement pstmt = con.prepareStatement(sql);
+      try {
+          pstmt.setInt(1, userId);
+          pstmt.setInt(2, layoutId);
+          if (log.isDebugEnabled())
+              log.debug(sql);
+          final ResultSet rs = pstmt.executeQuery();
+          try {
+              while (rs.next()) {
+                  final int structId = rs.getInt(1);
+                  final int nextStructId = rs.getInt(2);
+                  final int childStructId = rs.getInt(3);
+                  final String externalId = rs.getString(4);
+                  Integer chanId = rs.getInt(5);
+                  if (rs.wasNull()) {
+                      chanId = null;
+                  }
+                  layoutRows.addStructure(new LayoutRows.StructureRow(structId, nextStructId, childStructId,
+                          externalId, chanId, rs.getString(6), rs.getString(7), rs.getString(8), rs.getString(9),
+                          rs.getString(10)));
+              }
+          } finally {
+              rs.close();
+          }
+      } finally {
+          pstmt.close();
+      }
+
+      sql = "SELECT STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?";
+      pstmt = con.prepareStatement(sql);
+      try {
+          pstmt.setInt(1, userId);
+          pstmt.setInt(2, layoutId);
+          if (log.isDebugEnabled())
+              log.debug(sql);
+          final ResultSet rs = pstmt.executeQuery();
+          try {
+              while (rs.next()) {
+                  layoutRows.addParameter(rs.getInt(1), rs.getString(2), rs.getString(3));
+              }
+          } finally {
+              rs.close();
+          }
+      } finally {
+          pstmt.close();
+      }
+
+      return layoutRows;
+  }
+
+  /**
+   * Applies the layout row changes using one batched prepared statement per type of change. Rows are
+   * deleted first and parameters are inserted last so the primary and foreign keys are never violated.
+   */
+  protected void saveLayoutRows(Connection con, int userId, int layoutId, LayoutRows.Changes changes) throws SQLException {
+      if (changes.isEmpty()) {
+          return;
+      }
+
+      PreparedStatement pstmt = con.prepareStatement("DELETE FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=? AND STRUCT_PARM_NM=?");
+      try {
+          for (final Tuple<Integer, String> parameter : changes.getDeletedParameters()) {
+              pstmt.setInt(1, userId);
+              pstmt.setInt(2, layoutId);
+              pstmt.setInt(3, parameter.first);
+              pstmt.setString(4, parameter.second);
+              pstmt.addBatch();
+          }
+          executeBatch(pstmt, changes.getDeletedParameters().size());
+      } finally {
+          pstmt.close();
+      }
+
+      pstmt = con.prepareStatement("DELETE FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=?");
+      try {
+          for (final Integer structId : changes.getDeletedStructures()) {
+              pstmt.setInt(1, userId);
+              pstmt.setInt(2, layoutId);
+              pstmt.setInt(3, structId);
+              pstmt.addBatch();
+          }
+          executeBatch(pstmt, changes.getDeletedStructures().size());
+      } finally {
+          pstmt.close();
+      }
+
+      pstmt = con.prepareStatement("UPDATE UP_LAYOUT_STRUCT SET NEXT_STRUCT_ID=?, CHLD_STRUCT_ID=?, EXTERNAL_ID=?, CHAN_ID=?, "
+              + "NAME=?, TYPE=?, HIDDEN=?, IMMUTABLE=?, UNREMOVABLE=? WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=?");
+      try {
+          for (final LayoutRows.StructureRow structure : changes.getUpdatedStructures()) {
+              bindStructure(pstmt, 1, structure);
+              pstmt.setInt(10, userId);
+              pstmt.setInt(11, layoutId);
+              pstmt.setInt(12, structure.getStructId());
+              pstmt.addBatch();
+          }
+          executeBatch(pstmt, changes.getUpdatedStructures().size());
+      } finally {
+          pstmt.close();
+      }
+
+      pstmt = con.prepareStatement("INSERT INTO UP_LAYOUT_STRUCT "
+              + "(USER_ID, LAYOUT_ID, STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID, EXTERNAL_ID, CHAN_ID, NAME, TYPE, HIDDEN, IMMUTABLE, UNREMOVABLE) "
+              + "VALUES (?,?,?,?,?,?,?,?,?,?,?,?)");
+      try {
+          for (final LayoutRows.StructureRow structure : changes.getInsertedStructures()) {
+              pstmt.setInt(1, userId);
+              pstmt.setInt(2, layoutId);
+              pstmt.setInt(3, structure.getStructId());
+              bindStructure(pstmt, 4, structure);
+              pstmt.addBatch();
+          }
+          executeBatch(pstmt, changes.getInsertedStructures().size());
+      } finally {
+          pstmt.close();
+      }
+
+      pstmt = con.prepareStatement("INSERT INTO UP_LAYOUT_PARAM (USER_ID, LAYOUT_ID, STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL) VALUES (?,?,?,?,?)");
+      try {
+          for (final Map.Entry<Tuple<Integer, String>, String> parameter : changes.getInsertedParameters().entrySet()) {
+              pstmt.setInt(1, userId);
+              pstmt.setInt(2, layoutId);
+              pstmt.setInt(3, parameter.getKey().first);
+              pstmt.setString(4, parameter.getKey().second);
+              pstmt.setString(5, parameter.getValue());
+              pstmt.addBatch();
+          }
+          executeBatch(pstmt, changes.getInsertedParameters().size());
+      } finally {
+          pstmt.close();
+      }
+
+      pstmt = con.prepareStatement("UPDATE UP_LAYOUT_PARAM SET STRUCT_PARM_VAL=? WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=? AND STRUCT_PARM_NM=?");
+      try {
+          for (final Map.Entry<Tuple<Integer, String>, String> parameter : changes.getUpdatedParameters().entrySet()) {
+              pstmt.setString(1, parameter.getValue());
+              pstmt.setInt(2, userId);
+              pstmt.setInt(3, layoutId);
+              pstmt.setInt(4, parameter.getKey().first);
+              pstmt.setString(5, parameter.getKey().second);
+              pstmt.addBatch();
+          }
+          executeBatch(pstmt, changes.getUpdatedParameters().size());
+      } finally {
+          pstmt.close();
+      }
+  }
+
+  /**
+   * Binds the NEXT_STRUCT_ID through UNREMOVABLE columns of the structure starting at the specified index
+   */
+  private void bindStructure(PreparedStatement pstmt, int index, LayoutRows.StructureRow structure) throws SQLException {
+      pstmt.setInt(index++, structure.getNextStructId());
+      pstmt.setInt(index++, structure.getChildStructId());
+      final String externalId = structure.getExternalId();
+      if (externalId != null && externalId.trim().length() > 0) {
+          pstmt.setInt(index++, Integer.parseInt(externalId.trim()));
+      }
+      else {
+          pstmt.setNull(index++, java.sql.Types.NUMERIC);
+      }
+      final Integer chanId = structure.getChanId();
+      if (chanId != null) {
+          pstmt.setInt(index++, chanId);
+      }
+      else {
+          pstmt.setNull(index++, java.sql.Types.NUMERIC);
+      }
+      final String name = structure.getName();
+      if (name != null) {
+          pstmt.setString(index++, name);
+      }
+      else {
+          pstmt.setNull(index++, java.sql.Types.VARCHAR);
+      }
+      pstmt.setString(index++, structure.getType());
+      pstmt.setString(index++, structure.getHidden());
+      pstmt.setString(index++, structure.getImmutable());
+      pstmt.setString(index++, structure.getUnremovable());
+  }
+
+  private void executeBatch(PreparedStatement pstmt, int size) throws SQLException {
+      if (size > 0) {
+          pstmt.executeBatch();
+      }
+  }
 
   public void setUserBrowserMapping (final IPerson person, final String userAgentArg, final int profileId) {
 	  final int userId = person.getID();
@@ -1252,46 +1453,18 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
               firstLayout = true;
           }
 
-          String sql = "DELETE FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?";
-          PreparedStatement pstmt = con.prepareStatement(sql);
-          try {
-              pstmt.clearParameters();
-              pstmt.setInt(1, userId);
-              pstmt.setInt(2, layoutId);
-              if (log.isDebugEnabled())
-                  log.debug(sql);
-              pstmt.executeUpdate();
-          } finally {
-              pstmt.close();
-          }
-
-          sql = "DELETE FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=?";
-          pstmt = con.prepareStatement(sql);
-          try {
-              pstmt.clearParameters();
-              pstmt.setInt(1, userId);
-              pstmt.setInt(2, layoutId);
-              if (log.isDebugEnabled())
-                log.debug(sql);
-              pstmt.executeUpdate();
-          } finally {
-              pstmt.close();
+          // Build the rows for the new layout and write only the rows that differ from what is stored
+          final LayoutRows layoutRows = new LayoutRows();
+          final int firstStructId = saveStructure(layoutXML.getFirstChild().getFirstChild(), layoutRows);
+          final LayoutRows existingRows = loadLayoutRows(con, userId, layoutId);
+          final LayoutRows.Changes changes = layoutRows.getChangesFrom(existingRows);
+          if (log.isDebugEnabled()) {
+              log.debug("Saving layout " + layoutId + " for user " + userId + ": " + changes);
           }
+          saveLayoutRows(con, userId, layoutId, changes);
 
-          PreparedStatement structStmt = con.prepareStatement("INSERT INTO UP_LAYOUT_STRUCT "
-                  + "(USER_ID, LAYOUT_ID, STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID,EXTERNAL_ID,CHAN_ID,NAME,TYPE,HIDDEN,IMMUTABLE,UNREMOVABLE) "
-                  + "VALUES (" + userId + "," + layoutId + ",?,?,?,?,?,?,?,?,?,?)");
-
-          PreparedStatement parmStmt = con.prepareStatement("INSERT INTO UP_LAYOUT_PARAM "
-                  + "(USER_ID, LAYOUT_ID, STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL) " + "VALUES (" + userId + "," + layoutId + ",?,?,?)");
-
-          int firstStructId;
-          try {
-              firstStructId = saveStructure(layoutXML.getFirstChild().getFirstChild(), structStmt, parmStmt);
-          } finally {
-              structStmt.close();
-              parmStmt.close();
-          }
+          String sql;
+          PreparedStatement pstmt;
 
           //Check to see if the user has a matching layout
           sql = "SELECT * FROM UP_USER_LAYOUT WHERE USER_ID=? AND LAYOUT_ID=?";
@@ -115,6 +115,18 @@ public class CachedPortletData implements Serializable {
 	public void setStringData(String stringData) {
 		this.stringData = stringData;
 	}
+	/**
+	 * @return the size of the cached content, the length of the byteData or stringData
+	 */
+	public int getContentSize() {
+		if (byteData != null) {
+			return byteData.length;
+		}
+		if (stringData != null) {
+			return stringData.length();
+		}
+		return 0;
+	}
 	/**
 	 * @return the contentType
 	 */
@@ -246,6 +258,19 @@ public class CachedPortletData implements Serializable {
 			return timeStored.before(referencePoint);
 		}
 	}
+	/**
+	 * 
+	 * @param staleSeconds number of seconds past expiration that the data may still be used
+	 * @return true if the data is expired but was stored less than expirationTimeSeconds + staleSeconds ago
+	 */
+	public boolean isWithinStaleWindow(int staleSeconds) {
+		if(staleSeconds <= 0 || expirationTimeSeconds <= 0 || !isExpired()) {
+			return false;
+		}
+		
+		Date referencePoint = DateUtils.addSeconds(new Date(), -(expirationTimeSeconds + staleSeconds));
+		return !timeStored.before(referencePoint);
+	}
 	@Override
 	public int hashCode() {
 		final int prime = 31;
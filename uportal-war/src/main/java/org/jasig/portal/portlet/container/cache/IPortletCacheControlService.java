@@ -21,11 +21,14 @@
  */
 package org.jasig.portal.portlet.container.cache;
 
+import java.io.Serializable;
+
 import javax.portlet.CacheControl;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.jasig.portal.portlet.om.IPortletWindowId;
+import org.jasig.portal.utils.threading.SingleFlight;
 
 /**
  * Interface defining mechanism for retrieving {@link CacheControl}s.
@@ -40,6 +43,20 @@ public interface IPortletCacheControlService {
 	 * @return the maximum size of cached portlet output, in bytes
 	 */
 	int getCacheSizeThreshold();
+	
+	/**
+	 * 
+	 * @return the maximum size of cached PUBLIC_SCOPE portlet output, in bytes. Public output larger than
+	 * {@link #getCacheSizeThreshold()} is stored in an overflow tier that is kept mostly on disk.
+	 */
+	int getPublicScopeCacheSizeThreshold();
+	
+	/**
+	 * 
+	 * @return the number of seconds after expiration that PUBLIC_SCOPE render output may still be served while
+	 * a single request refreshes it, 0 if stale output is never served
+	 */
+	int getPublicScopeStaleWhileRevalidate();
 	/**
 	 * 
 	 * @param portletWindowId
@@ -66,6 +83,17 @@ public interface IPortletCacheControlService {
 	 */
 	CachedPortletData getCachedPortletRenderOutput(IPortletWindowId portletWindowId, HttpServletRequest httpRequest);
 	
+	/**
+	 * Join the in-flight render of the PUBLIC_SCOPE output for the portlet window and request. Concurrent requests
+	 * that share the same public cache key share a single render, the leader renders the portlet and completes the
+	 * ticket with the resulting {@link CachedPortletData} which followers can then replay.
+	 * 
+	 * @param portletWindowId
+	 * @param httpRequest
+	 * @return the ticket for the in-flight render, if {@link SingleFlight.Ticket#isLeader()} the caller must complete it
+	 */
+	SingleFlight.Ticket<Serializable, CachedPortletData> joinPublicScopePortletRender(IPortletWindowId portletWindowId, HttpServletRequest httpRequest);
+	
 	/**
 	 *  Get the {@link CachedPortletData} for the portlet window id and resource request, if there is any.
 	 * This method internally will determine if the data is stored in a public or private scoped cache.
@@ -95,8 +123,9 @@ public interface IPortletCacheControlService {
 	 * @param httpRequest
 	 * @param content
 	 * @param cacheControl
+	 * @return the {@link CachedPortletData} that was stored, null if the output was not cached
 	 */
-	void cachePortletRenderOutput(IPortletWindowId portletWindowId, HttpServletRequest httpRequest, String content, CacheControl cacheControl);
+	CachedPortletData cachePortletRenderOutput(IPortletWindowId portletWindowId, HttpServletRequest httpRequest, String content, CacheControl cacheControl);
 	
 	/**
 	 * Store the output of a resource request in the cache for the portlet and request. This method internally will determine
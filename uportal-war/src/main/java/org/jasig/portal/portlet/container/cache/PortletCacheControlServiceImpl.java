@@ -35,6 +35,7 @@ import javax.servlet.http.HttpServletResponse;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
 import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -49,7 +50,9 @@ import org.jasig.portal.portlet.om.IPortletWindowId;
 import org.jasig.portal.portlet.registry.IPortletDefinitionRegistry;
 import org.jasig.portal.portlet.registry.IPortletEntityRegistry;
 import org.jasig.portal.portlet.registry.IPortletWindowRegistry;
+import org.jasig.portal.utils.threading.SingleFlight;
 import org.jasig.portal.utils.web.PortalWebUtils;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
@@ -64,7 +67,7 @@ import org.springframework.web.servlet.support.RequestContextUtils;
  * @version $Id$
  */
 @Service
-public class PortletCacheControlServiceImpl implements IPortletCacheControlService {
+public class PortletCacheControlServiceImpl implements IPortletCacheControlService, InitializingBean {
 
 	protected static final String REQUEST_ATTRIBUTE__PORTLET_CACHE_CONTROL_MAP = PortletCacheControlServiceImpl.class.getName() + ".PORTLET_CACHE_CONTROL_MAP";
 	private final Log log = LogFactory.getLog(this.getClass());
@@ -82,8 +85,20 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
     // key=definitionId+renderParams+publicRenderParams+locale; value=CachedPortletData
     private Ehcache publicScopePortletResourceOutputCache;
     
+    // Overflow tier for public scope output larger than cacheSizeThreshold, kept mostly on disk
+    // key=definitionId+renderParams+publicRenderParam+locale; value=CachedPortletData
+    private Ehcache publicScopePortletRenderOutputOverflowCache;
+    // key=definitionId+renderParams+publicRenderParams+locale; value=CachedPortletData
+    private Ehcache publicScopePortletResourceOutputOverflowCache;
+    
     // default to 100 KB
     private int cacheSizeThreshold = 102400;
+    // default to 2 MB
+    private int publicScopeCacheSizeThreshold = 2097152;
+    private int publicScopeStaleWhileRevalidate = 0;
+    
+    // Coalesces concurrent renders of the same public scope output
+    private final SingleFlight<Serializable, CachedPortletData> publicScopeRenderFlights = new SingleFlight<Serializable, CachedPortletData>();
     /**
 	 * @param privateScopePortletRenderOutputCache the privateScopePortletRenderOutputCache to set
 	 */
@@ -118,6 +133,22 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
 			Ehcache publicScopePortletResourceOutputCache) {
 		this.publicScopePortletResourceOutputCache = publicScopePortletResourceOutputCache;
 	}
+	/**
+	 * @param publicScopePortletRenderOutputOverflowCache the optional cache for public scope render output larger than the cacheSizeThreshold
+	 */
+	@Autowired(required = false)
+	@Qualifier("org.jasig.portal.portlet.container.cache.PortletCacheControlServiceImpl.publicScopePortletRenderOutputOverflowCache")
+	public void setPublicScopePortletRenderOutputOverflowCache(Ehcache publicScopePortletRenderOutputOverflowCache) {
+		this.publicScopePortletRenderOutputOverflowCache = publicScopePortletRenderOutputOverflowCache;
+	}
+	/**
+	 * @param publicScopePortletResourceOutputOverflowCache the optional cache for public scope resource output larger than the cacheSizeThreshold
+	 */
+	@Autowired(required = false)
+	@Qualifier("org.jasig.portal.portlet.container.cache.PortletCacheControlServiceImpl.publicScopePortletResourceOutputOverflowCache")
+	public void setPublicScopePortletResourceOutputOverflowCache(Ehcache publicScopePortletResourceOutputOverflowCache) {
+		this.publicScopePortletResourceOutputOverflowCache = publicScopePortletResourceOutputOverflowCache;
+	}
 	/**
 	 * @param cacheSizeThreshold the cacheSizeThreshold to set
 	 */
@@ -125,6 +156,22 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
 	public void setCacheSizeThreshold(int cacheSizeThreshold) {
 		this.cacheSizeThreshold = cacheSizeThreshold;
 	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+	 */
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		// entries evicted from the public scope heap tier spill over to the overflow tier
+		if(this.publicScopePortletRenderOutputOverflowCache != null) {
+			this.publicScopePortletRenderOutputCache.getCacheEventNotificationService().registerListener(
+					new OverflowTierEvictionListener(this.publicScopePortletRenderOutputOverflowCache));
+		}
+		if(this.publicScopePortletResourceOutputOverflowCache != null) {
+			this.publicScopePortletResourceOutputCache.getCacheEventNotificationService().registerListener(
+					new OverflowTierEvictionListener(this.publicScopePortletResourceOutputOverflowCache));
+		}
+	}
 	/*
 	 * (non-Javadoc)
 	 * @see org.jasig.portal.portlet.container.cache.IPortletCacheControlService#getCacheSizeThreshold()
@@ -133,6 +180,40 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
 	public int getCacheSizeThreshold() {
 		return cacheSizeThreshold;
 	}
+	/**
+	 * @param publicScopeCacheSizeThreshold the publicScopeCacheSizeThreshold to set
+	 */
+	@Value("${org.jasig.portal.portlet.container.cache.PortletCacheControlServiceImpl.publicScopeCacheSizeThreshold:2097152}")
+	public void setPublicScopeCacheSizeThreshold(int publicScopeCacheSizeThreshold) {
+		this.publicScopeCacheSizeThreshold = publicScopeCacheSizeThreshold;
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.portal.portlet.container.cache.IPortletCacheControlService#getPublicScopeCacheSizeThreshold()
+	 */
+	@Override
+	public int getPublicScopeCacheSizeThreshold() {
+		//Without an overflow tier public output is limited to the heap tier
+		if (this.publicScopePortletRenderOutputOverflowCache == null && this.publicScopePortletResourceOutputOverflowCache == null) {
+			return cacheSizeThreshold;
+		}
+		return Math.max(cacheSizeThreshold, publicScopeCacheSizeThreshold);
+	}
+	/**
+	 * @param publicScopeStaleWhileRevalidate seconds after expiration that public scope render output may be served while it is refreshed
+	 */
+	@Value("${org.jasig.portal.portlet.container.cache.PortletCacheControlServiceImpl.publicScopeStaleWhileRevalidate:0}")
+	public void setPublicScopeStaleWhileRevalidate(int publicScopeStaleWhileRevalidate) {
+		this.publicScopeStaleWhileRevalidate = publicScopeStaleWhileRevalidate;
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.portal.portlet.container.cache.IPortletCacheControlService#getPublicScopeStaleWhileRevalidate()
+	 */
+	@Override
+	public int getPublicScopeStaleWhileRevalidate() {
+		return publicScopeStaleWhileRevalidate;
+	}
 	/**
 	 * @param portletWindowRegistry
 	 */
@@ -243,10 +324,16 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         final IPortletDefinitionId definitionId = entity.getPortletDefinitionId();	
 		
 		Serializable publicCacheKey = generatePublicScopePortletDataCacheKey(definitionId, portletWindow.getRenderParameters(), portletWindow.getPublicRenderParameters(), RequestContextUtils.getLocale(httpRequest));
-		Element publicCacheElement = this.publicScopePortletRenderOutputCache.get(publicCacheKey);
+		Ehcache publicCache = this.publicScopePortletRenderOutputCache;
+		Element publicCacheElement = publicCache.get(publicCacheKey);
+		if(publicCacheElement == null && this.publicScopePortletRenderOutputOverflowCache != null) {
+			// not in the heap tier, check the overflow tier
+			publicCache = this.publicScopePortletRenderOutputOverflowCache;
+			publicCacheElement = publicCache.get(publicCacheKey);
+		}
 		if(publicCacheElement != null) {
 			if(publicCacheElement.isExpired()) {
-				this.publicScopePortletRenderOutputCache.remove(publicCacheKey);
+				publicCache.remove(publicCacheKey);
 				return null;
 			} else {
 				return (CachedPortletData) publicCacheElement.getValue();
@@ -268,6 +355,23 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
 		return null;
 	}
 	
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.portal.portlet.container.cache.IPortletCacheControlService#joinPublicScopePortletRender(org.jasig.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest)
+	 */
+	@Override
+	public SingleFlight.Ticket<Serializable, CachedPortletData> joinPublicScopePortletRender(
+			IPortletWindowId portletWindowId, HttpServletRequest httpRequest) {
+		final IPortletWindow portletWindow = this.portletWindowRegistry.getPortletWindow(httpRequest, portletWindowId);
+		
+		final IPortletEntityId entityId = portletWindow.getPortletEntityId();
+		final IPortletEntity entity = this.portletEntityRegistry.getPortletEntity(httpRequest, entityId);
+		final IPortletDefinitionId definitionId = entity.getPortletDefinitionId();
+		
+		final Serializable publicCacheKey = generatePublicScopePortletDataCacheKey(definitionId, portletWindow.getRenderParameters(), portletWindow.getPublicRenderParameters(), RequestContextUtils.getLocale(httpRequest));
+		return this.publicScopeRenderFlights.join(publicCacheKey);
+	}
+	
 	/*
 	 * (non-Javadoc)
 	 * @see org.jasig.portal.portlet.container.cache.IPortletCacheControlService#getCachedPortletResourceOutput(org.jasig.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest)
@@ -282,12 +386,18 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         final IPortletDefinitionId definitionId = entity.getPortletDefinitionId();	
 		
 		Serializable publicCacheKey = generatePublicScopePortletDataCacheKey(definitionId, portletWindow.getRenderParameters(), portletWindow.getPublicRenderParameters(), RequestContextUtils.getLocale(httpRequest));
-		Element publicCacheElement = this.publicScopePortletResourceOutputCache.get(publicCacheKey);	
+		Ehcache publicCache = this.publicScopePortletResourceOutputCache;
+		Element publicCacheElement = publicCache.get(publicCacheKey);	
+		if(publicCacheElement == null && this.publicScopePortletResourceOutputOverflowCache != null) {
+			// not in the heap tier, check the overflow tier
+			publicCache = this.publicScopePortletResourceOutputOverflowCache;
+			publicCacheElement = publicCache.get(publicCacheKey);
+		}
 		if(publicCacheElement != null) {
 			CachedPortletData cachedPortletData = (CachedPortletData) publicCacheElement.getValue();
 			// only remove from cache if not using validation method
 			if(publicCacheElement.isExpired() && StringUtils.isBlank(cachedPortletData.getEtag())) {
-				this.publicScopePortletResourceOutputCache.remove(publicCacheKey);
+				publicCache.remove(publicCacheKey);
 				return null;
 			}
 			return cachedPortletData;
@@ -325,7 +435,7 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
 	 * @see org.jasig.portal.portlet.container.cache.IPortletCacheControlService#cachePortletRenderOutput(org.jasig.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, java.lang.String, javax.portlet.CacheControl)
 	 */
 	@Override
-	public void cachePortletRenderOutput(IPortletWindowId portletWindowId,
+	public CachedPortletData cachePortletRenderOutput(IPortletWindowId portletWindowId,
 			HttpServletRequest httpRequest, String content,
 			CacheControl cacheControl) {
 		final IPortletWindow portletWindow = this.portletWindowRegistry.getPortletWindow(httpRequest, portletWindowId);
@@ -342,16 +452,29 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
 		newData.setEtag(cacheControl.getETag());
 		
 		if(cacheControl.isPublicScope()) {
-			newData.setCacheConfigurationMaxTTL(new Long(publicScopePortletRenderOutputCache.getCacheConfiguration().getTimeToLiveSeconds()).intValue());
 			Serializable publicCacheKey = generatePublicScopePortletDataCacheKey(definitionId, portletWindow.getRenderParameters(), portletWindow.getPublicRenderParameters(), RequestContextUtils.getLocale(httpRequest));
-			Element publicCacheElement = constructCacheElement(publicCacheKey, newData, publicScopePortletRenderOutputCache.getCacheConfiguration(), cacheControl);
-			this.publicScopePortletRenderOutputCache.put(publicCacheElement);		
+			final Ehcache publicCache = selectPublicScopeCacheTier(publicCacheKey, newData, this.publicScopePortletRenderOutputCache, this.publicScopePortletRenderOutputOverflowCache);
+			if(publicCache == null) {
+				return null;
+			}
+			newData.setCacheConfigurationMaxTTL(new Long(publicCache.getCacheConfiguration().getTimeToLiveSeconds()).intValue());
+			Element publicCacheElement = constructCacheElement(publicCacheKey, newData, publicCache.getCacheConfiguration(), cacheControl);
+			if(publicScopeStaleWhileRevalidate > 0 && publicCacheElement.getTimeToLive() > 0) {
+				// keep the element around past expiration so it can be served while being refreshed
+				publicCacheElement.setTimeToLive(publicCacheElement.getTimeToLive() + publicScopeStaleWhileRevalidate);
+			}
+			publicCache.put(publicCacheElement);		
 		} else {
+			if(newData.getContentSize() > cacheSizeThreshold) {
+				return null;
+			}
 			newData.setCacheConfigurationMaxTTL(new Long(privateScopePortletRenderOutputCache.getCacheConfiguration().getTimeToLiveSeconds()).intValue());
 			Serializable privateCacheKey = generatePrivateScopePortletDataCacheKey(httpRequest, portletWindowId, entityId, definitionId, portletWindow.getRenderParameters());
 			Element privateCacheElement = constructCacheElement(privateCacheKey, newData, privateScopePortletRenderOutputCache.getCacheConfiguration(), cacheControl);
 			this.privateScopePortletRenderOutputCache.put(privateCacheElement);
 		}
+		
+		return newData;
 	}
 
 	@Override
@@ -370,11 +493,18 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         cachedPortletData.setTimeStored(new Date());
 		
 		if(cacheControl.isPublicScope()) {
-		    cachedPortletData.setCacheConfigurationMaxTTL(new Long(publicScopePortletResourceOutputCache.getCacheConfiguration().getTimeToLiveSeconds()).intValue());
 			Serializable publicCacheKey = generatePublicScopePortletDataCacheKey(definitionId, portletWindow.getRenderParameters(), portletWindow.getPublicRenderParameters(), RequestContextUtils.getLocale(httpRequest));
-			Element publicCacheElement = constructCacheElement(publicCacheKey, cachedPortletData, publicScopePortletResourceOutputCache.getCacheConfiguration(), cacheControl);
-			this.publicScopePortletResourceOutputCache.put(publicCacheElement);		
+			final Ehcache publicCache = selectPublicScopeCacheTier(publicCacheKey, cachedPortletData, this.publicScopePortletResourceOutputCache, this.publicScopePortletResourceOutputOverflowCache);
+			if(publicCache == null) {
+				return;
+			}
+			cachedPortletData.setCacheConfigurationMaxTTL(new Long(publicCache.getCacheConfiguration().getTimeToLiveSeconds()).intValue());
+			Element publicCacheElement = constructCacheElement(publicCacheKey, cachedPortletData, publicCache.getCacheConfiguration(), cacheControl);
+			publicCache.put(publicCacheElement);		
 		} else {
+			if(cachedPortletData.getContentSize() > cacheSizeThreshold) {
+				return;
+			}
 		    cachedPortletData.setCacheConfigurationMaxTTL(new Long(privateScopePortletResourceOutputCache.getCacheConfiguration().getTimeToLiveSeconds()).intValue());
 			Serializable privateCacheKey = generatePrivateScopePortletDataCacheKey(httpRequest, portletWindowId, entityId, definitionId, portletWindow.getRenderParameters());
 			Element privateCacheElement = constructCacheElement(privateCacheKey, cachedPortletData, privateScopePortletResourceOutputCache.getCacheConfiguration(), cacheControl);
@@ -382,6 +512,33 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
 		}
 	}
 	
+	/**
+	 * Select the tier to store public scope data in. Data up to the cacheSizeThreshold stays in the heap tier, larger data
+	 * up to the publicScopeCacheSizeThreshold goes to the overflow tier. The key is removed from the other tier so a stale
+	 * copy is never returned.
+	 * 
+	 * @return The cache to store the data in, null if the data is too large to cache
+	 */
+	protected Ehcache selectPublicScopeCacheTier(Serializable cacheKey, CachedPortletData data, Ehcache heapCache, Ehcache overflowCache) {
+		final int contentSize = data.getContentSize();
+		if(contentSize <= cacheSizeThreshold) {
+			if(overflowCache != null) {
+				overflowCache.remove(cacheKey);
+			}
+			return heapCache;
+		}
+		
+		if(overflowCache == null || contentSize > publicScopeCacheSizeThreshold) {
+			if(log.isDebugEnabled()) {
+				log.debug("Not caching public scope data for " + cacheKey + ", content size " + contentSize + " exceeds the cache size threshold");
+			}
+			return null;
+		}
+		
+		heapCache.remove(cacheKey);
+		return overflowCache;
+	}
+	
 	/**
 	 * Construct an appropriate Cache {@link Element} for the cacheKey and data.
 	 * The element's ttl will be set depending on whether expiration or validation method is indicated from the CacheControl and the cache's configuration.
@@ -425,7 +582,14 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
 		if(cacheControl.isPublicScope()) {
 			Serializable publicCacheKey = generatePublicScopePortletDataCacheKey(definitionId, portletWindow.getRenderParameters(), portletWindow.getPublicRenderParameters(), RequestContextUtils.getLocale(httpRequest));
 			boolean renderPurged = this.publicScopePortletRenderOutputCache.remove(publicCacheKey);
-			return this.publicScopePortletResourceOutputCache.remove(publicCacheKey) || renderPurged;
+			if(this.publicScopePortletRenderOutputOverflowCache != null) {
+				renderPurged = this.publicScopePortletRenderOutputOverflowCache.remove(publicCacheKey) || renderPurged;
+			}
+			boolean resourcePurged = this.publicScopePortletResourceOutputCache.remove(publicCacheKey);
+			if(this.publicScopePortletResourceOutputOverflowCache != null) {
+				resourcePurged = this.publicScopePortletResourceOutputOverflowCache.remove(publicCacheKey) || resourcePurged;
+			}
+			return resourcePurged || renderPurged;
 		} else {
 			Serializable privateCacheKey = generatePrivateScopePortletDataCacheKey(httpRequest, portletWindowId, entityId, definitionId, portletWindow.getRenderParameters());
 			boolean renderPurged = this.privateScopePortletRenderOutputCache.remove(privateCacheKey);
@@ -479,4 +643,26 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
     	return key;
     }
 	
+	
+	/**
+	 * Moves entries evicted from a heap tier cache into its overflow tier cache, keeping the remaining time to live
+	 */
+	private static final class OverflowTierEvictionListener extends CacheEventListenerAdapter {
+		private final Ehcache overflowCache;
+		
+		public OverflowTierEvictionListener(Ehcache overflowCache) {
+			this.overflowCache = overflowCache;
+		}
+
+		@Override
+		public void notifyElementEvicted(Ehcache cache, Element element) {
+			if (element.isExpired()) {
+				return;
+			}
+			
+			final long remainingMillis = element.getExpirationTime() - System.currentTimeMillis();
+			final int timeToLive = (int)Math.min(Integer.MAX_VALUE, Math.max(1, remainingMillis / 1000));
+			this.overflowCache.put(new Element(element.getObjectKey(), element.getObjectValue(), null, null, timeToLive));
+		}
+	}
 }
@@ -33,11 +33,14 @@ import javax.persistence.criteria.ParameterExpression;
 import javax.persistence.criteria.Root;
 
 import org.apache.commons.lang.Validate;
+import org.jasig.portal.concurrency.caching.HibernateEntityCacheInvalidationHandler;
+import org.jasig.portal.concurrency.caching.ICacheInvalidationService;
 import org.jasig.portal.jpa.BaseJpaDao;
 import org.jasig.portal.portlet.dao.IPortletDefinitionDao;
 import org.jasig.portal.portlet.om.IPortletDefinition;
 import org.jasig.portal.portlet.om.IPortletDefinitionId;
 import org.jasig.portal.portlet.om.IPortletType;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.support.DataAccessUtils;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
@@ -61,12 +64,18 @@ public class JpaPortletDefinitionDao extends BaseJpaDao implements IPortletDefin
     private ParameterExpression<String> nameParameter;
     private ParameterExpression<String> titleParameter;
     private EntityManager entityManager;
+    private ICacheInvalidationService cacheInvalidationService;
 
     @PersistenceContext(unitName = "uPortalPersistence")
     public final void setEntityManager(EntityManager entityManager) {
         this.entityManager = entityManager;
     }
     
+    @Autowired
+    public void setCacheInvalidationService(ICacheInvalidationService cacheInvalidationService) {
+        this.cacheInvalidationService = cacheInvalidationService;
+    }
+    
     @Override
     protected EntityManager getEntityManager() {
         return this.entityManager;
@@ -74,6 +83,10 @@ public class JpaPortletDefinitionDao extends BaseJpaDao implements IPortletDefin
     
     @Override
     public void afterPropertiesSet() throws Exception {
+        this.cacheInvalidationService.registerHandler(PortletDefinitionImpl.class.getName(),
+                new HibernateEntityCacheInvalidationHandler(this.entityManager.getEntityManagerFactory(),
+                        PortletDefinitionImpl.class, PortletDefinitionImpl.class.getName() + ".Query"));
+        
         this.fnameParameter = this.createParameterExpression(String.class, "fname");
         this.nameParameter = this.createParameterExpression(String.class, "name");
         this.titleParameter = this.createParameterExpression(String.class, "title");
@@ -249,6 +262,7 @@ public class JpaPortletDefinitionDao extends BaseJpaDao implements IPortletDefin
         }
         
         this.entityManager.remove(persistentPortletDefinition);
+        this.invalidatePeers(persistentPortletDefinition);
 	}
 
 	@Override
@@ -285,8 +299,17 @@ public class JpaPortletDefinitionDao extends BaseJpaDao implements IPortletDefin
         Validate.notNull(portletDefinition, "portletDefinition can not be null");
         
         this.entityManager.persist(portletDefinition);
+        this.invalidatePeers(portletDefinition);
         return portletDefinition;
     }
+    
+    /**
+     * Evict the definition from the second level cache of the other servers in the cluster
+     */
+    protected void invalidatePeers(IPortletDefinition portletDefinition) {
+        final long id = this.getNativePortletDefinitionId(portletDefinition.getPortletDefinitionId());
+        this.cacheInvalidationService.invalidatePeers(PortletDefinitionImpl.class.getName(), id);
+    }
 
     protected long getNativePortletDefinitionId(IPortletDefinitionId portletDefinitionId) {
         return Long.parseLong(portletDefinitionId.getStringId());
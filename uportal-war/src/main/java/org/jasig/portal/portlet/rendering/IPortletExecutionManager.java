@@ -20,6 +20,7 @@
 package org.jasig.portal.portlet.rendering;
 
 import java.io.Writer;
+import java.util.Collection;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -108,6 +109,19 @@ public interface IPortletExecutionManager {
      * @return true if the specified portlet been requested to render it's output for the BODY during this request.
      */
     public boolean isPortletRenderRequested(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response);
+    
+    /**
+     * @return true if the render of the BODY of the specified portlet has completed or exceeded its timeout. If true
+     * the get methods for the portlet's output and render results will not block waiting for the portlet. Also returns
+     * true if the portlet has not been requested to render, in which case getting the output renders it synchronously.
+     */
+    public boolean isPortletRenderComplete(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response);
+    
+    /**
+     * Waits until {@link #isPortletRenderComplete(IPortletWindowId, HttpServletRequest, HttpServletResponse)} is true
+     * for at least one of the specified portlets. Returns immediately if it already is.
+     */
+    public void waitForPortletRenderComplete(Collection<IPortletWindowId> portletWindowIds, HttpServletRequest request, HttpServletResponse response) throws InterruptedException;
 
     /**
      * @see #getPortletHeadOutput(IPortletWindowId, HttpServletRequest, HttpServletResponse)
@@ -149,6 +163,11 @@ public interface IPortletExecutionManager {
      * Gets the title for the specified portlet
      */
     public String getPortletTitle(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response);
+    
+    /**
+     * Gets the title for the specified portlet from its definition, never waits for the portlet to render
+     */
+    public String getPortletDefaultTitle(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response);
 
     public int getPortletNewItemCount(String subscribeId, HttpServletRequest request, HttpServletResponse response);
 
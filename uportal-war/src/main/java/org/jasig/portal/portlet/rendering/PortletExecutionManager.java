@@ -20,14 +20,16 @@
 package org.jasig.portal.portlet.rendering;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -51,6 +53,7 @@ import org.jasig.portal.portlet.om.IPortletWindowId;
 import org.jasig.portal.portlet.registry.IPortletWindowRegistry;
 import org.jasig.portal.portlet.rendering.worker.HungWorkerAnalyzer;
 import org.jasig.portal.portlet.rendering.worker.IPortletExecutionContext;
+import org.jasig.portal.portlet.rendering.worker.IPortletExecutionContext.ExecutionType;
 import org.jasig.portal.portlet.rendering.worker.IPortletExecutionInterceptor;
 import org.jasig.portal.portlet.rendering.worker.IPortletExecutionWorker;
 import org.jasig.portal.portlet.rendering.worker.IPortletFailureExecutionWorker;
@@ -302,9 +305,14 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         }
         
         final Map<IPortletWindowId, IPortletExecutionWorker<Long>> eventWorkers = new LinkedHashMap<IPortletWindowId, IPortletExecutionWorker<Long>>();
+        final Map<IPortletWindowId, Long> eventTimeouts = new HashMap<IPortletWindowId, Long>();
         
-
-        //TODO what to do if we hit the max iterations?
+        /*
+         * Events are dispatched as a dataflow: every pass resolves whatever events have been queued so far and
+         * immediately starts a worker for each window that has an event and no worker running. The pass then
+         * only waits until at least one running worker completes so the events it spawned can be dispatched
+         * right away instead of waiting for every other window's worker.
+         */
         int iteration = 0;
         for (; iteration < this.maxEventIterations; iteration++) {
             //Make sure all queued events have been resolved
@@ -326,51 +334,125 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
                 	final Event event = queuedEvent.getEvent();
                     final IPortletExecutionWorker<Long> portletEventExecutionWorker = this.portletWorkerFactory.createEventWorker(request, response, eventWindowId, event);
                     eventWorkers.put(eventWindowId, portletEventExecutionWorker);
+                    eventTimeouts.put(eventWindowId, getPortletEventTimeout(eventWindowId, request));
                     portletEventExecutionWorker.submit();
                 }
             }
             
-            //If no event workers exist we're done with event processing!
+            //If no event workers exist no new events were produced, we're done with event processing!
             if (eventWorkers.isEmpty()) {
                 return;
             }
             
-            //See if any of the events have completed
+            //Wait for the first event workers to complete, their events get dispatched on the next pass
+            this.waitForCompletedEventWorkers(request, eventQueue, eventWorkers, eventTimeouts);
+        }
+        
+        if (iteration == this.maxEventIterations) {
+            this.logger.error("The Event dispatching iteration maximum of " + this.maxEventIterations + " was hit, consider either raising this limit or reviewing the portlets that use events to reduce the number of events spawned");
+        }
+    }
+    
+    /**
+     * Blocks until at least one of the event workers has completed or timed out. All completed and timed out
+     * workers are removed from the Map.
+     * 
+     * @param eventTimeouts The event timeout for each window in eventWorkers
+     */
+    protected void waitForCompletedEventWorkers(HttpServletRequest request, PortletEventQueue eventQueue,
+            Map<IPortletWindowId, IPortletExecutionWorker<Long>> eventWorkers, Map<IPortletWindowId, Long> eventTimeouts) {
+        
+        //Released by the first event worker to complete
+        final CountDownLatch completeLatch = new CountDownLatch(1);
+        final Runnable completionCallback = new Runnable() {
+            @Override
+            public void run() {
+                completeLatch.countDown();
+            }
+        };
+        for (final IPortletExecutionWorker<Long> eventWorker : eventWorkers.values()) {
+            eventWorker.addCompletionCallback(completionCallback);
+        }
+        
+        while (true) {
             int completedEventWorkers = 0;
-            final Set<Entry<IPortletWindowId, IPortletExecutionWorker<Long>>> entrySet = eventWorkers.entrySet();
-            for (final Iterator<Entry<IPortletWindowId, IPortletExecutionWorker<Long>>> eventWorkerEntryItr = entrySet.iterator(); eventWorkerEntryItr.hasNext();) {
+            for (final Iterator<Entry<IPortletWindowId, IPortletExecutionWorker<Long>>> eventWorkerEntryItr = eventWorkers.entrySet().iterator(); eventWorkerEntryItr.hasNext();) {
                 final Entry<IPortletWindowId, IPortletExecutionWorker<Long>> eventWorkerEntry = eventWorkerEntryItr.next();
                 
+                final IPortletWindowId portletWindowId = eventWorkerEntry.getKey();
                 final IPortletExecutionWorker<Long> eventWorker = eventWorkerEntry.getValue();
-                if (eventWorker.isComplete()) {
-                    final IPortletWindowId portletWindowId = eventWorkerEntry.getKey();
-                    //TODO return number of new queued events, use to break the loop earlier
+                final long timeout = eventTimeouts.get(portletWindowId);
+                if (eventWorker.isComplete() || (eventWorker.isStarted() && isEventWorkerTimedOut(eventWorker, timeout))) {
                     waitForEventWorker(request, eventQueue, eventWorker, portletWindowId);
                     
+                    eventWorkerEntryItr.remove();
+                    completedEventWorkers++;
+                }
+                else if (isEventWorkerTimedOut(eventWorker, timeout)) {
+                    //Never got a thread to run on, no point in waiting for it to start
+                    cancelWorker(request, eventWorker);
+                    
                     eventWorkerEntryItr.remove();
                     completedEventWorkers++;
                 }
             }
             
-            /*
-             * If no event workers have completed without waiting wait for the first one and then loop again
-             * Not waiting for all events since each event may spawn more events and we want to start them
-             * processing as soon as possible
-             */
-            if (completedEventWorkers == 0) {
-                final Iterator<Entry<IPortletWindowId, IPortletExecutionWorker<Long>>> eventWorkerEntryItr = entrySet.iterator();
-                final Entry<IPortletWindowId, IPortletExecutionWorker<Long>> eventWorkerEntry = eventWorkerEntryItr.next();
-                eventWorkerEntryItr.remove();
-                
-                final IPortletWindowId portletWindowId = eventWorkerEntry.getKey();
+            if (completedEventWorkers > 0) {
+                return;
+            }
+            
+            //With a single worker running there is nothing else to dispatch until it completes, just wait on it
+            if (eventWorkers.size() == 1) {
+                this.waitForFirstEventWorker(request, eventQueue, eventWorkers);
+                return;
+            }
+            
+            //Wait until a worker completes or the first event timeout passes
+            long waitTime = Long.MAX_VALUE;
+            for (final Entry<IPortletWindowId, IPortletExecutionWorker<Long>> eventWorkerEntry : eventWorkers.entrySet()) {
                 final IPortletExecutionWorker<Long> eventWorker = eventWorkerEntry.getValue();
-                waitForEventWorker(request, eventQueue, eventWorker, portletWindowId);
+                final long timeout = eventTimeouts.get(eventWorkerEntry.getKey());
+                waitTime = Math.min(waitTime, getEventWorkerTimeRemaining(eventWorker, timeout));
+            }
+            
+            try {
+                completeLatch.await(Math.max(waitTime, 1), TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                
+                //Fall back to waiting on the oldest worker
+                this.waitForFirstEventWorker(request, eventQueue, eventWorkers);
+                return;
             }
         }
+    }
+    
+    private void waitForFirstEventWorker(HttpServletRequest request, PortletEventQueue eventQueue,
+            Map<IPortletWindowId, IPortletExecutionWorker<Long>> eventWorkers) {
         
-        if (iteration == this.maxEventIterations) {
-            this.logger.error("The Event dispatching iteration maximum of " + this.maxEventIterations + " was hit, consider either raising this limit or reviewing the portlets that use events to reduce the number of events spawned");
-        }
+        final Iterator<Entry<IPortletWindowId, IPortletExecutionWorker<Long>>> eventWorkerEntryItr = eventWorkers.entrySet().iterator();
+        final Entry<IPortletWindowId, IPortletExecutionWorker<Long>> eventWorkerEntry = eventWorkerEntryItr.next();
+        eventWorkerEntryItr.remove();
+        
+        waitForEventWorker(request, eventQueue, eventWorkerEntry.getValue(), eventWorkerEntry.getKey());
+    }
+    
+    /**
+     * @return true if the event worker has been running, or waiting to run, for longer than its timeout
+     */
+    protected static boolean isEventWorkerTimedOut(IPortletExecutionWorker<Long> eventWorker, long timeout) {
+        return getEventWorkerTimeRemaining(eventWorker, timeout) <= 0;
+    }
+    
+    /**
+     * @return Time in ms until the event worker has been running, or waiting to run, for longer than its timeout
+     */
+    protected static long getEventWorkerTimeRemaining(IPortletExecutionWorker<Long> eventWorker, long timeout) {
+        final long startedTime = eventWorker.getStartedTime();
+        final long waitStart = startedTime > 0 ? startedTime : eventWorker.getSubmittedTime();
+        
+        return timeout - (System.currentTimeMillis() - waitStart);
     }
 
     protected void waitForEventWorker(
@@ -564,6 +646,64 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         return tracker != null;
     }
     
+    /* (non-Javadoc)
+     * @see org.jasig.portal.portlet.rendering.IPortletExecutionManager#isPortletRenderComplete(org.jasig.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public boolean isPortletRenderComplete(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response) {
+        final Map<IPortletWindowId, IPortletRenderExecutionWorker> portletRenderingMap = this.getPortletRenderingMap(request);
+        final IPortletRenderExecutionWorker tracker = portletRenderingMap.get(portletWindowId);
+        
+        //Failure workers render on the thread that gets their output
+        if (tracker == null || tracker.isComplete() || tracker.getExecutionType() == ExecutionType.FAILURE) {
+            return true;
+        }
+        
+        //Once the timeout has passed get(timeout) will not wait on the worker
+        return this.getPortletRenderTimeRemaining(portletWindowId, tracker, request) <= 0;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.jasig.portal.portlet.rendering.IPortletExecutionManager#waitForPortletRenderComplete(java.util.Collection, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public void waitForPortletRenderComplete(Collection<IPortletWindowId> portletWindowIds, HttpServletRequest request, HttpServletResponse response) throws InterruptedException {
+        final Map<IPortletWindowId, IPortletRenderExecutionWorker> portletRenderingMap = this.getPortletRenderingMap(request);
+        
+        final CountDownLatch completeLatch = new CountDownLatch(1);
+        final Runnable completionCallback = new Runnable() {
+            @Override
+            public void run() {
+                completeLatch.countDown();
+            }
+        };
+        
+        //Wait until a worker completes or the first render timeout passes
+        long waitTime = Long.MAX_VALUE;
+        for (final IPortletWindowId portletWindowId : portletWindowIds) {
+            if (this.isPortletRenderComplete(portletWindowId, request, response)) {
+                return;
+            }
+            
+            final IPortletRenderExecutionWorker tracker = portletRenderingMap.get(portletWindowId);
+            waitTime = Math.min(waitTime, this.getPortletRenderTimeRemaining(portletWindowId, tracker, request));
+            tracker.addCompletionCallback(completionCallback);
+        }
+        
+        if (waitTime != Long.MAX_VALUE) {
+            completeLatch.await(waitTime, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * @return Time in ms until the render timeout passes for the worker, a timeout is counted from when the worker started
+     */
+    protected long getPortletRenderTimeRemaining(IPortletWindowId portletWindowId, IPortletRenderExecutionWorker tracker, HttpServletRequest request) {
+        final long timeout = getPortletRenderTimeout(portletWindowId, request);
+        final long startTime = tracker.isStarted() ? tracker.getStartedTime() : tracker.getSubmittedTime();
+        return timeout - (System.currentTimeMillis() - startTime);
+    }
+    
     /* (non-Javadoc)
 	 * @see org.jasig.portal.portlet.rendering.IPortletExecutionManager#getPortletHeadOutput(org.jasig.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
 	 */
@@ -694,10 +834,20 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
     		}
         }
         
+        // return portlet title from channel definition
+        return this.getPortletDefaultTitle(portletWindowId, request, response);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.jasig.portal.portlet.rendering.IPortletExecutionManager#getPortletDefaultTitle(org.jasig.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public String getPortletDefaultTitle(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response) {
+        final IPortletDefinition portletDefinition = getPortletDefinition(portletWindowId, request);
+        
         // we assume that response locale has been set to correct value
         String locale = response.getLocale().toString();
         
-		// return portlet title from channel definition
         return portletDefinition.getTitle(locale);
     }
 
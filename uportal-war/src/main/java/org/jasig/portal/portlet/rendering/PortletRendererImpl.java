@@ -21,6 +21,7 @@ package org.jasig.portal.portlet.rendering;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Serializable;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.util.Collections;
@@ -28,6 +29,9 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.portlet.ActionRequest;
 import javax.portlet.CacheControl;
@@ -38,6 +42,7 @@ import javax.portlet.PortletRequest;
 import javax.portlet.PortletSession;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.lang.StringUtils;
@@ -64,7 +69,10 @@ import org.jasig.portal.portlet.om.IPortletEntity;
 import org.jasig.portal.portlet.om.IPortletWindow;
 import org.jasig.portal.portlet.om.IPortletWindowId;
 import org.jasig.portal.portlet.registry.IPortletWindowRegistry;
+import org.jasig.portal.portlet.rendering.worker.GuardingHttpServletRequest;
+import org.jasig.portal.portlet.rendering.worker.GuardingHttpServletResponse;
 import org.jasig.portal.portlet.rendering.worker.HungWorkerAnalyzer;
+import org.jasig.portal.portlet.rendering.worker.IPortletWorkerFactory;
 import org.jasig.portal.portlet.session.PortletSessionAdministrativeRequestListener;
 import org.jasig.portal.security.IAuthorizationPrincipal;
 import org.jasig.portal.security.IPerson;
@@ -75,10 +83,14 @@ import org.jasig.portal.url.IPortletRequestInfo;
 import org.jasig.portal.url.IPortletUrlBuilder;
 import org.jasig.portal.url.IUrlSyntaxProvider;
 import org.jasig.portal.url.ParameterMap;
+import org.jasig.portal.utils.threading.SingleFlight;
 import org.jasig.portal.utils.web.PortletHttpServletRequestWrapper;
 import org.jasig.portal.utils.web.PortletHttpServletResponseWrapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 
 /**
  * Executes methods on portlets using Pluto
@@ -104,6 +116,8 @@ public class PortletRendererImpl implements IPortletRenderer {
     private IPortalEventFactory portalEventFactory;
     private IUrlSyntaxProvider urlSyntaxProvider;
     private HungWorkerAnalyzer hungWorkerAnalyzer;
+    private IPortletWorkerFactory portletWorkerFactory;
+    private long publicScopeRenderCoalescingTimeout = 10000;
 
     @Autowired
     public void setUrlSyntaxProvider(IUrlSyntaxProvider urlSyntaxProvider) {
@@ -141,6 +155,20 @@ public class PortletRendererImpl implements IPortletRenderer {
     public void setHungWorkerAnalyzer(HungWorkerAnalyzer hungWorkerAnalyzer) {
         this.hungWorkerAnalyzer = hungWorkerAnalyzer;
     }
+    /**
+     * @param portletWorkerFactory Used to refresh stale public scope output on a portlet worker thread
+     */
+    @Autowired
+    public void setPortletWorkerFactory(IPortletWorkerFactory portletWorkerFactory) {
+        this.portletWorkerFactory = portletWorkerFactory;
+    }
+    /**
+     * @param publicScopeRenderCoalescingTimeout Maximum time in ms to wait for a concurrent render of the same public scope output, 0 disables coalescing
+     */
+    @Value("${org.jasig.portal.portlet.rendering.PortletRendererImpl.publicScopeRenderCoalescingTimeout:10000}")
+    public void setPublicScopeRenderCoalescingTimeout(long publicScopeRenderCoalescingTimeout) {
+        this.publicScopeRenderCoalescingTimeout = publicScopeRenderCoalescingTimeout;
+    }
 	
 	
 	/**
@@ -272,6 +300,13 @@ public class PortletRendererImpl implements IPortletRenderer {
     @Override
     public PortletRenderResult doRenderMarkup(IPortletWindowId portletWindowId, HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, Writer writer) {
     	CachedPortletData cachedPortletData = this.portletCacheControlService.getCachedPortletRenderOutput(portletWindowId, httpServletRequest);
+    	
+    	// a refresh of stale public scope output renders on behalf of the request that submitted it
+    	final StaleContentRefreshRequest refreshRequest = StaleContentRefreshRequest.find(httpServletRequest);
+    	if (refreshRequest != null) {
+    	    return doRenderMarkupStaleContentRefresh(portletWindowId, httpServletRequest, httpServletResponse, writer, cachedPortletData, refreshRequest.renderTicket);
+    	}
+    	
     	if(cachedPortletData != null && !cachedPortletData.isExpired()) {
     		// regardless if etag is set or not, we need to replay cachedPortlet Data if it's not expired
     		return doRenderMarkupReplayCachedContent(portletWindowId, httpServletRequest, writer, cachedPortletData);
@@ -282,8 +317,46 @@ public class PortletRendererImpl implements IPortletRenderer {
     	
     	// check cacheControl AFTER portlet render to see if the portlet said "useCachedContent"
         CacheControl cacheControl = this.portletCacheControlService.getPortletRenderCacheControl(portletWindowId, httpServletRequest);   
+        
+        // public scope output is shared, only one concurrent request needs to render it
+        SingleFlight.Ticket<Serializable, CachedPortletData> renderTicket = null;
+        if (cacheControl.isPublicScope() && this.publicScopeRenderCoalescingTimeout > 0) {
+            renderTicket = this.portletCacheControlService.joinPublicScopePortletRender(portletWindowId, httpServletRequest);
+            if (renderTicket != null && !renderTicket.isLeader()) {
+                final CachedPortletData sharedPortletData = this.getCoalescedRenderOutput(renderTicket, cachedPortletData);
+                if (sharedPortletData != null) {
+                    return doRenderMarkupReplayCachedContent(portletWindowId, httpServletRequest, writer, sharedPortletData);
+                }
+                
+                // the leader produced nothing that can be shared, render independently
+                renderTicket = null;
+            }
+            else if (renderTicket != null && this.isWithinStaleWindow(cachedPortletData) 
+                    && this.submitStaleContentRefresh(portletWindowId, httpServletRequest, httpServletResponse, renderTicket)) {
+                // the refresh worker now owns the ticket, serve the stale output like every other request
+                return doRenderMarkupReplayCachedContent(portletWindowId, httpServletRequest, writer, cachedPortletData);
+            }
+        }
+        
+        try {
+            return this.doRenderMarkupCaptureOutput(portletWindowId, httpServletRequest, httpServletResponse, writer, cacheControl, cachedPortletData, renderTicket);
+        }
+        finally {
+            if (renderTicket != null) {
+                // release any requests still waiting on this render, null tells them to render for themselves
+                renderTicket.complete(null);
+            }
+        }
+    }
+    
+    /**
+     * Renders the portlet, capturing the output so it can be cached. If a render ticket is specified it is completed
+     * with the cached output so that coalesced requests can replay it.
+     */
+    protected PortletRenderResult doRenderMarkupCaptureOutput(IPortletWindowId portletWindowId, HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, Writer writer, 
+            CacheControl cacheControl, CachedPortletData cachedPortletData, SingleFlight.Ticket<Serializable, CachedPortletData> renderTicket) {
         // alter writer argument to capture output
-        LimitedBufferStringWriter captureWriter = new LimitedBufferStringWriter(this.portletCacheControlService.getCacheSizeThreshold());
+        LimitedBufferStringWriter captureWriter = new LimitedBufferStringWriter(this.getCacheSizeThreshold(cacheControl));
         TeeWriter teeWriter = new TeeWriter(writer, captureWriter);
         PortletRenderResult result = doRenderMarkupInternal(portletWindowId, httpServletRequest, httpServletResponse, teeWriter);
         
@@ -295,16 +368,113 @@ public class PortletRendererImpl implements IPortletRenderer {
         
         if (useCachedContent) {
         	cachedPortletData.updateExpirationTime(cacheControl.getExpirationTime());
+        	if (renderTicket != null) {
+        		renderTicket.complete(cachedPortletData);
+        	}
     		return doRenderMarkupReplayCachedContent(portletWindowId, httpServletRequest, writer, cachedPortletData);
         } else {
         	boolean shouldCache = this.portletCacheControlService.shouldOutputBeCached(cacheControl);
         	if(shouldCache && !captureWriter.isLimitExceeded()) {
-        		this.portletCacheControlService.cachePortletRenderOutput(portletWindowId, httpServletRequest, captureWriter.toString(), cacheControl);
+        		final CachedPortletData renderedPortletData = this.portletCacheControlService.cachePortletRenderOutput(portletWindowId, httpServletRequest, captureWriter.toString(), cacheControl);
+        		if (renderTicket != null) {
+        			renderTicket.complete(renderedPortletData);
+        		}
         	}
         }
     	return result;
     }
     
+    /**
+     * Renders the portlet for a refresh of stale public scope output, completing the render ticket handed over by
+     * the request that found the output stale.
+     */
+    protected PortletRenderResult doRenderMarkupStaleContentRefresh(IPortletWindowId portletWindowId, HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, Writer writer, 
+            CachedPortletData cachedPortletData, SingleFlight.Ticket<Serializable, CachedPortletData> renderTicket) {
+        try {
+            final CacheControl cacheControl = this.portletCacheControlService.getPortletRenderCacheControl(portletWindowId, httpServletRequest);
+            return this.doRenderMarkupCaptureOutput(portletWindowId, httpServletRequest, httpServletResponse, writer, cacheControl, cachedPortletData, renderTicket);
+        }
+        finally {
+            // release any requests still waiting on this render, null tells them to render for themselves
+            renderTicket.complete(null);
+        }
+    }
+    
+    /**
+     * Submits a render of the portlet to a portlet worker thread which refreshes the stale public scope output and
+     * completes the render ticket. The refresh uses the request of the leading render, it is guarded so that it
+     * fails instead of using the request once that request has completed.
+     * 
+     * @return true if the refresh was submitted and now owns the render ticket
+     */
+    protected boolean submitStaleContentRefresh(IPortletWindowId portletWindowId, HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse,
+            SingleFlight.Ticket<Serializable, CachedPortletData> renderTicket) {
+        if (this.portletWorkerFactory == null) {
+            return false;
+        }
+        
+        final AtomicBoolean requestComplete = new AtomicBoolean(false);
+        final RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        if (requestAttributes != null) {
+            requestAttributes.registerDestructionCallback(StaleContentRefreshRequest.class.getName() + "." + portletWindowId, new Runnable() {
+                @Override
+                public void run() {
+                    requestComplete.set(true);
+                }
+            }, RequestAttributes.SCOPE_REQUEST);
+        }
+        
+        final StaleContentRefreshRequest refreshRequest = new StaleContentRefreshRequest(httpServletRequest, requestComplete, renderTicket);
+        final GuardingHttpServletResponse refreshResponse = new GuardingHttpServletResponse(httpServletResponse, requestComplete);
+        try {
+            this.portletWorkerFactory.createRenderWorker(refreshRequest, refreshResponse, portletWindowId).submit();
+        }
+        catch (RejectedExecutionException e) {
+            this.logger.warn("No portlet worker available to refresh stale output of portlet window '" + portletWindowId + "', rendering on the current thread");
+            return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * @return true if the expired cached data can still be served while it is refreshed
+     */
+    protected boolean isWithinStaleWindow(CachedPortletData cachedPortletData) {
+        return cachedPortletData != null && cachedPortletData.isWithinStaleWindow(this.portletCacheControlService.getPublicScopeStaleWhileRevalidate());
+    }
+    
+    /**
+     * Get the output of a concurrent render of the same public scope output. If the expired cached data is still
+     * within the stale-while-revalidate window it is used immediately, otherwise waits for the leading render to complete.
+     * 
+     * @return The data to replay, null if there is nothing to replay and the portlet must be rendered
+     */
+    protected CachedPortletData getCoalescedRenderOutput(SingleFlight.Ticket<Serializable, CachedPortletData> renderTicket, CachedPortletData cachedPortletData) {
+        if (this.isWithinStaleWindow(cachedPortletData)) {
+            return cachedPortletData;
+        }
+        
+        try {
+            return renderTicket.await(this.publicScopeRenderCoalescingTimeout, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+    
+    /**
+     * @return The maximum amount of output to capture for caching, public scope output can use the larger overflow tier
+     */
+    protected int getCacheSizeThreshold(CacheControl cacheControl) {
+        if (cacheControl.isPublicScope()) {
+            return this.portletCacheControlService.getPublicScopeCacheSizeThreshold();
+        }
+        
+        return this.portletCacheControlService.getCacheSizeThreshold();
+    }
+    
     @Override
     public HungWorkerAnalyzer getHungWorkerAnalyzer() {
         return hungWorkerAnalyzer;
@@ -513,7 +683,7 @@ public class PortletRendererImpl implements IPortletRenderer {
 			//Setup the request and response
 	        httpServletRequest = this.setupPortletRequest(httpServletRequest);
 	        // use overloaded setup to override the outputstream
-	        CachingPortletHttpServletResponseWrapper responseWrapper = this.setupCachingPortletResponse(httpServletResponse, this.portletCacheControlService.getCacheSizeThreshold());
+	        CachingPortletHttpServletResponseWrapper responseWrapper = this.setupCachingPortletResponse(httpServletResponse, this.getCacheSizeThreshold(cacheControl));
 			this.portletContainer.doServeResource(portletWindow.getPlutoPortletWindow(), httpServletRequest, responseWrapper);
 			// check cacheControl AFTER portlet serveResource to see if the portlet said "useCachedContent"
 			boolean useCachedContent = cacheControl.useCachedContent();
@@ -821,4 +991,30 @@ public class PortletRendererImpl implements IPortletRenderer {
         }
     }
     
+    
+    /**
+     * Request handed to the portlet worker refreshing stale public scope output, carries the render ticket of the
+     * request that found the output stale.
+     */
+    static final class StaleContentRefreshRequest extends GuardingHttpServletRequest {
+        private final SingleFlight.Ticket<Serializable, CachedPortletData> renderTicket;
+        
+        public StaleContentRefreshRequest(HttpServletRequest request, AtomicBoolean requestComplete, SingleFlight.Ticket<Serializable, CachedPortletData> renderTicket) {
+            super(request, requestComplete);
+            this.renderTicket = renderTicket;
+        }
+        
+        /**
+         * @return The refresh request wrapped by the specified request, null if it isn't a refresh
+         */
+        public static StaleContentRefreshRequest find(HttpServletRequest request) {
+            while (request instanceof HttpServletRequestWrapper) {
+                if (request instanceof StaleContentRefreshRequest) {
+                    return (StaleContentRefreshRequest)request;
+                }
+                request = (HttpServletRequest)((HttpServletRequestWrapper)request).getRequest();
+            }
+            return null;
+        }
+    }
 }
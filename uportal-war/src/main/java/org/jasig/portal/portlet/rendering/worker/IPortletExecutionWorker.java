@@ -51,6 +51,12 @@ public interface IPortletExecutionWorker<V> extends IPortletExecutionContext {
      */
     public V get(long timeout) throws Exception;
     
+    /**
+     * Registers a callback that is run once the worker completes, fails or is canceled. If the worker has
+     * already completed the callback is run immediately on the calling thread.
+     */
+    public void addCompletionCallback(Runnable callback);
+    
     /**
      * Cancel the worker, interrupting the thread that is executing the worker
      */
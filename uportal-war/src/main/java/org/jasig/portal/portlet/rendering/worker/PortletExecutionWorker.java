@@ -23,8 +23,10 @@ import java.lang.Thread.State;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -69,6 +71,8 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
     private final AtomicInteger cancelCount = new AtomicInteger();
     private final AtomicBoolean canceled = new AtomicBoolean();
     private volatile boolean retrieved = false;
+    private final Queue<Runnable> completionCallbacks = new ConcurrentLinkedQueue<Runnable>();
+    private volatile boolean completionCallbacksRun = false;
         
     public PortletExecutionWorker(
             ExecutorService executorService, List<IPortletExecutionInterceptor> interceptors, IPortletRenderer portletRenderer, 
@@ -178,6 +182,7 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
                         }
                         
                         workerThread = null;
+                        runCompletionCallbacks();
                     }
                 }
             }, this);
@@ -188,7 +193,12 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
                 public V call() throws Exception {
                     Exception e = new RuntimeException("Portlet '" + portletFname + "' was not allocated a worker thread because it already has too many workers in a hung state.");
                     logger.warn("Portlet '" + portletWindowId + "' failed with an exception", e);
-                    doPostExecution(e);
+                    try {
+                        doPostExecution(e);
+                    }
+                    finally {
+                        runCompletionCallbacks();
+                    }
                     throw e;
                 }
             }, this);
@@ -318,6 +328,35 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
         
         //Track the number of times cancel has been called
         this.cancelCount.incrementAndGet();
+        
+        //A worker canceled before it started never runs its callbacks
+        this.runCompletionCallbacks();
+    }
+    
+    /* (non-Javadoc)
+     * @see org.jasig.portal.portlet.rendering.worker.IPortletExecutionWorker#addCompletionCallback(java.lang.Runnable)
+     */
+    @Override
+    public final void addCompletionCallback(Runnable callback) {
+        this.completionCallbacks.add(callback);
+        
+        //Already complete, make sure the callback is run. Callbacks are polled so each only runs once
+        if (this.completionCallbacksRun) {
+            this.runCompletionCallbacks();
+        }
+    }
+    
+    private void runCompletionCallbacks() {
+        this.completionCallbacksRun = true;
+        
+        for (Runnable callback = this.completionCallbacks.poll(); callback != null; callback = this.completionCallbacks.poll()) {
+            try {
+                callback.run();
+            }
+            catch (Throwable t) {
+                logger.error("Completion callback failed for portlet window " + this.portletWindowId, t);
+            }
+        }
     }
     
     /* (non-Javadoc)
@@ -143,6 +143,15 @@ final class PortletFailureExecutionWorker implements IPortletFailureExecutionWor
         //NOOP
     }
     
+    /* (non-Javadoc)
+     * @see org.jasig.portal.portlet.rendering.worker.IPortletExecutionWorker#addCompletionCallback(java.lang.Runnable)
+     */
+    @Override
+    public void addCompletionCallback(Runnable callback) {
+        //Rendering happens on the thread that gets the output, it never waits on another thread
+        callback.run();
+    }
+    
     /* (non-Javadoc)
      * @see org.jasig.portal.portlet.rendering.worker.IPortletExecutionWorker#getCancelCount()
      */
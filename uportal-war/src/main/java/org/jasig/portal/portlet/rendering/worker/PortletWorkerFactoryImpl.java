@@ -39,6 +39,7 @@ import org.jasig.portal.user.IUserInstance;
 import org.jasig.portal.user.IUserInstanceManager;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 /**
@@ -53,6 +54,8 @@ public class PortletWorkerFactoryImpl implements IPortletWorkerFactory {
     public static final String DEFAULT_ERROR_PORTLET_FNAME = "error";
     
     private ExecutorService portletThreadPool;
+    private ExecutorService portletThreadPerExecutionExecutor;
+    private boolean threadPerExecution = false;
     private IPortletRenderer portletRenderer;
     private List<IPortletExecutionInterceptor> executionInterceptors;
     private String errorPortletFName = DEFAULT_ERROR_PORTLET_FNAME;
@@ -84,6 +87,21 @@ public class PortletWorkerFactoryImpl implements IPortletWorkerFactory {
         this.portletThreadPool = portletThreadPool;
     }
 
+    @Autowired
+    public void setPortletThreadPerExecutionExecutor(@Qualifier("portletThreadPerExecutionExecutor") ExecutorService portletThreadPerExecutionExecutor) {
+        this.portletThreadPerExecutionExecutor = portletThreadPerExecutionExecutor;
+    }
+
+    /**
+     * If true each portlet execution runs on its own newly created thread from the portletThreadPerExecutionExecutor
+     * instead of on the fixed size portletThreadPool. Blocked or hung portlets then never hold up other portlets
+     * waiting for a pooled thread. Defaults to false.
+     */
+    @Value("${org.jasig.portal.portlet.worker.threadPerExecution}")
+    public void setThreadPerExecution(boolean threadPerExecution) {
+        this.threadPerExecution = threadPerExecution;
+    }
+
     @Autowired
     public void setPortletRenderer(IPortletRenderer portletRenderer) {
         this.portletRenderer = portletRenderer;
@@ -100,14 +118,14 @@ public class PortletWorkerFactoryImpl implements IPortletWorkerFactory {
     @Override
     public IPortletActionExecutionWorker createActionWorker(HttpServletRequest request, HttpServletResponse response, IPortletWindowId portletWindowId) {
         final IPortletWindow portletWindow = this.portletWindowRegistry.getPortletWindow(request, portletWindowId);
-        return new PortletActionExecutionWorker(portletThreadPool, executionInterceptors, portletRenderer, request, response, portletWindow);
+        return new PortletActionExecutionWorker(this.getExecutorService(), executionInterceptors, portletRenderer, request, response, portletWindow);
     }
     
 
     @Override
     public IPortletEventExecutionWorker createEventWorker(HttpServletRequest request, HttpServletResponse response, IPortletWindowId portletWindowId, Event event) {
         final IPortletWindow portletWindow = this.portletWindowRegistry.getPortletWindow(request, portletWindowId);
-        return new PortletEventExecutionWorker(portletThreadPool, executionInterceptors, portletRenderer, request, response, portletWindow, event);
+        return new PortletEventExecutionWorker(this.getExecutorService(), executionInterceptors, portletRenderer, request, response, portletWindow, event);
     }
 
 
@@ -120,19 +138,19 @@ public class PortletWorkerFactoryImpl implements IPortletWorkerFactory {
 			HttpServletRequest request, HttpServletResponse response,
 			IPortletWindowId portletWindowId) {
         final IPortletWindow portletWindow = this.portletWindowRegistry.getPortletWindow(request, portletWindowId);
-		return new PortletRenderHeaderExecutionWorker(portletThreadPool,executionInterceptors, portletRenderer, request, response, portletWindow);
+		return new PortletRenderHeaderExecutionWorker(this.getExecutorService(),executionInterceptors, portletRenderer, request, response, portletWindow);
 	}
 
 	@Override
     public IPortletRenderExecutionWorker createRenderWorker(HttpServletRequest request, HttpServletResponse response, IPortletWindowId portletWindowId) {
         final IPortletWindow portletWindow = this.portletWindowRegistry.getPortletWindow(request, portletWindowId);
-        return new PortletRenderExecutionWorker(portletThreadPool, executionInterceptors, portletRenderer, request, response, portletWindow);
+        return new PortletRenderExecutionWorker(this.getExecutorService(), executionInterceptors, portletRenderer, request, response, portletWindow);
     }
 
     @Override
     public IPortletResourceExecutionWorker createResourceWorker(HttpServletRequest request, HttpServletResponse response, IPortletWindowId portletWindowId) {
         final IPortletWindow portletWindow = this.portletWindowRegistry.getPortletWindow(request, portletWindowId);
-        return new PortletResourceExecutionWorker(portletThreadPool, executionInterceptors, portletRenderer, request, response, portletWindow);
+        return new PortletResourceExecutionWorker(this.getExecutorService(), executionInterceptors, portletRenderer, request, response, portletWindow);
     }
     
     @Override
@@ -149,6 +167,17 @@ public class PortletWorkerFactoryImpl implements IPortletWorkerFactory {
          */
     }
     
+    /**
+     * @return The ExecutorService to submit portlet executions to
+     */
+    protected ExecutorService getExecutorService() {
+        if (this.threadPerExecution) {
+            return this.portletThreadPerExecutionExecutor;
+        }
+        
+        return this.portletThreadPool;
+    }
+    
     protected IPortletWindowId getErrorPortletWindowId(HttpServletRequest request, String fname) {
         final IUserInstance userInstance = this.userInstanceManager.getUserInstance(request);
         final IUserPreferencesManager preferencesManager = userInstance.getPreferencesManager();
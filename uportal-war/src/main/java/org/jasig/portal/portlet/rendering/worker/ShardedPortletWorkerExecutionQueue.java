@@ -0,0 +1,46 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.portlet.rendering.worker;
+
+import org.jasig.portal.utils.threading.ShardedQualityOfServiceBlockingQueue;
+
+/**
+ * QOS based queue that spreads out workers by fname without a single queue-wide lock, use in place of
+ * {@link PortletWorkerExecutionQueue} when worker submission contends on the queue.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class ShardedPortletWorkerExecutionQueue extends ShardedQualityOfServiceBlockingQueue<String, PortletExecutionCallable<?>> {
+    public ShardedPortletWorkerExecutionQueue() {
+        super();
+    }
+    
+    public ShardedPortletWorkerExecutionQueue(int capacity) {
+        super(capacity);
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.portal.utils.threading.ShardedQualityOfServiceBlockingQueue#getElementKey(java.lang.Object)
+     */
+    @Override
+    protected String getElementKey(PortletExecutionCallable<?> e) {
+        return e.getPortletFname();
+    }
+}
@@ -775,8 +775,14 @@ public class PortletAdministrationHelper implements ServletContextAware {
             return true;
         }
 	    
+		final List<String> categoryIds = new ArrayList<String>(categories.size());
 		for (JsonEntityBean category : categories) {
-			if (ap.canManage(state, category.getId())) {
+			categoryIds.add(category.getId());
+		}
+		final Map<String, Boolean> canManage = ap.canManage(state, categoryIds);
+	    
+		for (JsonEntityBean category : categories) {
+			if (canManage.get(category.getId())) {
 				logger.debug("Found permission for category " + category.getName() + " and lifecycle state " + state.toString());
 				return true;
 			}
@@ -19,15 +19,24 @@
 
 package org.jasig.portal.rendering;
 
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.lang.StringEscapeUtils;
 import org.jasig.portal.character.stream.CharacterEventReader;
+import org.jasig.portal.character.stream.CharacterEventReaderDelegate;
 import org.jasig.portal.character.stream.FilteringCharacterEventReader;
+import org.jasig.portal.character.stream.events.CharacterDataEvent;
 import org.jasig.portal.character.stream.events.CharacterDataEventImpl;
 import org.jasig.portal.character.stream.events.CharacterEvent;
+import org.jasig.portal.character.stream.events.CharacterEventTypes;
 import org.jasig.portal.character.stream.events.PortletContentPlaceholderEvent;
 import org.jasig.portal.character.stream.events.PortletHeaderPlaceholderEvent;
 import org.jasig.portal.character.stream.events.PortletLinkPlaceholderEvent;
@@ -36,17 +45,39 @@ import org.jasig.portal.character.stream.events.PortletTitlePlaceholderEvent;
 import org.jasig.portal.portlet.om.IPortletWindowId;
 import org.jasig.portal.portlet.rendering.IPortletExecutionManager;
 import org.jasig.portal.utils.cache.CacheKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * Inserts the results of portlet's rendering into the character stream
+ * <p>
+ * If {@link #setProgressiveRendering(boolean)} is enabled the component never waits on a portlet that
+ * has not finished rendering when its content is reached. An empty placeholder element is written instead
+ * and the rest of the page is streamed to the client. Before the closing body tag the content of each deferred
+ * portlet is written as it completes along with a small script that moves it into the placeholder. Titles,
+ * new item counts and links of portlets that have not completed fall back to their non-dynamic values.
  * 
  * @author Eric Dalquist
  * @version $Revision$
  */
 public class PortletRenderingIncorporationComponent extends CharacterPipelineComponentWrapper {
+    private static final String BODY_END_TAG = "</body>";
+    private static final String DEFERRED_ID_PREFIX = "up-deferred-";
+    
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+    
     private IPortletExecutionManager portletExecutionManager;
+    private boolean progressiveRendering = false;
     
+    /**
+     * If true portlet content is written out of order as each portlet completes instead of waiting
+     * on portlets in document order. Only applies to HTML output. Defaults to false.
+     */
+    public void setProgressiveRendering(boolean progressiveRendering) {
+        this.progressiveRendering = progressiveRendering;
+    }
+
     @Autowired
     public void setPortletExecutionManager(IPortletExecutionManager portletExecutionManager) {
         this.portletExecutionManager = portletExecutionManager;
@@ -71,7 +102,11 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
     public PipelineEventReader<CharacterEventReader, CharacterEvent> getEventReader(HttpServletRequest request, HttpServletResponse response) {
         final PipelineEventReader<CharacterEventReader, CharacterEvent> pipelineEventReader = this.wrappedComponent.getEventReader(request, response);
         
-        final CharacterEventReader eventReader = pipelineEventReader.getEventReader();
+        CharacterEventReader eventReader = pipelineEventReader.getEventReader();
+        if (this.progressiveRendering) {
+            eventReader = new ProgressivePortletEventReader(eventReader, request, response);
+        }
+        
         final PortletIncorporatingEventReader portletIncorporatingEventReader = new PortletIncorporatingEventReader(eventReader, request, response);
         
         final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
@@ -138,4 +173,249 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
             return event;
         }
     }
+    
+    /**
+     * Markup written in place of a portlet's content when the portlet has not completed rendering
+     */
+    protected String getDeferredPlaceholder(IPortletWindowId portletWindowId) {
+        final String id = StringEscapeUtils.escapeHtml(DEFERRED_ID_PREFIX + portletWindowId.getStringId());
+        return "<div id=\"" + id + "\" class=\"up-portlet-deferred\"></div>";
+    }
+    
+    /**
+     * Markup written before the end of the body when a deferred portlet completes, must move the content
+     * into the placeholder written by {@link #getDeferredPlaceholder(IPortletWindowId)}
+     */
+    protected String getDeferredContent(IPortletWindowId portletWindowId, String output) {
+        final String id = DEFERRED_ID_PREFIX + portletWindowId.getStringId();
+        final String htmlId = StringEscapeUtils.escapeHtml(id);
+        final String jsId = StringEscapeUtils.escapeJavaScript(id);
+        
+        return "<div id=\"" + htmlId + "-content\" style=\"display: none;\">" + output + "</div>" +
+            "<script type=\"text/javascript\">(function() {" +
+                "var p = document.getElementById('" + jsId + "'), c = document.getElementById('" + jsId + "-content');" +
+                "while (c.firstChild) { p.parentNode.insertBefore(c.firstChild, p); }" +
+                "p.parentNode.removeChild(p); c.parentNode.removeChild(c);" +
+            "})();</script>";
+    }
+    
+    /**
+     * Replaces placeholders for portlets that have not completed rendering with non-blocking values and
+     * writes the deferred portlet content before the end of the body as the portlets complete. Placeholders
+     * for completed portlets are passed through to the {@link PortletIncorporatingEventReader}.
+     */
+    private class ProgressivePortletEventReader extends CharacterEventReaderDelegate {
+        private final LinkedList<CharacterEvent> eventBuffer = new LinkedList<CharacterEvent>();
+        private final Set<IPortletWindowId> deferredPortlets = new LinkedHashSet<IPortletWindowId>();
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+        //Character data held back because it may be the start of the end body tag
+        private final StringBuilder pendingData = new StringBuilder();
+        private String documentTail = null;
+        
+        public ProgressivePortletEventReader(CharacterEventReader delegate, HttpServletRequest request, HttpServletResponse response) {
+            super(delegate);
+            this.request = request;
+            this.response = response;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.fillBuffer();
+        }
+
+        @Override
+        public CharacterEvent next() {
+            if (!this.fillBuffer()) {
+                throw new NoSuchElementException();
+            }
+            return this.eventBuffer.removeFirst();
+        }
+
+        @Override
+        public CharacterEvent peek() {
+            if (!this.fillBuffer()) {
+                throw new NoSuchElementException();
+            }
+            return this.eventBuffer.getFirst();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+        
+        /**
+         * @return true if there is at least one event in the buffer
+         */
+        private boolean fillBuffer() {
+            while (this.eventBuffer.isEmpty()) {
+                if (this.documentTail == null && this.pendingData.length() > 0 && !super.hasNext()) {
+                    //End of the document without an end body tag
+                    this.flushPendingData();
+                }
+                else if (!this.deferredPortlets.isEmpty() && (this.documentTail != null || !super.hasNext())) {
+                    //At the end of the body or document, write deferred content as it completes
+                    this.writeDeferredContent();
+                }
+                else if (this.documentTail != null) {
+                    this.eventBuffer.add(new CharacterDataEventImpl(this.documentTail));
+                    this.documentTail = null;
+                }
+                else if (super.hasNext()) {
+                    this.bufferEvent(super.next());
+                }
+                else {
+                    return false;
+                }
+            }
+            
+            return true;
+        }
+        
+        private void bufferEvent(CharacterEvent event) {
+            if (event.getEventType() == CharacterEventTypes.CHARACTER) {
+                final String data = ((CharacterDataEvent)event).getData();
+                if (this.deferredPortlets.isEmpty() && this.pendingData.length() == 0) {
+                    this.eventBuffer.add(event);
+                }
+                else {
+                    this.bufferCharacterData(data);
+                }
+                return;
+            }
+            
+            //The end body tag can't span a placeholder
+            this.flushPendingData();
+            
+            switch (event.getEventType()) {
+                case PORTLET_CONTENT: {
+                    final IPortletWindowId portletWindowId = ((PortletContentPlaceholderEvent)event).getPortletWindowId();
+                    if (this.isComplete(portletWindowId)) {
+                        break;
+                    }
+                    
+                    this.deferredPortlets.add(portletWindowId);
+                    this.eventBuffer.add(new CharacterDataEventImpl(getDeferredPlaceholder(portletWindowId)));
+                    return;
+                }
+                case PORTLET_TITLE: {
+                    final IPortletWindowId portletWindowId = ((PortletTitlePlaceholderEvent)event).getPortletWindowId();
+                    if (this.isComplete(portletWindowId)) {
+                        break;
+                    }
+                    
+                    final String title = portletExecutionManager.getPortletDefaultTitle(portletWindowId, this.request, this.response);
+                    this.eventBuffer.add(new CharacterDataEventImpl(title));
+                    return;
+                }
+                case PORTLET_NEW_ITEM_COUNT: {
+                    final IPortletWindowId portletWindowId = ((PortletNewItemCountPlaceholderEvent)event).getPortletWindowId();
+                    if (this.isComplete(portletWindowId)) {
+                        break;
+                    }
+                    
+                    this.eventBuffer.add(new CharacterDataEventImpl("0"));
+                    return;
+                }
+                case PORTLET_LINK: {
+                    final PortletLinkPlaceholderEvent linkPlaceholderEvent = (PortletLinkPlaceholderEvent)event;
+                    if (this.isComplete(linkPlaceholderEvent.getPortletWindowId())) {
+                        break;
+                    }
+                    
+                    this.eventBuffer.add(new CharacterDataEventImpl(linkPlaceholderEvent.getDefaultPortletUrl()));
+                    return;
+                }
+            }
+            
+            this.eventBuffer.add(event);
+        }
+        
+        /**
+         * Searches character data for the end body tag, the tag may be split across several events
+         */
+        private void bufferCharacterData(String data) {
+            this.pendingData.append(data);
+            
+            final int bodyEnd = indexOfIgnoreCase(this.pendingData.toString(), BODY_END_TAG);
+            if (bodyEnd >= 0) {
+                //Hold the end of the body back until the deferred content has been written
+                if (bodyEnd > 0) {
+                    this.eventBuffer.add(new CharacterDataEventImpl(this.pendingData.substring(0, bodyEnd)));
+                }
+                this.documentTail = this.pendingData.substring(bodyEnd);
+                this.pendingData.setLength(0);
+                return;
+            }
+            
+            //Keep back only as much data as could be the start of the end body tag
+            final int keep = Math.min(this.pendingData.length(), BODY_END_TAG.length() - 1);
+            final int flushLength = this.pendingData.length() - keep;
+            if (flushLength > 0) {
+                this.eventBuffer.add(new CharacterDataEventImpl(this.pendingData.substring(0, flushLength)));
+                this.pendingData.delete(0, flushLength);
+            }
+        }
+        
+        private void flushPendingData() {
+            if (this.pendingData.length() > 0) {
+                this.eventBuffer.add(new CharacterDataEventImpl(this.pendingData.toString()));
+                this.pendingData.setLength(0);
+            }
+        }
+        
+        private boolean isComplete(IPortletWindowId portletWindowId) {
+            return portletExecutionManager.isPortletRenderComplete(portletWindowId, this.request, this.response);
+        }
+        
+        /**
+         * Waits for at least one deferred portlet to complete, adding the content of all completed
+         * deferred portlets to the buffer
+         */
+        private void writeDeferredContent() {
+            while (true) {
+                for (final Iterator<IPortletWindowId> deferredItr = this.deferredPortlets.iterator(); deferredItr.hasNext(); ) {
+                    final IPortletWindowId portletWindowId = deferredItr.next();
+                    if (this.isComplete(portletWindowId)) {
+                        deferredItr.remove();
+                        this.writeDeferredContent(portletWindowId);
+                    }
+                }
+                
+                //Return completed content so it can be flushed to the client
+                if (!this.eventBuffer.isEmpty()) {
+                    return;
+                }
+                
+                try {
+                    portletExecutionManager.waitForPortletRenderComplete(this.deferredPortlets, this.request, this.response);
+                }
+                catch (InterruptedException e) {
+                    logger.warn("Interrupted while waiting for deferred portlets, waiting for remaining portlets in document order");
+                    Thread.currentThread().interrupt();
+                    for (final IPortletWindowId portletWindowId : this.deferredPortlets) {
+                        this.writeDeferredContent(portletWindowId);
+                    }
+                    this.deferredPortlets.clear();
+                    return;
+                }
+            }
+        }
+        
+        private void writeDeferredContent(IPortletWindowId portletWindowId) {
+            final String output = portletExecutionManager.getPortletOutput(portletWindowId, this.request, this.response);
+            this.eventBuffer.add(new CharacterDataEventImpl(getDeferredContent(portletWindowId, output)));
+        }
+    }
+    
+    private static int indexOfIgnoreCase(String data, String str) {
+        final int max = data.length() - str.length();
+        for (int i = 0; i <= max; i++) {
+            if (data.regionMatches(true, i, str, 0, str.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
 }
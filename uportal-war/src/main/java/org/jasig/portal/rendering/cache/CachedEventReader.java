@@ -25,17 +25,25 @@ import java.util.List;
 import java.util.Map;
 
 /**
- * Holder class for an event cache and output properties
+ * Holder class for an event cache and output properties. The events are stored in an
+ * exactly sized array, replaying them only allocates the {@link java.util.ListIterator}
+ * used as the read cursor.
  */
 class CachedEventReader<E> implements Serializable {
     private static final long serialVersionUID = 1L;
     
     private final List<E> eventCache;
     private final Map<String, String> outputProperties;
+    private final long estimatedSize;
 
     public CachedEventReader(List<E> eventCache, Map<String, String> outputProperties) {
-        this.eventCache = Collections.unmodifiableList(eventCache);
+        this(eventCache, outputProperties, -1);
+    }
+
+    public CachedEventReader(List<E> eventCache, Map<String, String> outputProperties, long estimatedSize) {
+        this.eventCache = new ArrayEventList<E>(eventCache);
         this.outputProperties = Collections.unmodifiableMap(outputProperties);
+        this.estimatedSize = estimatedSize;
     }
 
     public List<E> getEventCache() {
@@ -45,4 +53,11 @@ class CachedEventReader<E> implements Serializable {
     public Map<String, String> getOutputProperties() {
         return this.outputProperties;
     }
+
+    /**
+     * @return Estimated heap size of the cached events in bytes, -1 if no estimate was made
+     */
+    public long getEstimatedSize() {
+        return this.estimatedSize;
+    }
 }
\ No newline at end of file
@@ -23,7 +23,10 @@ import java.util.ListIterator;
 
 import org.jasig.portal.character.stream.CharacterEventBufferReader;
 import org.jasig.portal.character.stream.CharacterEventReader;
+import org.jasig.portal.character.stream.events.CharacterDataEvent;
+import org.jasig.portal.character.stream.events.CharacterDataEventImpl;
 import org.jasig.portal.character.stream.events.CharacterEvent;
+import org.jasig.portal.character.stream.events.CharacterEventTypes;
 import org.jasig.portal.rendering.CharacterPipelineComponent;
 
 /**
@@ -34,6 +37,36 @@ import org.jasig.portal.rendering.CharacterPipelineComponent;
  */
 public class CachingCharacterPipelineComponent extends CachingPipelineComponent<CharacterEventReader, CharacterEvent> implements CharacterPipelineComponent {
     
+    @Override
+    protected String getMergeableCharacterData(CharacterEvent event) {
+        if (event.getEventType() == CharacterEventTypes.CHARACTER) {
+            return ((CharacterDataEvent)event).getData();
+        }
+        
+        return null;
+    }
+
+    @Override
+    protected CharacterEvent createCharacterEvent(String data) {
+        return new CharacterDataEventImpl(data);
+    }
+
+    @Override
+    protected InternKeyGenerator<CharacterEvent> createInternKeyGenerator() {
+        //Placeholder events are specific to a portlet window and are never repeated
+        return null;
+    }
+
+    @Override
+    protected long estimateEventSize(CharacterEvent event) {
+        if (event.getEventType() == CharacterEventTypes.CHARACTER) {
+            return OBJECT_OVERHEAD + REFERENCE_SIZE + estimateSize(((CharacterDataEvent)event).getData());
+        }
+        
+        //Placeholder events hold a reference to a shared portlet window id
+        return OBJECT_OVERHEAD + REFERENCE_SIZE;
+    }
+
     @Override
     protected CharacterEventReader createEventReader(ListIterator<CharacterEvent> eventCache) {
         return new CharacterEventBufferReader(eventCache);
@@ -19,8 +19,9 @@
 
 package org.jasig.portal.rendering.cache;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -44,11 +45,21 @@ import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * Component that caches events from a wrapped component
+ * <p>
+ * Events are stored in a compact form: adjacent character data is merged into a single event,
+ * events that subclasses identify as equivalent (see {@link #createInternKeyGenerator()}) share a single
+ * instance and the buffer is an exactly sized array.
  * 
  * @author Eric Dalquist
  * @version $Revision$
  */
 public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWrapper<R, E> implements BeanNameAware {
+    //Rough per-object heap costs used to estimate the size of cache entries
+    protected static final int OBJECT_OVERHEAD = 16;
+    protected static final int REFERENCE_SIZE = 8;
+    protected static final int ARRAY_OVERHEAD = 16;
+    protected static final int STRING_OVERHEAD = OBJECT_OVERHEAD + 24 + ARRAY_OVERHEAD;
+    
     protected final Logger logger = LoggerFactory.getLogger(getClass());
     
     private ResourcesElementsProvider resourcesElementsProvider;
@@ -99,19 +110,13 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
             logger.debug("{} - No cached events found for key {}, calling parent", this.beanName, cacheKey);
             final PipelineEventReader<R, E> pipelineEventReader = this.wrappedComponent.getEventReader(request, response);
 
-            //Copy the events from the reader into a buffer to be cached
-            final List<E> eventCache = new LinkedList<E>();
-            for (final E event : pipelineEventReader) {
-                eventCache.add(event);
-            }
-
-            final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
-            cachedEventReader = new CachedEventReader<E>(eventCache, new LinkedHashMap<String, String>(outputProperties));
+            //Copy the events from the reader into a compact buffer to be cached
+            cachedEventReader = this.createCachedEventReader(pipelineEventReader);
 
             //Cache the buffer
             element = new Element(cacheKey, cachedEventReader);
             this.cache.put(element);
-            logger.debug("{} - Cached {} events for key {}", new Object[] {this.beanName, eventCache.size(), cacheKey});
+            logger.debug("{} - Cached {} events ({} bytes) for key {}", new Object[] {this.beanName, cachedEventReader.getEventCache().size(), cachedEventReader.getEstimatedSize(), cacheKey});
         }
         else {
             logger.debug("{} - Founed  cached events for key {}", new Object[] {this.beanName, cacheKey});
@@ -124,6 +129,192 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
         return new PipelineEventReaderImpl<R, E>(eventReader, outputProperties);
     }
     
+    /**
+     * Reports the number of entries in the cache and their estimated heap size, useful for sizing
+     * the cache. Entries are read with {@link Ehcache#getQuiet(Object)} so statistics and expiration
+     * are not affected.
+     */
+    public CacheSizeReport getCacheSizeReport() {
+        final CacheSizeReport report = new CacheSizeReport();
+        
+        for (final Object key : this.cache.getKeys()) {
+            final Element element = this.cache.getQuiet(key);
+            if (element == null) {
+                continue;
+            }
+            
+            final CachedEventReader<?> cachedEventReader = (CachedEventReader<?>)element.getObjectValue();
+            final long estimatedSize = cachedEventReader.getEstimatedSize();
+            if (estimatedSize < 0) {
+                continue;
+            }
+            
+            report.entries++;
+            report.events += cachedEventReader.getEventCache().size();
+            report.totalSize += estimatedSize;
+            report.maxSize = Math.max(report.maxSize, estimatedSize);
+        }
+        
+        return report;
+    }
+    
+    /**
+     * @return Number of entries in the cache, exposed as a JMX attribute
+     */
+    public long getCachedEntries() {
+        return this.getCacheSizeReport().getEntries();
+    }
+    
+    /**
+     * @return Estimated heap size in bytes of all entries in the cache, exposed as a JMX attribute
+     */
+    public long getCachedTotalSize() {
+        return this.getCacheSizeReport().getTotalSize();
+    }
+    
+    /**
+     * @return Average estimated heap size in bytes of an entry in the cache, exposed as a JMX attribute
+     */
+    public long getCachedAverageSize() {
+        return this.getCacheSizeReport().getAverageSize();
+    }
+    
+    /**
+     * Copies all events from the reader into a compact {@link CachedEventReader}
+     */
+    protected final CachedEventReader<E> createCachedEventReader(PipelineEventReader<R, E> pipelineEventReader) {
+        final List<E> eventCache = new ArrayList<E>();
+        final Map<Object, E> internedEvents = new HashMap<Object, E>();
+        final InternKeyGenerator<E> internKeyGenerator = this.createInternKeyGenerator();
+        final StringBuilder characterData = new StringBuilder();
+        long estimatedSize = 0;
+        
+        for (final E event : pipelineEventReader) {
+            //Merge adjacent character data into a single event
+            final String data = this.getMergeableCharacterData(event);
+            if (data != null) {
+                characterData.append(data);
+                continue;
+            }
+            
+            estimatedSize += this.flushCharacterData(characterData, eventCache);
+            
+            //Replace the event with an equivalent instance already in the buffer
+            final Object internKey = internKeyGenerator != null ? internKeyGenerator.getInternKey(event) : null;
+            if (internKey != null) {
+                final E internedEvent = internedEvents.get(internKey);
+                if (internedEvent != null) {
+                    eventCache.add(internedEvent);
+                    continue;
+                }
+                
+                internedEvents.put(internKey, event);
+            }
+            
+            eventCache.add(event);
+            estimatedSize += this.estimateEventSize(event);
+        }
+        
+        estimatedSize += this.flushCharacterData(characterData, eventCache);
+        
+        //Account for the event array itself
+        estimatedSize += ARRAY_OVERHEAD + REFERENCE_SIZE * eventCache.size();
+        
+        final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
+        return new CachedEventReader<E>(eventCache, new LinkedHashMap<String, String>(outputProperties), estimatedSize);
+    }
+    
+    private long flushCharacterData(StringBuilder characterData, List<E> eventCache) {
+        if (characterData.length() == 0) {
+            return 0;
+        }
+        
+        final E event = this.createCharacterEvent(characterData.toString());
+        characterData.setLength(0);
+        
+        eventCache.add(event);
+        return this.estimateEventSize(event);
+    }
+    
+    /**
+     * Estimated heap size of a String in bytes
+     */
+    protected static long estimateSize(String value) {
+        if (value == null) {
+            return 0;
+        }
+        
+        return STRING_OVERHEAD + 2l * value.length();
+    }
+    
+    /**
+     * @return The character data of the event if it can be merged with adjacent character data events, null if not
+     */
+    protected abstract String getMergeableCharacterData(E event);
+    
+    /**
+     * @return A new character data event for data merged from adjacent events
+     */
+    protected abstract E createCharacterEvent(String data);
+    
+    /**
+     * @return A generator for the intern keys of the events copied into one buffer, null if events are never shared
+     */
+    protected abstract InternKeyGenerator<E> createInternKeyGenerator();
+    
+    /**
+     * @return Estimated heap size of the event in bytes
+     */
+    protected abstract long estimateEventSize(E event);
+    
     //Ugly!!! Needed because XMLEventReader implements Iterator but does not parameterize it
     protected abstract R createEventReader(ListIterator<E> eventCache);
+    
+    /**
+     * Computes intern keys for the events of a single buffer. Every event that isn't merged character data is
+     * passed to the generator in document order so it can track state such as the in-scope namespaces.
+     */
+    protected interface InternKeyGenerator<E> {
+        /**
+         * @return A key which is equal for all events that can share a single instance, null if the event can't be shared
+         */
+        Object getInternKey(E event);
+    }
+    
+    /**
+     * Snapshot of the number and estimated size of the entries in a cache
+     */
+    public static class CacheSizeReport {
+        private long entries;
+        private long events;
+        private long totalSize;
+        private long maxSize;
+        
+        public long getEntries() {
+            return entries;
+        }
+        public long getEvents() {
+            return events;
+        }
+        public long getTotalSize() {
+            return totalSize;
+        }
+        public long getMaxSize() {
+            return maxSize;
+        }
+        
+        public long getAverageSize() {
+            if (this.entries == 0) {
+                return 0;
+            }
+            
+            return this.totalSize / this.entries;
+        }
+
+        @Override
+        public String toString() {
+            return "CacheSizeReport [entries=" + this.entries + ", events=" + this.events + ", totalSize=" + this.totalSize
+                    + ", averageSize=" + this.getAverageSize() + ", maxSize=" + this.maxSize + "]";
+        }
+    }
 }
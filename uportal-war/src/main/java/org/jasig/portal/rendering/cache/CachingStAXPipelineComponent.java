@@ -19,9 +19,23 @@
 
 package org.jasig.portal.rendering.cache;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.ListIterator;
 
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLEventFactory;
 import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
 
 import org.jasig.portal.rendering.StAXPipelineComponent;
@@ -29,14 +43,152 @@ import org.jasig.portal.xml.stream.XMLEventBufferReader;
 
 /**
  * component that can cache StAX pipeline events
+ * <p>
+ * Start and end elements with the same name, attributes, namespace declarations and in-scope
+ * namespaces are replaced by a single shared event instance in the cached buffer.
  * 
  * @author Eric Dalquist
  * @version $Revision$
  */
 public class CachingStAXPipelineComponent extends CachingPipelineComponent<XMLEventReader, XMLEvent> implements StAXPipelineComponent {
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newFactory();
+    
+    @Override
+    protected String getMergeableCharacterData(XMLEvent event) {
+        if (event.getEventType() != XMLStreamConstants.CHARACTERS) {
+            return null;
+        }
+        
+        final Characters characters = event.asCharacters();
+        if (characters.isCData() || characters.isIgnorableWhiteSpace()) {
+            return null;
+        }
+        
+        return characters.getData();
+    }
+
+    @Override
+    protected XMLEvent createCharacterEvent(String data) {
+        return EVENT_FACTORY.createCharacters(data);
+    }
+
+    @Override
+    protected InternKeyGenerator<XMLEvent> createInternKeyGenerator() {
+        return new NamespaceScopedInternKeyGenerator();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected long estimateEventSize(XMLEvent event) {
+        long size = OBJECT_OVERHEAD + 4 * REFERENCE_SIZE;
+        
+        switch (event.getEventType()) {
+            case XMLStreamConstants.START_ELEMENT: {
+                final StartElement startElement = event.asStartElement();
+                size += OBJECT_OVERHEAD + estimateSize(startElement.getName().getLocalPart());
+                for (final Iterator<Attribute> attributes = startElement.getAttributes(); attributes.hasNext(); ) {
+                    final Attribute attribute = attributes.next();
+                    size += 2 * OBJECT_OVERHEAD + estimateSize(attribute.getName().getLocalPart()) + estimateSize(attribute.getValue());
+                }
+                break;
+            }
+            case XMLStreamConstants.END_ELEMENT: {
+                size += OBJECT_OVERHEAD + estimateSize(event.asEndElement().getName().getLocalPart());
+                break;
+            }
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+            case XMLStreamConstants.CDATA: {
+                size += estimateSize(event.asCharacters().getData());
+                break;
+            }
+        }
+        
+        return size;
+    }
 
     @Override
     protected XMLEventReader createEventReader(ListIterator<XMLEvent> eventCache) {
         return new XMLEventBufferReader(eventCache);
     }
+    
+    /**
+     * Generates intern keys that include the namespaces in scope for the element, a shared element must
+     * resolve prefixes through its {@link StartElement#getNamespaceContext()} the same way everywhere it is used.
+     */
+    private static final class NamespaceScopedInternKeyGenerator implements InternKeyGenerator<XMLEvent> {
+        //Prefix/namespace URI pairs in scope for each open element, the outer scope is on the bottom
+        private final Deque<List<Object>> namespaceScopes = new LinkedList<List<Object>>();
+        
+        public NamespaceScopedInternKeyGenerator() {
+            this.namespaceScopes.push(Collections.emptyList());
+        }
+
+        @Override
+        public Object getInternKey(XMLEvent event) {
+            switch (event.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT: {
+                    final StartElement startElement = event.asStartElement();
+                    final List<Object> parentScope = this.namespaceScopes.peek();
+                    
+                    final List<Object> namespaces = new ArrayList<Object>();
+                    addNamespaces(namespaces, startElement.getNamespaces());
+                    if (namespaces.isEmpty()) {
+                        this.namespaceScopes.push(parentScope);
+                    }
+                    else {
+                        final List<Object> scope = new ArrayList<Object>(parentScope.size() + namespaces.size());
+                        scope.addAll(parentScope);
+                        scope.addAll(namespaces);
+                        this.namespaceScopes.push(scope);
+                    }
+                    
+                    final List<Object> key = new ArrayList<Object>();
+                    key.add(XMLStreamConstants.START_ELEMENT);
+                    key.add(startElement.getName());
+                    addAttributes(key, startElement.getAttributes());
+                    key.add(namespaces);
+                    key.add(parentScope);
+                    return key;
+                }
+                case XMLStreamConstants.END_ELEMENT: {
+                    final EndElement endElement = event.asEndElement();
+                    
+                    //Never pop the outer scope, protects against unbalanced fragments
+                    if (this.namespaceScopes.size() > 1) {
+                        this.namespaceScopes.pop();
+                    }
+                    
+                    final List<Object> key = new ArrayList<Object>();
+                    key.add(XMLStreamConstants.END_ELEMENT);
+                    key.add(endElement.getName());
+                    addNamespaces(key, endElement.getNamespaces());
+                    key.add(this.namespaceScopes.peek());
+                    return key;
+                }
+                default: {
+                    return null;
+                }
+            }
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static void addAttributes(List<Object> key, Iterator<?> attributes) {
+        for (final Iterator<Attribute> attributeItr = (Iterator<Attribute>)attributes; attributeItr.hasNext(); ) {
+            final Attribute attribute = attributeItr.next();
+            key.add(attribute.getName());
+            key.add(attribute.getValue());
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static void addNamespaces(List<Object> key, Iterator<?> namespaces) {
+        for (final Iterator<Namespace> namespaceItr = (Iterator<Namespace>)namespaces; namespaceItr.hasNext(); ) {
+            final Namespace namespace = namespaceItr.next();
+            final String prefix = namespace.getPrefix();
+            key.add(prefix != null ? prefix : XMLConstants.DEFAULT_NS_PREFIX);
+            key.add(namespace.getNamespaceURI());
+        }
+    }
 }
@@ -22,10 +22,15 @@ package org.jasig.portal.rendering.xslt;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.events.XMLEvent;
@@ -42,21 +47,41 @@ import org.jasig.portal.rendering.PipelineEventReader;
 import org.jasig.portal.rendering.PipelineEventReaderImpl;
 import org.jasig.portal.rendering.StAXPipelineComponentWrapper;
 import org.jasig.portal.utils.cache.CacheKey;
+import org.jasig.portal.utils.threading.TrackingThreadLocal;
 import org.jasig.portal.xml.ResourceLoaderURIResolver;
 import org.jasig.portal.xml.StaxUtils;
 import org.jasig.portal.xml.stream.XMLEventBufferReader;
 import org.jasig.portal.xml.stream.XMLEventBufferWriter;
+import org.jasig.portal.xml.stream.XMLEventChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.context.ResourceLoaderAware;
+import org.springframework.context.i18n.LocaleContext;
+import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.core.io.ResourceLoader;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.Assert;
 import org.springframework.util.xml.FixedXMLEventStreamReader;
 import org.springframework.util.xml.SimpleTransformErrorListener;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.helpers.LocatorImpl;
 
 /**
+ * Runs an XSLT transform over the events from the wrapped component.
+ * <p>
+ * By default the transform output is fully buffered before it is returned. If {@link #setStreaming(boolean)}
+ * is enabled the transform runs on a thread from {@link #setExecutorService(ExecutorService)} and its output
+ * is handed to the next component through a bounded {@link XMLEventChannel} as it is produced. The request and
+ * locale context, all {@link TrackingThreadLocal}s and, if {@link #setEntityManagerFactory(EntityManagerFactory)}
+ * is set, a JPA EntityManager are made available to the transform thread, the same state portlet worker threads
+ * get. State held in other thread-locals is not visible to the components the transform reads from. Streaming
+ * should only be enabled for stages whose output is not cached, a caching component reads the full output anyway.
+ * 
  * @author Eric Dalquist
  * @version $Revision$
  */
@@ -70,6 +95,12 @@ public class XSLTComponent extends StAXPipelineComponentWrapper implements BeanN
     
     private String beanName;
     
+    private boolean streaming = false;
+    private ExecutorService executorService;
+    private EntityManagerFactory entityManagerFactory;
+    private int channelCapacity = 1024;
+    private long channelTimeout = 30000;
+    
     public XSLTComponent() {
         this.errorListener = new SimpleTransformErrorListener(LogFactory.getLog(this.getClass()));
     }
@@ -81,6 +112,43 @@ public class XSLTComponent extends StAXPipelineComponentWrapper implements BeanN
         this.transformerSource = transformerSource;
     }
     
+    /**
+     * If true the transform runs on a separate thread and its output is streamed to the next component,
+     * requires {@link #setExecutorService(ExecutorService)}. Defaults to false.
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+    
+    /**
+     * Executor used to run streaming transforms
+     */
+    public void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+    
+    /**
+     * Factory used to open an {@link EntityManager} for the thread running a streaming transform, the components
+     * the transform reads from, portlet rendering initiation for example, may need one. 
+     */
+    public void setEntityManagerFactory(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+    }
+    
+    /**
+     * Maximum number of events buffered between a streaming transform and the next component. Defaults to 1024.
+     */
+    public void setChannelCapacity(int channelCapacity) {
+        this.channelCapacity = channelCapacity;
+    }
+    
+    /**
+     * Maximum time in milliseconds a streaming transform and the next component wait on each other. Defaults to 30000.
+     */
+    public void setChannelTimeout(long channelTimeout) {
+        this.channelTimeout = channelTimeout;
+    }
+    
     @Override
     public void setBeanName(String name) {
         this.beanName = name;
@@ -140,9 +208,111 @@ public class XSLTComponent extends StAXPipelineComponentWrapper implements BeanN
         //Setup logging for the transform
         transformer.setErrorListener(this.errorListener);
 
-        //Transform to a SAX ContentHandler to avoid JDK bug: http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6775588
+        final String mediaType = transformer.getOutputProperty(OutputKeys.MEDIA_TYPE);
+        
+        final XMLEventReader outputEventReader;
+        if (this.streaming) {
+            outputEventReader = this.streamingTransform(transformer, xmlReaderSource);
+        }
+        else {
+            outputEventReader = this.bufferedTransform(transformer, xmlReaderSource);
+        }
+        
+        final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
+        final PipelineEventReaderImpl<XMLEventReader, XMLEvent> pipelineEventReaderImpl = new PipelineEventReaderImpl<XMLEventReader, XMLEvent>(outputEventReader, outputProperties);
+        pipelineEventReaderImpl.setOutputProperty(OutputKeys.MEDIA_TYPE, mediaType);
+        return pipelineEventReaderImpl;
+    }
+
+    /**
+     * Runs the transform on the current thread, returning a reader over the buffered output
+     */
+    protected XMLEventReader bufferedTransform(Transformer transformer, Source xmlReaderSource) {
         final XMLEventBufferWriter eventWriterBuffer = new XMLEventBufferWriter();
-        final ContentHandler contentHandler = StaxUtils.createLexicalContentHandler(eventWriterBuffer);
+        this.transform(transformer, xmlReaderSource, eventWriterBuffer);
+        
+        final List<XMLEvent> eventBuffer = eventWriterBuffer.getEventBuffer();
+        return new XMLEventBufferReader(eventBuffer.listIterator()); 
+    }
+    
+    /**
+     * Starts the transform on a thread from the executor, returning a reader over the output that
+     * returns events as they are produced
+     */
+    protected XMLEventReader streamingTransform(final Transformer transformer, final Source xmlReaderSource) {
+        Assert.notNull(this.executorService, "executorService must be set for streaming transforms");
+        
+        final XMLEventChannel eventChannel = new XMLEventChannel(this.channelCapacity, this.channelTimeout);
+        
+        //Request scoped state used by the upstream components, including portlet rendering, and the
+        //XSLT extensions is thread-local. Copy the same state the portlet execution interceptors copy.
+        final RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        final LocaleContext localeContext = LocaleContextHolder.getLocaleContext();
+        final Map<TrackingThreadLocal<Object>, Object> trackingThreadLocalData = TrackingThreadLocal.getCurrentData();
+        
+        final Runnable transformTask = new Runnable() {
+            @Override
+            public void run() {
+                RequestContextHolder.setRequestAttributes(requestAttributes);
+                LocaleContextHolder.setLocaleContext(localeContext);
+                TrackingThreadLocal.setCurrentData(trackingThreadLocalData);
+                
+                //EntityManagers are not thread-safe, the transform thread gets its own
+                final EntityManager entityManager = bindEntityManager();
+                try {
+                    final XMLEventWriter eventWriter = eventChannel.getEventWriter();
+                    transform(transformer, xmlReaderSource, eventWriter);
+                    eventWriter.close();
+                }
+                catch (Throwable t) {
+                    logger.warn("{} - Streaming XML Transformation failed", beanName, t);
+                    eventChannel.fail(t);
+                }
+                finally {
+                    unbindEntityManager(entityManager);
+                    TrackingThreadLocal.clearCurrentData();
+                    RequestContextHolder.resetRequestAttributes();
+                    LocaleContextHolder.resetLocaleContext();
+                }
+            }
+        };
+        
+        try {
+            this.executorService.execute(transformTask);
+        }
+        catch (RejectedExecutionException e) {
+            this.logger.warn("{} - No thread available for a streaming transform, transforming on the request thread", this.beanName);
+            return this.bufferedTransform(transformer, xmlReaderSource);
+        }
+        
+        return eventChannel.getEventReader();
+    }
+    
+    /**
+     * Opens an {@link EntityManager} for the transform thread if one isn't already bound
+     * 
+     * @return The opened EntityManager, null if none was opened
+     */
+    private EntityManager bindEntityManager() {
+        if (this.entityManagerFactory == null || TransactionSynchronizationManager.hasResource(this.entityManagerFactory)) {
+            return null;
+        }
+        
+        final EntityManager entityManager = this.entityManagerFactory.createEntityManager();
+        TransactionSynchronizationManager.bindResource(this.entityManagerFactory, new EntityManagerHolder(entityManager));
+        return entityManager;
+    }
+    
+    private void unbindEntityManager(EntityManager entityManager) {
+        if (entityManager != null) {
+            TransactionSynchronizationManager.unbindResource(this.entityManagerFactory);
+            EntityManagerFactoryUtils.closeEntityManager(entityManager);
+        }
+    }
+    
+    protected void transform(Transformer transformer, Source xmlReaderSource, XMLEventWriter eventWriter) {
+        //Transform to a SAX ContentHandler to avoid JDK bug: http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6775588
+        final ContentHandler contentHandler = StaxUtils.createLexicalContentHandler(eventWriter);
         contentHandler.setDocumentLocator(new LocatorImpl());
         
         final SAXResult outputTarget = new SAXResult(contentHandler);
@@ -154,16 +324,6 @@ public class XSLTComponent extends StAXPipelineComponentWrapper implements BeanN
         catch (TransformerException e) {
             throw new RuntimeException("Failed to transform document", e);
         }
-        
-        final String mediaType = transformer.getOutputProperty(OutputKeys.MEDIA_TYPE);
-        
-        final List<XMLEvent> eventBuffer = eventWriterBuffer.getEventBuffer();
-        final XMLEventReader outputEventReader = new XMLEventBufferReader(eventBuffer.listIterator()); 
-        
-        final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
-        final PipelineEventReaderImpl<XMLEventReader, XMLEvent> pipelineEventReaderImpl = new PipelineEventReaderImpl<XMLEventReader, XMLEvent>(outputEventReader, outputProperties);
-        pipelineEventReaderImpl.setOutputProperty(OutputKeys.MEDIA_TYPE, mediaType);
-        return pipelineEventReaderImpl;
     }
 
     @Override
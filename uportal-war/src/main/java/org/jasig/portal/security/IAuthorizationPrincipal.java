@@ -19,9 +19,12 @@
 
 package org.jasig.portal.security;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.Vector;
 
 import org.jasig.portal.AuthorizationException;
+import org.jasig.portal.portlet.om.IPortletDefinition;
 import org.jasig.portal.portlet.om.PortletLifecycleState;
 
 /**
@@ -40,12 +43,27 @@ public interface IAuthorizationPrincipal {
  * @exception AuthorizationException thrown when authorization information could not be retrieved.
  */
     boolean canManage(String channelPublishId) throws AuthorizationException;
+/**
+ * Answers, for each portlet definition, if this <code>IAuthorizationPrincipal</code>
+ * has permission to manage it.
+ * @return Map of portlet definition id to whether the principal may manage it
+ * @param portletDefinitions Collection of IPortletDefinition
+ * @exception AuthorizationException thrown when authorization information could not be retrieved.
+ */
+    Map<String, Boolean> canManage(Collection<IPortletDefinition> portletDefinitions) throws AuthorizationException;
 /**
  * Answers if this <code>IAuthorizationPrincipal</code> has permission to publish (used only by SLM).
  * @return boolean
  * @exception AuthorizationException thrown when authorization information could not be retrieved.
  */
     public boolean canManage(PortletLifecycleState state, String categoryId) throws AuthorizationException;
+/**
+ * Answers, for each category, if this <code>IAuthorizationPrincipal</code> may manage
+ * portlets in the lifecycle state in it.
+ * @return Map of category id to whether the principal may manage portlets in it
+ * @exception AuthorizationException thrown when authorization information could not be retrieved.
+ */
+    public Map<String, Boolean> canManage(PortletLifecycleState state, Collection<String> categoryIds) throws AuthorizationException;
 /**
  * Answers if this <code>IAuthorizationPrincipal</code> has permission to use the CONFIG PortletMode on the specified channel
  * @param channelPublishId
@@ -67,6 +85,14 @@ public interface IAuthorizationPrincipal {
  * @exception AuthorizationException thrown when authorization information could not be retrieved.
  */
     boolean canSubscribe(String channelPublishId) throws AuthorizationException;
+/**
+ * Answers, for each portlet definition, if this <code>IAuthorizationPrincipal</code>
+ * has permission to subscribe to it.
+ * @return Map of portlet definition id to whether the principal may subscribe to it
+ * @param portletDefinitions Collection of IPortletDefinition
+ * @exception AuthorizationException thrown when authorization information could not be retrieved.
+ */
+    Map<String, Boolean> canSubscribe(Collection<IPortletDefinition> portletDefinitions) throws AuthorizationException;
 /**
  * Returns the <code>IPermissions</code> for this <code>IAuthorizationPrincipal</code>,
  * including inherited <code>Permissions</code>.
@@ -19,11 +19,14 @@
 
 package org.jasig.portal.security;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.Vector;
 
 import org.jasig.portal.AuthorizationException;
 import org.jasig.portal.groups.GroupsException;
 import org.jasig.portal.groups.IGroupMember;
+import org.jasig.portal.portlet.om.IPortletDefinition;
 import org.jasig.portal.portlet.om.PortletLifecycleState;
 
 /**
@@ -60,6 +63,17 @@ public interface IAuthorizationService
  */
     public boolean canPrincipalManage(IAuthorizationPrincipal principal, String channelPublishId)
     throws AuthorizationException;
+/**
+ * Answers, for each portlet definition, if the principal has permission to manage it.
+ * Equivalent to calling {@link #canPrincipalManage(IAuthorizationPrincipal, String)} once
+ * per definition, but the permission cache is consulted in bulk.
+ * @return Map of portlet definition id to whether the principal may manage it
+ * @param principal IAuthorizationPrincipal
+ * @param portletDefinitions Collection of IPortletDefinition
+ * @exception AuthorizationException indicates authorization information could not be retrieved.
+ */
+    public Map<String, Boolean> canPrincipalManage(IAuthorizationPrincipal principal, Collection<IPortletDefinition> portletDefinitions)
+    throws AuthorizationException;
 /**
  * I'm not sure what this means (Dan).  Publish what?
  * @param principal IAuthorizationPrincipal
@@ -68,6 +82,18 @@ public interface IAuthorizationService
  */
     public boolean canPrincipalManage(IAuthorizationPrincipal principal, PortletLifecycleState state, String categoryId)
     throws AuthorizationException;
+/**
+ * Answers, for each category, if the principal may manage portlets in the lifecycle state in it.
+ * Equivalent to calling {@link #canPrincipalManage(IAuthorizationPrincipal, PortletLifecycleState, String)}
+ * once per category, but the permission cache is consulted in bulk.
+ * @return Map of category id to whether the principal may manage portlets in it
+ * @param principal IAuthorizationPrincipal
+ * @param state PortletLifecycleState
+ * @param categoryIds Collection of category ids
+ * @exception AuthorizationException
+ */
+    public Map<String, Boolean> canPrincipalManage(IAuthorizationPrincipal principal, PortletLifecycleState state, Collection<String> categoryIds)
+    throws AuthorizationException;
 /**
  * Answers if the principal has permission to render this Channel.
  * @return boolean
@@ -77,6 +103,17 @@ public interface IAuthorizationService
  */
     public boolean canPrincipalRender(IAuthorizationPrincipal principal, String channelPublishId)
     throws AuthorizationException;
+/**
+ * Answers, for each portlet definition, if the principal has permission to render it.
+ * Equivalent to calling {@link #canPrincipalRender(IAuthorizationPrincipal, String)} once
+ * per definition, but the permission cache is consulted in bulk.
+ * @return Map of portlet definition id to whether the principal may render it
+ * @param principal IAuthorizationPrincipal
+ * @param portletDefinitions Collection of IPortletDefinition
+ * @exception AuthorizationException indicates authorization information could not be retrieved.
+ */
+    public Map<String, Boolean> canPrincipalRender(IAuthorizationPrincipal principal, Collection<IPortletDefinition> portletDefinitions)
+    throws AuthorizationException;
 /**
  * Answers if the principal has permission to subscribe to this Channel.
  * @return boolean
@@ -86,6 +123,17 @@ public interface IAuthorizationService
  */
     public boolean canPrincipalSubscribe(IAuthorizationPrincipal principal, String channelPublishId)
     throws AuthorizationException;
+/**
+ * Answers, for each portlet definition, if the principal has permission to subscribe to it.
+ * Equivalent to calling {@link #canPrincipalSubscribe(IAuthorizationPrincipal, String)} once
+ * per definition, but the permission cache is consulted in bulk.
+ * @return Map of portlet definition id to whether the principal may subscribe to it
+ * @param principal IAuthorizationPrincipal
+ * @param portletDefinitions Collection of IPortletDefinition
+ * @exception AuthorizationException indicates authorization information could not be retrieved.
+ */
+    public Map<String, Boolean> canPrincipalSubscribe(IAuthorizationPrincipal principal, Collection<IPortletDefinition> portletDefinitions)
+    throws AuthorizationException;
 /**
  * Answers if the owner has given the principal permission to perform the activity on
  * the target.  Params <code>owner</code> and <code>activity</code> must be non-null.
@@ -105,6 +153,26 @@ public interface IAuthorizationService
       String activity,
       String target)
     throws AuthorizationException;
+/**
+ * Answers, for each target, if the owner has given the principal permission to perform
+ * the activity on it.  Equivalent to calling
+ * {@link #doesPrincipalHavePermission(IAuthorizationPrincipal, String, String, String)}
+ * once per target, but cached answers are read and written in one bulk operation.
+ *
+ * @return Map of target to whether the principal has the permission, in the order of targets
+ * @param principal IAuthorizationPrincipal
+ * @param owner java.lang.String
+ * @param activity java.lang.String
+ * @param targets Collection of target keys
+ * @exception AuthorizationException indicates authorization information could not
+ * be retrieved.
+ */
+    public Map<String, Boolean> doesPrincipalHavePermission(
+      IAuthorizationPrincipal principal,
+      String owner,
+      String activity,
+      Collection<String> targets)
+    throws AuthorizationException;
 /**
  * Returns the <code>IPermissions</code> owner has granted this <code>Principal</code> for
  * the specified activity and target.  This includes inherited <code>IPermissions</code>.
@@ -21,11 +21,19 @@ package org.jasig.portal.security.provider;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
@@ -37,6 +45,7 @@ import org.apache.commons.logging.LogFactory;
 import org.jasig.portal.AuthorizationException;
 import org.jasig.portal.EntityTypes;
 import org.jasig.portal.concurrency.CachingException;
+import org.jasig.portal.concurrency.caching.ICacheInvalidationService;
 import org.jasig.portal.concurrency.caching.RequestCache;
 import org.jasig.portal.groups.GroupsException;
 import org.jasig.portal.groups.IEntityGroup;
@@ -44,6 +53,7 @@ import org.jasig.portal.groups.IGroupMember;
 import org.jasig.portal.portlet.om.IPortletDefinition;
 import org.jasig.portal.portlet.om.PortletCategory;
 import org.jasig.portal.portlet.om.PortletLifecycleState;
+import org.jasig.portal.portlet.registry.IPortletCategoryRegistry;
 import org.jasig.portal.portlet.registry.IPortletDefinitionRegistry;
 import org.jasig.portal.security.IAuthorizationPrincipal;
 import org.jasig.portal.security.IAuthorizationService;
@@ -60,6 +70,7 @@ import org.jasig.portal.spring.locator.PortletCategoryRegistryLocator;
 import org.jasig.portal.utils.Tuple;
 import org.jasig.portal.utils.cache.CacheFactory;
 import org.jasig.portal.utils.cache.CacheKey;
+import org.jasig.portal.utils.threading.SingleFlight;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
@@ -98,12 +109,30 @@ public class AuthorizationImpl implements IAuthorizationService {
     /** The cache to hold permission resolution. */
     private Ehcache doesPrincipalHavePermissionCache;
 
+    /** Used to clear permission caches across the cluster when permissions change. */
+    private ICacheInvalidationService cacheInvalidationService;
+
     /** The class representing the permission set type. */
     private static final Class<IPermissionSet> PERMISSION_SET_TYPE = IPermissionSet.class;
 
     /** variable to determine if we should cache permissions or not. */
     private boolean cachePermissions = true;
     
+    /** Coalesces concurrent permission loads for the same principal key. */
+    private final SingleFlight<String, PermissionSetImpl> permissionLoads = new SingleFlight<String, PermissionSetImpl>();
+    
+    /** Bounds the number of concurrent permission loads against the permission store. */
+    private Semaphore permissionLoadPermits = new Semaphore(10, true);
+    
+    /** Maximum time, in milliseconds, to wait for a concurrent load of the same principal's permissions. */
+    private long permissionLoadTimeout = 30000;
+    
+    /** Age, in seconds, after which a cached permission set is reloaded in the background, 0 disables refresh. */
+    private long permissionRefreshAge = 0;
+    
+    /** Executor for background permission refreshes. */
+    private ExecutorService permissionRefreshExecutor;
+    
     
     @Autowired
     public void setDefaultPermissionPolicy(IPermissionPolicy newDefaultPermissionPolicy) {
@@ -117,6 +146,33 @@ public class AuthorizationImpl implements IAuthorizationService {
     public void setCachePermissions(boolean cachePermissions) {
         this.cachePermissions = cachePermissions;
     }
+    /**
+     * @param maxConcurrentPermissionLoads Maximum number of permission sets loaded from the permission store concurrently
+     */
+    @Value("${org.jasig.portal.security.provider.AuthorizationImpl.maxConcurrentPermissionLoads:10}")
+    public void setMaxConcurrentPermissionLoads(int maxConcurrentPermissionLoads) {
+        this.permissionLoadPermits = new Semaphore(maxConcurrentPermissionLoads, true);
+    }
+    /**
+     * @param permissionLoadTimeout Maximum time, in milliseconds, to wait for a concurrent load of the same principal's
+     * permissions before loading them independently
+     */
+    @Value("${org.jasig.portal.security.provider.AuthorizationImpl.permissionLoadTimeout:30000}")
+    public void setPermissionLoadTimeout(long permissionLoadTimeout) {
+        this.permissionLoadTimeout = permissionLoadTimeout;
+    }
+    /**
+     * @param permissionRefreshAge Age, in seconds, after which a cached permission set is reloaded in the background
+     * while the cached copy continues to be used. Should be less than the IPermissionSet cache timeToLiveSeconds, 0 disables
+     */
+    @Value("${org.jasig.portal.security.provider.AuthorizationImpl.permissionRefreshAge:0}")
+    public void setPermissionRefreshAge(long permissionRefreshAge) {
+        this.permissionRefreshAge = permissionRefreshAge;
+    }
+    @Autowired
+    public void setPermissionRefreshExecutor(@Qualifier("uPortalTaskExecutor") ExecutorService permissionRefreshExecutor) {
+        this.permissionRefreshExecutor = permissionRefreshExecutor;
+    }
     @Autowired
     public void setPrincipalCache(@Qualifier(CacheFactory.PRINCIPAL_CACHE)  Ehcache principalCache) {
         this.principalCache = new SelfPopulatingCache(principalCache, new CacheEntryFactory() {
@@ -136,6 +192,10 @@ public class AuthorizationImpl implements IAuthorizationService {
         this.doesPrincipalHavePermissionCache = doesPrincipalHavePermissionCache;
     }
     @Autowired
+    public void setCacheInvalidationService(ICacheInvalidationService cacheInvalidationService) {
+        this.cacheInvalidationService = cacheInvalidationService;
+    }
+    @Autowired
     public void setPortletDefinitionRegistry(IPortletDefinitionRegistry portletDefinitionRegistry) {
         this.portletDefinitionRegistry = portletDefinitionRegistry;
     }
@@ -288,6 +348,130 @@ throws AuthorizationException
 	return false;
 }
 
+/**
+ * Answers, for each portlet definition, if the principal has permission to manage it.  The
+ * lifecycle rules are the same as {@link #canPrincipalManage(IAuthorizationPrincipal, String)},
+ * each manager activity is checked with a single bulk permission lookup.
+ * @return Map of portlet definition id to result
+ * @param principal IAuthorizationPrincipal
+ * @param portletDefinitions Collection of IPortletDefinition
+ * @exception AuthorizationException indicates authorization information could not be retrieved.
+ */
+@RequestCache
+public Map<String, Boolean> canPrincipalManage(IAuthorizationPrincipal principal, Collection<IPortletDefinition> portletDefinitions)
+throws AuthorizationException
+{
+    final Map<String, Boolean> results = new LinkedHashMap<String, Boolean>(portletDefinitions.size() * 2);
+    final Map<String, List<String>> targetsByActivity = createManagerActivityMap();
+    for (final IPortletDefinition portlet : portletDefinitions) {
+        final String portletDefinitionId = portlet.getPortletDefinitionId().getStringId();
+        final int order = portlet.getLifecycleState().getOrder();
+        results.put(portletDefinitionId, Boolean.FALSE);
+
+        if (order <= PortletLifecycleState.EXPIRED.getOrder() || portlet.getExpirationDate() != null) {
+            targetsByActivity.get(IPermission.PORTLET_MANAGER_EXPIRED_ACTIVITY).add(portletDefinitionId);
+        }
+        if (order <= PortletLifecycleState.PUBLISHED.getOrder() || portlet.getPublishDate() != null) {
+            targetsByActivity.get(IPermission.PORTLET_MANAGER_ACTIVITY).add(portletDefinitionId);
+        }
+        if (order <= PortletLifecycleState.APPROVED.getOrder()) {
+            targetsByActivity.get(IPermission.PORTLET_MANAGER_APPROVED_ACTIVITY).add(portletDefinitionId);
+        }
+        if (order <= PortletLifecycleState.CREATED.getOrder()) {
+            targetsByActivity.get(IPermission.PORTLET_MANAGER_CREATED_ACTIVITY).add(portletDefinitionId);
+        }
+    }
+
+    addManagerGrants(principal, targetsByActivity, IPermission.PORTLET_PREFIX, results);
+    return Collections.unmodifiableMap(results);
+}
+
+/**
+ * Answers, for each category, if the principal has permission to manage portlets in the
+ * lifecycle state in it.  The rules are the same as
+ * {@link #canPrincipalManage(IAuthorizationPrincipal, PortletLifecycleState, String)}, each
+ * manager activity is checked with a single bulk permission lookup.
+ * @return Map of category id to result
+ * @param principal IAuthorizationPrincipal
+ * @param state PortletLifecycleState
+ * @param categoryIds Collection of category ids
+ * @exception AuthorizationException if a category does not exist or authorization information could not be retrieved.
+ */
+@RequestCache
+public Map<String, Boolean> canPrincipalManage(IAuthorizationPrincipal principal, PortletLifecycleState state, Collection<String> categoryIds)
+throws AuthorizationException
+{
+    final IPortletCategoryRegistry portletCategoryRegistry = PortletCategoryRegistryLocator.getPortletCategoryRegistry();
+    final Map<String, Boolean> results = new LinkedHashMap<String, Boolean>(categoryIds.size() * 2);
+    for (final String categoryId : categoryIds) {
+        if (portletCategoryRegistry.getPortletCategory(categoryId) == null) {
+            throw new AuthorizationException("Unable to locate category " + categoryId);
+        }
+        results.put(categoryId, Boolean.FALSE);
+    }
+
+    final int order = state.getOrder();
+    final Map<String, List<String>> targetsByActivity = createManagerActivityMap();
+    if (order <= PortletLifecycleState.EXPIRED.getOrder()) {
+        targetsByActivity.get(IPermission.PORTLET_MANAGER_EXPIRED_ACTIVITY).addAll(categoryIds);
+    }
+    if (order <= PortletLifecycleState.PUBLISHED.getOrder()) {
+        targetsByActivity.get(IPermission.PORTLET_MANAGER_ACTIVITY).addAll(categoryIds);
+    }
+    if (order <= PortletLifecycleState.APPROVED.getOrder()) {
+        targetsByActivity.get(IPermission.PORTLET_MANAGER_APPROVED_ACTIVITY).addAll(categoryIds);
+    }
+    if (order <= PortletLifecycleState.CREATED.getOrder()) {
+        targetsByActivity.get(IPermission.PORTLET_MANAGER_CREATED_ACTIVITY).addAll(categoryIds);
+    }
+
+    addManagerGrants(principal, targetsByActivity, "", results);
+    return Collections.unmodifiableMap(results);
+}
+
+/**
+ * @return Map of each manager activity, from the latest lifecycle state to the earliest, to an empty list
+ */
+private Map<String, List<String>> createManagerActivityMap() {
+    final Map<String, List<String>> targetsByActivity = new LinkedHashMap<String, List<String>>();
+    targetsByActivity.put(IPermission.PORTLET_MANAGER_EXPIRED_ACTIVITY, new ArrayList<String>());
+    targetsByActivity.put(IPermission.PORTLET_MANAGER_ACTIVITY, new ArrayList<String>());
+    targetsByActivity.put(IPermission.PORTLET_MANAGER_APPROVED_ACTIVITY, new ArrayList<String>());
+    targetsByActivity.put(IPermission.PORTLET_MANAGER_CREATED_ACTIVITY, new ArrayList<String>());
+    return targetsByActivity;
+}
+
+/**
+ * Checks each manager activity for the keys that have not been granted by an earlier activity
+ * and records the grants in results.
+ * @param targetsByActivity Map of activity to the result keys it applies to
+ * @param targetPrefix prefix added to a result key to get the permission target
+ * @param results Map of key to result, updated with the grants
+ */
+private void addManagerGrants(IAuthorizationPrincipal principal, Map<String, List<String>> targetsByActivity, String targetPrefix, Map<String, Boolean> results)
+throws AuthorizationException
+{
+    for (final Map.Entry<String, List<String>> activityEntry : targetsByActivity.entrySet()) {
+        final List<String> targets = new ArrayList<String>();
+        for (final String key : activityEntry.getValue()) {
+            if (!results.get(key)) {
+                targets.add(targetPrefix + key);
+            }
+        }
+        if (targets.isEmpty()) {
+            continue;
+        }
+
+        final Map<String, Boolean> activityResults =
+            doesPrincipalHavePermission(principal, IPermission.PORTAL_PUBLISH, activityEntry.getKey(), targets);
+        for (final Map.Entry<String, Boolean> resultEntry : activityResults.entrySet()) {
+            if (resultEntry.getValue()) {
+                results.put(resultEntry.getKey().substring(targetPrefix.length()), Boolean.TRUE);
+            }
+        }
+    }
+}
+
 /**
  * This checks if the framework has granted principal a right to publish.  DO WE WANT SOMETHING THIS COARSE (de)?
  * @param principal IAuthorizationPrincipal
@@ -357,6 +541,21 @@ throws AuthorizationException
     return canPrincipalSubscribe(principal, portletDefinitionId);
 }
 
+/**
+ * Answers, for each portlet definition, if the principal has permission to render it.
+ * @return Map of portlet definition id to result
+ * @param principal IAuthorizationPrincipal
+ * @param portletDefinitions Collection of IPortletDefinition
+ * @exception AuthorizationException indicates authorization information could not be retrieved.
+ */
+@RequestCache
+public Map<String, Boolean> canPrincipalRender(IAuthorizationPrincipal principal, Collection<IPortletDefinition> portletDefinitions)
+throws AuthorizationException
+{
+    // Same assumption as canPrincipalRender(principal, portletDefinitionId)
+    return canPrincipalSubscribe(principal, portletDefinitions);
+}
+
 /**
  * Answers if the principal has permission to SUBSCRIBE to this Channel.
  * @return boolean
@@ -376,30 +575,70 @@ public boolean canPrincipalSubscribe(IAuthorizationPrincipal principal, String p
     if (portlet == null){
     	return false;
     }    
-    PortletLifecycleState state = portlet.getLifecycleState();
+    String permission = getSubscribeActivity(portlet.getLifecycleState(), portletDefinitionId);
+
+    // test the appropriate permission
+    return doesPrincipalHavePermission(principal, owner, permission, target);
+
+}
+
+/**
+ * Answers, for each portlet definition, if the principal has permission to subscribe to it.
+ * The definitions are grouped by the subscribe activity for their lifecycle state and each
+ * group is checked with a single bulk permission lookup.
+ * @return Map of portlet definition id to result
+ * @param principal IAuthorizationPrincipal
+ * @param portletDefinitions Collection of IPortletDefinition
+ * @exception AuthorizationException indicates authorization information could not be retrieved.
+ */
+@RequestCache
+public Map<String, Boolean> canPrincipalSubscribe(IAuthorizationPrincipal principal, Collection<IPortletDefinition> portletDefinitions)
+throws AuthorizationException
+{
+    final Map<String, List<String>> targetsByActivity = new LinkedHashMap<String, List<String>>();
+    for (final IPortletDefinition portlet : portletDefinitions) {
+        final String portletDefinitionId = portlet.getPortletDefinitionId().getStringId();
+        final String activity = getSubscribeActivity(portlet.getLifecycleState(), portletDefinitionId);
+
+        List<String> targets = targetsByActivity.get(activity);
+        if (targets == null) {
+            targets = new ArrayList<String>();
+            targetsByActivity.put(activity, targets);
+        }
+        targets.add(IPermission.PORTLET_PREFIX + portletDefinitionId);
+    }
+
+    final Map<String, Boolean> results = new LinkedHashMap<String, Boolean>(portletDefinitions.size() * 2);
+    for (final Map.Entry<String, List<String>> activityEntry : targetsByActivity.entrySet()) {
+        final Map<String, Boolean> activityResults = 
+            doesPrincipalHavePermission(principal, IPermission.PORTAL_SUBSCRIBE, activityEntry.getKey(), activityEntry.getValue());
+        
+        for (final Map.Entry<String, Boolean> resultEntry : activityResults.entrySet()) {
+            results.put(resultEntry.getKey().substring(IPermission.PORTLET_PREFIX.length()), resultEntry.getValue());
+        }
+    }
     
-    /*
-     * Each channel lifecycle state now has its own subscribe permission.  The
-     * following logic checks the appropriate permission for the lifecycle.
-     */
-    String permission;
+    return Collections.unmodifiableMap(results);
+}
+
+/**
+ * Each channel lifecycle state has its own subscribe permission, returns the
+ * activity to check for the lifecycle state.
+ */
+private String getSubscribeActivity(PortletLifecycleState state, String portletDefinitionId) {
     if (state.equals(PortletLifecycleState.PUBLISHED)) {
-    	permission = IPermission.PORTLET_SUBSCRIBER_ACTIVITY;
+    	return IPermission.PORTLET_SUBSCRIBER_ACTIVITY;
     } else if (state.equals(PortletLifecycleState.APPROVED)) {
-    	permission = IPermission.PORTLET_SUBSCRIBER_APPROVED_ACTIVITY;
+    	return IPermission.PORTLET_SUBSCRIBER_APPROVED_ACTIVITY;
     } else if (state.equals(PortletLifecycleState.CREATED)) {
-    	permission = IPermission.PORTLET_SUBSCRIBER_CREATED_ACTIVITY;
+    	return IPermission.PORTLET_SUBSCRIBER_CREATED_ACTIVITY;
     } else if (state.equals(PortletLifecycleState.EXPIRED)) {
-    	permission = IPermission.PORTLET_SUBSCRIBER_EXPIRED_ACTIVITY;
+    	return IPermission.PORTLET_SUBSCRIBER_EXPIRED_ACTIVITY;
     } else {
 			throw new AuthorizationException(
 					"Unrecognized lifecycle state for channel "
 							+ portletDefinitionId);
     }
-
-    // test the appropriate permission
-    return doesPrincipalHavePermission(principal, owner, permission, target);
-
 }
 
 /**
@@ -444,8 +683,7 @@ throws AuthorizationException
     @RequestCache
     public boolean doesPrincipalHavePermission(IAuthorizationPrincipal principal, String owner, String activity,
             String target, IPermissionPolicy policy) throws AuthorizationException {
-        final CacheKey key = new CacheKey("AuthorizationImpl", policy.getClass(), principal.getKey(),
-                principal.getType(), owner, activity, target);
+        final CacheKey key = createPermissionCacheKey(principal, owner, activity, target, policy);
 
         final Element element = this.doesPrincipalHavePermissionCache.get(key);
         if (element != null) {
@@ -463,6 +701,127 @@ throws AuthorizationException
         return doesPrincipalHavePermission;
     }
 
+    @Override
+    @RequestCache
+    public Map<String, Boolean> doesPrincipalHavePermission(IAuthorizationPrincipal principal, String owner,
+            String activity, Collection<String> targets) throws AuthorizationException {
+        final IPermissionPolicy policy = getDefaultPermissionPolicy();
+
+        final Map<String, CacheKey> keys = new LinkedHashMap<String, CacheKey>(targets.size() * 2);
+        for (final String target : targets) {
+            keys.put(target, createPermissionCacheKey(principal, owner, activity, target, policy));
+        }
+
+        final Map<Object, Element> elements = this.doesPrincipalHavePermissionCache.getAll(keys.values());
+
+        final Map<String, Boolean> results = new LinkedHashMap<String, Boolean>(keys.size() * 2);
+        final List<String> missedTargets = new ArrayList<String>();
+        for (final Map.Entry<String, CacheKey> keyEntry : keys.entrySet()) {
+            final String target = keyEntry.getKey();
+
+            final Element element = elements.get(keyEntry.getValue());
+            if (element != null) {
+                results.put(target, (Boolean) element.getValue());
+            }
+            else {
+                //Keep the position of the target in the results, filled in once evaluated
+                results.put(target, null);
+                missedTargets.add(target);
+            }
+        }
+
+        if (!missedTargets.isEmpty()) {
+            final Map<String, Boolean> evaluated = evaluatePermissionPolicy(policy, principal, owner, activity, missedTargets);
+
+            final List<Element> missed = new ArrayList<Element>(evaluated.size());
+            for (final Map.Entry<String, Boolean> evaluatedEntry : evaluated.entrySet()) {
+                results.put(evaluatedEntry.getKey(), evaluatedEntry.getValue());
+                missed.add(new Element(keys.get(evaluatedEntry.getKey()), evaluatedEntry.getValue()));
+            }
+            this.doesPrincipalHavePermissionCache.putAll(missed);
+        }
+
+        return Collections.unmodifiableMap(results);
+    }
+
+    /**
+     * Evaluates the permission policy for each target. The {@link DefaultPermissionPolicy} is
+     * evaluated in one pass over the permission sets of the principal and its containing groups
+     * rather than walking the group hierarchy again for every target, other policies are asked
+     * once per target.
+     */
+    private Map<String, Boolean> evaluatePermissionPolicy(IPermissionPolicy policy, IAuthorizationPrincipal principal,
+            String owner, String activity, Collection<String> targets) throws AuthorizationException {
+        final Map<String, Boolean> results = new LinkedHashMap<String, Boolean>(targets.size() * 2);
+        if (policy.getClass() != DefaultPermissionPolicy.class) {
+            for (final String target : targets) {
+                results.put(target, policy.doesPrincipalHavePermission(this, principal, owner, activity, target));
+            }
+            return results;
+        }
+
+        final PermissionSetImpl principalPermissions = primGetPermissionsForPrincipal(principal);
+        List<PermissionSetImpl> inheritedPermissions = null;
+        for (final String target : targets) {
+            final Set<String> containingGroups = getContainingGroupKeys(target);
+
+            //A permission directly on the principal decides, otherwise any granting containing group does
+            final IPermission[] permissions = principalPermissions.getPermissions(owner, activity, target, containingGroups);
+            boolean hasPermission = false;
+            if (permissions.length > 0) {
+                hasPermission = isPermissionGranted(permissions);
+            }
+            else {
+                if (inheritedPermissions == null) {
+                    inheritedPermissions = getInheritedPermissionSets(principal);
+                }
+                for (final Iterator<PermissionSetImpl> psItr = inheritedPermissions.iterator(); psItr.hasNext() && !hasPermission; ) {
+                    hasPermission = isPermissionGranted(psItr.next().getPermissions(owner, activity, target, containingGroups));
+                }
+            }
+
+            results.put(target, hasPermission);
+        }
+
+        return results;
+    }
+
+    /**
+     * @return The permission sets of every group that contains the principal
+     */
+    private List<PermissionSetImpl> getInheritedPermissionSets(IAuthorizationPrincipal principal) throws AuthorizationException {
+        final List<PermissionSetImpl> permissionSets = new ArrayList<PermissionSetImpl>();
+        try {
+            for (final Iterator<?> groupItr = getGroupMember(principal).getAllContainingGroups(); groupItr.hasNext(); ) {
+                final IAuthorizationPrincipal groupPrincipal = newPrincipal((IGroupMember) groupItr.next());
+                permissionSets.add(primGetPermissionsForPrincipal(groupPrincipal));
+            }
+        }
+        catch (GroupsException ge) {
+            throw new AuthorizationException(ge);
+        }
+        return permissionSets;
+    }
+
+    /**
+     * Same rules as {@link DefaultPermissionPolicy}, no permission is a denial and duplicates are an error
+     */
+    private boolean isPermissionGranted(IPermission[] permissions) throws AuthorizationException {
+        if (permissions.length == 0) {
+            return false;
+        }
+        if (permissions.length > 1) {
+            throw new AuthorizationException("Duplicate permissions for: " + permissions[0]);
+        }
+        return DefaultPermissionPolicy.permissionIsGranted(permissions[0]);
+    }
+
+    private CacheKey createPermissionCacheKey(IAuthorizationPrincipal principal, String owner, String activity,
+            String target, IPermissionPolicy policy) {
+        return new CacheKey("AuthorizationImpl", policy.getClass(), principal.getKey(),
+                principal.getType(), owner, activity, target);
+    }
+
 /**
  * Returns the <code>IPermissions</code> owner has granted this <code>Principal</code> for
  * the specified activity and target.  Null parameters will be ignored, that is, all
@@ -837,33 +1196,131 @@ public IUpdatingPermissionManager newUpdatingPermissionManager(String owner)
 /**
  * Returns permissions for a principal.  First check the entity caching
  * service, and if the permissions have not been cached, retrieve and
- * cache them.
+ * cache them.  Concurrent misses for the same principal key share a
+ * single load, and a cached set older than the refresh age is reloaded
+ * in the background while the cached copy is returned.
  * @return IPermission[]
  * @param principal org.jasig.portal.security.IAuthorizationPrincipal
  */
-private IPermission[] primGetPermissionsForPrincipal(IAuthorizationPrincipal principal)
+private PermissionSetImpl primGetPermissionsForPrincipal(IAuthorizationPrincipal principal)
 throws AuthorizationException
 {
     if ( ! this.cachePermissions )
-        { return getUncachedPermissionsForPrincipal(principal, null, null, null);}
+        { return new PermissionSetImpl(getUncachedPermissionsForPrincipal(principal, null, null, null), principal);}
 
-    IPermissionSet ps = null;
+    PermissionSetImpl ps = null;
     // Check the caching service for the Permissions first.
-    ps = cacheGet(principal);
+    ps = (PermissionSetImpl) cacheGet(principal);
+    if ( ps != null )
+    {
+        refreshIfStale(principal, ps);
+        return ps;
+    }
+
+    final SingleFlight.Ticket<String, PermissionSetImpl> ticket = this.permissionLoads.join(principal.getPrincipalString());
+    if ( ! ticket.isLeader() )
+    {
+        ps = awaitPermissionLoad(ticket);
+        if ( ps != null )
+            { return ps; }
+
+        // The leading load failed or is taking too long, load independently
+        return loadPermissionsForPrincipal(principal);
+    }
 
-    if ( ps == null )
-    synchronized ( principal )
+    try
     {
-        ps = cacheGet(principal);
+        // Another load may have completed between the cache miss and the join
+        ps = (PermissionSetImpl) cacheGet(principal);
         if ( ps == null )
         {
-            IPermission[] permissions =
-              getUncachedPermissionsForPrincipal(principal, null, null, null);
-            ps = new PermissionSetImpl(permissions, principal);
-            cacheAdd(ps);
+            ps = loadPermissionsForPrincipal(principal);
         }
-    }      // end synchronized
-    return ps.getPermissions();
+        return ps;
+    }
+    finally
+        { ticket.complete(ps); }
+}
+
+/**
+ * Waits for a concurrent load of a principal's permissions.
+ * @return the loaded permissions, null if the load failed or did not complete in time
+ */
+private PermissionSetImpl awaitPermissionLoad(SingleFlight.Ticket<String, PermissionSetImpl> ticket)
+{
+    try
+        { return ticket.await(this.permissionLoadTimeout, TimeUnit.MILLISECONDS); }
+    catch (InterruptedException ie)
+    {
+        Thread.currentThread().interrupt();
+        return null;
+    }
+}
+
+/**
+ * Loads a principal's permissions from the permission store and caches
+ * them.  The number of concurrent loads is bounded so that a burst of
+ * cache misses does not exhaust the database connection pool.
+ * @return the loaded permissions
+ */
+private PermissionSetImpl loadPermissionsForPrincipal(IAuthorizationPrincipal principal)
+throws AuthorizationException
+{
+    try
+        { this.permissionLoadPermits.acquire(); }
+    catch (InterruptedException ie)
+    {
+        Thread.currentThread().interrupt();
+        throw new AuthorizationException("Interrupted while waiting to load permissions for " + principal, ie);
+    }
+
+    try
+    {
+        IPermission[] permissions =
+          getUncachedPermissionsForPrincipal(principal, null, null, null);
+        PermissionSetImpl ps = new PermissionSetImpl(permissions, principal);
+        cacheAdd(ps);
+        return ps;
+    }
+    finally
+        { this.permissionLoadPermits.release(); }
+}
+
+/**
+ * Reloads a cached permission set in the background if it is older than
+ * the refresh age.  At most one refresh per principal key runs at a time.
+ */
+private void refreshIfStale(final IAuthorizationPrincipal principal, PermissionSetImpl ps)
+{
+    if ( this.permissionRefreshAge <= 0 || this.permissionRefreshExecutor == null )
+        { return; }
+    if ( System.currentTimeMillis() - ps.getCreated() < TimeUnit.SECONDS.toMillis(this.permissionRefreshAge) )
+        { return; }
+
+    final SingleFlight.Ticket<String, PermissionSetImpl> ticket = this.permissionLoads.join(principal.getPrincipalString());
+    if ( ! ticket.isLeader() )
+        { return; }
+
+    try
+    {
+        this.permissionRefreshExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                PermissionSetImpl refreshed = null;
+                try
+                    { refreshed = loadPermissionsForPrincipal(principal); }
+                catch (Exception e)
+                    { log.warn("Failed to refresh permissions for " + principal, e); }
+                finally
+                    { ticket.complete(refreshed); }
+            }
+        });
+    }
+    catch (RejectedExecutionException ree)
+    {
+        log.debug("Permission refresh for " + principal + " rejected, the cached permissions will be used until they expire");
+        ticket.complete(null);
+    }
 }
 
 /**
@@ -882,15 +1339,46 @@ throws AuthorizationException
 {
 
     /*
-     * Get a list of all permissions for the specified principal, then iterate
-     * through them to build a list of the permissions matching the specified
-     * criteria.
+     * Get the permission set for the specified principal, then look up the
+     * permissions matching the specified criteria in its compiled index.
      */
 
-    IPermission[] perms = primGetPermissionsForPrincipal(principal);
+    PermissionSetImpl ps = primGetPermissionsForPrincipal(principal);
     if ( owner == null && activity == null && target == null )
-        { return perms; }
+        { return ps.getPermissions(); }
+
+    Set<String> containingGroups = getContainingGroupKeys(target);
+
+    // target matches or is a member of the current permission target
+    IPermission[] perms = ps.getPermissions(owner, activity, target, containingGroups);
+
+
+    
+    if (log.isTraceEnabled()) {
+        log.trace(
+                "AuthorizationImpl.primGetPermissionsForPrincipal(): " +
+                "Principal: " + principal + " owner: " + owner +
+                " activity: " + activity + " target: " + target + " : permissions retrieved: " + Arrays.toString(perms));
+    } else if (log.isDebugEnabled()) {
+        log.debug(
+                "AuthorizationImpl.primGetPermissionsForPrincipal(): " +
+                "Principal: " + principal + " owner: " + owner +
+                " activity: " + activity + " target: " + target + " : number of permissions retrieved: " + perms.length);
+    }
+
+
+    return perms;
 
+}
+
+/**
+ * Returns the keys of the groups that contain the target, cached in the entity parents cache.
+ * @return Set<String> empty if the target is null
+ * @param target String
+ */
+private Set<String> getContainingGroupKeys(String target)
+throws AuthorizationException
+{
 	Set<String> containingGroups;
 	
 	if (target != null) {
@@ -925,43 +1413,7 @@ throws AuthorizationException
 		containingGroups = new HashSet<String>();
 	}
 
-    List<IPermission> al = new ArrayList<IPermission>(perms.length);
-    
-    for ( int i=0; i<perms.length; i++ ) {
-        String permissionTarget = perms[i].getTarget();
-        
-        if (
-        		// owner matches
-        		(owner == null || owner.equals(perms[i].getOwner())) &&
-        		// activity matches
-                (activity == null || activity.equals(perms[i].getActivity())) &&
-                // target matches or is a member of the current permission target
-                (target == null || target.equals(permissionTarget) 
-                		|| containingGroups.contains(permissionTarget))    
-            ) {
-        	
-            al.add(perms[i]);
-        } 
-        
-    }
-
-
-    
-    if (log.isTraceEnabled()) {
-        log.trace(
-                "AuthorizationImpl.primGetPermissionsForPrincipal(): " +
-                "Principal: " + principal + " owner: " + owner +
-                " activity: " + activity + " target: " + target + " : permissions retrieved: " + al);
-    } else if (log.isDebugEnabled()) {
-        log.debug(
-                "AuthorizationImpl.primGetPermissionsForPrincipal(): " +
-                "Principal: " + principal + " owner: " + owner +
-                " activity: " + activity + " target: " + target + " : number of permissions retrieved: " + al.size());
-    }
-
-
-    return ((IPermission[])al.toArray(new IPermission[al.size()]));
-
+    return containingGroups;
 }
 
 /**
@@ -998,6 +1450,9 @@ throws AuthorizationException
 {
     IAuthorizationPrincipal[] principals = getPrincipalsFromPermissions(permissions);
     removeFromPermissionsCache(principals);
+
+    // Resolved permissions include inherited permissions so any change can affect any principal
+    this.cacheInvalidationService.invalidateAll(this.doesPrincipalHavePermissionCache.getName());
 }
 
 /**
@@ -19,7 +19,11 @@
 
 package org.jasig.portal.security.provider;
 
+import java.util.Collection;
+import java.util.Map;
+
 import org.jasig.portal.AuthorizationException;
+import org.jasig.portal.portlet.om.IPortletDefinition;
 import org.jasig.portal.portlet.om.PortletLifecycleState;
 import org.jasig.portal.security.IAuthorizationPrincipal;
 import org.jasig.portal.security.IAuthorizationService;
@@ -62,6 +66,16 @@ public AuthorizationPrincipalImpl(String newKey, Class newType, IAuthorizationSe
 public boolean canManage(String channelPublishId) throws org.jasig.portal.AuthorizationException {
     return getAuthorizationService().canPrincipalManage(this, channelPublishId);
 }
+/**
+ * Answers, for each portlet definition, if this <code>IAuthorizationPrincipal</code> has
+ * permission to manage it.
+ * @return Map of portlet definition id to whether the principal may manage it
+ * @param portletDefinitions Collection of IPortletDefinition
+ * @exception AuthorizationException thrown when authorization information could not be retrieved.
+ */
+public Map<String, Boolean> canManage(Collection<IPortletDefinition> portletDefinitions) throws org.jasig.portal.AuthorizationException {
+    return getAuthorizationService().canPrincipalManage(this, portletDefinitions);
+}
 /**
  * Answers if this <code>IAuthorizationPrincipal</code> has permission to publish.
  * @return boolean
@@ -70,6 +84,15 @@ public boolean canManage(String channelPublishId) throws org.jasig.portal.Author
 public boolean canManage(PortletLifecycleState state, String categoryId) throws AuthorizationException {
 	return getAuthorizationService().canPrincipalManage(this, state, categoryId);
 }
+/**
+ * Answers, for each category, if this <code>IAuthorizationPrincipal</code> may manage
+ * portlets in the lifecycle state in it.
+ * @return Map of category id to whether the principal may manage portlets in it
+ * @exception AuthorizationException thrown when authorization information could not be retrieved.
+ */
+public Map<String, Boolean> canManage(PortletLifecycleState state, Collection<String> categoryIds) throws AuthorizationException {
+	return getAuthorizationService().canPrincipalManage(this, state, categoryIds);
+}
 @Override
 public boolean canConfigure(String channelPublishId) throws AuthorizationException {
     return getAuthorizationService().canPrincipalConfigure(this, channelPublishId);
@@ -92,6 +115,16 @@ public boolean canRender(String channelPublishId) throws org.jasig.portal.Author
 public boolean canSubscribe(String channelPublishId) throws org.jasig.portal.AuthorizationException {
     return getAuthorizationService().canPrincipalSubscribe(this, channelPublishId);
 }
+/**
+ * Answers, for each portlet definition, if this <code>IAuthorizationPrincipal</code> has
+ * permission to subscribe to it.
+ * @return Map of portlet definition id to whether the principal may subscribe to it
+ * @param portletDefinitions Collection of IPortletDefinition
+ * @exception AuthorizationException thrown when authorization information could not be retrieved.
+ */
+public Map<String, Boolean> canSubscribe(Collection<IPortletDefinition> portletDefinitions) throws org.jasig.portal.AuthorizationException {
+    return getAuthorizationService().canPrincipalSubscribe(this, portletDefinitions);
+}
 @Override
 public boolean equals(Object obj) {
     if (this == obj)
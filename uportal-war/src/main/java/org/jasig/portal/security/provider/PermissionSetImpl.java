@@ -19,8 +19,13 @@
 
 package org.jasig.portal.security.provider;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.jasig.portal.EntityIdentifier;
 import org.jasig.portal.security.IAuthorizationPrincipal;
@@ -38,6 +43,10 @@ import org.jasig.portal.security.IPermissionSet;
  * Separating caching of principals and permissions lets a client keep 
  * a reference to a principal over time while being guaranteed the 
  * latest version of its permissions.   
+ * <p>
+ * The permissions are compiled on first use into an index keyed by owner,
+ * activity and target so that matching permissions for a target and its
+ * containing groups can be found without scanning the whole set.
  */
 
 public class PermissionSetImpl implements IPermissionSet {
@@ -46,6 +55,12 @@ public class PermissionSetImpl implements IPermissionSet {
     private IPermission[] permissions;
     private static Class IPS_TYPE = IPermissionSet.class; 
 
+    // owner -> activity -> target -> positions in permissions, built lazily
+    private transient volatile Map<String, Map<String, Map<String, List<Integer>>>> index;
+
+    // when the permissions were loaded, used to refresh the set before it expires from the cache
+    private final long created = System.currentTimeMillis();
+
 public PermissionSetImpl(IPermission[] perms, IAuthorizationPrincipal principal) 
 {
     this(perms, principal.getPrincipalString(), IPS_TYPE);
@@ -56,6 +71,12 @@ public PermissionSetImpl(IPermission[] perms, String key, Class type)
     permissions = perms;
     entityIdentifier = new EntityIdentifier(key, type);
 }
+/**
+ * @return The time, in milliseconds, when the permissions in this set were loaded
+ */
+public long getCreated() {
+    return created;
+}
 /** 
  * @return IPermission[]
  */
@@ -63,6 +84,103 @@ public IPermission[] getPermissions() {
     return permissions;
 }
 
+/**
+ * Returns the permissions matching <code>owner</code>, <code>activity</code>
+ * and <code>target</code>, in their original order.  A permission matches the
+ * target if its own target is <code>target</code> or one of
+ * <code>targetGroupKeys</code>.  Null parameters match any value.
+ * @param owner String
+ * @param activity String
+ * @param target String
+ * @param targetGroupKeys Set<String> keys of the groups containing the target
+ * @return IPermission[]
+ */
+public IPermission[] getPermissions(String owner, String activity, String target, Set<String> targetGroupKeys) {
+    if ( owner == null || activity == null ) {
+        return scanPermissions(owner, activity, target, targetGroupKeys);
+    }
+
+    final Map<String, Map<String, List<Integer>>> activities = getIndex().get(owner);
+    final Map<String, List<Integer>> targets = ( activities == null ) ? null : activities.get(activity);
+    if ( targets == null ) {
+        return new IPermission[0];
+    }
+
+    final List<Integer> positions = new ArrayList<Integer>();
+    if ( target == null ) {
+        for ( final List<Integer> targetPositions : targets.values() ) {
+            positions.addAll(targetPositions);
+        }
+    }
+    else {
+        addPositions(positions, targets.get(target));
+        for ( final String groupKey : targetGroupKeys ) {
+            if ( !groupKey.equals(target) ) {
+                addPositions(positions, targets.get(groupKey));
+            }
+        }
+    }
+
+    Collections.sort(positions);
+    final IPermission[] matches = new IPermission[positions.size()];
+    for ( int i = 0; i < matches.length; i++ ) {
+        matches[i] = permissions[positions.get(i)];
+    }
+    return matches;
+}
+
+private static void addPositions(List<Integer> positions, List<Integer> targetPositions) {
+    if ( targetPositions != null ) {
+        positions.addAll(targetPositions);
+    }
+}
+
+/**
+ * Linear match used when owner or activity is unspecified.
+ */
+private IPermission[] scanPermissions(String owner, String activity, String target, Set<String> targetGroupKeys) {
+    final List<IPermission> matches = new ArrayList<IPermission>();
+    for ( final IPermission permission : permissions ) {
+        if ( (owner == null || owner.equals(permission.getOwner())) &&
+                (activity == null || activity.equals(permission.getActivity())) &&
+                (target == null || target.equals(permission.getTarget()) || targetGroupKeys.contains(permission.getTarget())) ) {
+            matches.add(permission);
+        }
+    }
+    return matches.toArray(new IPermission[matches.size()]);
+}
+
+private Map<String, Map<String, Map<String, List<Integer>>>> getIndex() {
+    Map<String, Map<String, Map<String, List<Integer>>>> idx = index;
+    if ( idx == null ) {
+        idx = new HashMap<String, Map<String, Map<String, List<Integer>>>>();
+        for ( int i = 0; i < permissions.length; i++ ) {
+            final IPermission permission = permissions[i];
+
+            Map<String, Map<String, List<Integer>>> activities = idx.get(permission.getOwner());
+            if ( activities == null ) {
+                activities = new HashMap<String, Map<String, List<Integer>>>();
+                idx.put(permission.getOwner(), activities);
+            }
+
+            Map<String, List<Integer>> targets = activities.get(permission.getActivity());
+            if ( targets == null ) {
+                targets = new HashMap<String, List<Integer>>();
+                activities.put(permission.getActivity(), targets);
+            }
+
+            List<Integer> positions = targets.get(permission.getTarget());
+            if ( positions == null ) {
+                positions = new ArrayList<Integer>(1);
+                targets.put(permission.getTarget(), positions);
+            }
+            positions.add(i);
+        }
+        index = idx;
+    }
+    return idx;
+}
+
 /** 
  * @return EntityIdentifier IPermission[]
  */
@@ -0,0 +1,34 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.spring.context;
+
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+
+/**
+ * Marks an {@link ApplicationListener} that must be called on the thread that published the event, before the
+ * publisher continues. Multicasters that deliver events asynchronously still deliver events to these listeners
+ * synchronously.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public interface SynchronousApplicationListener<E extends ApplicationEvent> extends ApplicationListener<E> {
+}
@@ -0,0 +1,135 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of durations in milliseconds. Durations are counted in power of two buckets, the
+ * first bucket counts durations up to 1ms and the last bucket counts everything longer than 2^20ms
+ * (about 17 minutes).
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class DurationHistogram {
+    private static final int BUCKETS = 22;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    
+    /**
+     * @param duration The duration to record, in milliseconds
+     */
+    public void add(long duration) {
+        if (duration < 0) {
+            duration = 0;
+        }
+        
+        this.counts.incrementAndGet(getBucket(duration));
+        this.total.addAndGet(duration);
+        
+        long currentMax = this.max.get();
+        while (duration > currentMax && !this.max.compareAndSet(currentMax, duration)) {
+            currentMax = this.max.get();
+        }
+    }
+    
+    /**
+     * @return The number of recorded durations
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += this.counts.get(i);
+        }
+        return count;
+    }
+    
+    /**
+     * @return The mean of the recorded durations, 0 if nothing has been recorded
+     */
+    public long getMean() {
+        final long count = this.getCount();
+        if (count == 0) {
+            return 0;
+        }
+        return this.total.get() / count;
+    }
+    
+    /**
+     * @return The longest recorded duration
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+    
+    /**
+     * @return The non-empty buckets, keyed by a label of the form "&lt;=128ms" in increasing order
+     */
+    public Map<String, Long> getBuckets() {
+        final Map<String, Long> buckets = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < BUCKETS; i++) {
+            final long count = this.counts.get(i);
+            if (count > 0) {
+                final String label;
+                if (i == BUCKETS - 1) {
+                    label = ">" + (1l << (BUCKETS - 2)) + "ms";
+                }
+                else {
+                    label = "<=" + (1l << i) + "ms";
+                }
+                buckets.put(label, count);
+            }
+        }
+        return buckets;
+    }
+    
+    /**
+     * Clear all recorded durations
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.counts.set(i, 0);
+        }
+        this.total.set(0);
+        this.max.set(0);
+    }
+    
+    static int getBucket(long duration) {
+        if (duration <= 1) {
+            return 0;
+        }
+        
+        //Index of the smallest power of two that is >= duration
+        final int bucket = 64 - Long.numberOfLeadingZeros(duration - 1);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "DurationHistogram [count=" + this.getCount() + ", mean=" + this.getMean() + ", max="
+                + this.getMax() + ", buckets=" + this.getBuckets() + "]";
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils;
+
+import java.io.Serializable;
+
+import org.apache.commons.lang.Validate;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * HyperLogLog cardinality estimator. Estimates the number of distinct values offered using
+ * 2^precision one byte registers, regardless of how many values are offered. The relative standard
+ * error of the estimate is 1.04/sqrt(2^precision), for example 1.6% for the 4KB used with a
+ * precision of 12. Small cardinalities use linear counting and are usually exact.
+ * <p/>
+ * Estimators with the same precision can be merged, the result is the estimator that would have
+ * been built by offering the values of both. The register array is the complete state so it can
+ * be stored directly, see {@link #wrap(byte[])}.
+ * <p/>
+ * This class is not thread safe.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public final class HyperLogLog implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 16;
+    
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    
+    private final byte[] registers;
+    private final int precision;
+    
+    /**
+     * Create an empty estimator
+     * 
+     * @param precision log2 of the number of registers, between {@link #MIN_PRECISION} and {@link #MAX_PRECISION}
+     */
+    public HyperLogLog(int precision) {
+        this(new byte[1 << validatePrecision(precision)]);
+    }
+    
+    private HyperLogLog(byte[] registers) {
+        this.registers = registers;
+        this.precision = Integer.numberOfTrailingZeros(registers.length);
+    }
+    
+    /**
+     * Create an estimator backed by the specified registers, changes to the estimator write through
+     * to the array.
+     * 
+     * @param registers Registers from {@link #getRegisters()}
+     * @throws IllegalArgumentException If the array length is not a valid register count
+     */
+    public static HyperLogLog wrap(byte[] registers) {
+        Validate.notNull(registers, "registers");
+        final int length = registers.length;
+        if (Integer.bitCount(length) != 1) {
+            throw new IllegalArgumentException("Register count must be a power of two: " + length);
+        }
+        validatePrecision(Integer.numberOfTrailingZeros(length));
+        
+        return new HyperLogLog(registers);
+    }
+    
+    private static int validatePrecision(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between " + MIN_PRECISION + " and " + MAX_PRECISION + ": " + precision);
+        }
+        return precision;
+    }
+    
+    /**
+     * @return The backing register array, the complete state of the estimator
+     */
+    public byte[] getRegisters() {
+        return this.registers;
+    }
+    
+    public int getPrecision() {
+        return this.precision;
+    }
+    
+    /**
+     * @return The relative standard error of {@link #cardinality()}
+     */
+    public double getStandardError() {
+        return 1.04 / Math.sqrt(this.registers.length);
+    }
+    
+    /**
+     * Offer a value to the estimator
+     * 
+     * @return true if the estimator changed, if false {@link #cardinality()} is unchanged
+     */
+    public boolean offer(String value) {
+        final long hash = HASH_FUNCTION.hashString(value, Charsets.UTF_8).asLong();
+        
+        //Leading bits pick the register, the rank is the position of the first 1 bit in the remainder
+        final int index = (int) (hash >>> (Long.SIZE - this.precision));
+        final long remainder = hash << this.precision;
+        final int rank = remainder == 0 ? Long.SIZE - this.precision + 1 : Long.numberOfLeadingZeros(remainder) + 1;
+        
+        if (rank > this.registers[index]) {
+            this.registers[index] = (byte) rank;
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * @return Estimated number of distinct values offered
+     */
+    public long cardinality() {
+        final int m = this.registers.length;
+        
+        double sum = 0;
+        int zeros = 0;
+        for (final byte register : this.registers) {
+            sum += 1d / (1l << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        
+        final double estimate = getAlpha(m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            //Linear counting is more accurate for small cardinalities
+            return Math.round(m * Math.log((double) m / zeros));
+        }
+        
+        //64 bit hashes make the large range correction unnecessary
+        return Math.round(estimate);
+    }
+    
+    /**
+     * Merge the other estimator into this one
+     * 
+     * @throws IllegalArgumentException If the precisions differ
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != this.precision) {
+            throw new IllegalArgumentException("Cannot merge precision " + other.precision + " into precision " + this.precision);
+        }
+        
+        for (int i = 0; i < this.registers.length; i++) {
+            if (other.registers[i] > this.registers[i]) {
+                this.registers[i] = other.registers[i];
+            }
+        }
+    }
+    
+    private static double getAlpha(int m) {
+        switch (m) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HyperLogLog [precision=" + this.precision + ", cardinality=" + this.cardinality() + "]";
+    }
+}
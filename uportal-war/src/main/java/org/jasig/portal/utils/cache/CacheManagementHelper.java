@@ -31,6 +31,7 @@ import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Statistics;
 import net.sf.ehcache.Status;
 import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.statistics.LiveCacheStatistics;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -85,6 +86,17 @@ public class CacheManagementHelper {
     	        cacheStatistics.misses = statistics.getCacheMisses();
     	        cacheStatistics.size = statistics.getObjectCount();
     	        cacheStatistics.maxSize = cacheConfiguration.getMaxElementsInMemory() + cacheConfiguration.getMaxElementsOnDisk();
+    	        cacheStatistics.heapSize = statistics.getMemoryStoreObjectCount();
+    	        cacheStatistics.diskSize = statistics.getDiskStoreObjectCount();
+    	        
+    	        //Byte sizes are only tracked cheaply for caches that are sized in bytes
+    	        final long maxBytes = cacheConfiguration.getMaxBytesLocalHeap() + cacheConfiguration.getMaxBytesLocalDisk();
+    	        if (maxBytes > 0) {
+    	            final LiveCacheStatistics liveCacheStatistics = cache.getLiveCacheStatistics();
+    	            cacheStatistics.maxBytes = maxBytes;
+    	            cacheStatistics.heapBytes = liveCacheStatistics.getLocalHeapSizeInBytes();
+    	            cacheStatistics.diskBytes = liveCacheStatistics.getLocalDiskSizeInBytes();
+    	        }
     	        
     	        allCacheStatistics.put(cacheName, cacheStatistics);
 	        }
@@ -143,6 +155,11 @@ public class CacheManagementHelper {
 	    public long misses;
 	    public long size;
 	    public long maxSize;
+	    public long heapSize;
+	    public long diskSize;
+	    public long heapBytes;
+	    public long diskBytes;
+	    public long maxBytes;
 	    
         public long getHits() {
             return hits;
@@ -156,8 +173,42 @@ public class CacheManagementHelper {
         public long getMaxSize() {
             return maxSize;
         }
+        /**
+         * @return Number of elements in the on-heap tier
+         */
+        public long getHeapSize() {
+            return heapSize;
+        }
+        /**
+         * @return Number of elements in the disk tier
+         */
+        public long getDiskSize() {
+            return diskSize;
+        }
+        /**
+         * @return Bytes used by the on-heap tier, only tracked for caches sized in bytes
+         */
+        public long getHeapBytes() {
+            return heapBytes;
+        }
+        /**
+         * @return Bytes used by the disk tier, only tracked for caches sized in bytes
+         */
+        public long getDiskBytes() {
+            return diskBytes;
+        }
+        /**
+         * @return Maximum bytes for the on-heap and disk tiers, 0 if the cache is not sized in bytes
+         */
+        public long getMaxBytes() {
+            return maxBytes;
+        }
         
         public double getUsage() {
+            if (this.maxBytes > 0) {
+                return (double)(this.heapBytes + this.diskBytes) / (double)this.maxBytes;
+            }
+            
             if (this.maxSize == 0) {
                 return 0;
             }
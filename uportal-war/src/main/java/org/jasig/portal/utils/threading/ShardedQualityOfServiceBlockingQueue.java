@@ -0,0 +1,578 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.utils.threading;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jasig.portal.utils.ConcurrentMapUtils;
+
+/**
+ * A thread-safe blocking queue that places elements into per-key sub-queues based on the key returned for each
+ * element by {@link #getElementKey(Object)} and hands elements out round-robin across the keys that have queued
+ * elements. This provides the same per-key fairness as {@link QualityOfServiceBlockingQueue} without a single lock
+ * guarding every operation.
+ * <p/>
+ * Each key's elements are held in a {@link ConcurrentLinkedQueue}. Keys with queued elements sit in a ready ring; a
+ * consumer takes the key at the head of the ring, polls one element from it and, if the key still has elements,
+ * appends it back to the tail of the ring. Changes to a key's elements and to its ring membership are made together
+ * while holding that key's monitor so a key is never stranded outside of, or duplicated in, the ring. Blocking and
+ * capacity are handled by a pair of {@link Semaphore}s which only park threads when the queue is actually empty or
+ * full. A consumer holding a permit that finds the ring momentarily empty, because another consumer is between
+ * taking a key off the ring and putting it back, waits on the ring's monitor until a key is added.
+ * <p/>
+ * Unlike {@link QualityOfServiceBlockingQueue} the {@link #peek()} and {@link #element()} methods are weakly
+ * consistent: the peeked element is the current head of the ring but a concurrent consumer may take it first.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ * @param <K> The type of key used for grouping elements in the queue
+ * @param <T> The type of elements in the queue
+ */
+public abstract class ShardedQualityOfServiceBlockingQueue<K, T> extends AbstractQueue<T> implements BlockingQueue<T> {
+    private final ConcurrentMap<K, KeyQueue<K, T>> keyedQueues = new ConcurrentHashMap<K, KeyQueue<K, T>>();
+    private final Set<K> queueKeySet = Collections.unmodifiableSet(this.keyedQueues.keySet());
+    private final Queue<KeyQueue<K, T>> readyKeys = new ConcurrentLinkedQueue<KeyQueue<K, T>>();
+    //Monitor consumers wait on when the ready ring is momentarily empty, only notified while there are waiters
+    private final Object readyKeysMonitor = new Object();
+    private final AtomicInteger readyKeysWaiters = new AtomicInteger();
+    
+    private final int capacity;
+    //Permits for elements available to be taken
+    private final Semaphore available = new Semaphore(0);
+    //Permits for free slots in the queue
+    private final Semaphore free;
+    
+    public ShardedQualityOfServiceBlockingQueue() {
+        this(Integer.MAX_VALUE);
+    }
+    
+    public ShardedQualityOfServiceBlockingQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        
+        this.capacity = capacity;
+        this.free = new Semaphore(capacity);
+    }
+
+    /**
+     * @return the key for the specified element
+     */
+    protected abstract K getElementKey(T e);
+    
+    /**
+     * @return A read only Set of the keys in the queue
+     */
+    public final Set<K> getKeySet() {
+        return queueKeySet;
+    }
+    
+    /**
+     * @return true if there are no elements for the specified key
+     */
+    public final boolean isKeyEmpty(K key) {
+        final KeyQueue<K, T> queue = this.keyedQueues.get(key);
+        if (queue == null) {
+            return true;
+        }
+        
+        return queue.elements.isEmpty();
+    }
+    
+    /**
+     * @return The number of elements in the queue for the specified key
+     */
+    public final int getKeySize(K key) {
+        final KeyQueue<K, T> queue = this.keyedQueues.get(key);
+        if (queue == null) {
+            return 0;
+        }
+        
+        return queue.elements.size();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Queue#offer(java.lang.Object)
+     */
+    @Override
+    public final boolean offer(T e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        
+        if (!this.free.tryAcquire()) {
+            return false;
+        }
+        
+        this.enqueue(e);
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#offer(java.lang.Object, long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public final boolean offer(T e, long timeout, TimeUnit unit) throws InterruptedException {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        
+        if (!this.free.tryAcquire(timeout, unit)) {
+            return false;
+        }
+        
+        this.enqueue(e);
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#put(java.lang.Object)
+     */
+    @Override
+    public final void put(T e) throws InterruptedException {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        
+        this.free.acquire();
+        this.enqueue(e);
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Queue#poll()
+     */
+    @Override
+    public final T poll() {
+        if (!this.available.tryAcquire()) {
+            return null;
+        }
+        
+        return this.dequeue();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#poll(long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public final T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!this.available.tryAcquire(timeout, unit)) {
+            return null;
+        }
+        
+        return this.dequeue();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#take()
+     */
+    @Override
+    public final T take() throws InterruptedException {
+        this.available.acquire();
+        return this.dequeue();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Queue#peek()
+     */
+    @Override
+    public final T peek() {
+        for (final KeyQueue<K, T> queue : this.readyKeys) {
+            final T e = queue.elements.peek();
+            if (e != null) {
+                return e;
+            }
+        }
+        
+        return null;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#remainingCapacity()
+     */
+    @Override
+    public final int remainingCapacity() {
+        return this.free.availablePermits();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.AbstractCollection#size()
+     */
+    @Override
+    public final int size() {
+        return this.available.availablePermits();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.AbstractCollection#isEmpty()
+     */
+    @Override
+    public final boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#remove(java.lang.Object)
+     */
+    @Override
+    public final boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        
+        @SuppressWarnings("unchecked")
+        final K key = this.getElementKey((T)o);
+        final KeyQueue<K, T> queue = this.keyedQueues.get(key);
+        if (queue == null) {
+            return false;
+        }
+        
+        //Claim an element permit first, if none are available every queued element is already claimed by a consumer
+        if (!this.available.tryAcquire()) {
+            return false;
+        }
+        
+        //The ready ring may still reference the key, the consumer that takes it will find it empty and retire it
+        final boolean removed;
+        synchronized (queue) {
+            removed = queue.elements.remove(o);
+        }
+        
+        if (!removed) {
+            this.available.release();
+            return false;
+        }
+        
+        this.free.release();
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#contains(java.lang.Object)
+     */
+    @Override
+    public final boolean contains(Object o) {
+        if (o == null) {
+            return false;
+        }
+        
+        @SuppressWarnings("unchecked")
+        final K key = this.getElementKey((T)o);
+        final KeyQueue<K, T> queue = this.keyedQueues.get(key);
+        if (queue == null) {
+            return false;
+        }
+        
+        return queue.elements.contains(o);
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#drainTo(java.util.Collection)
+     */
+    @Override
+    public final int drainTo(Collection<? super T> c) {
+        return this.drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#drainTo(java.util.Collection, int)
+     */
+    @Override
+    public final int drainTo(Collection<? super T> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        
+        int count = 0;
+        while (count < maxElements) {
+            final T e = this.poll();
+            if (e == null) {
+                break;
+            }
+            
+            c.add(e);
+            count++;
+        }
+        
+        return count;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.AbstractCollection#iterator()
+     */
+    @Override
+    public final Iterator<T> iterator() {
+        return new ElementIterator();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.AbstractCollection#toArray()
+     */
+    @Override
+    public final Object[] toArray() {
+        return this.snapshot().toArray();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.AbstractCollection#toArray(T[])
+     */
+    @Override
+    public final <AT> AT[] toArray(AT[] a) {
+        return this.snapshot().toArray(a);
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.AbstractQueue#clear()
+     */
+    @Override
+    public final void clear() {
+        while (this.poll() != null);
+    }
+    
+    /**
+     * Adds the element to its key's queue, the caller MUST already hold a {@link #free} permit
+     */
+    private void enqueue(T e) {
+        final KeyQueue<K, T> queue = this.getOrCreateQueue(e);
+        synchronized (queue) {
+            queue.elements.add(e);
+            
+            //Only a key that is neither in the ring nor held by a consumer is put into the ready ring
+            if (!queue.ready) {
+                queue.ready = true;
+                this.addReadyKey(queue);
+            }
+        }
+        
+        this.available.release();
+    }
+    
+    /**
+     * Removes the next element in round-robin key order, the caller MUST already hold an {@link #available} permit
+     * which guarantees an element will be found.
+     */
+    private T dequeue() {
+        while (true) {
+            final KeyQueue<K, T> queue = this.readyKeys.poll();
+            if (queue == null) {
+                //Another consumer is between taking a key off the ring and putting it back
+                this.awaitReadyKey();
+                continue;
+            }
+            
+            final T e;
+            synchronized (queue) {
+                e = queue.elements.poll();
+                
+                //Key still has elements, send it to the back of the ring, otherwise retire it until the next enqueue
+                if (queue.elements.isEmpty()) {
+                    queue.ready = false;
+                }
+                else {
+                    this.addReadyKey(queue);
+                }
+            }
+            
+            if (e == null) {
+                //Stale ring entry left behind by remove(Object)
+                continue;
+            }
+            
+            this.free.release();
+            return e;
+        }
+    }
+    
+    /**
+     * Appends the key to the tail of the ready ring, waking any consumers waiting for a key
+     */
+    private void addReadyKey(KeyQueue<K, T> queue) {
+        this.readyKeys.add(queue);
+        
+        //The waiter count is incremented before the waiter checks the ring so either it sees this key or we see it
+        if (this.readyKeysWaiters.get() > 0) {
+            synchronized (this.readyKeysMonitor) {
+                this.readyKeysMonitor.notifyAll();
+            }
+        }
+    }
+    
+    /**
+     * Waits until the ready ring has a key. The caller already holds an {@link #available} permit so a key is
+     * about to be added, the wait is not interruptible but the interrupt status is preserved.
+     */
+    private void awaitReadyKey() {
+        boolean interrupted = false;
+        synchronized (this.readyKeysMonitor) {
+            this.readyKeysWaiters.incrementAndGet();
+            try {
+                while (this.readyKeys.isEmpty()) {
+                    try {
+                        this.readyKeysMonitor.wait();
+                    }
+                    catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            finally {
+                this.readyKeysWaiters.decrementAndGet();
+            }
+        }
+        
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * @return The KeyQueue to use for the specified element, created if one does not already exist
+     */
+    private KeyQueue<K, T> getOrCreateQueue(T e) {
+        final K key = this.getElementKey(e);
+        KeyQueue<K, T> queue = this.keyedQueues.get(key);
+        if (queue == null) {
+            queue = new KeyQueue<K, T>(key);
+            queue = ConcurrentMapUtils.putIfAbsent(this.keyedQueues, key, queue);
+        }
+        return queue;
+    }
+    
+    /**
+     * @return A point in time copy of the elements in the queue
+     */
+    private List<T> snapshot() {
+        final List<T> elements = new ArrayList<T>(this.size());
+        for (final KeyQueue<K, T> queue : this.keyedQueues.values()) {
+            elements.addAll(queue.elements);
+        }
+        return elements;
+    }
+    
+    /**
+     * Elements queued for a single key along with its membership in the ready ring. Writes to elements and ready MUST
+     * be made while holding the KeyQueue's monitor, elements may be read without it.
+     */
+    private static final class KeyQueue<K, T> {
+        private final K key;
+        private final Queue<T> elements = new ConcurrentLinkedQueue<T>();
+        //true while the key is in the ready ring or has been taken off it by a consumer that has not yet released it
+        private boolean ready = false;
+        
+        public KeyQueue(K key) {
+            this.key = key;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(this.key);
+        }
+    }
+    
+    /**
+     * Iterates over the elements of each KeyQueue in the keyedQueues Map
+     */
+    private final class ElementIterator implements Iterator<T> {
+        private final Iterator<KeyQueue<K, T>> queueIterator;
+        private Iterator<T> elementIterator = null;
+        private T last = null;
+        
+        public ElementIterator() {
+            this.queueIterator = keyedQueues.values().iterator();
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.Iterator#hasNext()
+         */
+        @Override
+        public boolean hasNext() {
+            while (this.elementIterator == null || !this.elementIterator.hasNext()) {
+                if (!this.queueIterator.hasNext()) {
+                    return false;
+                }
+                this.elementIterator = this.queueIterator.next().elements.iterator();
+            }
+            
+            return true;
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.Iterator#next()
+         */
+        @Override
+        public T next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            
+            this.last = this.elementIterator.next();
+            return this.last;
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.Iterator#remove()
+         */
+        @Override
+        public void remove() {
+            if (this.last == null) {
+                throw new IllegalStateException();
+            }
+            
+            ShardedQualityOfServiceBlockingQueue.this.remove(this.last);
+            this.last = null;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.AbstractCollection#toString()
+     */
+    @Override
+    public String toString() {
+        final StringBuilder str = new StringBuilder();
+        
+        str.append("{");
+        
+        for (final Iterator<Entry<K, KeyQueue<K, T>>> entryItr = this.keyedQueues.entrySet().iterator(); entryItr.hasNext(); ) {
+            final Entry<K, KeyQueue<K, T>> entry = entryItr.next();
+            str.append(entry.getKey()).append("=").append(entry.getValue().elements.size());
+            
+            if (entryItr.hasNext()) {
+                str.append(", ");
+            }
+        }
+        
+        str.append("}");
+        return str.toString();
+    }
+}
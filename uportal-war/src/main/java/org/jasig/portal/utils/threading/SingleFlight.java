@@ -0,0 +1,126 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils.threading;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces concurrent work for the same key into a single in-flight call. The first caller to
+ * {@link #join(Object)} a key becomes the leader and must {@link Ticket#complete(Object)} the
+ * ticket when done, all other callers that join before completion become followers and can
+ * {@link Ticket#await(long, TimeUnit)} the leader's result.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentMap<K, Call<V>> calls = new ConcurrentHashMap<K, Call<V>>();
+    
+    /**
+     * Join the in-flight call for the key, starting a new call if none exists
+     * 
+     * @return A ticket, if {@link Ticket#isLeader()} the caller MUST call {@link Ticket#complete(Object)}, typically in a finally block
+     */
+    public Ticket<K, V> join(K key) {
+        final Call<V> call = new Call<V>();
+        final Call<V> existingCall = this.calls.putIfAbsent(key, call);
+        if (existingCall != null) {
+            return new Ticket<K, V>(this, key, existingCall, false);
+        }
+        
+        return new Ticket<K, V>(this, key, call, true);
+    }
+    
+    /**
+     * @return The number of calls currently in flight
+     */
+    public int getInFlightCount() {
+        return this.calls.size();
+    }
+    
+    /**
+     * Handle to an in-flight call
+     */
+    public static final class Ticket<K, V> {
+        private final SingleFlight<K, V> singleFlight;
+        private final K key;
+        private final Call<V> call;
+        private final boolean leader;
+        private boolean completed = false;
+        
+        private Ticket(SingleFlight<K, V> singleFlight, K key, Call<V> call, boolean leader) {
+            this.singleFlight = singleFlight;
+            this.key = key;
+            this.call = call;
+            this.leader = leader;
+        }
+
+        /**
+         * @return true if this ticket started the call and is responsible for completing it
+         */
+        public boolean isLeader() {
+            return this.leader;
+        }
+        
+        /**
+         * Publish the result of the call to all followers and end the call, a subsequent
+         * {@link SingleFlight#join(Object)} for the key starts a new call. Only the first call to complete
+         * publishes a result, later calls are ignored.
+         * 
+         * @param result The result, may be null if the call produced no sharable result
+         * @throws IllegalStateException if this ticket is not the leader
+         */
+        public void complete(V result) {
+            if (!this.leader) {
+                throw new IllegalStateException("Only the leader can complete the call for: " + this.key);
+            }
+            
+            if (this.completed) {
+                return;
+            }
+            this.completed = true;
+            
+            this.singleFlight.calls.remove(this.key, this.call);
+            this.call.result = result;
+            this.call.latch.countDown();
+        }
+        
+        /**
+         * Wait for the leader to complete the call.
+         * 
+         * @return The result of the call, null if the leader produced no result or the timeout elapsed
+         */
+        public V await(long timeout, TimeUnit unit) throws InterruptedException {
+            if (!this.call.latch.await(timeout, unit)) {
+                return null;
+            }
+            
+            return this.call.result;
+        }
+    }
+    
+    private static final class Call<V> {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile V result;
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.utils.threading;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.scheduling.concurrent.ExecutorConfigurationSupport;
+
+/**
+ * Creates a {@link ThreadPerTaskExecutorService}. Thread naming, priority, group and daemon settings are configured
+ * the same way as for {@link DynamicThreadPoolExecutorFactoryBean}.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class ThreadPerTaskExecutorFactoryBean extends ExecutorConfigurationSupport implements FactoryBean<ExecutorService> {
+    private static final long serialVersionUID = 1L;
+
+    private int maxThreads = Integer.MAX_VALUE;
+    
+    private ThreadPerTaskExecutorService executorService;
+    
+    /**
+     * Maximum number of tasks that may run concurrently, defaults to {@link Integer#MAX_VALUE}
+     */
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    @Override
+    protected ExecutorService initializeExecutor(ThreadFactory threadFactory, RejectedExecutionHandler rejectedExecutionHandler) {
+        this.executorService = new ThreadPerTaskExecutorService(threadFactory, this.maxThreads);
+        return this.executorService;
+    }
+
+    @Override
+    public ExecutorService getObject() throws Exception {
+        return this.executorService;
+    }
+
+    @Override
+    public Class<? extends ExecutorService> getObjectType() {
+        return ThreadPerTaskExecutorService.class;
+    }
+
+    @Override
+    public boolean isSingleton() {
+        return true;
+    }
+}
@@ -0,0 +1,276 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.utils.threading;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link java.util.concurrent.ExecutorService} that runs every submitted task on its own newly created thread
+ * instead of queueing tasks for a fixed set of pooled threads. Tasks never wait behind other tasks, a task that
+ * blocks or hangs only ties up its own thread. The number of concurrently running tasks is capped by
+ * {@link #getMaxThreads()}, tasks submitted beyond that cap are rejected with a {@link RejectedExecutionException}.
+ * <p/>
+ * {@link #newTaskFor(Callable)} and {@link #newTaskFor(Runnable, Object)} return the submitted task as-is if it is
+ * already a {@link RunnableFuture} so callers that submit their own futures can cancel them directly.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class ThreadPerTaskExecutorService extends AbstractExecutorService {
+    private final Set<Thread> activeThreads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicLong completedTaskCount = new AtomicLong();
+    private final ThreadFactory threadFactory;
+    private final int maxThreads;
+    
+    private volatile int largestThreads = 0;
+    private volatile boolean shutdown = false;
+    
+    public ThreadPerTaskExecutorService(ThreadFactory threadFactory, int maxThreads) {
+        if (maxThreads <= 0) {
+            throw new IllegalArgumentException("maxThreads must be greater than 0");
+        }
+        
+        this.threadFactory = threadFactory;
+        this.maxThreads = maxThreads;
+    }
+    
+    /**
+     * @return The maximum number of tasks that may run concurrently
+     */
+    public int getMaxThreads() {
+        return this.maxThreads;
+    }
+    
+    /**
+     * @return The number of tasks currently running
+     */
+    public int getActiveCount() {
+        return this.activeCount.get();
+    }
+    
+    /**
+     * @return The largest number of tasks that have run concurrently
+     */
+    public int getLargestThreads() {
+        return this.largestThreads;
+    }
+    
+    /**
+     * @return The number of tasks that have completed execution
+     */
+    public long getCompletedTaskCount() {
+        return this.completedTaskCount.get();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+     */
+    @Override
+    public void execute(final Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        if (this.shutdown) {
+            throw new RejectedExecutionException("Executor has been shut down, " + command + " rejected");
+        }
+        
+        //Reserve a slot for the task
+        int active;
+        do {
+            active = this.activeCount.get();
+            if (active >= this.maxThreads) {
+                throw new RejectedExecutionException("Executor is running the maximum of " + this.maxThreads + " threads, " + command + " rejected");
+            }
+        } while (!this.activeCount.compareAndSet(active, active + 1));
+        
+        if (active + 1 > this.largestThreads) {
+            this.largestThreads = active + 1;
+        }
+        
+        final Thread thread;
+        try {
+            thread = this.threadFactory.newThread(new TaskRunner(command));
+            this.activeThreads.add(thread);
+            thread.start();
+        }
+        catch (RuntimeException e) {
+            this.taskComplete(null);
+            throw e;
+        }
+        catch (Error e) {
+            this.taskComplete(null);
+            throw e;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.ExecutorService#shutdown()
+     */
+    @Override
+    public void shutdown() {
+        this.shutdown = true;
+        
+        synchronized (this.activeCount) {
+            this.activeCount.notifyAll();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.ExecutorService#shutdownNow()
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        this.shutdown();
+        
+        for (final Thread thread : this.activeThreads) {
+            thread.interrupt();
+        }
+        
+        //Nothing is ever queued
+        return new ArrayList<Runnable>(0);
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.ExecutorService#isShutdown()
+     */
+    @Override
+    public boolean isShutdown() {
+        return this.shutdown;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.ExecutorService#isTerminated()
+     */
+    @Override
+    public boolean isTerminated() {
+        return this.shutdown && this.activeCount.get() == 0;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.ExecutorService#awaitTermination(long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        final long end = System.currentTimeMillis() + unit.toMillis(timeout);
+        
+        synchronized (this.activeCount) {
+            while (!this.isTerminated()) {
+                final long waitTime = end - System.currentTimeMillis();
+                if (waitTime <= 0) {
+                    return false;
+                }
+                
+                this.activeCount.wait(waitTime);
+            }
+        }
+        
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.AbstractExecutorService#newTaskFor(java.lang.Runnable, java.lang.Object)
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        if (runnable instanceof RunnableFuture) {
+            return (RunnableFuture<T>)runnable;
+        }
+        
+        return super.newTaskFor(runnable, value);
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.AbstractExecutorService#newTaskFor(java.util.concurrent.Callable)
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        if (callable instanceof RunnableFuture) {
+            return (RunnableFuture<T>)callable;
+        }
+        
+        return super.newTaskFor(callable);
+    }
+    
+    /**
+     * Releases the slot held by a task and wakes up any threads waiting for termination
+     */
+    private void taskComplete(Thread thread) {
+        if (thread != null) {
+            this.activeThreads.remove(thread);
+            this.completedTaskCount.incrementAndGet();
+        }
+        
+        if (this.activeCount.decrementAndGet() == 0 && this.shutdown) {
+            synchronized (this.activeCount) {
+                this.activeCount.notifyAll();
+            }
+        }
+    }
+    
+    /**
+     * Runs the task and releases its slot when complete
+     */
+    private final class TaskRunner implements Runnable {
+        private final Runnable task;
+        
+        public TaskRunner(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                this.task.run();
+            }
+            finally {
+                taskComplete(Thread.currentThread());
+            }
+        }
+
+        @Override
+        public String toString() {
+            return this.task.toString();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ThreadPerTaskExecutorService [activeCount=" + this.activeCount + ", largestThreads=" + this.largestThreads + 
+                ", maxThreads=" + this.maxThreads + ", completedTaskCount=" + this.completedTaskCount + 
+                ", shutdown=" + this.shutdown + "]";
+    }
+}
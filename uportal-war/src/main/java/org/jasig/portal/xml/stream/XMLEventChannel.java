@@ -0,0 +1,204 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.xml.stream;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Bounded channel that connects an {@link XMLEventWriter} used by a producer thread to an
+ * {@link XMLEventReader} used by a consumer thread. The writer blocks when the channel is full
+ * and the reader blocks until the next event is available.
+ * <p>
+ * Neither side waits forever, if the other side doesn't make progress within the configured
+ * timeout the waiting side fails. Closing the reader abandons the channel causing the producer's
+ * next write to fail.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class XMLEventChannel {
+    private static final Object END_OF_CHANNEL = new Object();
+    
+    private final BlockingQueue<Object> events;
+    private final long timeout;
+    private final XMLEventWriter eventWriter = new ChannelXMLEventWriter();
+    private final XMLEventReader eventReader = new ChannelXMLEventReader();
+    private volatile boolean abandoned = false;
+    
+    /**
+     * @param capacity Maximum number of events buffered between the writer and the reader
+     * @param timeout Maximum time in milliseconds either side waits on the other
+     */
+    public XMLEventChannel(int capacity, long timeout) {
+        this.events = new ArrayBlockingQueue<Object>(capacity);
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return The writer side of the channel, must only be used by the producer thread
+     */
+    public XMLEventWriter getEventWriter() {
+        return this.eventWriter;
+    }
+
+    /**
+     * @return The reader side of the channel, must only be used by the consumer thread
+     */
+    public XMLEventReader getEventReader() {
+        return this.eventReader;
+    }
+    
+    /**
+     * Called by the producer if it fails, the reader will throw an exception wrapping the cause
+     * once all events written before the failure have been read
+     */
+    public void fail(Throwable cause) {
+        try {
+            this.put(new ChannelFailure(cause));
+        }
+        catch (XMLStreamException e) {
+            //Reader abandoned the channel or isn't reading, nobody to report the failure to
+        }
+    }
+    
+    private void put(Object event) throws XMLStreamException {
+        try {
+            if (this.abandoned || !this.events.offer(event, this.timeout, TimeUnit.MILLISECONDS)) {
+                throw new XMLStreamException("XMLEventChannel reader abandoned the channel or did not read an event within " + this.timeout + "ms");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XMLStreamException("Interrupted while writing to XMLEventChannel", e);
+        }
+    }
+    
+    private Object take() {
+        try {
+            final Object event = this.events.poll(this.timeout, TimeUnit.MILLISECONDS);
+            if (event == null) {
+                this.abandoned = true;
+                throw new IllegalStateException("XMLEventChannel writer did not write an event within " + this.timeout + "ms");
+            }
+            return event;
+        }
+        catch (InterruptedException e) {
+            this.abandoned = true;
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading from XMLEventChannel", e);
+        }
+    }
+    
+    private static final class ChannelFailure {
+        private final Throwable cause;
+
+        public ChannelFailure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+    
+    private final class ChannelXMLEventWriter extends XMLEventBufferWriter {
+        private boolean closed = false;
+        
+        @Override
+        public void add(XMLEvent event) throws XMLStreamException {
+            put(event);
+        }
+
+        @Override
+        public void add(XMLEventReader reader) throws XMLStreamException {
+            while (reader.hasNext()) {
+                put(reader.nextEvent());
+            }
+        }
+
+        @Override
+        public void close() throws XMLStreamException {
+            if (!this.closed) {
+                this.closed = true;
+                put(END_OF_CHANNEL);
+            }
+        }
+    }
+    
+    private final class ChannelXMLEventReader extends BaseXMLEventReader {
+        private Object nextEvent;
+        
+        public ChannelXMLEventReader() {
+            super(null);
+        }
+        
+        private Object peekInternal() {
+            if (this.nextEvent == null) {
+                this.nextEvent = take();
+            }
+            
+            if (this.nextEvent instanceof ChannelFailure) {
+                throw new IllegalStateException("XMLEventChannel writer failed", ((ChannelFailure)this.nextEvent).cause);
+            }
+            
+            return this.nextEvent;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.peekInternal() != END_OF_CHANNEL;
+        }
+
+        @Override
+        public XMLEvent peek() throws XMLStreamException {
+            final Object event = this.peekInternal();
+            if (event == END_OF_CHANNEL) {
+                return null;
+            }
+            
+            return (XMLEvent)event;
+        }
+
+        @Override
+        protected XMLEvent internalNextEvent() throws XMLStreamException {
+            final Object event = this.peekInternal();
+            if (event == END_OF_CHANNEL) {
+                throw new XMLStreamException("No more events in XMLEventChannel");
+            }
+            
+            this.nextEvent = null;
+            return (XMLEvent)event;
+        }
+
+        @Override
+        public Object getProperty(String name) throws IllegalArgumentException {
+            return null;
+        }
+
+        @Override
+        public void close() throws XMLStreamException {
+            abandoned = true;
+            events.clear();
+        }
+    }
+}
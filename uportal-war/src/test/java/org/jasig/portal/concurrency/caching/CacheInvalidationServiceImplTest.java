@@ -0,0 +1,150 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.caching;
+
+import static junit.framework.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+
+import org.jasig.portal.IPortalInfoProvider;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class CacheInvalidationServiceImplTest {
+    private static final String CACHE_NAME = "testCache";
+    
+    @Mock private CacheManager cacheManager1;
+    @Mock private CacheManager cacheManager2;
+    @Mock private Ehcache cache1;
+    @Mock private Ehcache cache2;
+    @Mock private IPortalInfoProvider portalInfoProvider1;
+    @Mock private IPortalInfoProvider portalInfoProvider2;
+    @Mock private ICacheInvalidationHandler handler;
+    
+    private LocalCacheInvalidationTransport transport;
+    private CacheInvalidationServiceImpl service1;
+    private CacheInvalidationServiceImpl service2;
+    
+    @Before
+    public void setup() throws Exception {
+        this.transport = new LocalCacheInvalidationTransport();
+        
+        when(this.cacheManager1.getEhcache(CACHE_NAME)).thenReturn(this.cache1);
+        when(this.cacheManager2.getEhcache(CACHE_NAME)).thenReturn(this.cache2);
+        when(this.portalInfoProvider1.getServerName()).thenReturn("server1");
+        when(this.portalInfoProvider2.getServerName()).thenReturn("server2");
+        
+        this.service1 = this.createService(this.cacheManager1, this.portalInfoProvider1, this.transport);
+        this.service2 = this.createService(this.cacheManager2, this.portalInfoProvider2, this.transport);
+    }
+    
+    private CacheInvalidationServiceImpl createService(CacheManager cacheManager, IPortalInfoProvider portalInfoProvider,
+            ICacheInvalidationTransport cacheInvalidationTransport) throws Exception {
+        final CacheInvalidationServiceImpl service = new CacheInvalidationServiceImpl();
+        service.setCacheManager(cacheManager);
+        service.setPortalInfoProvider(portalInfoProvider);
+        service.setCacheInvalidationTransport(cacheInvalidationTransport);
+        service.afterPropertiesSet();
+        return service;
+    }
+    
+    @Test
+    public void testInvalidateKey() {
+        this.service1.invalidate(CACHE_NAME, "key1");
+        verify(this.cache1).remove("key1");
+        verifyZeroInteractions(this.cache2);
+        
+        this.service1.receiveInvalidations();
+        this.service2.receiveInvalidations();
+        
+        verify(this.cache1).remove("key1");
+        verify(this.cache2).remove("key1");
+        
+        //Nothing new to apply
+        this.service2.receiveInvalidations();
+        verify(this.cache2).remove("key1");
+        assertEquals(1, this.service2.getLastSequence());
+    }
+    
+    @Test
+    public void testInvalidateAllAndPeers() {
+        this.service1.invalidateAll(CACHE_NAME);
+        this.service1.invalidatePeers(CACHE_NAME, "key2");
+        verify(this.cache1).removeAll();
+        verify(this.cache1, never()).remove("key2");
+        
+        this.service2.receiveInvalidations();
+        verify(this.cache2).removeAll();
+        verify(this.cache2).remove("key2");
+    }
+    
+    @Test
+    public void testHandler() {
+        this.service2.registerHandler(CACHE_NAME, this.handler);
+        
+        this.service1.invalidate(CACHE_NAME, Arrays.asList("key1", "key2"));
+        this.service1.invalidateAll(CACHE_NAME);
+        this.service2.receiveInvalidations();
+        
+        verify(this.handler).invalidate("key1");
+        verify(this.handler).invalidate("key2");
+        verify(this.handler).invalidateAll();
+        verifyZeroInteractions(this.cache2);
+    }
+    
+    @Test
+    public void testMissingSequence() throws Exception {
+        final ICacheInvalidationTransport gapTransport = mock(ICacheInvalidationTransport.class);
+        when(gapTransport.getLatestSequence()).thenReturn(0l);
+        final CacheInvalidationServiceImpl service = this.createService(this.cacheManager2, this.portalInfoProvider2, gapTransport);
+        
+        //Sequence 1 is still being committed when 2 is read
+        when(gapTransport.receive(0, Collections.<Long>emptyList(), 1000)).thenReturn(
+                Arrays.asList(new CacheInvalidation(2, "server1", CACHE_NAME, "key2")));
+        service.receiveInvalidations();
+        verify(this.cache2).remove("key2");
+        assertEquals(2, service.getLastSequence());
+        assertEquals(1, service.getMissingSequenceCount());
+        
+        when(gapTransport.receive(2, Collections.singletonList(1l), 1000)).thenReturn(
+                Arrays.asList(new CacheInvalidation(1, "server1", CACHE_NAME, "key1")));
+        service.receiveInvalidations();
+        verify(this.cache2).remove("key1");
+        assertEquals(2, service.getLastSequence());
+        assertEquals(0, service.getMissingSequenceCount());
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.locking;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.jasig.portal.concurrency.locking.IClusterLockService.TryLockFunctionResult;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.google.common.base.Function;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ClusterLockServiceImplLeaseTest {
+    private static final String MUTEX_NAME = "testMutex";
+    
+    @Mock private IClusterLockDao clusterLockDao;
+    private ExecutorService executorService;
+    private ClusterLockServiceImpl clusterLockService;
+    
+    @Before
+    public void setup() {
+        this.executorService = Executors.newCachedThreadPool();
+        
+        this.clusterLockService = new ClusterLockServiceImpl();
+        this.clusterLockService.setClusterLockDao(this.clusterLockDao);
+        this.clusterLockService.setLockMonitorExecutorService(this.executorService);
+        this.clusterLockService.setUseLeases(true);
+        this.clusterLockService.setLeaseRenewalRate(Duration.millis(10));
+        
+        final ClusterMutex clusterMutex = new ClusterMutex(MUTEX_NAME);
+        clusterMutex.lock("server1");
+        when(this.clusterLockDao.getLock(MUTEX_NAME)).thenReturn(true);
+        when(this.clusterLockDao.getClusterMutex(MUTEX_NAME)).thenReturn(clusterMutex);
+    }
+    
+    @After
+    public void tearDown() {
+        this.executorService.shutdownNow();
+    }
+    
+    @Test
+    public void testLeaseRenewal() throws Exception {
+        when(this.clusterLockDao.updateLocks(Collections.singletonList(MUTEX_NAME))).thenReturn(1);
+        
+        final TryLockFunctionResult<Long> result = this.clusterLockService.doInTryLock(MUTEX_NAME, new Function<String, Long>() {
+            @Override
+            public Long apply(String input) {
+                sleep(100);
+                assertTrue(clusterLockService.isLockOwner(MUTEX_NAME));
+                return clusterLockService.getFencingToken(MUTEX_NAME);
+            }
+        });
+        
+        assertTrue(result.isExecuted());
+        assertEquals(Long.valueOf(1), result.getResult());
+        assertEquals(-1, this.clusterLockService.getFencingToken(MUTEX_NAME));
+        assertEquals(0, this.clusterLockService.getHeldLockCount());
+        
+        verify(this.clusterLockDao, atLeastOnce()).updateLocks(Collections.singletonList(MUTEX_NAME));
+        verify(this.clusterLockDao, never()).updateLock(MUTEX_NAME);
+        verify(this.clusterLockDao).releaseLock(MUTEX_NAME);
+    }
+    
+    @Test
+    public void testLeaseLost() throws Exception {
+        when(this.clusterLockDao.updateLocks(anyCollectionOf(String.class))).thenReturn(0);
+        
+        final TryLockFunctionResult<Boolean> result = this.clusterLockService.doInTryLock(MUTEX_NAME, new Function<String, Boolean>() {
+            @Override
+            public Boolean apply(String input) {
+                assertTrue(clusterLockService.isLockOwner(MUTEX_NAME));
+                
+                //Another server takes over the mutex
+                final ClusterMutex clusterMutex = new ClusterMutex(MUTEX_NAME);
+                clusterMutex.lock("server2");
+                clusterMutex.unlock();
+                clusterMutex.lock("server2");
+                when(clusterLockDao.getClusterMutex(MUTEX_NAME)).thenReturn(clusterMutex);
+                
+                sleep(100);
+                return clusterLockService.isLockOwner(MUTEX_NAME);
+            }
+        });
+        
+        assertTrue(result.isExecuted());
+        assertFalse(result.getResult());
+        verify(this.clusterLockDao).releaseLock(MUTEX_NAME);
+    }
+    
+    @Test
+    public void testLeaseNotAcquired() throws Exception {
+        when(this.clusterLockDao.getLock(MUTEX_NAME)).thenReturn(false);
+        
+        final TryLockFunctionResult<Boolean> result = this.clusterLockService.doInTryLock(MUTEX_NAME, new Function<String, Boolean>() {
+            @Override
+            public Boolean apply(String input) {
+                return true;
+            }
+        });
+        
+        assertFalse(result.isExecuted());
+        verify(this.clusterLockDao, never()).releaseLock(MUTEX_NAME);
+    }
+    
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.locking;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.Date;
+import java.util.List;
+
+import org.jasig.portal.concurrency.IEntityLock;
+import org.jasig.portal.concurrency.IEntityLockService;
+import org.jasig.portal.groups.IEntityGroup;
+import org.junit.Test;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class EntityLockTableTest {
+    private static final Class GROUP_CLASS = IEntityGroup.class;
+    
+    @Test
+    public void testWriteLockIsComplete() {
+        final EntityLockTable lockTable = new EntityLockTable();
+        final Date now = new Date();
+        final IEntityLock writeLock = newLock("1", IEntityLockService.WRITE_LOCK, now.getTime() + 60000, "owner1");
+        
+        assertNull(lockTable.findIfComplete(now, GROUP_CLASS, "1"));
+        
+        lockTable.add(writeLock);
+        assertTrue(lockTable.contains(writeLock));
+        
+        final List<IEntityLock> locks = lockTable.findIfComplete(now, GROUP_CLASS, "1");
+        assertEquals(1, locks.size());
+        assertEquals(writeLock, locks.get(0));
+        
+        //Lookups on other entities are not answered
+        assertNull(lockTable.findIfComplete(now, GROUP_CLASS, "2"));
+        
+        lockTable.remove(writeLock);
+        assertFalse(lockTable.contains(writeLock));
+        assertNull(lockTable.findIfComplete(now, GROUP_CLASS, "1"));
+        assertEquals(0, lockTable.size());
+    }
+    
+    @Test
+    public void testReadLocksAreNotComplete() {
+        final EntityLockTable lockTable = new EntityLockTable();
+        final Date now = new Date();
+        final IEntityLock readLock = newLock("1", IEntityLockService.READ_LOCK, now.getTime() + 60000, "owner1");
+        
+        lockTable.add(readLock);
+        assertTrue(lockTable.contains(readLock));
+        
+        //Other servers may hold read locks on the same entity
+        assertNull(lockTable.findIfComplete(now, GROUP_CLASS, "1"));
+    }
+    
+    @Test
+    public void testUpdate() {
+        final EntityLockTable lockTable = new EntityLockTable();
+        final Date now = new Date();
+        final IEntityLock lock = newLock("1", IEntityLockService.READ_LOCK, now.getTime() + 60000, "owner1");
+        
+        lockTable.add(lock);
+        
+        final Date newExpiration = new Date(now.getTime() + 120000);
+        lockTable.update(lock, newExpiration, IEntityLockService.WRITE_LOCK);
+        
+        assertFalse(lockTable.contains(lock));
+        assertTrue(lockTable.contains(newLock("1", IEntityLockService.WRITE_LOCK, newExpiration.getTime(), "owner1")));
+        assertEquals(1, lockTable.findIfComplete(now, GROUP_CLASS, "1").size());
+        
+        //Changes to the lock object do not affect the table
+        ((EntityLockImpl) lock).setExpirationTime(new Date(0));
+        assertEquals(1, lockTable.size());
+    }
+    
+    @Test
+    public void testDeleteExpired() {
+        final EntityLockTable lockTable = new EntityLockTable();
+        final long now = System.currentTimeMillis();
+        final IEntityLock expiredLock = newLock("1", IEntityLockService.WRITE_LOCK, now - 1000, "owner1");
+        final IEntityLock unexpiredLock = newLock("2", IEntityLockService.WRITE_LOCK, now + 60000, "owner1");
+        
+        lockTable.add(expiredLock);
+        lockTable.add(unexpiredLock);
+        
+        //Expired locks are ignored by lookups
+        assertNull(lockTable.findIfComplete(new Date(now), GROUP_CLASS, "1"));
+        
+        assertEquals(1, lockTable.deleteExpired(new Date(now)));
+        assertFalse(lockTable.contains(expiredLock));
+        assertTrue(lockTable.contains(unexpiredLock));
+        
+        lockTable.clear();
+        assertEquals(0, lockTable.size());
+    }
+    
+    private IEntityLock newLock(String key, int lockType, long expiration, String owner) {
+        return new EntityLockImpl(GROUP_CLASS, key, lockType, new Date(expiration), owner);
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.portlet.ActionRequest;
+import javax.xml.namespace.QName;
+
+import org.codehaus.jackson.map.AnnotationIntrospector;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.introspect.JacksonAnnotationIntrospector;
+import org.codehaus.jackson.xc.JaxbAnnotationIntrospector;
+import org.jasig.portal.events.handlers.db.BinaryPortalEventCodec;
+import org.jasig.portal.security.SystemPerson;
+import org.jasig.portal.url.UrlState;
+import org.jasig.portal.url.UrlType;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class BinaryPortalEventCodecTest {
+    private final BinaryPortalEventCodec codec = new BinaryPortalEventCodec();
+    
+    @Test
+    public void testRoundTrip() throws Exception {
+        final ObjectMapper mapper = createObjectMapper();
+        
+        for (final PortalEvent event : generateEvents()) {
+            final byte[] data = this.codec.encode(event);
+            final PortalEvent decodedEvent = this.codec.decode(data, event.getClass());
+            
+            //Transient state like the IPerson is lost in both formats, compare with the JSON round trip
+            final PortalEvent jsonEvent = mapper.readValue(new StringReader(mapper.writeValueAsString(event)), event.getClass());
+            
+            assertEquals(event.getClass(), decodedEvent.getClass());
+            assertEquals(event.getTimestamp(), decodedEvent.getTimestamp());
+            assertEquals(jsonEvent.toString(), decodedEvent.toString());
+        }
+    }
+    
+    @Test
+    public void testSmallerThanJson() throws Exception {
+        final ObjectMapper mapper = createObjectMapper();
+        
+        for (final PortalEvent event : generateEvents()) {
+            final byte[] data = this.codec.encode(event);
+            final byte[] json = mapper.writeValueAsBytes(event);
+            assertTrue(event.getClass().getSimpleName() + " binary " + data.length + " >= json " + json.length, data.length < json.length);
+        }
+    }
+    
+    @Test
+    public void testSupportedTypes() throws Exception {
+        assertFalse(this.codec.isSupported(PortalEvent.class));
+        assertFalse(this.codec.isSupported(PortletExecutionEvent.class));
+        for (final PortalEvent event : generateEvents()) {
+            assertTrue(event.getClass().getName(), this.codec.isSupported(event.getClass()));
+        }
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testFormatVersionMismatch() throws Exception {
+        final LogoutEvent event = new LogoutEvent(createEventBuilder());
+        final byte[] data = this.codec.encode(event);
+        
+        //Corrupt the format version
+        data[0] = (byte)(data[0] + 1);
+        this.codec.decode(data, LogoutEvent.class);
+    }
+    
+    @Test
+    public void testSchemaChangeTolerated() throws Exception {
+        final OriginalSchemaEvent event = new OriginalSchemaEvent(createEventBuilder());
+        final byte[] data = this.codec.encode(event);
+        
+        //Read the data as if the event class had changed since it was written
+        final ChangedSchemaEvent decodedEvent = this.codec.decode(data, ChangedSchemaEvent.class);
+        
+        assertEquals(event.getTimestamp(), decodedEvent.getTimestamp());
+        assertEquals(event.getUserName(), decodedEvent.getUserName());
+        assertEquals("kept", decodedEvent.kept);
+        assertEquals(42, decodedEvent.added);
+        assertEquals(0, decodedEvent.changed);
+        assertEquals(ChangedMode.FIRST, decodedEvent.reordered);
+        assertNull(decodedEvent.removedConstant);
+    }
+    
+    static ObjectMapper createObjectMapper() {
+        final ObjectMapper mapper = new ObjectMapper();
+        final AnnotationIntrospector pair = new AnnotationIntrospector.Pair(new JacksonAnnotationIntrospector(), new JaxbAnnotationIntrospector());
+        mapper.getDeserializationConfig().withAnnotationIntrospector(pair);
+        mapper.getSerializationConfig().withAnnotationIntrospector(pair);
+        return mapper;
+    }
+    
+    private PortalEvent.PortalEventBuilder createEventBuilder() {
+        final String sessionId = "1234567890123_system_AAAAAAAAAAA";
+        return new PortalEvent.PortalEventBuilder(this, "example.com", sessionId, SystemPerson.INSTANCE);
+    }
+    
+    /**
+     * @return One of each event type, also used by {@link BinaryPortalEventCodecTester}
+     */
+    List<PortalEvent> generateEvents() {
+        final PortalEvent.PortalEventBuilder eventBuilder = createEventBuilder();
+        
+        final Set<String> groups = ImmutableSet.of("Student", "Employee");
+        final Map<String, List<String>> attributes = ImmutableMap.of("username", (List<String>)ImmutableList.of("system"), "roles", (List<String>)ImmutableList.of("student", "employee"));
+        final Map<String, List<String>> parameters = ImmutableMap.<String, List<String>>of(ActionRequest.ACTION_NAME, ImmutableList.of("foobar"));
+        
+        final List<PortalEvent> events = new ArrayList<PortalEvent>();
+        events.add(new LoginEvent(eventBuilder, groups, attributes));
+        events.add(new LogoutEvent(eventBuilder));
+        events.add(new PortalRenderEvent(eventBuilder, "/f/u12l1s4/normal/render.uP", 42, UrlState.NORMAL, UrlType.RENDER, parameters, "u12l1n5"));
+        events.add(new FolderAddedToLayoutPortalEvent(eventBuilder, SystemPerson.INSTANCE, 1, "n32"));
+        events.add(new FolderMovedInLayoutPortalEvent(eventBuilder, SystemPerson.INSTANCE, 1, "n12", "n32"));
+        events.add(new FolderDeletedFromLayoutPortalEvent(eventBuilder, SystemPerson.INSTANCE, 1, "n24", "n32", "My Tab"));
+        events.add(new PortletAddedToLayoutPortalEvent(eventBuilder, SystemPerson.INSTANCE, 1, "n32", "portletA"));
+        events.add(new PortletMovedInLayoutPortalEvent(eventBuilder, SystemPerson.INSTANCE, 1, "n32", "n24", "portletA"));
+        events.add(new PortletDeletedFromLayoutPortalEvent(eventBuilder, SystemPerson.INSTANCE, 1, "n24", "portletA"));
+        events.add(new PortletActionExecutionEvent(eventBuilder, "portletA", 5, parameters));
+        events.add(new PortletEventExecutionEvent(eventBuilder, "portletA", 7, ImmutableMap.<String, List<String>>of(), new QName("http://www.jasig.org/foo", "event", "e")));
+        events.add(new PortletRenderHeaderExecutionEvent(eventBuilder, "portletA", 11, ImmutableMap.<String, List<String>>of(), true));
+        events.add(new PortletRenderExecutionEvent(eventBuilder, "portletA", 13, ImmutableMap.<String, List<String>>of(), true, false));
+        events.add(new PortletResourceExecutionEvent(eventBuilder, "portletA", 17, ImmutableMap.<String, List<String>>of(), "someImage.jpg", false));
+        return events;
+    }
+    
+    private enum OriginalMode {
+        FIRST, SECOND;
+    }
+    
+    private enum ChangedMode {
+        ADDED, FIRST;
+    }
+    
+    private static final class OriginalSchemaEvent extends PortalEvent {
+        private static final long serialVersionUID = 1L;
+        
+        private String kept = "kept";
+        @SuppressWarnings("unused")
+        private String removed = "removed";
+        @SuppressWarnings("unused")
+        private String changed = "changed";
+        @SuppressWarnings("unused")
+        private OriginalMode reordered = OriginalMode.FIRST;
+        @SuppressWarnings("unused")
+        private OriginalMode removedConstant = OriginalMode.SECOND;
+        
+        @SuppressWarnings("unused")
+        private OriginalSchemaEvent() {
+            super();
+        }
+        
+        OriginalSchemaEvent(PortalEventBuilder eventBuilder) {
+            super(eventBuilder);
+        }
+    }
+    
+    private static final class ChangedSchemaEvent extends PortalEvent {
+        private static final long serialVersionUID = 1L;
+        
+        private String kept;
+        private long added = 42;
+        private long changed;
+        private ChangedMode reordered;
+        private ChangedMode removedConstant;
+        
+        @SuppressWarnings("unused")
+        private ChangedSchemaEvent() {
+            super();
+        }
+    }
+}
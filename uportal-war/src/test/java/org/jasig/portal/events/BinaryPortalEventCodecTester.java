@@ -0,0 +1,108 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.events;
+
+import java.io.StringReader;
+import java.util.List;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.jasig.portal.events.handlers.db.BinaryPortalEventCodec;
+
+/**
+ * Row size and encode/decode throughput comparison of {@link BinaryPortalEventCodec} and the JSON mapping used by
+ * the raw event store, run manually from the test classpath. Not picked up by surefire.
+ * <p/>
+ * Usage: BinaryPortalEventCodecTester [iterations]
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class BinaryPortalEventCodecTester {
+    private static final int RUNS = 3;
+    
+    public static void main(String[] args) throws Exception {
+        final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        
+        final BinaryPortalEventCodec codec = new BinaryPortalEventCodec();
+        final ObjectMapper mapper = BinaryPortalEventCodecTest.createObjectMapper();
+        final List<PortalEvent> events = new BinaryPortalEventCodecTest().generateEvents();
+        
+        System.out.println("Row size per event type (binary bytes / json bytes):");
+        long binarySize = 0, jsonSize = 0;
+        for (final PortalEvent event : events) {
+            final int binary = codec.encode(event).length;
+            final int json = mapper.writeValueAsBytes(event).length;
+            binarySize += binary;
+            jsonSize += json;
+            System.out.println("  " + event.getClass().getSimpleName() + ": " + binary + " / " + json);
+        }
+        System.out.println("Total for " + events.size() + " events: binary=" + binarySize + " bytes, json=" + jsonSize + " bytes");
+        
+        final long operations = (long)iterations * events.size();
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                for (final PortalEvent event : events) {
+                    codec.encode(event);
+                }
+            }
+            final long binaryEncode = System.nanoTime() - start;
+            
+            final byte[][] binaryData = new byte[events.size()][];
+            for (int e = 0; e < events.size(); e++) {
+                binaryData[e] = codec.encode(events.get(e));
+            }
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                for (int e = 0; e < events.size(); e++) {
+                    codec.decode(binaryData[e], events.get(e).getClass());
+                }
+            }
+            final long binaryDecode = System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                for (final PortalEvent event : events) {
+                    mapper.writeValueAsString(event);
+                }
+            }
+            final long jsonEncode = System.nanoTime() - start;
+            
+            final String[] jsonData = new String[events.size()];
+            for (int e = 0; e < events.size(); e++) {
+                jsonData[e] = mapper.writeValueAsString(events.get(e));
+            }
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                for (int e = 0; e < events.size(); e++) {
+                    mapper.readValue(new StringReader(jsonData[e]), events.get(e).getClass());
+                }
+            }
+            final long jsonDecode = System.nanoTime() - start;
+            
+            System.out.println("Run " + (run + 1) + " ops/s: " +
+                    "binary encode=" + opsPerSecond(operations, binaryEncode) + ", decode=" + opsPerSecond(operations, binaryDecode) + "; " +
+                    "json encode=" + opsPerSecond(operations, jsonEncode) + ", decode=" + opsPerSecond(operations, jsonDecode));
+        }
+    }
+    
+    private static long opsPerSecond(long operations, long nanos) {
+        return operations * 1000000000L / Math.max(1, nanos);
+    }
+}
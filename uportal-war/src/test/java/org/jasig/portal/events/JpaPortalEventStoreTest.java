@@ -22,9 +22,12 @@ package org.jasig.portal.events;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -40,6 +43,7 @@ import javax.xml.namespace.QName;
 import org.jasig.portal.concurrency.CallableWithoutResult;
 import org.jasig.portal.concurrency.FunctionWithoutResult;
 import org.jasig.portal.events.handlers.db.IPortalEventDao;
+import org.jasig.portal.events.handlers.db.PortletExecutionStatistics;
 import org.jasig.portal.security.SystemPerson;
 import org.jasig.portal.test.BaseJpaDaoTest;
 import org.joda.time.DateTime;
@@ -138,6 +142,12 @@ public class JpaPortalEventStoreTest extends BaseJpaDaoTest {
                 
                 assertEquals(originalEvents.get(0).getTimestampAsDate().getMillis(), oldestPortalEventTimestamp.getMillis());
                 assertEquals(originalEvents.get(originalEvents.size() - 1).getTimestampAsDate().getMillis(), newestPortalEventTimestamp.getMillis());
+                
+                //Oldest event in a range, the start is inclusive and the end exclusive
+                final DateTime secondEventTimestamp = originalEvents.get(1).getTimestampAsDate();
+                assertEquals(secondEventTimestamp.getMillis(), portalEventDao.getOldestPortalEventTimestamp(oldestPortalEventTimestamp.plusMillis(1), endDate).getMillis());
+                assertEquals(secondEventTimestamp.getMillis(), portalEventDao.getOldestPortalEventTimestamp(secondEventTimestamp, endDate).getMillis());
+                assertNull(portalEventDao.getOldestPortalEventTimestamp(startDate, oldestPortalEventTimestamp));
             }
         });
         
@@ -149,6 +159,148 @@ public class JpaPortalEventStoreTest extends BaseJpaDaoTest {
         verifyAggregateEvents(Collections.<PortalEvent>emptyList(), startDate, endDate);
     }
 
+    @Test
+    public void testAggregateEventsByType() throws Exception {
+        final DateTime startDate = DateTime.now().minusDays(1);
+        final DateTime endDate = DateTime.now().plusDays(1);
+        
+        final List<PortalEvent> originalEvents = generateEvents();
+        
+        execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                portalEventDao.storePortalEvents(originalEvents);
+            }
+        });
+        
+        execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                final Set<Class<? extends PortalEvent>> eventTypes = portalEventDao.getPortalEventTypes(startDate, endDate);
+                assertEquals(originalEvents.size(), eventTypes.size());
+                
+                //Only load login and render events
+                final Set<Class<? extends PortalEvent>> aggregatedTypes = new HashSet<Class<? extends PortalEvent>>();
+                aggregatedTypes.add(LoginEvent.class);
+                aggregatedTypes.add(PortletRenderExecutionEvent.class);
+                
+                final List<PortalEvent> portalEvents = new LinkedList<PortalEvent>();
+                portalEventDao.aggregatePortalEvents(startDate, endDate, -1, aggregatedTypes, new FunctionWithoutResult<PortalEvent>() {
+                    @Override
+                    protected void applyWithoutResult(PortalEvent input) {
+                        portalEvents.add(input);
+                    }
+                });
+                
+                assertEquals(2, portalEvents.size());
+                assertEquals(LoginEvent.class, portalEvents.get(0).getClass());
+                assertEquals(PortletRenderExecutionEvent.class, portalEvents.get(1).getClass());
+                
+                //Events of the other types were marked as aggregated without being loaded
+                assertEquals(Collections.emptySet(), portalEventDao.getPortalEventTypes(startDate, endDate));
+                portalEventDao.aggregatePortalEvents(startDate, endDate, -1, new FunctionWithoutResult<PortalEvent>() {
+                    @Override
+                    protected void applyWithoutResult(PortalEvent input) {
+                        fail("All events should be aggregated");
+                    }
+                });
+                
+                //Nothing is loaded for an empty set of types
+                portalEventDao.aggregatePortalEvents(startDate, endDate, -1, Collections.<Class<? extends PortalEvent>>emptySet(), new FunctionWithoutResult<PortalEvent>() {
+                    @Override
+                    protected void applyWithoutResult(PortalEvent input) {
+                        fail("No events should be loaded");
+                    }
+                });
+            }
+        });
+        
+        deleteEvents(originalEvents, startDate, endDate);
+    }
+    
+    @Test
+    public void testPortletExecutionStatistics() throws Exception {
+        final DateTime startDate = DateTime.now().minusDays(1);
+        final DateTime endDate = DateTime.now().plusDays(1);
+        
+        final List<PortalEvent> originalEvents = generateEvents();
+        
+        execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                portalEventDao.storePortalEvents(originalEvents);
+            }
+        });
+        
+        execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                final Set<Class<? extends PortalEvent>> executionTypes = new HashSet<Class<? extends PortalEvent>>();
+                executionTypes.add(PortletRenderExecutionEvent.class);
+                executionTypes.add(PortletActionExecutionEvent.class);
+                //Layout events have an fname but no execution time so are not counted
+                executionTypes.add(PortletAddedToLayoutPortalEvent.class);
+                
+                final Map<Class<? extends PortalEvent>, PortletExecutionStatistics> statistics = new HashMap<Class<? extends PortalEvent>, PortletExecutionStatistics>();
+                for (final PortletExecutionStatistics stats : portalEventDao.getPortletExecutionStatistics(startDate, endDate, executionTypes)) {
+                    assertEquals("portletA", stats.getFname());
+                    assertNull(statistics.put(stats.getEventType(), stats));
+                }
+                assertEquals(2, statistics.size());
+                
+                final PortletExecutionStatistics renderStats = statistics.get(PortletRenderExecutionEvent.class);
+                assertEquals(1, renderStats.getCount());
+                assertEquals(13, renderStats.getTotalExecutionTime());
+                assertEquals(13, renderStats.getMinExecutionTime());
+                assertEquals(13, renderStats.getMaxExecutionTime());
+                
+                final PortletExecutionStatistics actionStats = statistics.get(PortletActionExecutionEvent.class);
+                assertEquals(1, actionStats.getCount());
+                assertEquals(5, actionStats.getTotalExecutionTime());
+                
+                assertEquals(Collections.emptyList(), portalEventDao.getPortletExecutionStatistics(startDate, endDate, Collections.<Class<? extends PortalEvent>>emptySet()));
+            }
+        });
+        
+        deleteEvents(originalEvents, startDate, endDate);
+    }
+
+    @Test
+    public void testAggregateEventsByTypeAndPartition() throws Exception {
+        final DateTime startDate = DateTime.now().minusDays(1);
+        final DateTime endDate = DateTime.now().plusDays(1);
+        
+        final List<PortalEvent> originalEvents = generateEvents();
+        
+        execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                portalEventDao.storePortalEvents(originalEvents);
+            }
+        });
+        
+        execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                final List<PortalEvent> portalEvents = new LinkedList<PortalEvent>();
+                portalEventDao.aggregatePortalEvents(startDate, endDate, -1, Collections.<Class<? extends PortalEvent>>singleton(LoginEvent.class), 0, 1, new FunctionWithoutResult<PortalEvent>() {
+                    @Override
+                    protected void applyWithoutResult(PortalEvent input) {
+                        portalEvents.add(input);
+                    }
+                });
+                
+                assertEquals(1, portalEvents.size());
+                assertEquals(LoginEvent.class, portalEvents.get(0).getClass());
+                
+                //Events of the other types in the partition were marked as aggregated without being loaded
+                assertEquals(Collections.emptySet(), portalEventDao.getPortalEventTypes(startDate, endDate));
+            }
+        });
+        
+        deleteEvents(originalEvents, startDate, endDate);
+    }
+
     protected void verifyGetEvents(final List<PortalEvent> originalEvents, final DateTime startDate, final DateTime endDate) {
         execute(new CallableWithoutResult() {
             @Override
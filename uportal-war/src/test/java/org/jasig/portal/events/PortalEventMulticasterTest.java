@@ -0,0 +1,143 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jasig.portal.events.PortalEventMulticaster.OverflowPolicy;
+import org.jasig.portal.security.SystemPerson;
+import org.jasig.portal.spring.context.SynchronousApplicationListener;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.context.ApplicationListener;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class PortalEventMulticasterTest {
+    private final PortalEventMulticaster multicaster = new PortalEventMulticaster();
+    
+    @After
+    public void tearDown() throws Exception {
+        this.multicaster.destroy();
+    }
+    
+    @Test
+    public void testAsynchronousDelivery() throws Exception {
+        this.multicaster.afterPropertiesSet();
+        
+        final Thread publishingThread = Thread.currentThread();
+        final List<Thread> synchronousThreads = new CopyOnWriteArrayList<Thread>();
+        final List<Thread> asynchronousThreads = new CopyOnWriteArrayList<Thread>();
+        final CountDownLatch delivered = new CountDownLatch(2);
+        
+        this.multicaster.addApplicationListener(new SynchronousApplicationListener<PortalEvent>() {
+            @Override
+            public void onApplicationEvent(PortalEvent event) {
+                synchronousThreads.add(Thread.currentThread());
+            }
+        });
+        this.multicaster.addApplicationListener(new ApplicationListener<PortalEvent>() {
+            @Override
+            public void onApplicationEvent(PortalEvent event) {
+                asynchronousThreads.add(Thread.currentThread());
+                delivered.countDown();
+            }
+        });
+        
+        this.multicaster.multicastEvent(createEvent());
+        this.multicaster.multicastEvent(createEvent());
+        
+        assertEquals(2, synchronousThreads.size());
+        assertSame(publishingThread, synchronousThreads.get(0));
+        assertSame(publishingThread, synchronousThreads.get(1));
+        
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertTrue(asynchronousThreads.get(0) != publishingThread);
+    }
+    
+    @Test
+    public void testDropOnOverflow() throws Exception {
+        this.multicaster.setBufferSize(1);
+        this.multicaster.setOverflowPolicy(OverflowPolicy.DROP);
+        this.multicaster.afterPropertiesSet();
+        
+        //Block the consumer so the buffer fills up
+        final CountDownLatch received = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        this.multicaster.addApplicationListener(new ApplicationListener<PortalEvent>() {
+            @Override
+            public void onApplicationEvent(PortalEvent event) {
+                received.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        
+        this.multicaster.multicastEvent(createEvent());
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        
+        //One event fits in the buffer, the next two are dropped
+        this.multicaster.multicastEvent(createEvent());
+        this.multicaster.multicastEvent(createEvent());
+        this.multicaster.multicastEvent(createEvent());
+        
+        assertEquals(2, this.multicaster.getDroppedEventCount());
+        assertEquals(1, this.multicaster.getBufferedEventCount());
+        
+        release.countDown();
+    }
+    
+    @Test
+    public void testSynchronousWhenDisabled() throws Exception {
+        this.multicaster.setAsynchronous(false);
+        this.multicaster.afterPropertiesSet();
+        
+        final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+        this.multicaster.addApplicationListener(new ApplicationListener<PortalEvent>() {
+            @Override
+            public void onApplicationEvent(PortalEvent event) {
+                threads.add(Thread.currentThread());
+            }
+        });
+        
+        this.multicaster.multicastEvent(createEvent());
+        
+        assertEquals(1, threads.size());
+        assertSame(Thread.currentThread(), threads.get(0));
+    }
+    
+    private PortalEvent createEvent() {
+        final PortalEvent.PortalEventBuilder eventBuilder = new PortalEvent.PortalEventBuilder(this, "example.com", "1234567890123_system_AAAAAAAAAAA", SystemPerson.INSTANCE);
+        return new LogoutEvent(eventBuilder);
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.aggr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class IntervalAggregationBufferTest {
+    private final List<AggregationIntervalInfo> flushedIntervals = new ArrayList<AggregationIntervalInfo>();
+    private final List<Map<AggregatedGroupMapping, int[]>> flushedAccumulators = new ArrayList<Map<AggregatedGroupMapping, int[]>>();
+    
+    private final IntervalAggregationBuffer<int[]> buffer = new IntervalAggregationBuffer<int[]>() {
+        @Override
+        protected int[] createAccumulator() {
+            return new int[1];
+        }
+
+        @Override
+        protected void flush(AggregationIntervalInfo intervalInfo, Map<AggregatedGroupMapping, int[]> accumulators) {
+            flushedIntervals.add(intervalInfo);
+            flushedAccumulators.add(new LinkedHashMap<AggregatedGroupMapping, int[]>(accumulators));
+        }
+    };
+    
+    @Test
+    public void testAccumulateAndFlush() {
+        final AggregatedGroupMapping groupA = mock(AggregatedGroupMapping.class);
+        final AggregatedGroupMapping groupB = mock(AggregatedGroupMapping.class);
+        
+        final DateTime start = new DateTime(2012, 1, 6, 20, 0, 0, 0);
+        final AggregationIntervalInfo hour = new AggregationIntervalInfo(AggregationInterval.HOUR, start, start.plusHours(1), null, null);
+        final AggregationIntervalInfo day = new AggregationIntervalInfo(AggregationInterval.DAY, start.withHourOfDay(0), start.withHourOfDay(0).plusDays(1), null, null);
+        
+        buffer.getAccumulator(hour, groupA)[0]++;
+        buffer.getAccumulator(hour, groupA)[0]++;
+        buffer.getAccumulator(hour, groupB)[0]++;
+        buffer.getAccumulator(day, groupA)[0]++;
+        
+        assertTrue(flushedIntervals.isEmpty());
+        
+        buffer.flush(AggregationInterval.HOUR);
+        assertEquals(1, flushedIntervals.size());
+        assertSame(hour, flushedIntervals.get(0));
+        assertEquals(2, flushedAccumulators.get(0).size());
+        assertEquals(2, flushedAccumulators.get(0).get(groupA)[0]);
+        assertEquals(1, flushedAccumulators.get(0).get(groupB)[0]);
+        
+        //Flushing an empty interval writes nothing
+        buffer.flush(AggregationInterval.HOUR);
+        assertEquals(1, flushedIntervals.size());
+        
+        buffer.flushAll();
+        assertEquals(2, flushedIntervals.size());
+        assertSame(day, flushedIntervals.get(1));
+        assertEquals(1, flushedAccumulators.get(1).get(groupA)[0]);
+        assertTrue(buffer.isEmpty());
+    }
+    
+    @Test
+    public void testIntervalChangeDefersFlush() {
+        final AggregatedGroupMapping group = mock(AggregatedGroupMapping.class);
+        
+        final DateTime start = new DateTime(2012, 1, 6, 20, 0, 0, 0);
+        final AggregationIntervalInfo hour = new AggregationIntervalInfo(AggregationInterval.HOUR, start, start.plusHours(1), null, null);
+        final AggregationIntervalInfo nextHour = new AggregationIntervalInfo(AggregationInterval.HOUR, start.plusHours(1), start.plusHours(2), null, null);
+        
+        buffer.getAccumulator(hour, group)[0]++;
+        buffer.getAccumulator(nextHour, group)[0]++;
+        buffer.getAccumulator(hour, group)[0]++;
+        
+        //Nothing is written until the interval is flushed
+        assertTrue(flushedIntervals.isEmpty());
+        
+        buffer.flush(AggregationInterval.HOUR);
+        assertEquals(2, flushedIntervals.size());
+        assertSame(hour, flushedIntervals.get(0));
+        assertEquals(2, flushedAccumulators.get(0).get(group)[0]);
+        assertSame(nextHour, flushedIntervals.get(1));
+        assertEquals(1, flushedAccumulators.get(1).get(group)[0]);
+        assertTrue(buffer.isEmpty());
+    }
+}
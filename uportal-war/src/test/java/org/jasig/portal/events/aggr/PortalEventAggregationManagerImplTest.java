@@ -20,12 +20,21 @@
 package org.jasig.portal.events.aggr;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
@@ -35,6 +44,10 @@ import org.jasig.portal.concurrency.CallableWithoutResult;
 import org.jasig.portal.concurrency.FunctionWithoutResult;
 import org.jasig.portal.concurrency.locking.IClusterLockService;
 import org.jasig.portal.concurrency.locking.IClusterLockService.TryLockFunctionResult;
+import org.jasig.portal.events.LoginEvent;
+import org.jasig.portal.events.LogoutEvent;
+import org.jasig.portal.events.PortalEvent;
+import org.jasig.portal.events.PortletRenderExecutionEvent;
 import org.jasig.portal.events.aggr.IEventAggregatorStatus.ProcessingType;
 import org.jasig.portal.events.aggr.dao.DateDimensionDao;
 import org.jasig.portal.events.aggr.dao.IEventAggregationManagementDao;
@@ -48,6 +61,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
@@ -263,6 +278,135 @@ public class PortalEventAggregationManagerImplTest extends BaseJpaDaoTest {
             }
         });
         
-        verify(portalEventDao).aggregatePortalEvents(Mockito.any(DateTime.class), Mockito.any(DateTime.class), Mockito.eq(5000), Mockito.any(FunctionWithoutResult.class));
+        verify(portalEventDao).aggregatePortalEvents(Mockito.any(DateTime.class), Mockito.any(DateTime.class), Mockito.eq(5000), Mockito.anySet(), Mockito.any(FunctionWithoutResult.class));
+    }
+    
+    @Test
+    public void aggregateRawEventsPartition() throws Exception {
+        final TryLockFunctionResult<?> tryLockFunctionResult = mock(TryLockFunctionResult.class);
+        when(this.clusterLockService.doInTryLock(Mockito.anyString(), Mockito.any(Function.class))).thenReturn(tryLockFunctionResult);
+        
+        final IEventAggregatorStatus partitionStatus = mock(IEventAggregatorStatus.class);
+        when(this.eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, 1, true)).thenReturn(partitionStatus);
+        final IEventAggregatorStatus eventAggregatorStatus = mock(IEventAggregatorStatus.class);
+        when(this.eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, false)).thenReturn(eventAggregatorStatus);
+        
+        when(this.portalInfoProvider.getServerName()).thenReturn("TEST_SERVER_NAME");
+        
+        this.executeInTransaction(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                assertTrue(portalEventAggregationManager.doAggregateRawEvents(1, 4));
+            }
+        });
+        
+        verify(portalEventDao).aggregatePortalEvents(Mockito.any(DateTime.class), Mockito.any(DateTime.class), Mockito.eq(5000), Mockito.anySet(), Mockito.eq(1), Mockito.eq(4), Mockito.any(FunctionWithoutResult.class));
+        
+        //All events in the partition were aggregated, status records the partition is done to the end of the range
+        verify(partitionStatus).setLastEventDate(Mockito.any(DateTime.class));
+        verify(eventAggregationManagementDao).updateEventAggregatorStatus(partitionStatus);
+        verify(eventAggregationManagementDao).lockEventAggregatorStatus(eventAggregatorStatus);
+        verify(eventAggregatorStatus, never()).setLastEventDate(Mockito.any(DateTime.class));
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    public void completeAggregationIntervals() {
+        final AggregationIntervalHelper hourIntervalHelper = mock(AggregationIntervalHelper.class);
+        when(hourIntervalHelper.getIntervalInfo(Mockito.any(AggregationInterval.class), Mockito.any(DateTime.class))).thenAnswer(new Answer<AggregationIntervalInfo>() {
+            @Override
+            public AggregationIntervalInfo answer(InvocationOnMock invocation) throws Throwable {
+                if (invocation.getArguments()[0] != AggregationInterval.HOUR) {
+                    return null;
+                }
+                final DateTime start = ((DateTime)invocation.getArguments()[1]).hourOfDay().roundFloorCopy();
+                return new AggregationIntervalInfo(AggregationInterval.HOUR, start, start.plusHours(1), null, null);
+            }
+        });
+        portalEventAggregationManager.setIntervalHelper(hourIntervalHelper);
+        
+        final AggregatedIntervalConfig intervalConfig = mock(AggregatedIntervalConfig.class);
+        when(intervalConfig.isIncluded(Mockito.any(AggregationInterval.class))).thenReturn(true);
+        when(this.eventAggregationManagementDao.getDefaultAggregatedIntervalConfig()).thenReturn(intervalConfig);
+        
+        final IPortalEventAggregator<PortalEvent> portalEventAggregator = mock(IPortalEventAggregator.class);
+        portalEventAggregationManager.setPortalEventAggregators(Collections.singleton(portalEventAggregator));
+        
+        //Record the start of each hour that is completed
+        final List<DateTime> completedHours = new ArrayList<DateTime>();
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                final Map<AggregationInterval, AggregationIntervalInfo> intervals = (Map<AggregationInterval, AggregationIntervalInfo>)invocation.getArguments()[1];
+                completedHours.add(intervals.get(AggregationInterval.HOUR).getStart());
+                return null;
+            }
+        }).when(portalEventAggregator).handleIntervalBoundary(Mockito.eq(AggregationInterval.HOUR), Mockito.anyMap());
+        
+        final DateTime completedTo = new DateTime(2012, 1, 6, 10, 15, 0, 0);
+        final IEventAggregatorStatus eventAggregatorStatus = mock(IEventAggregatorStatus.class);
+        when(eventAggregatorStatus.getLastEventDate()).thenReturn(completedTo);
+        when(this.eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, true)).thenReturn(eventAggregatorStatus);
+        
+        final IEventAggregatorStatus partitionStatus0 = mock(IEventAggregatorStatus.class);
+        when(partitionStatus0.getLastEventDate()).thenReturn(completedTo.withTime(13, 10, 0, 0));
+        when(this.eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, 0, false)).thenReturn(partitionStatus0);
+        
+        //Partition 1 has not run, nothing can be completed
+        portalEventAggregationManager.doCompleteAggregationIntervals(2);
+        verify(portalEventAggregator, never()).handleIntervalBoundary(Mockito.any(AggregationInterval.class), Mockito.anyMap());
+        
+        final IEventAggregatorStatus partitionStatus1 = mock(IEventAggregatorStatus.class);
+        final DateTime completeTo = completedTo.withTime(12, 30, 0, 0);
+        when(partitionStatus1.getLastEventDate()).thenReturn(completeTo);
+        when(this.eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, 1, false)).thenReturn(partitionStatus1);
+        
+        //The only event after the 10:00 hour is at 11:20
+        when(portalEventDao.getOldestPortalEventTimestamp(completedTo.withTime(11, 0, 0, 0), completeTo)).thenReturn(completedTo.withTime(11, 20, 0, 0));
+        
+        //The 10:00 and 11:00 hours are complete in both partitions, 12:00 is not
+        portalEventAggregationManager.doCompleteAggregationIntervals(2);
+        verify(portalEventAggregator, times(2)).handleIntervalBoundary(Mockito.eq(AggregationInterval.HOUR), Mockito.anyMap());
+        assertEquals(Arrays.asList(completedTo.withTime(10, 0, 0, 0), completedTo.withTime(11, 0, 0, 0)), completedHours);
+        verify(eventAggregationManagementDao, times(2)).lockEventAggregatorStatus(eventAggregatorStatus);
+        verify(eventAggregatorStatus).setLastEventDate(completeTo);
+        verify(eventAggregationManagementDao).updateEventAggregatorStatus(eventAggregatorStatus);
+        
+        //The partly completed 12:00 hour is always handled, after it hours without events are skipped and the
+        //only event before partition 1 is done at 16:30 is at 13:05
+        completedHours.clear();
+        when(eventAggregatorStatus.getLastEventDate()).thenReturn(completeTo);
+        when(partitionStatus0.getLastEventDate()).thenReturn(completedTo.withTime(17, 10, 0, 0));
+        final DateTime laterCompleteTo = completedTo.withTime(16, 30, 0, 0);
+        when(partitionStatus1.getLastEventDate()).thenReturn(laterCompleteTo);
+        when(portalEventDao.getOldestPortalEventTimestamp(completedTo.withTime(13, 0, 0, 0), laterCompleteTo)).thenReturn(completedTo.withTime(13, 5, 0, 0));
+        
+        portalEventAggregationManager.doCompleteAggregationIntervals(2);
+        assertEquals(Arrays.asList(completedTo.withTime(12, 0, 0, 0), completedTo.withTime(13, 0, 0, 0)), completedHours);
+        verify(eventAggregatorStatus).setLastEventDate(laterCompleteTo);
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    public void getAggregatedEventTypes() {
+        final DateTime start = new DateTime(0);
+        final DateTime end = DateTime.now();
+        
+        final Set<Class<? extends PortalEvent>> storedEventTypes = new HashSet<Class<? extends PortalEvent>>();
+        storedEventTypes.add(LoginEvent.class);
+        storedEventTypes.add(LogoutEvent.class);
+        storedEventTypes.add(PortletRenderExecutionEvent.class);
+        when(portalEventDao.getPortalEventTypes(start, end)).thenReturn(storedEventTypes);
+        
+        final IPortalEventAggregator<PortalEvent> portalEventAggregator = mock(IPortalEventAggregator.class);
+        when(portalEventAggregator.supports(LogoutEvent.class)).thenReturn(true);
+        portalEventAggregationManager.setPortalEventAggregators(Collections.singleton(portalEventAggregator));
+        
+        final Set<Class<? extends PortalEvent>> eventTypes = portalEventAggregationManager.getAggregatedEventTypes(start, end);
+        
+        final Set<Class<? extends PortalEvent>> expectedEventTypes = new HashSet<Class<? extends PortalEvent>>();
+        expectedEventTypes.add(LoginEvent.class);
+        expectedEventTypes.add(LogoutEvent.class);
+        assertEquals(expectedEventTypes, eventTypes);
     }
 }
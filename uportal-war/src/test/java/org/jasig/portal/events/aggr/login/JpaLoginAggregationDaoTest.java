@@ -20,10 +20,15 @@
 package org.jasig.portal.events.aggr.login;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.naming.CompositeName;
@@ -41,6 +46,7 @@ import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.jasig.portal.groups.ICompositeGroupService;
 import org.jasig.portal.groups.IEntityGroup;
 import org.jasig.portal.test.BaseJpaDaoTest;
+import org.jasig.portal.utils.HyperLogLog;
 import org.joda.time.DateMidnight;
 import org.joda.time.DateTime;
 import org.joda.time.LocalTime;
@@ -309,4 +315,161 @@ public class JpaLoginAggregationDaoTest extends BaseJpaDaoTest {
             }
         });
     }
+    
+    @Test
+    public void testLoginAggregationUniqueUserSketch() throws Exception {
+        final IEntityGroup entityGroupA = mock(IEntityGroup.class);
+        when(entityGroupA.getServiceName()).thenReturn(new CompositeName("local"));
+        when(entityGroupA.getName()).thenReturn("Group A");
+        when(compositeGroupService.findGroup("local.0")).thenReturn(entityGroupA);
+        
+        final DateTime instant = new DateTime(1328539267000l); //just a random time
+        final DateMidnight instantDate = instant.toDateMidnight();
+        final LocalTime instantTime = instant.toLocalTime();
+        
+        this.executeInTransaction(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                dateDimensionDao.createDateDimension(instantDate, 0, null);
+                timeDimensionDao.createTimeDimension(instantTime);
+            }
+        });
+        
+        this.executeInTransaction(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                final DateDimension dateDimension = dateDimensionDao.getDateDimensionByDate(instantDate);
+                final TimeDimension timeDimension = timeDimensionDao.getTimeDimensionByTime(instantTime);
+                final AggregatedGroupMapping groupA = aggregatedGroupLookupDao.getGroupMapping("local.0");
+                
+                final LoginAggregationImpl loginAggregation = loginAggregationDao.createLoginAggregation(dateDimension, timeDimension, AggregationInterval.DAY, groupA);
+                loginAggregation.countUser("joe");
+                loginAggregation.countUser("john");
+                
+                //Names seen so far are moved into the sketch
+                loginAggregation.useUniqueUserSketch(12);
+                loginAggregation.countUser("levi");
+                loginAggregation.countUser("john");
+                
+                loginAggregationDao.updateLoginAggregation(loginAggregation);
+            }
+        });
+        
+        this.executeInTransaction(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                final DateDimension dateDimension = dateDimensionDao.getDateDimensionByDate(instantDate);
+                final TimeDimension timeDimension = timeDimensionDao.getTimeDimensionByTime(instantTime);
+                final AggregatedGroupMapping groupA = aggregatedGroupLookupDao.getGroupMapping("local.0");
+                
+                final LoginAggregationImpl loginAggregation = loginAggregationDao.getLoginAggregation(dateDimension, timeDimension, AggregationInterval.DAY, groupA);
+                assertTrue(loginAggregation.isUniqueUserSketch());
+                assertEquals(4, loginAggregation.getLoginCount());
+                assertEquals(3, loginAggregation.getUniqueLoginCount());
+                
+                loginAggregation.countUser("erin");
+                loginAggregation.intervalComplete(1440);
+                loginAggregationDao.updateLoginAggregation(loginAggregation);
+            }
+        });
+        
+        this.execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                final DateDimension dateDimension = dateDimensionDao.getDateDimensionByDate(instantDate);
+                final TimeDimension timeDimension = timeDimensionDao.getTimeDimensionByTime(instantTime);
+                final AggregatedGroupMapping groupA = aggregatedGroupLookupDao.getGroupMapping("local.0");
+                
+                final LoginAggregationImpl loginAggregation = loginAggregationDao.getLoginAggregation(dateDimension, timeDimension, AggregationInterval.DAY, groupA);
+                assertEquals(5, loginAggregation.getLoginCount());
+                assertEquals(4, loginAggregation.getUniqueLoginCount());
+                
+                //The sketch is kept after the interval completes so it can be merged into a coarser interval
+                assertTrue(loginAggregation.isUniqueUserSketch());
+                final HyperLogLog sketch = loginAggregation.getUniqueUserSketch();
+                final HyperLogLog other = new HyperLogLog(12);
+                other.offer("joe");
+                other.offer("gretchen");
+                sketch.merge(other);
+                assertEquals(5, sketch.cardinality());
+                
+                //No more users can be counted once the interval is complete
+                try {
+                    loginAggregation.countUser("frank");
+                    fail("countUser should fail after intervalComplete");
+                }
+                catch (IllegalStateException e) {
+                    //expected
+                }
+            }
+        });
+    }
+    
+    @Test
+    public void testUpdateLoginAggregations() throws Exception {
+        final IEntityGroup entityGroupA = mock(IEntityGroup.class);
+        when(entityGroupA.getServiceName()).thenReturn(new CompositeName("local"));
+        when(entityGroupA.getName()).thenReturn("Group A");
+        when(compositeGroupService.findGroup("local.0")).thenReturn(entityGroupA);
+        
+        final IEntityGroup entityGroupB = mock(IEntityGroup.class);
+        when(entityGroupB.getServiceName()).thenReturn(new CompositeName("local"));
+        when(entityGroupB.getName()).thenReturn("Group B");
+        when(compositeGroupService.findGroup("local.1")).thenReturn(entityGroupB);
+        
+        final DateTime instant = new DateTime(1331220134000l); //just a random time
+        final DateMidnight instantDate = instant.toDateMidnight();
+        final LocalTime instantTime = instant.toLocalTime();
+        
+        this.executeInTransaction(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                dateDimensionDao.createDateDimension(instantDate, 0, null);
+                timeDimensionDao.createTimeDimension(instantTime);
+            }
+        });
+        
+        //First flush creates the aggregations, the second adds to them
+        for (final String[] userNames : new String[][] { { "joe", "john", "joe" }, { "levi", "john" } }) {
+            this.executeInTransaction(new CallableWithoutResult() {
+                @Override
+                protected void callWithoutResult() {
+                    final DateDimension dateDimension = dateDimensionDao.getDateDimensionByDate(instantDate);
+                    final TimeDimension timeDimension = timeDimensionDao.getTimeDimensionByTime(instantTime);
+                    
+                    //Group A tracks user names, group B estimates unique users
+                    final LoginAccumulator accumulatorA = new LoginAccumulator(-1);
+                    final LoginAccumulator accumulatorB = new LoginAccumulator(12);
+                    for (final String userName : userNames) {
+                        accumulatorA.countUser(userName, 3);
+                        accumulatorB.countUser(userName, 3);
+                    }
+                    
+                    final Map<AggregatedGroupMapping, LoginAccumulator> accumulators = new LinkedHashMap<AggregatedGroupMapping, LoginAccumulator>();
+                    accumulators.put(aggregatedGroupLookupDao.getGroupMapping("local.0"), accumulatorA);
+                    accumulators.put(aggregatedGroupLookupDao.getGroupMapping("local.1"), accumulatorB);
+                    loginAggregationDao.updateLoginAggregations(dateDimension, timeDimension, AggregationInterval.HOUR, accumulators);
+                }
+            });
+        }
+        
+        this.execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                final DateDimension dateDimension = dateDimensionDao.getDateDimensionByDate(instantDate);
+                final TimeDimension timeDimension = timeDimensionDao.getTimeDimensionByTime(instantTime);
+                
+                final LoginAggregationImpl loginAggregationA = loginAggregationDao.getLoginAggregation(dateDimension, timeDimension, AggregationInterval.HOUR, aggregatedGroupLookupDao.getGroupMapping("local.0"));
+                assertFalse(loginAggregationA.isUniqueUserSketch());
+                assertEquals(5, loginAggregationA.getLoginCount());
+                assertEquals(3, loginAggregationA.getUniqueLoginCount());
+                assertEquals(3, loginAggregationA.getDuration());
+                
+                final LoginAggregationImpl loginAggregationB = loginAggregationDao.getLoginAggregation(dateDimension, timeDimension, AggregationInterval.HOUR, aggregatedGroupLookupDao.getGroupMapping("local.1"));
+                assertTrue(loginAggregationB.isUniqueUserSketch());
+                assertEquals(5, loginAggregationB.getLoginCount());
+                assertEquals(3, loginAggregationB.getUniqueLoginCount());
+            }
+        });
+    }
 }
@@ -0,0 +1,207 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class QueueingEventHandlerTest {
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+    
+    @Test
+    public void testWatermarkFlush() {
+        final TestQueueingEventHandler handler = new TestQueueingEventHandler();
+        handler.setQueueCapacity(10);
+        handler.setHighWatermark(6);
+        handler.setLowWatermark(2);
+        handler.setBatchSize(1);
+        
+        for (int i = 0; i < 5; i++) {
+            handler.onApplicationEvent(new TestEvent("e" + i));
+        }
+        assertEquals(5, handler.getQueueDepth());
+        assertEquals(0, handler.handled.size());
+        
+        //Crossing the high watermark flushes down to the low watermark
+        handler.onApplicationEvent(new TestEvent("e5"));
+        assertEquals(2, handler.getQueueDepth());
+        assertEquals(4, handler.handled.size());
+        assertEquals("e0", handler.handled.get(0));
+        assertEquals(4, handler.getFlushDurations().getCount());
+        
+        handler.flush();
+        assertEquals(0, handler.getQueueDepth());
+        assertEquals(6, handler.handled.size());
+    }
+    
+    @Test
+    public void testDropWhenFull() {
+        final TestQueueingEventHandler handler = new TestQueueingEventHandler();
+        handler.setQueueCapacity(3);
+        handler.setHighWatermark(10);
+        
+        for (int i = 0; i < 5; i++) {
+            handler.onApplicationEvent(new TestEvent("e" + i));
+        }
+        assertEquals(3, handler.getQueueDepth());
+        assertEquals(2, handler.getDroppedEventCount());
+        
+        handler.flush();
+        assertEquals(3, handler.handled.size());
+    }
+    
+    @Test
+    public void testSpillAndReplay() throws Exception {
+        final File spillFile = new File(this.tempFolder.getRoot(), "events.spill");
+        
+        final TestQueueingEventHandler handler = new TestQueueingEventHandler();
+        handler.setQueueCapacity(3);
+        handler.setHighWatermark(10);
+        handler.setSpillFile(spillFile);
+        handler.failing = true;
+        
+        for (int i = 0; i < 5; i++) {
+            handler.onApplicationEvent(new TestEvent("e" + i));
+        }
+        assertEquals(2, handler.getSpilledEventCount());
+        
+        //Failed events are spilled instead of being dropped
+        handler.flush();
+        assertEquals(0, handler.getQueueDepth());
+        assertEquals(5, handler.getSpilledEventCount());
+        assertEquals(0, handler.getDroppedEventCount());
+        assertTrue(spillFile.length() > 0);
+        
+        //Spilled events are handled once the handler recovers
+        handler.failing = false;
+        handler.onApplicationEvent(new TestEvent("e5"));
+        handler.flush();
+        assertEquals(6, handler.handled.size());
+        assertEquals("e3", handler.handled.get(0));
+        assertEquals("e5", handler.handled.get(5));
+        assertEquals(0, spillFile.length());
+    }
+    
+    @Test
+    public void testUndecodableSpilledEventsQuarantined() throws Exception {
+        final File spillFile = new File(this.tempFolder.getRoot(), "events.spill");
+        
+        final TestQueueingEventHandler handler = new TestQueueingEventHandler();
+        handler.setSpillFile(spillFile);
+        handler.failing = true;
+        
+        handler.onApplicationEvent(new TestEvent("e0"));
+        handler.onApplicationEvent(new TestEvent("poison"));
+        handler.onApplicationEvent(new TestEvent("e2"));
+        handler.flush();
+        assertEquals(3, handler.getSpilledEventCount());
+        
+        //The event that can't be decoded is moved aside, the others are handled
+        handler.failing = false;
+        handler.flush();
+        assertEquals(2, handler.handled.size());
+        assertEquals("e0", handler.handled.get(0));
+        assertEquals("e2", handler.handled.get(1));
+        assertEquals(0, spillFile.length());
+        assertTrue(new File(this.tempFolder.getRoot(), "events.spill.quarantine").length() > 0);
+    }
+    
+    @Test
+    public void testInvalidRecordLengthIgnored() throws Exception {
+        final File spillFile = new File(this.tempFolder.getRoot(), "events.spill");
+        final DataOutputStream out = new DataOutputStream(new FileOutputStream(spillFile));
+        try {
+            out.writeInt(2);
+            out.write("e0".getBytes());
+            out.writeInt(-1);
+            out.write("garbage".getBytes());
+        }
+        finally {
+            out.close();
+        }
+        
+        final TestQueueingEventHandler handler = new TestQueueingEventHandler();
+        handler.setSpillFile(spillFile);
+        handler.flush();
+        
+        //Everything after the invalid length is treated as a partially written record
+        assertEquals(1, handler.handled.size());
+        assertEquals("e0", handler.handled.get(0));
+        assertTrue(new EventSpillFile(spillFile).isEmpty());
+    }
+    
+    private static final class TestEvent extends ApplicationEvent {
+        private static final long serialVersionUID = 1L;
+
+        public TestEvent(String name) {
+            super(name);
+        }
+        
+        public String getName() {
+            return (String) this.getSource();
+        }
+    }
+    
+    private static final class TestQueueingEventHandler extends QueueingEventHandler<TestEvent> {
+        private final List<String> handled = new ArrayList<String>();
+        private boolean failing = false;
+        
+        @Override
+        protected void onApplicationEvents(Iterable<TestEvent> events) {
+            if (failing) {
+                throw new IllegalStateException("Database unavailable");
+            }
+            
+            for (final TestEvent event : events) {
+                handled.add(event.getName());
+            }
+        }
+
+        @Override
+        protected byte[] encodeEvent(TestEvent event) {
+            return event.getName().getBytes();
+        }
+
+        @Override
+        protected TestEvent decodeEvent(byte[] data) {
+            final String name = new String(data);
+            if (name.startsWith("poison")) {
+                throw new IllegalArgumentException("Can't decode " + name);
+            }
+            return new TestEvent(name);
+        }
+    }
+}
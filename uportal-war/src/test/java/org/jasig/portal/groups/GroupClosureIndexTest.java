@@ -0,0 +1,84 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class GroupClosureIndexTest {
+    private GroupClosureIndex index;
+
+    @Before
+    public void setup() {
+        // local.0 <- local.1 <- local.2 <- pags.a
+        //         <- local.3 <- local.2
+        final Map<String, Set<String>> containingGroupKeys = new HashMap<String, Set<String>>();
+        containingGroupKeys.put("local.1", keys("local.0"));
+        containingGroupKeys.put("local.3", keys("local.0"));
+        containingGroupKeys.put("local.2", keys("local.1", "local.3"));
+        containingGroupKeys.put("pags.a", keys("local.2"));
+
+        this.index = new GroupClosureIndex(containingGroupKeys);
+    }
+
+    @Test
+    public void testAncestors() {
+        assertEquals(keys("local.1", "local.3"), this.index.getContainingGroupKeys("local.2"));
+        assertEquals(keys("local.0", "local.1", "local.2", "local.3"), this.index.getAncestorGroupKeys("pags.a"));
+        assertEquals(keys("local.0", "local.1", "local.3"), this.index.getAncestorGroupKeys("local.2"));
+        assertEquals(Collections.emptySet(), this.index.getAncestorGroupKeys("local.0"));
+        assertEquals(Collections.emptySet(), this.index.getAncestorGroupKeys("local.99"));
+
+        assertTrue(this.index.isAncestor("local.0", "pags.a"));
+        assertFalse(this.index.isAncestor("local.2", "local.1"));
+    }
+
+    @Test
+    public void testCircularMembership() {
+        // local.0 <- local.1 <- local.2 <- local.0
+        final Map<String, Set<String>> containingGroupKeys = new HashMap<String, Set<String>>();
+        containingGroupKeys.put("local.1", keys("local.0"));
+        containingGroupKeys.put("local.2", keys("local.1"));
+        containingGroupKeys.put("local.0", keys("local.2"));
+        this.index = new GroupClosureIndex(containingGroupKeys);
+
+        assertEquals(keys("local.0", "local.1", "local.2"), this.index.getAncestorGroupKeys("local.0"));
+        assertTrue(this.index.isAncestor("local.2", "local.1"));
+    }
+
+    private static Set<String> keys(String... keys) {
+        return new HashSet<String>(Arrays.asList(keys));
+    }
+}
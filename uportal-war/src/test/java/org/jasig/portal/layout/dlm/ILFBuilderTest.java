@@ -0,0 +1,141 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout.dlm;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.jasig.portal.security.IAuthorizationPrincipal;
+import org.jasig.portal.utils.DocumentFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ILFBuilderTest {
+    @Mock private IAuthorizationPrincipal ap;
+    
+    @Before
+    public void setup() {
+        when(this.ap.canRender("1")).thenReturn(true);
+        when(this.ap.canRender("2")).thenReturn(false);
+    }
+    
+    @Test
+    public void testReplaceFragment() throws Exception {
+        final Document composite = createLayout("s1");
+        final Element compositeRoot = (Element) composite.getDocumentElement().getFirstChild();
+        mergeFragment(composite, createFragment("u10l1", "0", "Welcome"));
+        mergeFragment(composite, createFragment("u11l1", "1", "News"));
+        mergeFragment(composite, createFragment("u12l1", "2", "Admin"));
+        
+        assertEquals(Arrays.asList("u10l1s2", "u11l1s2", "u12l1s2"), getChildIds(compositeRoot));
+        
+        //Updated fragment is patched in at its original position
+        ILFBuilder.replaceFragment(createFragment("u11l1", "1", "Updated News"), "1", new HashSet<String>(Arrays.asList("2")), composite, this.ap);
+        
+        assertEquals(Arrays.asList("u10l1s2", "u11l1s2", "u12l1s2"), getChildIds(compositeRoot));
+        final Element tab = composite.getElementById("u11l1s2");
+        assertNotNull(tab);
+        assertEquals("Updated News", tab.getAttribute("name"));
+        
+        //Channels are still filtered by the user's permissions and IDs are registered for the new nodes
+        assertNotNull(composite.getElementById("u11l1n3"));
+        assertNull(composite.getElementById("u11l1n4"));
+        
+        //Removed fragment
+        ILFBuilder.replaceFragment(null, "0", new HashSet<String>(Arrays.asList("1", "2")), composite, this.ap);
+        assertEquals(Arrays.asList("u11l1s2", "u12l1s2"), getChildIds(compositeRoot));
+        
+        //Last fragment is appended
+        ILFBuilder.replaceFragment(createFragment("u12l1", "2", "Admin"), "2", Collections.<String>emptySet(), composite, this.ap);
+        assertEquals(Arrays.asList("u11l1s2", "u12l1s2"), getChildIds(compositeRoot));
+    }
+    
+    private void mergeFragment(Document composite, Document fragment) {
+        ILFBuilder.mergeFragment(fragment, composite, this.ap);
+    }
+    
+    private List<String> getChildIds(Element parent) {
+        final List<String> ids = new ArrayList<String>();
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            ids.add(((Element) child).getAttribute(Constants.ATT_ID));
+        }
+        return ids;
+    }
+    
+    private Document createLayout(String rootId) {
+        final Document layout = DocumentFactory.getThreadDocument();
+        final Element layoutElement = layout.createElement("layout");
+        layoutElement.setAttribute(Constants.NS_DECL, Constants.NS_URI);
+        layout.appendChild(layoutElement);
+        
+        final Element root = layout.createElement("folder");
+        root.setAttribute(Constants.ATT_ID, rootId);
+        root.setIdAttribute(Constants.ATT_ID, true);
+        root.setAttribute("type", "root");
+        layoutElement.appendChild(root);
+        return layout;
+    }
+    
+    private Document createFragment(String labelBase, String index, String tabName) {
+        final Document fragment = createLayout(labelBase + "s1");
+        final Element root = (Element) fragment.getDocumentElement().getFirstChild();
+        
+        final Element tab = createNode(fragment, "folder", labelBase + "s2", index);
+        tab.setAttribute("name", tabName);
+        root.appendChild(tab);
+        
+        final Element allowed = createNode(fragment, "channel", labelBase + "n3", index);
+        allowed.setAttribute("chanID", "1");
+        tab.appendChild(allowed);
+        
+        final Element denied = createNode(fragment, "channel", labelBase + "n4", index);
+        denied.setAttribute("chanID", "2");
+        tab.appendChild(denied);
+        
+        return fragment;
+    }
+    
+    private Element createNode(Document fragment, String name, String id, String index) {
+        final Element node = fragment.createElement(name);
+        node.setAttribute(Constants.ATT_ID, id);
+        node.setIdAttribute(Constants.ATT_ID, true);
+        node.setAttributeNS(Constants.NS_URI, Constants.ATT_FRAGMENT, index);
+        return node;
+    }
+}
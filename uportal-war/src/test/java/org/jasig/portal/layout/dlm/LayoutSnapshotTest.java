@@ -0,0 +1,122 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout.dlm;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import org.jasig.portal.utils.DocumentFactory;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class LayoutSnapshotTest {
+    @Test
+    public void testRoundTrip() throws Exception {
+        final Document layout = createLayout();
+        
+        final LayoutSnapshot snapshot = LayoutSnapshot.fromBytes(LayoutSnapshot.fromDocument(layout).toBytes());
+        final Document copy = snapshot.toDocument();
+        
+        assertTrue(layout.isEqualNode(copy));
+        
+        //ID attributes must be registered in the copy for getElementById
+        final Element channel = copy.getElementById("n3");
+        assertNotNull(channel);
+        assertEquals("portlet-admin", channel.getAttribute("fname"));
+        assertEquals("0", channel.getAttributeNS(Constants.NS_URI, "fragment"));
+        assertNotNull(copy.getElementById("s1"));
+        
+        //The copy is independent of the snapshot
+        channel.setAttribute("name", "Changed");
+        assertFalse(snapshot.toDocument().getElementById("n3").getAttribute("name").equals("Changed"));
+    }
+    
+    @Test
+    public void testDigest() throws Exception {
+        final Document layout = createLayout();
+        final String digest = LayoutSnapshot.fromDocument(layout).getDigest();
+        
+        assertEquals(digest, LayoutSnapshot.fromDocument(createLayout()).getDigest());
+        
+        layout.getElementById("n3").setAttribute("hidden", "true");
+        assertFalse(digest.equals(LayoutSnapshot.fromDocument(layout).getDigest()));
+    }
+    
+    @Test
+    public void testUnsupportedFormatVersion() throws Exception {
+        final byte[] data = LayoutSnapshot.fromDocument(createLayout()).toBytes();
+        data[7] = 99;
+        
+        try {
+            LayoutSnapshot.fromBytes(data);
+            fail("Unsupported format version must be rejected");
+        }
+        catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+    
+    private Document createLayout() {
+        final Document layout = DocumentFactory.getThreadDocument();
+        final Element root = layout.createElement("layout");
+        root.setAttribute(Constants.NS_DECL, Constants.NS_URI);
+        layout.appendChild(root);
+        
+        final Element rootFolder = layout.createElement("folder");
+        rootFolder.setAttribute("ID", "s1");
+        rootFolder.setIdAttribute("ID", true);
+        rootFolder.setAttribute("type", "root");
+        root.appendChild(rootFolder);
+        
+        final Element tab = layout.createElement("folder");
+        tab.setAttribute("ID", "s2");
+        tab.setIdAttribute("ID", true);
+        tab.setAttribute("name", "Welcome");
+        tab.setAttributeNS(Constants.NS_URI, Constants.ATT_FRAGMENT, "0");
+        rootFolder.appendChild(tab);
+        tab.appendChild(layout.createComment("pushed from fragment 0"));
+        
+        final Element channel = layout.createElement("channel");
+        channel.setAttribute("ID", "n3");
+        channel.setIdAttribute("ID", true);
+        channel.setAttribute("fname", "portlet-admin");
+        channel.setAttribute("name", "Portlet Administration");
+        channel.setAttribute("hidden", "false");
+        channel.setAttributeNS(Constants.NS_URI, Constants.ATT_FRAGMENT, "0");
+        tab.appendChild(channel);
+        
+        final Element parameter = layout.createElement("parameter");
+        parameter.setAttribute("name", "description");
+        parameter.appendChild(layout.createTextNode("Manage portlets"));
+        channel.appendChild(parameter);
+        
+        rootFolder.appendChild(layout.createElement("folder"));
+        
+        return layout;
+    }
+}
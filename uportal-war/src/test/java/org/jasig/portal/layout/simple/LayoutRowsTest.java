@@ -0,0 +1,100 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout.simple;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.jasig.portal.utils.Tuple;
+import org.junit.Test;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class LayoutRowsTest {
+    @Test
+    public void testNoChanges() {
+        final LayoutRows existing = new LayoutRows();
+        existing.addStructure(folder(1, 0, 2, "Root"));
+        existing.addStructure(channel(2, 0, 0, 42, ""));
+        existing.addParameter(2, "dlm:moveAllowed", "false");
+        existing.addParameter(2, "minimized", null);
+        
+        final LayoutRows layout = new LayoutRows();
+        layout.addStructure(folder(1, 0, 2, "Root"));
+        layout.addStructure(channel(2, 0, 0, 42, null));
+        layout.addParameter(2, "dlm:moveAllowed", "false");
+        layout.addParameter(2, "minimized", "");
+        
+        final LayoutRows.Changes changes = layout.getChangesFrom(existing);
+        assertTrue(changes.toString(), changes.isEmpty());
+    }
+    
+    @Test
+    public void testChanges() {
+        final LayoutRows existing = new LayoutRows();
+        existing.addStructure(folder(1, 0, 2, "Root"));
+        existing.addStructure(channel(2, 3, 0, 42, null));
+        existing.addStructure(channel(3, 0, 0, 43, null));
+        existing.addParameter(2, "dlm:moveAllowed", "false");
+        existing.addParameter(3, "dlm:deleteAllowed", "false");
+        
+        final LayoutRows layout = new LayoutRows();
+        layout.addStructure(folder(1, 0, 2, "Root"));
+        layout.addStructure(channel(2, 4, 0, 42, null));
+        layout.addStructure(channel(4, 0, 0, 44, null));
+        layout.addParameter(2, "dlm:moveAllowed", "true");
+        layout.addParameter(4, "dlm:deleteAllowed", "false");
+        
+        final LayoutRows.Changes changes = layout.getChangesFrom(existing);
+        assertEquals(Arrays.asList(3), changes.getDeletedStructures());
+        assertEquals(Arrays.asList(channel(2, 4, 0, 42, null)), changes.getUpdatedStructures());
+        assertEquals(Arrays.asList(channel(4, 0, 0, 44, null)), changes.getInsertedStructures());
+        assertEquals(Arrays.asList(new Tuple<Integer, String>(3, "dlm:deleteAllowed")), changes.getDeletedParameters());
+        assertEquals(Collections.singletonMap(new Tuple<Integer, String>(2, "dlm:moveAllowed"), "true"), changes.getUpdatedParameters());
+        assertEquals(Collections.singletonMap(new Tuple<Integer, String>(4, "dlm:deleteAllowed"), "false"), changes.getInsertedParameters());
+    }
+    
+    @Test
+    public void testFirstSave() {
+        final LayoutRows layout = new LayoutRows();
+        layout.addStructure(folder(1, 0, 2, "Root"));
+        layout.addStructure(channel(2, 0, 0, 42, null));
+        layout.addParameter(2, "dlm:moveAllowed", "false");
+        
+        final LayoutRows.Changes changes = layout.getChangesFrom(new LayoutRows());
+        assertEquals(2, changes.getInsertedStructures().size());
+        assertEquals(1, changes.getInsertedParameters().size());
+        assertTrue(changes.getUpdatedStructures().isEmpty());
+        assertTrue(changes.getDeletedStructures().isEmpty());
+    }
+    
+    private LayoutRows.StructureRow folder(int structId, int next, int child, String name) {
+        return new LayoutRows.StructureRow(structId, next, child, null, null, name, "regular", "N", "N", "N");
+    }
+    
+    private LayoutRows.StructureRow channel(int structId, int next, int child, int chanId, String externalId) {
+        return new LayoutRows.StructureRow(structId, next, child, externalId, chanId, null, "", "N", "N", "N");
+    }
+}
@@ -74,6 +74,8 @@ public class PortletCacheControlServiceImplTest {
 	private Cache publicScopeRenderCache;
 	private Cache privateScopeResourceCache;
 	private Cache publicScopeResourceCache;
+	private Cache publicScopeRenderOverflowCache;
+	private Cache publicScopeResourceOverflowCache;
 	
 	@Before
 	public void getCaches() {
@@ -82,6 +84,9 @@ public class PortletCacheControlServiceImplTest {
 		
 		privateScopeResourceCache = cacheManager.getCache("org.jasig.portal.portlet.container.cache.PortletCacheControlServiceImpl.privateScopePortletResourceOutputCache");
 		publicScopeResourceCache = cacheManager.getCache("org.jasig.portal.portlet.container.cache.PortletCacheControlServiceImpl.publicScopePortletResourceOutputCache");
+		
+		publicScopeRenderOverflowCache = cacheManager.getCache("org.jasig.portal.portlet.container.cache.PortletCacheControlServiceImpl.publicScopePortletRenderOutputOverflowCache");
+		publicScopeResourceOverflowCache = cacheManager.getCache("org.jasig.portal.portlet.container.cache.PortletCacheControlServiceImpl.publicScopePortletResourceOutputOverflowCache");
 	}
 	@After
 	public void clearCaches() {
@@ -90,6 +95,9 @@ public class PortletCacheControlServiceImplTest {
 		
 		privateScopeResourceCache.removeAll(true);
 		publicScopeResourceCache.removeAll(true);
+		
+		publicScopeRenderOverflowCache.removeAll(true);
+		publicScopeResourceOverflowCache.removeAll(true);
 	}
 	@Test
 	public void testGetCacheControlDefault() {
@@ -292,4 +300,89 @@ public class PortletCacheControlServiceImplTest {
 		cacheElement = cacheControlService.constructCacheElement(key, data, cacheConfig, cacheControl);
 		Assert.assertEquals(0, cacheElement.getTimeToLive());
 	}
+	
+	@Test
+	public void testSelectPublicScopeCacheTier() {
+		PortletCacheControlServiceImpl cacheControlService = new PortletCacheControlServiceImpl();
+		cacheControlService.setCacheSizeThreshold(10);
+		cacheControlService.setPublicScopeCacheSizeThreshold(100);
+		
+		final String key = "key";
+		final CachedPortletData data = new CachedPortletData();
+		
+		// no overflow tier, public threshold falls back to the heap threshold
+		Assert.assertEquals(10, cacheControlService.getPublicScopeCacheSizeThreshold());
+		data.setStringData("<p>large content</p>");
+		assertNull(cacheControlService.selectPublicScopeCacheTier(key, data, publicScopeRenderCache, null));
+		
+		cacheControlService.setPublicScopePortletRenderOutputOverflowCache(publicScopeRenderOverflowCache);
+		cacheControlService.setPublicScopePortletResourceOutputOverflowCache(publicScopeResourceOverflowCache);
+		Assert.assertEquals(100, cacheControlService.getPublicScopeCacheSizeThreshold());
+		
+		// small content stays on heap and clears any overflow copy
+		publicScopeRenderOverflowCache.put(new Element(key, data));
+		data.setStringData("<p>a</p>");
+		Assert.assertSame(publicScopeRenderCache, cacheControlService.selectPublicScopeCacheTier(key, data, publicScopeRenderCache, publicScopeRenderOverflowCache));
+		assertNull(publicScopeRenderOverflowCache.get(key));
+		
+		// larger content goes to the overflow tier and clears any heap copy
+		publicScopeRenderCache.put(new Element(key, data));
+		data.setStringData("<p>large content</p>");
+		Assert.assertSame(publicScopeRenderOverflowCache, cacheControlService.selectPublicScopeCacheTier(key, data, publicScopeRenderCache, publicScopeRenderOverflowCache));
+		assertNull(publicScopeRenderCache.get(key));
+		
+		// content over the public threshold is not cached
+		data.setStringData(null);
+		data.setByteData(new byte[101]);
+		assertNull(cacheControlService.selectPublicScopeCacheTier(key, data, publicScopeResourceCache, publicScopeResourceOverflowCache));
+	}
+	
+	@Test
+	public void testCachePublicScopeRenderOutputOverflow() throws Exception {
+		MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+		MockPortletWindowId portletWindowId = new MockPortletWindowId("123");
+		MockPortletEntityId portletEntityId = new MockPortletEntityId("456");
+		MockPortletDefinitionId portletDefinitionId = new MockPortletDefinitionId("789");
+		
+		PortletCacheControlServiceImpl cacheControlService = new PortletCacheControlServiceImpl();
+		cacheControlService.setPrivateScopePortletRenderOutputCache(privateScopeRenderCache);
+		cacheControlService.setPublicScopePortletRenderOutputCache(publicScopeRenderCache);
+		cacheControlService.setPrivateScopePortletResourceOutputCache(privateScopeResourceCache);
+		cacheControlService.setPublicScopePortletResourceOutputCache(publicScopeResourceCache);
+		cacheControlService.setPublicScopePortletRenderOutputOverflowCache(publicScopeRenderOverflowCache);
+		cacheControlService.setPublicScopePortletResourceOutputOverflowCache(publicScopeResourceOverflowCache);
+		cacheControlService.setCacheSizeThreshold(10);
+		cacheControlService.setPublicScopeCacheSizeThreshold(100);
+		cacheControlService.afterPropertiesSet();
+		
+		final IPortletWindowRegistry portletWindowRegistry = mock(IPortletWindowRegistry.class);
+		final IPortletWindow portletWindow = mock(IPortletWindow.class);
+		final IPortletEntity portletEntity = mock(IPortletEntity.class);
+		
+		when(portletWindowRegistry.getPortletWindow(httpRequest, portletWindowId)).thenReturn(portletWindow);
+		when(portletWindow.getPortletEntityId()).thenReturn(portletEntityId);
+		when(portletEntity.getPortletDefinitionId()).thenReturn(portletDefinitionId);
+		
+		final IPortletEntityRegistry portletEntityRegistry = mock(IPortletEntityRegistry.class);
+		when(portletEntityRegistry.getPortletEntity(httpRequest, portletEntityId)).thenReturn(portletEntity);
+		
+		cacheControlService.setPortletWindowRegistry(portletWindowRegistry);
+		cacheControlService.setPortletEntityRegistry(portletEntityRegistry);
+		
+		CacheControl control = new CacheControlImpl();
+		control.setPublicScope(true);
+		control.setExpirationTime(300);
+		
+		cacheControlService.cachePortletRenderOutput(portletWindowId, httpRequest, "<p>Cached content larger than the heap threshold</p>", control);
+		Assert.assertEquals(0, publicScopeRenderCache.getSize());
+		Assert.assertEquals(1, publicScopeRenderOverflowCache.getSize());
+		
+		CachedPortletData cachedData = cacheControlService.getCachedPortletRenderOutput(portletWindowId, httpRequest);
+		Assert.assertEquals("<p>Cached content larger than the heap threshold</p>", cachedData.getStringData());
+		
+		// private scope output over the heap threshold is not cached at all
+		control.setPublicScope(false);
+		cacheControlService.cachePortletRenderOutput(portletWindowId, httpRequest, "<p>Cached content larger than the heap threshold</p>", control);
+		Assert.assertEquals(0, privateScopeRenderCache.getSize());
+	}
 }
@@ -0,0 +1,193 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.portlet.rendering;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.portlet.Event;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jasig.portal.portlet.om.IPortletWindowId;
+import org.jasig.portal.portlet.rendering.worker.IPortletEventExecutionWorker;
+import org.jasig.portal.portlet.rendering.worker.IPortletWorkerFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class PortletExecutionManagerTest {
+    @Mock private IPortletEventCoordinationService eventCoordinationService;
+    @Mock private IPortletWorkerFactory portletWorkerFactory;
+    @Mock private IPortletWindowId slowWindowId;
+    @Mock private IPortletWindowId fastWindowId;
+    @Mock private IPortletWindowId chainedWindowId;
+    @Mock private Event event;
+    
+    private final Queue<IPortletWindowId> completed = new ConcurrentLinkedQueue<IPortletWindowId>();
+    private PortletExecutionManager portletExecutionManager;
+    
+    @Before
+    public void setup() {
+        this.portletExecutionManager = new PortletExecutionManager();
+        this.portletExecutionManager.setEventCoordinationService(this.eventCoordinationService);
+        this.portletExecutionManager.setPortletWorkerFactory(this.portletWorkerFactory);
+        this.portletExecutionManager.setIgnoreTimeouts(true);
+        
+        //Resolve every raw event to the window id it was queued with
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                final PortletEventQueue eventQueue = (PortletEventQueue)invocation.getArguments()[1];
+                for (QueuedEvent queuedEvent = eventQueue.getUnresolvedEvents().poll(); queuedEvent != null; queuedEvent = eventQueue.getUnresolvedEvents().poll()) {
+                    eventQueue.offerEvent(queuedEvent.getPortletWindowId(), queuedEvent);
+                }
+                return null;
+            }
+        }).when(this.eventCoordinationService).resolvePortletEvents(any(HttpServletRequest.class), any(PortletEventQueue.class));
+    }
+    
+    @Test
+    public void testChainedEventsDispatchedWithoutWaitingForSlowWindow() throws Exception {
+        final PortletEventQueue eventQueue = new PortletEventQueue();
+        
+        //The slow window can't complete until the chained event has been dispatched and run
+        final CountDownLatch chainedComplete = new CountDownLatch(1);
+        this.mockEventWorker(eventQueue, this.slowWindowId, chainedComplete, new CountDownLatch(1), Collections.<IPortletWindowId>emptyList());
+        this.mockEventWorker(eventQueue, this.fastWindowId, new CountDownLatch(0), new CountDownLatch(1), Arrays.asList(this.chainedWindowId));
+        this.mockEventWorker(eventQueue, this.chainedWindowId, new CountDownLatch(0), chainedComplete, Collections.<IPortletWindowId>emptyList());
+        
+        eventQueue.addEvents(Arrays.asList(
+                new QueuedEvent(this.slowWindowId, this.event), 
+                new QueuedEvent(this.fastWindowId, this.event)));
+        
+        this.portletExecutionManager.doPortletEvents(eventQueue, new MockHttpServletRequest(), new MockHttpServletResponse());
+        
+        //The chained event runs as soon as the fast window produces it, not after the slow window completes
+        assertEquals(Arrays.asList(this.fastWindowId, this.chainedWindowId, this.slowWindowId), Arrays.asList(this.completed.toArray()));
+    }
+    
+    /**
+     * Mocks an event worker for the window that runs on its own thread once the start latch is released, queues
+     * an event for each of the chained windows and then releases the complete latch and runs its completion callbacks
+     */
+    private void mockEventWorker(final PortletEventQueue eventQueue, final IPortletWindowId portletWindowId, 
+            final CountDownLatch start, final CountDownLatch complete, final List<IPortletWindowId> chainedWindowIds) throws Exception {
+        
+        final IPortletEventExecutionWorker worker = mock(IPortletEventExecutionWorker.class);
+        final Queue<Runnable> completionCallbacks = new ConcurrentLinkedQueue<Runnable>();
+        final long[] started = new long[1];
+        
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                started[0] = System.currentTimeMillis();
+                new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (!start.await(5, TimeUnit.SECONDS)) {
+                                return;
+                            }
+                        }
+                        catch (InterruptedException e) {
+                            return;
+                        }
+                        
+                        for (final IPortletWindowId chainedWindowId : chainedWindowIds) {
+                            eventQueue.addEvents(Collections.singleton(new QueuedEvent(chainedWindowId, event)));
+                        }
+                        
+                        completed.add(portletWindowId);
+                        complete.countDown();
+                        for (Runnable callback = completionCallbacks.poll(); callback != null; callback = completionCallbacks.poll()) {
+                            callback.run();
+                        }
+                    }
+                }.start();
+                return null;
+            }
+        }).when(worker).submit();
+        
+        when(worker.isStarted()).thenReturn(true);
+        when(worker.getStartedTime()).thenAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(InvocationOnMock invocation) throws Throwable {
+                return started[0];
+            }
+        });
+        when(worker.isComplete()).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                return complete.getCount() == 0;
+            }
+        });
+        when(worker.get(anyLong())).thenAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(InvocationOnMock invocation) throws Throwable {
+                assertTrue(complete.await(5, TimeUnit.SECONDS));
+                return 0l;
+            }
+        });
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                final Runnable callback = (Runnable)invocation.getArguments()[0];
+                if (complete.getCount() == 0) {
+                    callback.run();
+                }
+                else {
+                    completionCallbacks.add(callback);
+                    //Completed between the check and the add, make sure the callback still runs
+                    if (complete.getCount() == 0 && completionCallbacks.remove(callback)) {
+                        callback.run();
+                    }
+                }
+                return null;
+            }
+        }).when(worker).addCompletionCallback(any(Runnable.class));
+        
+        when(this.portletWorkerFactory.createEventWorker(any(HttpServletRequest.class), any(HttpServletResponse.class), eq(portletWindowId), any(Event.class))).thenReturn(worker);
+    }
+}
@@ -20,22 +20,26 @@ package org.jasig.portal.portlet.rendering;
 
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.io.StringWriter;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.portlet.CacheControl;
 import javax.portlet.PortletException;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import junit.framework.Assert;
 
@@ -53,12 +57,16 @@ import org.jasig.portal.portlet.om.IPortletEntity;
 import org.jasig.portal.portlet.om.IPortletWindow;
 import org.jasig.portal.portlet.om.IPortletWindowId;
 import org.jasig.portal.portlet.registry.IPortletWindowRegistry;
+import org.jasig.portal.portlet.rendering.worker.IPortletRenderExecutionWorker;
+import org.jasig.portal.portlet.rendering.worker.IPortletWorkerFactory;
 import org.jasig.portal.url.IPortalRequestInfo;
 import org.jasig.portal.url.IUrlSyntaxProvider;
+import org.jasig.portal.utils.threading.SingleFlight;
 import org.jasig.portal.utils.web.PortletHttpServletRequestWrapper;
 import org.jasig.portal.utils.web.PortletHttpServletResponseWrapper;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
@@ -237,6 +245,140 @@ public class PortletRendererImplTest {
 		// verify we never enter the other branch of the "should render cached output" if statement
 		verify(portletCacheControlService, never()).shouldOutputBeCached(cacheControl);
 	}
+	/**
+	 * Public scope render that joins an in-flight render replays the leader's output instead of rendering.
+	 * 
+	 * @throws PortletContainerException 
+	 * @throws IOException 
+	 * @throws PortletException 
+	 */
+	@Test
+	public void doRenderMarkupCoalescedPublicScopeTest() throws PortletException, IOException, PortletContainerException {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		CacheControlImpl cacheControl = new CacheControlImpl();
+		cacheControl.setPublicScope(true);
+		cacheControl.setExpirationTime(300);
+		CachedPortletData sharedPortletData = new CachedPortletData();
+		sharedPortletData.setStringData("<p>Some content</p>");
+		sharedPortletData.setExpirationTimeSeconds(cacheControl.getExpirationTime());
+		sharedPortletData.setTimeStored(new Date());
+		
+		final SingleFlight<Serializable, CachedPortletData> singleFlight = new SingleFlight<Serializable, CachedPortletData>();
+		final SingleFlight.Ticket<Serializable, CachedPortletData> leaderTicket = singleFlight.join("key");
+		final SingleFlight.Ticket<Serializable, CachedPortletData> followerTicket = singleFlight.join("key");
+		leaderTicket.complete(sharedPortletData);
+		
+		setupPortletExecutionMocks(request);
+		
+		when(portletCacheControlService.getPortletRenderCacheControl(portletWindowId, request)).thenReturn(cacheControl);
+		when(portletCacheControlService.getCachedPortletRenderOutput(portletWindowId, request)).thenReturn(null);
+		when(portletCacheControlService.joinPublicScopePortletRender(portletWindowId, request)).thenReturn(followerTicket);
+		when(portalRequestInfo.getTargetedPortletWindowId()).thenReturn(portletWindowId);
+		
+		StringWriter writer = new StringWriter();
+		portletRenderer.doRenderMarkup(portletWindowId, request, response, writer);
+		Assert.assertEquals("<p>Some content</p>", writer.toString());
+		
+		verify(portletContainer, never()).doRender(isA(PortletWindow.class), isA(PortletHttpServletRequestWrapper.class), isA(PortletHttpServletResponseWrapper.class));
+		verify(portletCacheControlService, never()).cachePortletRenderOutput(isA(IPortletWindowId.class), isA(HttpServletRequest.class), isA(String.class), isA(CacheControl.class));
+	}
+	/**
+	 * Public scope render that joins an in-flight render serves expired content within the stale-while-revalidate
+	 * window without waiting for the leader.
+	 * 
+	 * @throws PortletContainerException 
+	 * @throws IOException 
+	 * @throws PortletException 
+	 */
+	@Test
+	public void doRenderMarkupStaleWhileRevalidatePublicScopeTest() throws PortletException, IOException, PortletContainerException {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		CacheControlImpl cacheControl = new CacheControlImpl();
+		cacheControl.setPublicScope(true);
+		cacheControl.setExpirationTime(300);
+		CachedPortletData stalePortletData = new CachedPortletData();
+		stalePortletData.setStringData("<p>Stale content</p>");
+		stalePortletData.setExpirationTimeSeconds(cacheControl.getExpirationTime());
+		stalePortletData.setTimeStored(DateUtils.addSeconds(new Date(), -310));
+		
+		final SingleFlight<Serializable, CachedPortletData> singleFlight = new SingleFlight<Serializable, CachedPortletData>();
+		singleFlight.join("key");
+		final SingleFlight.Ticket<Serializable, CachedPortletData> followerTicket = singleFlight.join("key");
+		
+		setupPortletExecutionMocks(request);
+		
+		when(portletCacheControlService.getPortletRenderCacheControl(portletWindowId, request)).thenReturn(cacheControl);
+		when(portletCacheControlService.getCachedPortletRenderOutput(portletWindowId, request)).thenReturn(stalePortletData);
+		when(portletCacheControlService.joinPublicScopePortletRender(portletWindowId, request)).thenReturn(followerTicket);
+		when(portletCacheControlService.getPublicScopeStaleWhileRevalidate()).thenReturn(60);
+		when(portalRequestInfo.getTargetedPortletWindowId()).thenReturn(portletWindowId);
+		
+		StringWriter writer = new StringWriter();
+		portletRenderer.doRenderMarkup(portletWindowId, request, response, writer);
+		Assert.assertEquals("<p>Stale content</p>", writer.toString());
+		
+		verify(portletContainer, never()).doRender(isA(PortletWindow.class), isA(PortletHttpServletRequestWrapper.class), isA(PortletHttpServletResponseWrapper.class));
+	}
+	/**
+	 * Public scope render that leads a render of expired content within the stale-while-revalidate window serves
+	 * the expired content and hands the render to a portlet worker, which completes the render for the followers.
+	 * 
+	 * @throws Exception 
+	 */
+	@Test
+	public void doRenderMarkupStaleWhileRevalidateLeaderPublicScopeTest() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		CacheControlImpl cacheControl = new CacheControlImpl();
+		cacheControl.setPublicScope(true);
+		cacheControl.setExpirationTime(300);
+		CachedPortletData stalePortletData = new CachedPortletData();
+		stalePortletData.setStringData("<p>Stale content</p>");
+		stalePortletData.setExpirationTimeSeconds(cacheControl.getExpirationTime());
+		stalePortletData.setTimeStored(DateUtils.addSeconds(new Date(), -310));
+		CachedPortletData refreshedPortletData = new CachedPortletData();
+		refreshedPortletData.setStringData("<p>Refreshed content</p>");
+		
+		final SingleFlight<Serializable, CachedPortletData> singleFlight = new SingleFlight<Serializable, CachedPortletData>();
+		final SingleFlight.Ticket<Serializable, CachedPortletData> leaderTicket = singleFlight.join("key");
+		final SingleFlight.Ticket<Serializable, CachedPortletData> followerTicket = singleFlight.join("key");
+		
+		final IPortletWorkerFactory portletWorkerFactory = mock(IPortletWorkerFactory.class);
+		final IPortletRenderExecutionWorker refreshWorker = mock(IPortletRenderExecutionWorker.class);
+		portletRenderer.setPortletWorkerFactory(portletWorkerFactory);
+		
+		setupPortletExecutionMocks(request);
+		
+		when(portletCacheControlService.getPortletRenderCacheControl(eq(portletWindowId), isA(HttpServletRequest.class))).thenReturn(cacheControl);
+		when(portletCacheControlService.getCachedPortletRenderOutput(eq(portletWindowId), isA(HttpServletRequest.class))).thenReturn(stalePortletData);
+		when(portletCacheControlService.joinPublicScopePortletRender(portletWindowId, request)).thenReturn(leaderTicket);
+		when(portletCacheControlService.getPublicScopeStaleWhileRevalidate()).thenReturn(60);
+		when(portletCacheControlService.shouldOutputBeCached(cacheControl)).thenReturn(true);
+		when(portletCacheControlService.cachePortletRenderOutput(eq(portletWindowId), isA(HttpServletRequest.class), isA(String.class), eq(cacheControl))).thenReturn(refreshedPortletData);
+		when(portletWorkerFactory.createRenderWorker(isA(HttpServletRequest.class), isA(HttpServletResponse.class), eq(portletWindowId))).thenReturn(refreshWorker);
+		when(portalRequestInfo.getTargetedPortletWindowId()).thenReturn(portletWindowId);
+		
+		StringWriter writer = new StringWriter();
+		portletRenderer.doRenderMarkup(portletWindowId, request, response, writer);
+		Assert.assertEquals("<p>Stale content</p>", writer.toString());
+		
+		// the leader did not render, the refresh worker owns the in-flight render
+		verify(portletContainer, never()).doRender(isA(PortletWindow.class), isA(PortletHttpServletRequestWrapper.class), isA(PortletHttpServletResponseWrapper.class));
+		verify(refreshWorker).submit();
+		Assert.assertEquals(1, singleFlight.getInFlightCount());
+		
+		// run the refresh the worker would execute
+		final ArgumentCaptor<HttpServletRequest> refreshRequest = ArgumentCaptor.forClass(HttpServletRequest.class);
+		final ArgumentCaptor<HttpServletResponse> refreshResponse = ArgumentCaptor.forClass(HttpServletResponse.class);
+		verify(portletWorkerFactory).createRenderWorker(refreshRequest.capture(), refreshResponse.capture(), eq(portletWindowId));
+		portletRenderer.doRenderMarkup(portletWindowId, refreshRequest.getValue(), refreshResponse.getValue(), new StringWriter());
+		
+		verify(portletContainer, times(1)).doRender(isA(PortletWindow.class), isA(PortletHttpServletRequestWrapper.class), isA(PortletHttpServletResponseWrapper.class));
+		Assert.assertSame(refreshedPortletData, followerTicket.await(1, TimeUnit.SECONDS));
+		Assert.assertEquals(0, singleFlight.getInFlightCount());
+	}
 	/**
 	 * Mimic workflow when data cached portlet data using "validation" method is available.
 	 * 
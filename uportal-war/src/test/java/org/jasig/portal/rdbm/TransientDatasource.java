@@ -24,7 +24,9 @@ import java.io.InputStream;
 import java.io.PrintWriter;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
 import java.util.Properties;
+import java.util.logging.Logger;
 
 import javax.sql.DataSource;
 
@@ -97,4 +99,11 @@ public class TransientDatasource implements DataSource {
     public int getLoginTimeout() throws SQLException {
         return delegate.getLoginTimeout();
     }
+
+    /*
+     * Added to DataSource by JDBC 4.1 (Java 7), no @Override so the class still compiles against Java 6
+     */
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException("getParentLogger is not supported");
+    }
 }
\ No newline at end of file
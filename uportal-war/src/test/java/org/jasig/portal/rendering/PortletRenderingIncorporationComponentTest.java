@@ -0,0 +1,101 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.rendering;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jasig.portal.character.stream.CharacterEventBufferReader;
+import org.jasig.portal.character.stream.CharacterEventReader;
+import org.jasig.portal.character.stream.events.CharacterDataEvent;
+import org.jasig.portal.character.stream.events.CharacterDataEventImpl;
+import org.jasig.portal.character.stream.events.CharacterEvent;
+import org.jasig.portal.character.stream.events.PortletContentPlaceholderEventImpl;
+import org.jasig.portal.portlet.om.IPortletWindowId;
+import org.jasig.portal.portlet.rendering.IPortletExecutionManager;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class PortletRenderingIncorporationComponentTest {
+    @Test
+    public void testProgressiveRendering() throws Exception {
+        final MockHttpServletRequest mockReq = new MockHttpServletRequest();
+        final MockHttpServletResponse mockRes = new MockHttpServletResponse();
+        
+        final IPortletWindowId slowPortletWindowId = createMock(IPortletWindowId.class);
+        final IPortletWindowId fastPortletWindowId = createMock(IPortletWindowId.class);
+        final CharacterPipelineComponent targetComponent = createMock(CharacterPipelineComponent.class);
+        final IPortletExecutionManager portletExecutionManager = createMock(IPortletExecutionManager.class);
+        
+        final List<CharacterEvent> eventBuffer = Arrays.<CharacterEvent>asList(
+                new CharacterDataEventImpl("<html><body>"),
+                new PortletContentPlaceholderEventImpl(slowPortletWindowId),
+                new CharacterDataEventImpl("<hr/>"),
+                new PortletContentPlaceholderEventImpl(fastPortletWindowId),
+                new CharacterDataEventImpl("</bo"),
+                new CharacterDataEventImpl("dy></html>"));
+        final PipelineEventReader<CharacterEventReader, CharacterEvent> eventReader = new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(new CharacterEventBufferReader(eventBuffer.listIterator()));
+        
+        expect(slowPortletWindowId.getStringId()).andReturn("slow").anyTimes();
+        expect(fastPortletWindowId.getStringId()).andReturn("fast").anyTimes();
+        expect(targetComponent.getEventReader(mockReq, mockRes)).andReturn(eventReader);
+        expect(portletExecutionManager.isPortletRenderComplete(slowPortletWindowId, mockReq, mockRes)).andReturn(false).times(2).andReturn(true);
+        expect(portletExecutionManager.isPortletRenderComplete(fastPortletWindowId, mockReq, mockRes)).andReturn(true);
+        expect(portletExecutionManager.getPortletOutput(fastPortletWindowId, mockReq, mockRes)).andReturn("FAST");
+        portletExecutionManager.waitForPortletRenderComplete(Collections.singleton(slowPortletWindowId), mockReq, mockRes);
+        expectLastCall();
+        expect(portletExecutionManager.getPortletOutput(slowPortletWindowId, mockReq, mockRes)).andReturn("SLOW");
+        
+        replay(slowPortletWindowId, fastPortletWindowId, targetComponent, portletExecutionManager);
+        
+        final PortletRenderingIncorporationComponent incorporationComponent = new PortletRenderingIncorporationComponent();
+        incorporationComponent.setWrappedComponent(targetComponent);
+        incorporationComponent.setPortletExecutionManager(portletExecutionManager);
+        incorporationComponent.setProgressiveRendering(true);
+        
+        final StringBuilder output = new StringBuilder();
+        for (final CharacterEvent event : incorporationComponent.getEventReader(mockReq, mockRes)) {
+            output.append(((CharacterDataEvent)event).getData());
+        }
+        
+        final String expected = "<html><body>" +
+                incorporationComponent.getDeferredPlaceholder(slowPortletWindowId) +
+                "<hr/>" +
+                "FAST" +
+                incorporationComponent.getDeferredContent(slowPortletWindowId, "SLOW") +
+                "</body></html>";
+        Assert.assertEquals(expected, output.toString());
+        
+        verify(slowPortletWindowId, fastPortletWindowId, targetComponent, portletExecutionManager);
+    }
+}
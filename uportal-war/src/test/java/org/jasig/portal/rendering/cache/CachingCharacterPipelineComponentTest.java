@@ -26,6 +26,7 @@ import static org.easymock.EasyMock.notNull;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -34,7 +35,11 @@ import net.sf.ehcache.Element;
 
 import org.jasig.portal.character.stream.CharacterEventBufferReader;
 import org.jasig.portal.character.stream.CharacterEventReader;
+import org.jasig.portal.character.stream.events.CharacterDataEvent;
+import org.jasig.portal.character.stream.events.CharacterDataEventImpl;
 import org.jasig.portal.character.stream.events.CharacterEvent;
+import org.jasig.portal.character.stream.events.PortletContentPlaceholderEventImpl;
+import org.jasig.portal.portlet.om.IPortletWindowId;
 import org.jasig.portal.rendering.CharacterPipelineComponent;
 import org.jasig.portal.rendering.PipelineEventReader;
 import org.jasig.portal.rendering.PipelineEventReaderImpl;
@@ -117,4 +122,55 @@ public class CachingCharacterPipelineComponentTest {
         
         verify(cache, targetComponent, elementsProvider);
     }
+    
+    @Test
+    public void testCompactCachedEvents() {
+        final IPortletWindowId portletWindowId = createMock(IPortletWindowId.class);
+        final List<CharacterEvent> eventBuffer = Arrays.<CharacterEvent>asList(
+                new CharacterDataEventImpl("<div>"),
+                new CharacterDataEventImpl("<span>"),
+                new PortletContentPlaceholderEventImpl(portletWindowId),
+                new CharacterDataEventImpl("</span>"),
+                new CharacterDataEventImpl("</div>"));
+        final PipelineEventReader<CharacterEventReader, CharacterEvent> eventReader = new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(new CharacterEventBufferReader(eventBuffer.listIterator()));
+        
+        final CachingCharacterPipelineComponent cachingComponent = new CachingCharacterPipelineComponent();
+        final CachedEventReader<CharacterEvent> cachedEventReader = cachingComponent.createCachedEventReader(eventReader);
+        
+        final List<CharacterEvent> eventCache = cachedEventReader.getEventCache();
+        Assert.assertEquals(3, eventCache.size());
+        Assert.assertEquals("<div><span>", ((CharacterDataEvent)eventCache.get(0)).getData());
+        Assert.assertSame(eventBuffer.get(2), eventCache.get(1));
+        Assert.assertEquals("</span></div>", ((CharacterDataEvent)eventCache.get(2)).getData());
+        Assert.assertTrue(cachedEventReader.getEstimatedSize() > 0);
+    }
+    
+    @Test
+    public void testCacheSizeReport() {
+        final CachedEventReader<CharacterEvent> sizedReader = new CachedEventReader<CharacterEvent>(Collections.<CharacterEvent>singletonList(new CharacterDataEventImpl("<div/>")), Collections.<String, String>emptyMap(), 100);
+        final CachedEventReader<CharacterEvent> largerReader = new CachedEventReader<CharacterEvent>(Arrays.<CharacterEvent>asList(new CharacterDataEventImpl("<div>"), new CharacterDataEventImpl("</div>")), Collections.<String, String>emptyMap(), 300);
+        final CachedEventReader<CharacterEvent> unsizedReader = new CachedEventReader<CharacterEvent>(Collections.<CharacterEvent>emptyList(), Collections.<String, String>emptyMap());
+        
+        final Ehcache cache = createMock(Ehcache.class);
+        expect(cache.getKeys()).andReturn(Arrays.asList("a", "b", "c", "d")).times(2);
+        expect(cache.getQuiet((Object)"a")).andReturn(new Element("a", sizedReader)).times(2);
+        expect(cache.getQuiet((Object)"b")).andReturn(new Element("b", largerReader)).times(2);
+        expect(cache.getQuiet((Object)"c")).andReturn(new Element("c", unsizedReader)).times(2);
+        expect(cache.getQuiet((Object)"d")).andReturn(null).times(2);
+        replay(cache);
+        
+        final CachingCharacterPipelineComponent cachingComponent = new CachingCharacterPipelineComponent();
+        cachingComponent.setCache(cache);
+        
+        final CachingPipelineComponent.CacheSizeReport report = cachingComponent.getCacheSizeReport();
+        Assert.assertEquals(2, report.getEntries());
+        Assert.assertEquals(3, report.getEvents());
+        Assert.assertEquals(400, report.getTotalSize());
+        Assert.assertEquals(200, report.getAverageSize());
+        Assert.assertEquals(300, report.getMaxSize());
+        
+        Assert.assertEquals(200, cachingComponent.getCachedAverageSize());
+        
+        verify(cache);
+    }
 }
@@ -26,10 +26,13 @@ import static org.easymock.EasyMock.notNull;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 
+import java.io.StringReader;
 import java.util.Collections;
 import java.util.List;
 
 import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.events.XMLEvent;
 
 import net.sf.ehcache.Ehcache;
@@ -118,4 +121,51 @@ public class CachingStAXPipelineComponentTest {
         
         verify(cache, targetComponent, elementsProvider);
     }
+    
+    @Test
+    public void testCompactCachedEvents() throws XMLStreamException {
+        final XMLInputFactory xmlInputFactory = XMLInputFactory.newFactory();
+        final XMLEventReader xmlEventReader = xmlInputFactory.createXMLEventReader(new StringReader(
+                "<a><b x=\"1\">one</b><b x=\"1\">two<![CDATA[three]]></b><b x=\"2\"/></a>"));
+        final PipelineEventReader<XMLEventReader, XMLEvent> eventReader = new PipelineEventReaderImpl<XMLEventReader, XMLEvent>(xmlEventReader);
+        
+        final CachingStAXPipelineComponent cachingComponent = new CachingStAXPipelineComponent();
+        final CachedEventReader<XMLEvent> cachedEventReader = cachingComponent.createCachedEventReader(eventReader);
+        
+        final List<XMLEvent> eventCache = cachedEventReader.getEventCache();
+        Assert.assertEquals(13, eventCache.size());
+        
+        //Identical start and end elements share an instance
+        Assert.assertEquals("one", eventCache.get(3).asCharacters().getData());
+        Assert.assertSame(eventCache.get(2), eventCache.get(5));
+        Assert.assertSame(eventCache.get(4), eventCache.get(8));
+        Assert.assertNotSame(eventCache.get(2), eventCache.get(9));
+        Assert.assertSame(eventCache.get(4), eventCache.get(10));
+        
+        //CDATA is not merged with adjacent character data
+        Assert.assertTrue(eventCache.get(7).asCharacters().isCData());
+        Assert.assertTrue(cachedEventReader.getEstimatedSize() > 0);
+    }
+    
+    @Test
+    public void testInternedElementsShareNamespaceScope() throws XMLStreamException {
+        final XMLInputFactory xmlInputFactory = XMLInputFactory.newFactory();
+        final XMLEventReader xmlEventReader = xmlInputFactory.createXMLEventReader(new StringReader(
+                "<r><x xmlns:p=\"u1\"><c/></x><y xmlns:p=\"u2\"><c/></y><z xmlns:p=\"u1\"><c/></z></r>"));
+        final PipelineEventReader<XMLEventReader, XMLEvent> eventReader = new PipelineEventReaderImpl<XMLEventReader, XMLEvent>(xmlEventReader);
+        
+        final CachingStAXPipelineComponent cachingComponent = new CachingStAXPipelineComponent();
+        final CachedEventReader<XMLEvent> cachedEventReader = cachingComponent.createCachedEventReader(eventReader);
+        
+        final List<XMLEvent> eventCache = cachedEventReader.getEventCache();
+        Assert.assertEquals(16, eventCache.size());
+        
+        //<c/> is only shared between elements where p is bound to the same namespace
+        Assert.assertEquals("c", eventCache.get(3).asStartElement().getName().getLocalPart());
+        Assert.assertNotSame(eventCache.get(3), eventCache.get(7));
+        Assert.assertSame(eventCache.get(3), eventCache.get(11));
+        Assert.assertEquals("u2", eventCache.get(7).asStartElement().getNamespaceContext().getNamespaceURI("p"));
+        Assert.assertNotSame(eventCache.get(4), eventCache.get(8));
+        Assert.assertSame(eventCache.get(4), eventCache.get(12));
+    }
 }
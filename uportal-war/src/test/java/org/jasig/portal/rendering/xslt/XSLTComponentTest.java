@@ -25,6 +25,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -35,6 +39,7 @@ import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.util.EventReaderDelegate;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
@@ -50,11 +55,15 @@ import org.jasig.portal.io.xml.XmlTestException;
 import org.jasig.portal.rendering.PipelineEventReader;
 import org.jasig.portal.rendering.PipelineEventReaderImpl;
 import org.jasig.portal.rendering.StAXPipelineComponent;
+import org.jasig.portal.utils.threading.TrackingThreadLocal;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 import org.w3c.dom.Document;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -70,10 +79,75 @@ public class XSLTComponentTest {
 
     @Test
     public void testXSLTComponent() throws Exception {
+        this.testXSLTComponent(new XSLTComponent());
+    }
+    
+    @Test
+    public void testStreamingXSLTComponent() throws Exception {
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            final XSLTComponent xsltComponent = new XSLTComponent();
+            xsltComponent.setStreaming(true);
+            xsltComponent.setExecutorService(executorService);
+            //Small channel so the transform has to wait on the reader
+            xsltComponent.setChannelCapacity(4);
+            
+            this.testXSLTComponent(xsltComponent);
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testStreamingXSLTComponentThreadState() throws Exception {
+        final TrackingThreadLocal<String> trackingThreadLocal = new TrackingThreadLocal<String>();
+        final RequestAttributes requestAttributes = new ServletRequestAttributes(new MockHttpServletRequest());
+        final List<Object> readerThreadState = new CopyOnWriteArrayList<Object>();
+        
+        //Records the thread-local state seen by the component the transform reads from when the last event is read,
+        //the first event is read on the request thread when the transform source is created
+        final XMLEventReader xmlEventReader = new EventReaderDelegate(this.getXmlEventReader("juser.xml")) {
+            @Override
+            public XMLEvent nextEvent() throws XMLStreamException {
+                readerThreadState.clear();
+                readerThreadState.add(Thread.currentThread());
+                readerThreadState.add(RequestContextHolder.getRequestAttributes());
+                readerThreadState.add(trackingThreadLocal.get());
+                return super.nextEvent();
+            }
+        };
+        
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        trackingThreadLocal.set("trackedValue");
+        RequestContextHolder.setRequestAttributes(requestAttributes);
+        try {
+            final XSLTComponent xsltComponent = new XSLTComponent();
+            xsltComponent.setStreaming(true);
+            xsltComponent.setExecutorService(executorService);
+            
+            this.testXSLTComponent(xsltComponent, xmlEventReader);
+        }
+        finally {
+            RequestContextHolder.resetRequestAttributes();
+            trackingThreadLocal.remove();
+            executorService.shutdownNow();
+        }
+        
+        Assert.assertEquals(3, readerThreadState.size());
+        Assert.assertNotSame(Thread.currentThread(), readerThreadState.get(0));
+        Assert.assertSame(requestAttributes, readerThreadState.get(1));
+        Assert.assertEquals("trackedValue", readerThreadState.get(2));
+    }
+    
+    protected void testXSLTComponent(XSLTComponent xsltComponent) throws Exception {
+        this.testXSLTComponent(xsltComponent, this.getXmlEventReader("juser.xml"));
+    }
+    
+    protected void testXSLTComponent(XSLTComponent xsltComponent, XMLEventReader xmlEventReader) throws Exception {
         final MockHttpServletRequest mockReq = new MockHttpServletRequest();
         final MockHttpServletResponse mockRes = new MockHttpServletResponse();
 
-        final XMLEventReader xmlEventReader = this.getXmlEventReader("juser.xml");
         final PipelineEventReaderImpl<XMLEventReader, XMLEvent> cacheableEventReader = new PipelineEventReaderImpl<XMLEventReader, XMLEvent>(xmlEventReader);
         
         final Transformer transformer = this.getTransformer("columns.xsl");
@@ -86,7 +160,6 @@ public class XSLTComponentTest {
         
         EasyMock.replay(targetComponent, transformerSource);
         
-        final XSLTComponent xsltComponent = new XSLTComponent();
         xsltComponent.setWrappedComponent(targetComponent);
         xsltComponent.setTransformerSource(transformerSource);
         
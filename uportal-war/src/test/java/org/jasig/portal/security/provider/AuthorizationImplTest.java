@@ -0,0 +1,343 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.security.provider;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
+import org.jasig.portal.AuthorizationException;
+import org.jasig.portal.groups.IGroupMember;
+import org.jasig.portal.mock.portlet.om.MockPortletDefinitionId;
+import org.jasig.portal.portlet.om.IPortletDefinition;
+import org.jasig.portal.portlet.om.PortletLifecycleState;
+import org.jasig.portal.security.IAuthorizationPrincipal;
+import org.jasig.portal.security.IPermission;
+import org.jasig.portal.security.IPermissionPolicy;
+import org.jasig.portal.security.IPermissionSet;
+import org.jasig.portal.security.IPerson;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class AuthorizationImplTest {
+    private AuthorizationImpl authorizationService;
+    @Mock private Ehcache doesPrincipalHavePermissionCache;
+    @Mock private IPermissionPolicy permissionPolicy;
+    @Mock private IAuthorizationPrincipal principal;
+
+    @Before
+    public void setup() {
+        this.authorizationService = new AuthorizationImpl();
+        this.authorizationService.setDoesPrincipalHavePermissionCache(this.doesPrincipalHavePermissionCache);
+        this.authorizationService.setDefaultPermissionPolicy(this.permissionPolicy);
+
+        when(this.principal.getKey()).thenReturn("student");
+        when(this.principal.getType()).thenReturn(IPerson.class);
+        when(this.principal.getPrincipalString()).thenReturn("2.student");
+    }
+
+    @Test
+    public void testConcurrentPermissionLoadsCoalesced() throws Exception {
+        final CountingAuthorizationImpl countingService = new CountingAuthorizationImpl(200);
+
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<IPermission[]>> results = new ArrayList<Future<IPermission[]>>();
+            for (int i = 0; i < threads; i++) {
+                //Distinct principal objects with the same key must share a single load
+                final IAuthorizationPrincipal threadPrincipal = mock(IAuthorizationPrincipal.class);
+                when(threadPrincipal.getPrincipalString()).thenReturn("2.student");
+                results.add(executor.submit(new Callable<IPermission[]>() {
+                    @Override
+                    public IPermission[] call() throws Exception {
+                        start.await();
+                        return countingService.getPermissionsForPrincipal(threadPrincipal, null, null, null);
+                    }
+                }));
+            }
+
+            start.countDown();
+            final IPermission[] first = results.get(0).get(5, TimeUnit.SECONDS);
+            for (final Future<IPermission[]> result : results) {
+                assertSame(first, result.get(5, TimeUnit.SECONDS));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, countingService.loads.get());
+    }
+
+    @Test
+    public void testStalePermissionsRefreshedInBackground() throws Exception {
+        final CountingAuthorizationImpl countingService = new CountingAuthorizationImpl(0);
+        countingService.setPermissionRefreshAge(1);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        countingService.setPermissionRefreshExecutor(executor);
+        try {
+            final IPermission[] initial = countingService.getPermissionsForPrincipal(this.principal, null, null, null);
+            assertSame(initial, countingService.getPermissionsForPrincipal(this.principal, null, null, null));
+            assertEquals(1, countingService.loads.get());
+
+            Thread.sleep(1100);
+
+            //The stale set is returned while the refresh runs in the background
+            assertSame(initial, countingService.getPermissionsForPrincipal(this.principal, null, null, null));
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+
+            assertEquals(2, countingService.loads.get());
+            assertNotSame(initial, countingService.getPermissionsForPrincipal(this.principal, null, null, null));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testBulkPermissionCheck() {
+        //PORTLET_ID.1 is already cached as granted, the others have to be evaluated by the policy
+        when(this.doesPrincipalHavePermissionCache.getAll(anyCollectionOf(Object.class))).thenAnswer(new Answer<Map<Object, Element>>() {
+            @Override
+            public Map<Object, Element> answer(InvocationOnMock invocation) throws Throwable {
+                final Collection<Object> keys = (Collection<Object>) invocation.getArguments()[0];
+                final Map<Object, Element> elements = new HashMap<Object, Element>();
+                for (final Object key : keys) {
+                    elements.put(key, key.toString().contains("PORTLET_ID.1") ? new Element(key, Boolean.TRUE) : null);
+                }
+                return elements;
+            }
+        });
+        when(this.permissionPolicy.doesPrincipalHavePermission(this.authorizationService, this.principal, IPermission.PORTAL_SUBSCRIBE, IPermission.PORTLET_SUBSCRIBER_ACTIVITY, "PORTLET_ID.2")).thenReturn(true);
+        when(this.permissionPolicy.doesPrincipalHavePermission(this.authorizationService, this.principal, IPermission.PORTAL_SUBSCRIBE, IPermission.PORTLET_SUBSCRIBER_ACTIVITY, "PORTLET_ID.3")).thenReturn(false);
+
+        final Map<String, Boolean> results = this.authorizationService.doesPrincipalHavePermission(this.principal,
+                IPermission.PORTAL_SUBSCRIBE, IPermission.PORTLET_SUBSCRIBER_ACTIVITY,
+                Arrays.asList("PORTLET_ID.1", "PORTLET_ID.2", "PORTLET_ID.3"));
+
+        assertEquals(Arrays.asList("PORTLET_ID.1", "PORTLET_ID.2", "PORTLET_ID.3"), Arrays.asList(results.keySet().toArray()));
+        assertEquals(Arrays.asList(true, true, false), Arrays.asList(results.values().toArray()));
+
+        verify(this.doesPrincipalHavePermissionCache, times(1)).getAll(anyCollectionOf(Object.class));
+        verify(this.permissionPolicy, never()).doesPrincipalHavePermission(this.authorizationService, this.principal, IPermission.PORTAL_SUBSCRIBE, IPermission.PORTLET_SUBSCRIBER_ACTIVITY, "PORTLET_ID.1");
+
+        final ArgumentCaptor<Collection> putCaptor = ArgumentCaptor.forClass(Collection.class);
+        verify(this.doesPrincipalHavePermissionCache, times(1)).putAll(putCaptor.capture());
+        assertEquals(2, putCaptor.getValue().size());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testBulkSubscribeCheck() {
+        when(this.doesPrincipalHavePermissionCache.getAll(anyCollectionOf(Object.class))).thenReturn(new HashMap<Object, Element>());
+        when(this.permissionPolicy.doesPrincipalHavePermission(eq(this.authorizationService), eq(this.principal), eq(IPermission.PORTAL_SUBSCRIBE), anyString(), anyString())).thenReturn(false);
+        when(this.permissionPolicy.doesPrincipalHavePermission(this.authorizationService, this.principal, IPermission.PORTAL_SUBSCRIBE, IPermission.PORTLET_SUBSCRIBER_ACTIVITY, "PORTLET_ID.1")).thenReturn(true);
+        when(this.permissionPolicy.doesPrincipalHavePermission(this.authorizationService, this.principal, IPermission.PORTAL_SUBSCRIBE, IPermission.PORTLET_SUBSCRIBER_EXPIRED_ACTIVITY, "PORTLET_ID.3")).thenReturn(true);
+
+        final Map<String, Boolean> results = this.authorizationService.canPrincipalSubscribe(this.principal, Arrays.asList(
+                createPortletDefinition("1", PortletLifecycleState.PUBLISHED),
+                createPortletDefinition("2", PortletLifecycleState.PUBLISHED),
+                createPortletDefinition("3", PortletLifecycleState.EXPIRED)));
+
+        assertEquals(3, results.size());
+        assertEquals(Boolean.TRUE, results.get("1"));
+        assertEquals(Boolean.FALSE, results.get("2"));
+        assertEquals(Boolean.TRUE, results.get("3"));
+
+        //One bulk lookup per lifecycle activity
+        verify(this.doesPrincipalHavePermissionCache, times(2)).getAll(anyCollectionOf(Object.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testBulkDefaultPolicyEvaluatedInOnePass() throws Exception {
+        final IAuthorizationPrincipal groupPrincipal = mock(IAuthorizationPrincipal.class);
+        when(groupPrincipal.getPrincipalString()).thenReturn("3.local.5");
+        final IGroupMember group = mock(IGroupMember.class);
+        final IGroupMember member = mock(IGroupMember.class);
+        when(member.getAllContainingGroups()).thenAnswer(new Answer<Iterator<IGroupMember>>() {
+            @Override
+            public Iterator<IGroupMember> answer(InvocationOnMock invocation) throws Throwable {
+                return Collections.singleton(group).iterator();
+            }
+        });
+
+        final CountingAuthorizationImpl countingService = new CountingAuthorizationImpl(0) {
+            @Override
+            public IGroupMember getGroupMember(IAuthorizationPrincipal principal) {
+                return member;
+            }
+
+            @Override
+            public IAuthorizationPrincipal newPrincipal(IGroupMember groupMember) {
+                return groupPrincipal;
+            }
+        };
+        countingService.permissions.put("2.student", new IPermission[] {
+                createPermission("PORTLET_ID.1", IPermission.PERMISSION_TYPE_GRANT),
+                createPermission("PORTLET_ID.2", IPermission.PERMISSION_TYPE_DENY) });
+        countingService.permissions.put("3.local.5", new IPermission[] {
+                createPermission("PORTLET_ID.2", IPermission.PERMISSION_TYPE_GRANT),
+                createPermission("PORTLET_ID.3", IPermission.PERMISSION_TYPE_GRANT) });
+
+        final Ehcache entityParentsCache = mock(Ehcache.class);
+        when(entityParentsCache.get(anyString())).thenAnswer(new Answer<Element>() {
+            @Override
+            public Element answer(InvocationOnMock invocation) throws Throwable {
+                return new Element(invocation.getArguments()[0], Collections.emptySet());
+            }
+        });
+        countingService.setEntityParentsCache(entityParentsCache);
+        countingService.setDoesPrincipalHavePermissionCache(this.doesPrincipalHavePermissionCache);
+        countingService.setDefaultPermissionPolicy(new DefaultPermissionPolicy());
+        when(this.doesPrincipalHavePermissionCache.getAll(anyCollectionOf(Object.class))).thenReturn(new HashMap<Object, Element>());
+
+        final Map<String, Boolean> results = countingService.doesPrincipalHavePermission(this.principal,
+                IPermission.PORTAL_SUBSCRIBE, IPermission.PORTLET_SUBSCRIBER_ACTIVITY,
+                Arrays.asList("PORTLET_ID.1", "PORTLET_ID.2", "PORTLET_ID.3", "PORTLET_ID.4"));
+
+        //A direct denial is not overridden by a grant on a containing group
+        assertEquals(Arrays.asList(true, false, true, false), Arrays.asList(results.values().toArray()));
+
+        //The principal and group permission sets are each loaded once for all the targets
+        assertEquals(2, countingService.loads.get());
+        verify(member, times(1)).getAllContainingGroups();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testBulkManageCheck() {
+        when(this.doesPrincipalHavePermissionCache.getAll(anyCollectionOf(Object.class))).thenReturn(new HashMap<Object, Element>());
+        when(this.permissionPolicy.doesPrincipalHavePermission(eq(this.authorizationService), eq(this.principal), eq(IPermission.PORTAL_PUBLISH), anyString(), anyString())).thenReturn(false);
+        when(this.permissionPolicy.doesPrincipalHavePermission(this.authorizationService, this.principal, IPermission.PORTAL_PUBLISH, IPermission.PORTLET_MANAGER_EXPIRED_ACTIVITY, "PORTLET_ID.1")).thenReturn(true);
+        when(this.permissionPolicy.doesPrincipalHavePermission(this.authorizationService, this.principal, IPermission.PORTAL_PUBLISH, IPermission.PORTLET_MANAGER_CREATED_ACTIVITY, "PORTLET_ID.2")).thenReturn(true);
+        when(this.permissionPolicy.doesPrincipalHavePermission(this.authorizationService, this.principal, IPermission.PORTAL_PUBLISH, IPermission.PORTLET_MANAGER_CREATED_ACTIVITY, "PORTLET_ID.3")).thenReturn(true);
+
+        final Map<String, Boolean> results = this.authorizationService.canPrincipalManage(this.principal, Arrays.asList(
+                createPortletDefinition("1", PortletLifecycleState.CREATED),
+                createPortletDefinition("2", PortletLifecycleState.CREATED),
+                createPortletDefinition("3", PortletLifecycleState.PUBLISHED)));
+
+        //Manager permission for a later lifecycle state implies the earlier states
+        assertEquals(Boolean.TRUE, results.get("1"));
+        assertEquals(Boolean.TRUE, results.get("2"));
+        assertEquals(Boolean.FALSE, results.get("3"));
+
+        //PORTLET_ID.1 was granted by the first activity so it is not checked again
+        verify(this.permissionPolicy, never()).doesPrincipalHavePermission(this.authorizationService, this.principal, IPermission.PORTAL_PUBLISH, IPermission.PORTLET_MANAGER_ACTIVITY, "PORTLET_ID.1");
+        verify(this.doesPrincipalHavePermissionCache, times(4)).getAll(anyCollectionOf(Object.class));
+    }
+
+    /**
+     * Caches permission sets in a local map and counts loads from the permission store
+     */
+    private static class CountingAuthorizationImpl extends AuthorizationImpl {
+        private final ConcurrentMap<String, IPermissionSet> cache = new ConcurrentHashMap<String, IPermissionSet>();
+        private final AtomicInteger loads = new AtomicInteger();
+        private final Map<String, IPermission[]> permissions = new HashMap<String, IPermission[]>();
+        private final long loadTime;
+
+        public CountingAuthorizationImpl(long loadTime) {
+            this.loadTime = loadTime;
+        }
+
+        @Override
+        protected void cacheAdd(IPermissionSet ps) throws AuthorizationException {
+            this.cache.put(ps.getEntityIdentifier().getKey(), ps);
+        }
+
+        @Override
+        protected IPermissionSet cacheGet(IAuthorizationPrincipal principal) throws AuthorizationException {
+            return this.cache.get(principal.getPrincipalString());
+        }
+
+        @Override
+        public IPermission[] getUncachedPermissionsForPrincipal(IAuthorizationPrincipal principal, String owner, String activity, String target) throws AuthorizationException {
+            this.loads.incrementAndGet();
+            try {
+                Thread.sleep(this.loadTime);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            final IPermission[] principalPermissions = this.permissions.get(principal.getPrincipalString());
+            return principalPermissions != null ? principalPermissions : new IPermission[0];
+        }
+    }
+
+    private IPermission createPermission(String target, String type) {
+        final PermissionImpl permission = new PermissionImpl(IPermission.PORTAL_SUBSCRIBE);
+        permission.setActivity(IPermission.PORTLET_SUBSCRIBER_ACTIVITY);
+        permission.setTarget(target);
+        permission.setType(type);
+        return permission;
+    }
+
+    private IPortletDefinition createPortletDefinition(String id, PortletLifecycleState state) {
+        final IPortletDefinition portletDefinition = mock(IPortletDefinition.class);
+        when(portletDefinition.getPortletDefinitionId()).thenReturn(new MockPortletDefinitionId(id));
+        when(portletDefinition.getLifecycleState()).thenReturn(state);
+        return portletDefinition;
+    }
+}
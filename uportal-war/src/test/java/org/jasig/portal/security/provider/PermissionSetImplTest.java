@@ -0,0 +1,111 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.security.provider;
+
+import static junit.framework.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.jasig.portal.security.IPermission;
+import org.junit.Test;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class PermissionSetImplTest {
+    static final String[] OWNERS = { IPermission.PORTAL_SUBSCRIBE, IPermission.PORTAL_PUBLISH, "UP_OTHER" };
+    static final String[] ACTIVITIES = { IPermission.PORTLET_SUBSCRIBER_ACTIVITY, IPermission.PORTLET_SUBSCRIBER_APPROVED_ACTIVITY, "OTHER" };
+
+    @Test
+    public void testIndexedLookupMatchesScan() {
+        final Random random = new Random(42);
+        final IPermission[] permissions = createPermissions(random, 2000, 200);
+        final PermissionSetImpl permissionSet = new PermissionSetImpl(permissions, "principal", PermissionSetImpl.class);
+
+        for (int i = 0; i < 500; i++) {
+            final String owner = OWNERS[random.nextInt(OWNERS.length)];
+            final String activity = ACTIVITIES[random.nextInt(ACTIVITIES.length)];
+            final String target = random.nextInt(10) == 0 ? null : target(random, 200);
+            final Set<String> targetGroupKeys = new HashSet<String>();
+            for (int g = random.nextInt(5); g > 0; g--) {
+                targetGroupKeys.add(target(random, 200));
+            }
+
+            assertEquals(
+                    Arrays.asList(scan(permissions, owner, activity, target, targetGroupKeys)),
+                    Arrays.asList(permissionSet.getPermissions(owner, activity, target, targetGroupKeys)));
+        }
+    }
+
+    @Test
+    public void testUnspecifiedOwnerAndActivity() {
+        final IPermission[] permissions = createPermissions(new Random(7), 100, 10);
+        final PermissionSetImpl permissionSet = new PermissionSetImpl(permissions, "principal", PermissionSetImpl.class);
+        final Set<String> targetGroupKeys = Collections.singleton("local.3");
+
+        assertEquals(
+                Arrays.asList(scan(permissions, null, ACTIVITIES[0], "PORTLET_ID.1", targetGroupKeys)),
+                Arrays.asList(permissionSet.getPermissions(null, ACTIVITIES[0], "PORTLET_ID.1", targetGroupKeys)));
+        assertEquals(
+                Arrays.asList(scan(permissions, OWNERS[0], null, "PORTLET_ID.1", targetGroupKeys)),
+                Arrays.asList(permissionSet.getPermissions(OWNERS[0], null, "PORTLET_ID.1", targetGroupKeys)));
+        assertEquals(0, permissionSet.getPermissions("UNKNOWN", ACTIVITIES[0], null, targetGroupKeys).length);
+    }
+
+    static IPermission[] createPermissions(Random random, int count, int targets) {
+        final IPermission[] permissions = new IPermission[count];
+        for (int i = 0; i < count; i++) {
+            final PermissionImpl permission = new PermissionImpl(OWNERS[random.nextInt(OWNERS.length)]);
+            permission.setActivity(ACTIVITIES[random.nextInt(ACTIVITIES.length)]);
+            permission.setTarget(target(random, targets));
+            permission.setPrincipal("2.principal" + i);
+            permission.setType(random.nextBoolean() ? IPermission.PERMISSION_TYPE_GRANT : IPermission.PERMISSION_TYPE_DENY);
+            permissions[i] = permission;
+        }
+        return permissions;
+    }
+
+    private static String target(Random random, int targets) {
+        final int id = random.nextInt(targets);
+        return random.nextBoolean() ? "local." + id : "PORTLET_ID." + id;
+    }
+
+    /**
+     * The linear match AuthorizationImpl used before permission sets were indexed.
+     */
+    static IPermission[] scan(IPermission[] permissions, String owner, String activity, String target, Set<String> targetGroupKeys) {
+        final List<IPermission> matches = new ArrayList<IPermission>();
+        for (final IPermission permission : permissions) {
+            if ((owner == null || owner.equals(permission.getOwner())) &&
+                    (activity == null || activity.equals(permission.getActivity())) &&
+                    (target == null || target.equals(permission.getTarget()) || targetGroupKeys.contains(permission.getTarget()))) {
+                matches.add(permission);
+            }
+        }
+        return matches.toArray(new IPermission[matches.size()]);
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.security.provider;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.jasig.portal.security.IPermission;
+
+/**
+ * Lookup time comparison of the compiled {@link PermissionSetImpl} index and the linear scan
+ * AuthorizationImpl used before it, run manually from the test classpath. Not picked up by surefire.
+ * <p/>
+ * For each permission count a principal's permissions are generated over count / 10 targets and the lookup
+ * done for every portlet rendered on a page is repeated for 500 different portlets. The best of several runs
+ * is printed along with the time taken to compile the index on the first lookup.
+ * <p/>
+ * Usage: PermissionSetImplTester [iterations] [permissionCounts...]
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class PermissionSetImplTester {
+    private static final int RUNS = 5;
+    private static final int PORTLETS = 500;
+
+    public static void main(String[] args) {
+        final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        final int[] permissionCounts;
+        if (args.length > 1) {
+            permissionCounts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                permissionCounts[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        else {
+            permissionCounts = new int[] { 1000, 5000, 10000, 25000, 50000 };
+        }
+
+        final Random random = new Random(42);
+        final Set<String> targetGroupKeys = new HashSet<String>(Arrays.asList("local.0", "local.3", "local.7", "local.12"));
+        final String[] targets = new String[PORTLETS];
+        for (int i = 0; i < PORTLETS; i++) {
+            targets[i] = "PORTLET_ID." + i;
+        }
+
+        //Warm up both lookups so the first measured run isn't dominated by JIT compilation
+        final IPermission[] warmupPermissions = PermissionSetImplTest.createPermissions(random, 1000, 100);
+        final PermissionSetImpl warmupSet = new PermissionSetImpl(warmupPermissions, "principal", PermissionSetImpl.class);
+        timeScan(warmupPermissions, targets, targetGroupKeys, iterations);
+        timeIndex(warmupSet, targets, targetGroupKeys, iterations);
+
+        for (final int count : permissionCounts) {
+            final IPermission[] permissions = PermissionSetImplTest.createPermissions(random, count, count / 10);
+
+            long compileBest = Long.MAX_VALUE;
+            PermissionSetImpl permissionSet = null;
+            for (int run = 0; run < RUNS; run++) {
+                final long start = System.nanoTime();
+                permissionSet = new PermissionSetImpl(permissions, "principal", PermissionSetImpl.class);
+                //The index is compiled on the first lookup
+                permissionSet.getPermissions(PermissionSetImplTest.OWNERS[0], PermissionSetImplTest.ACTIVITIES[0], targets[0], targetGroupKeys);
+                compileBest = Math.min(compileBest, System.nanoTime() - start);
+            }
+
+            //The scan is much slower, keep its total time comparable to the index run
+            final int scanIterations = Math.max(PORTLETS, iterations * 1000 / count);
+            long scanBest = Long.MAX_VALUE;
+            long indexBest = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                scanBest = Math.min(scanBest, timeScan(permissions, targets, targetGroupKeys, scanIterations) / scanIterations);
+                indexBest = Math.min(indexBest, timeIndex(permissionSet, targets, targetGroupKeys, iterations) / iterations);
+            }
+
+            System.out.println(count + " permissions: scan=" + scanBest + "ns/op, index=" + indexBest + "ns/op, " +
+                    "index compile=" + TimeUnit.NANOSECONDS.toMicros(compileBest) + "us");
+        }
+    }
+
+    private static long timeScan(IPermission[] permissions, String[] targets, Set<String> targetGroupKeys, int iterations) {
+        int matches = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            matches += PermissionSetImplTest.scan(permissions, PermissionSetImplTest.OWNERS[0], PermissionSetImplTest.ACTIVITIES[0], targets[i % PORTLETS], targetGroupKeys).length;
+        }
+        final long time = System.nanoTime() - start;
+        consume(matches);
+        return time;
+    }
+
+    private static long timeIndex(PermissionSetImpl permissionSet, String[] targets, Set<String> targetGroupKeys, int iterations) {
+        int matches = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            matches += permissionSet.getPermissions(PermissionSetImplTest.OWNERS[0], PermissionSetImplTest.ACTIVITIES[0], targets[i % PORTLETS], targetGroupKeys).length;
+        }
+        final long time = System.nanoTime() - start;
+        consume(matches);
+        return time;
+    }
+
+    /**
+     * Keeps the lookup results live so the JIT can't drop the loops
+     */
+    private static void consume(int matches) {
+        if (matches == Integer.MIN_VALUE) {
+            System.out.println(matches);
+        }
+    }
+}
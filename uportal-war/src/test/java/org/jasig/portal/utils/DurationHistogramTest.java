@@ -0,0 +1,67 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils;
+
+import static junit.framework.Assert.assertEquals;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class DurationHistogramTest {
+    @Test
+    public void testBuckets() {
+        assertEquals(0, DurationHistogram.getBucket(0));
+        assertEquals(0, DurationHistogram.getBucket(1));
+        assertEquals(1, DurationHistogram.getBucket(2));
+        assertEquals(2, DurationHistogram.getBucket(3));
+        assertEquals(2, DurationHistogram.getBucket(4));
+        assertEquals(10, DurationHistogram.getBucket(1024));
+        assertEquals(21, DurationHistogram.getBucket(Long.MAX_VALUE));
+    }
+    
+    @Test
+    public void testHistogram() {
+        final DurationHistogram histogram = new DurationHistogram();
+        histogram.add(1);
+        histogram.add(3);
+        histogram.add(4);
+        histogram.add(2000);
+        histogram.add(Long.MAX_VALUE / 2);
+        
+        final Map<String, Long> expected = new LinkedHashMap<String, Long>();
+        expected.put("<=1ms", 1l);
+        expected.put("<=4ms", 2l);
+        expected.put("<=2048ms", 1l);
+        expected.put(">1048576ms", 1l);
+        assertEquals(expected, histogram.getBuckets());
+        assertEquals(5, histogram.getCount());
+        assertEquals(Long.MAX_VALUE / 2, histogram.getMax());
+        
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class HyperLogLogTest {
+    @Test
+    public void testSmallCardinality() {
+        final HyperLogLog hll = new HyperLogLog(12);
+        assertEquals(0, hll.cardinality());
+        
+        assertTrue(hll.offer("joe"));
+        assertTrue(hll.offer("john"));
+        assertFalse(hll.offer("joe"));
+        assertTrue(hll.offer("levi"));
+        
+        assertEquals(3, hll.cardinality());
+    }
+    
+    @Test
+    public void testErrorBound() {
+        final HyperLogLog hll = new HyperLogLog(12);
+        final int count = 100000;
+        for (int i = 0; i < count; i++) {
+            hll.offer("user" + i);
+        }
+        
+        //Three standard errors
+        final double error = Math.abs(hll.cardinality() - count) / (double) count;
+        assertTrue("error " + error + " is too large", error < hll.getStandardError() * 3);
+    }
+    
+    @Test
+    public void testMerge() {
+        final HyperLogLog week = new HyperLogLog(10);
+        final HyperLogLog union = new HyperLogLog(10);
+        for (int day = 0; day < 7; day++) {
+            final HyperLogLog dayHll = new HyperLogLog(10);
+            for (int i = day * 1000; i < day * 1000 + 2000; i++) {
+                dayHll.offer("user" + i);
+                union.offer("user" + i);
+            }
+            week.merge(dayHll);
+        }
+        
+        assertEquals(union.cardinality(), week.cardinality());
+        
+        try {
+            week.merge(new HyperLogLog(12));
+            throw new AssertionError("merge should fail for a different precision");
+        }
+        catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+    
+    @Test
+    public void testWrap() {
+        final HyperLogLog hll = new HyperLogLog(4);
+        hll.offer("joe");
+        
+        final HyperLogLog wrapped = HyperLogLog.wrap(hll.getRegisters().clone());
+        assertEquals(4, wrapped.getPrecision());
+        assertEquals(hll.cardinality(), wrapped.cardinality());
+        
+        try {
+            HyperLogLog.wrap(new byte[100]);
+            throw new AssertionError("wrap should fail for a register count that is not a power of two");
+        }
+        catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.utils.threading;
+
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput comparison of {@link QualityOfServiceBlockingQueue} and {@link ShardedQualityOfServiceBlockingQueue},
+ * run manually from the test classpath. Not picked up by surefire.
+ * <p/>
+ * Each run starts N producer and N consumer threads, every producer puts the same number of elements spread over
+ * 16 keys into a queue with a capacity of 300 and the consumers take them all. The elapsed time of each run is
+ * printed along with the resulting throughput.
+ * <p/>
+ * Usage: QualityOfServiceBlockingQueueTester [elementsPerThread] [threads...]
+ *
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class QualityOfServiceBlockingQueueTester {
+    private static final int CAPACITY = 300;
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws Exception {
+        final int elementsPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        final int[] threadCounts;
+        if (args.length > 1) {
+            threadCounts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                threadCounts[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        else {
+            threadCounts = new int[] { 8, 16, 32, 64 };
+        }
+
+        //Warm up both queues so the first measured run isn't dominated by JIT compilation
+        runProducersConsumers(new KeyedLockingQueue(CAPACITY), 8, elementsPerThread);
+        runProducersConsumers(new KeyedShardedQueue(CAPACITY), 8, elementsPerThread);
+
+        System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+        for (final int threads : threadCounts) {
+            long lockedBest = Long.MAX_VALUE;
+            long shardedBest = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                lockedBest = Math.min(lockedBest, runProducersConsumers(new KeyedLockingQueue(CAPACITY), threads, elementsPerThread));
+                shardedBest = Math.min(shardedBest, runProducersConsumers(new KeyedShardedQueue(CAPACITY), threads, elementsPerThread));
+            }
+
+            final long elements = (long)threads * elementsPerThread;
+            System.out.println(threads + " producers/consumers, " + elements + " elements: " +
+                    "QualityOfServiceBlockingQueue=" + TimeUnit.NANOSECONDS.toMillis(lockedBest) + "ms (" + opsPerSecond(elements, lockedBest) + " ops/s), " +
+                    "ShardedQualityOfServiceBlockingQueue=" + TimeUnit.NANOSECONDS.toMillis(shardedBest) + "ms (" + opsPerSecond(elements, shardedBest) + " ops/s)");
+        }
+    }
+
+    private static long opsPerSecond(long elements, long nanos) {
+        return elements * TimeUnit.SECONDS.toNanos(1) / Math.max(1, nanos);
+    }
+
+    /**
+     * Runs threads producers and threads consumers against the queue, each producer puts elementsPerThread elements
+     * spread over 16 keys.
+     *
+     * @return The elapsed time in nanoseconds
+     */
+    private static long runProducersConsumers(final BlockingQueue<String> queue, final int threads, final int elementsPerThread) throws InterruptedException {
+        final AtomicInteger remaining = new AtomicInteger(threads * elementsPerThread);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads * 2);
+
+        for (int t = 0; t < threads; t++) {
+            final int producerId = t;
+            final Thread producer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < elementsPerThread; i++) {
+                            queue.put((char)('a' + (i % 16)) + "-" + producerId + "-" + i);
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            };
+            producer.setDaemon(true);
+            producer.start();
+
+            final Thread consumer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        while (remaining.get() > 0) {
+                            if (queue.poll(10, TimeUnit.MILLISECONDS) != null) {
+                                remaining.decrementAndGet();
+                            }
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            };
+            consumer.setDaemon(true);
+            consumer.start();
+        }
+
+        final long startTime = System.nanoTime();
+        start.countDown();
+        if (!done.await(5, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Producers and consumers did not complete");
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    private static final class KeyedShardedQueue extends ShardedQualityOfServiceBlockingQueue<Character, String> {
+        public KeyedShardedQueue(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        protected Character getElementKey(String e) {
+            return e.charAt(0);
+        }
+    }
+
+    private static final class KeyedLockingQueue extends QualityOfServiceBlockingQueue<Character, String> {
+        private Iterator<Character> keyIterator;
+
+        public KeyedLockingQueue(int capacity) {
+            super(capacity);
+            this.keyIterator = this.getKeySet().iterator();
+        }
+
+        @Override
+        protected Character getElementKey(String e) {
+            return e.charAt(0);
+        }
+
+        @Override
+        protected Character getNextElementKey() {
+            Character key;
+            do {
+                if (!this.keyIterator.hasNext()) {
+                    this.keyIterator = this.getKeySet().iterator();
+                }
+                key = this.keyIterator.next();
+            } while (this.isKeyEmpty(key));
+
+            return key;
+        }
+    }
+}
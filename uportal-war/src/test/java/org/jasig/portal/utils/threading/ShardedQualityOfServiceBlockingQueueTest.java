@@ -0,0 +1,306 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.utils.threading;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class ShardedQualityOfServiceBlockingQueueTest {
+    @Test
+    public void testRoundRobinByKey() throws Exception {
+        final BlockingQueue<String> queue = new KeyedShardedQueue(Integer.MAX_VALUE);
+        
+        queue.add("a1");
+        queue.add("a2");
+        queue.add("a3");
+        queue.add("b1");
+        queue.add("b2");
+        queue.add("c1");
+        
+        assertEquals(6, queue.size());
+        
+        final List<String> taken = new ArrayList<String>();
+        queue.drainTo(taken);
+        
+        assertEquals(6, taken.size());
+        assertEquals("[a1, b1, c1, a2, b2, a3]", taken.toString());
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+    
+    @Test
+    public void testCapacity() throws Exception {
+        final BlockingQueue<String> queue = new KeyedShardedQueue(2);
+        
+        assertTrue(queue.offer("a1"));
+        assertTrue(queue.offer("b1"));
+        assertEquals(0, queue.remainingCapacity());
+        assertFalse(queue.offer("c1"));
+        assertFalse(queue.offer("c1", 10, TimeUnit.MILLISECONDS));
+        
+        try {
+            queue.add("c1");
+            throw new AssertionError("add should fail on a full queue");
+        }
+        catch (IllegalStateException e) {
+            //expected
+        }
+        
+        assertEquals("a1", queue.take());
+        assertTrue(queue.offer("c1"));
+        assertEquals("b1", queue.take());
+        assertEquals("c1", queue.take());
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        assertEquals(2, queue.remainingCapacity());
+    }
+    
+    @Test
+    public void testRemove() throws Exception {
+        final ShardedQualityOfServiceBlockingQueue<Character, String> queue = new KeyedShardedQueue(Integer.MAX_VALUE);
+        
+        queue.add("a1");
+        queue.add("a2");
+        queue.add("b1");
+        
+        assertTrue(queue.contains("a1"));
+        assertTrue(queue.remove("a1"));
+        assertFalse(queue.contains("a1"));
+        assertFalse(queue.remove("a1"));
+        assertEquals(2, queue.size());
+        assertEquals(1, queue.getKeySize('a'));
+        
+        assertTrue(queue.remove("a2"));
+        assertTrue(queue.isKeyEmpty('a'));
+        
+        //Re-adding to a key emptied by remove must not lose or duplicate elements
+        queue.add("a3");
+        for (final Iterator<String> itr = queue.iterator(); itr.hasNext(); ) {
+            if ("b1".equals(itr.next())) {
+                itr.remove();
+            }
+        }
+        
+        assertEquals(1, queue.size());
+        assertEquals("a3", queue.poll());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+    
+    @Test
+    public void testConcurrentProducersConsumers() throws Exception {
+        final KeyedShardedQueue queue = new KeyedShardedQueue(64);
+        final Set<String> taken = runProducersConsumers(queue, 8, 2000);
+        
+        assertEquals(8 * 2000, taken.size());
+        assertTrue(queue.isEmpty());
+        assertEquals(64, queue.remainingCapacity());
+    }
+    
+    @Test
+    public void testConcurrentRemoveOfferTake() throws Exception {
+        //The window for remove(Object) racing enqueue/dequeue is small, run many short rounds to give it a chance to show
+        for (int round = 0; round < 200; round++) {
+            runRemoveOfferTake(4, 500);
+        }
+    }
+    
+    /**
+     * Runs the specified number of producer and consumer threads against a new queue, each producer offers
+     * elementsPerThread elements for two keys and immediately tries to remove each one, racing the consumers.
+     */
+    private void runRemoveOfferTake(final int threads, final int elementsPerThread) throws InterruptedException {
+        final KeyedShardedQueue queue = new KeyedShardedQueue(16);
+        
+        final Set<String> taken = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final Set<String> removed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final AtomicInteger duplicates = new AtomicInteger();
+        final AtomicInteger remaining = new AtomicInteger(threads * elementsPerThread);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads * 2);
+        
+        for (int t = 0; t < threads; t++) {
+            final int producerId = t;
+            final Thread producer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < elementsPerThread; i++) {
+                            final String e = (char)('a' + (i % 2)) + "-" + producerId + "-" + i;
+                            while (!queue.offer(e)) {
+                                Thread.yield();
+                            }
+                            
+                            if (queue.remove(e)) {
+                                removed.add(e);
+                                remaining.decrementAndGet();
+                            }
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            };
+            producer.setDaemon(true);
+            producer.start();
+            
+            final Thread consumer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        while (remaining.get() > 0) {
+                            final String e = queue.poll(10, TimeUnit.MILLISECONDS);
+                            if (e != null) {
+                                remaining.decrementAndGet();
+                                if (!taken.add(e)) {
+                                    duplicates.incrementAndGet();
+                                }
+                            }
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            };
+            consumer.setDaemon(true);
+            consumer.start();
+        }
+        
+        start.countDown();
+        assertTrue("Producers and consumers did not complete, an element was stranded", done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, duplicates.get());
+        
+        for (final String e : removed) {
+            assertFalse("Removed element " + e + " was also taken", taken.contains(e));
+        }
+        assertEquals(threads * elementsPerThread, taken.size() + removed.size());
+        assertTrue(queue.isEmpty());
+        assertTrue(queue.isKeyEmpty('a'));
+        assertTrue(queue.isKeyEmpty('b'));
+        assertEquals(16, queue.remainingCapacity());
+    }
+    
+    /**
+     * Runs the specified number of producer and consumer threads against the queue, each producer
+     * puts elementsPerThread elements spread over 16 keys.
+     * 
+     * @return All of the elements taken by the consumers
+     */
+    private Set<String> runProducersConsumers(final BlockingQueue<String> queue, final int threads, final int elementsPerThread) throws InterruptedException {
+        final Set<String> taken = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final AtomicInteger duplicates = new AtomicInteger();
+        final AtomicInteger remaining = new AtomicInteger(threads * elementsPerThread);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads * 2);
+        
+        for (int t = 0; t < threads; t++) {
+            final int producerId = t;
+            final Thread producer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < elementsPerThread; i++) {
+                            queue.put((char)('a' + (i % 16)) + "-" + producerId + "-" + i);
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            };
+            producer.setDaemon(true);
+            producer.start();
+            
+            final Thread consumer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        while (remaining.get() > 0) {
+                            final String e = queue.poll(10, TimeUnit.MILLISECONDS);
+                            if (e != null) {
+                                remaining.decrementAndGet();
+                                if (!taken.add(e)) {
+                                    duplicates.incrementAndGet();
+                                }
+                            }
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            };
+            consumer.setDaemon(true);
+            consumer.start();
+        }
+        
+        start.countDown();
+        assertTrue("Producers and consumers did not complete", done.await(60, TimeUnit.SECONDS));
+        assertEquals(0, duplicates.get());
+        
+        return taken;
+    }
+    
+    private static final class KeyedShardedQueue extends ShardedQualityOfServiceBlockingQueue<Character, String> {
+        public KeyedShardedQueue(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        protected Character getElementKey(String e) {
+            return e.charAt(0);
+        }
+    }
+}
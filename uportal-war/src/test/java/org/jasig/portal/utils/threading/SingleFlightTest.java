@@ -0,0 +1,108 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils.threading;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class SingleFlightTest {
+    @Test
+    public void testLeaderAndFollowers() throws Exception {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+        
+        final SingleFlight.Ticket<String, String> leader = singleFlight.join("a");
+        final SingleFlight.Ticket<String, String> follower = singleFlight.join("a");
+        final SingleFlight.Ticket<String, String> otherLeader = singleFlight.join("b");
+        
+        assertTrue(leader.isLeader());
+        assertFalse(follower.isLeader());
+        assertTrue(otherLeader.isLeader());
+        assertEquals(2, singleFlight.getInFlightCount());
+        
+        //Not complete yet
+        assertNull(follower.await(10, TimeUnit.MILLISECONDS));
+        
+        final String result = "result";
+        leader.complete(result);
+        assertSame(result, follower.await(10, TimeUnit.MILLISECONDS));
+        assertEquals(1, singleFlight.getInFlightCount());
+        
+        //A new join after completion starts a new call
+        assertTrue(singleFlight.join("a").isLeader());
+    }
+    
+    @Test(expected=IllegalStateException.class)
+    public void testFollowerCannotComplete() {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+        singleFlight.join("a");
+        singleFlight.join("a").complete("result");
+    }
+    
+    @Test
+    public void testConcurrentFollowersShareResult() throws Exception {
+        final SingleFlight<String, Object> singleFlight = new SingleFlight<String, Object>();
+        final SingleFlight.Ticket<String, Object> leader = singleFlight.join("a");
+        
+        final int followerCount = 8;
+        final CountDownLatch joined = new CountDownLatch(followerCount);
+        final ExecutorService executorService = Executors.newFixedThreadPool(followerCount);
+        try {
+            final Future<?>[] futures = new Future<?>[followerCount];
+            for (int i = 0; i < followerCount; i++) {
+                futures[i] = executorService.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        final SingleFlight.Ticket<String, Object> ticket = singleFlight.join("a");
+                        joined.countDown();
+                        assertFalse(ticket.isLeader());
+                        return ticket.await(5, TimeUnit.SECONDS);
+                    }
+                });
+            }
+            
+            assertTrue(joined.await(5, TimeUnit.SECONDS));
+            final Object result = new Object();
+            leader.complete(result);
+            
+            for (final Future<?> future : futures) {
+                assertSame(result, future.get(5, TimeUnit.SECONDS));
+            }
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.utils.threading;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class ThreadPerTaskExecutorServiceTest {
+    private ThreadPerTaskExecutorService executorService;
+    
+    @Before
+    public void setup() {
+        final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("ThreadPerTaskExecutorServiceTest-");
+        threadFactory.setDaemon(true);
+        this.executorService = new ThreadPerTaskExecutorService(threadFactory, 4);
+    }
+    
+    @After
+    public void teardown() {
+        this.executorService.shutdownNow();
+    }
+    
+    @Test
+    public void testThreadPerTask() throws Exception {
+        final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        final CountDownLatch running = new CountDownLatch(4);
+        final CountDownLatch release = new CountDownLatch(1);
+        
+        final Callable<Thread> task = new Callable<Thread>() {
+            @Override
+            public Thread call() throws Exception {
+                threads.add(Thread.currentThread());
+                running.countDown();
+                release.await();
+                return Thread.currentThread();
+            }
+        };
+        
+        for (int i = 0; i < 4; i++) {
+            this.executorService.submit(task);
+        }
+        
+        //All four tasks run at once, none of them wait for another to complete
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        assertEquals(4, threads.size());
+        assertEquals(4, this.executorService.getActiveCount());
+        
+        //Fifth concurrent task is over the cap
+        try {
+            this.executorService.submit(task);
+            throw new AssertionError("submit should fail when maxThreads tasks are running");
+        }
+        catch (RejectedExecutionException e) {
+            //expected
+        }
+        
+        release.countDown();
+        
+        this.executorService.shutdown();
+        assertTrue(this.executorService.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(0, this.executorService.getActiveCount());
+        assertEquals(4, this.executorService.getLargestThreads());
+        assertEquals(4, this.executorService.getCompletedTaskCount());
+    }
+    
+    @Test
+    public void testCancelInterrupts() throws Exception {
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        
+        final FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                running.countDown();
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+                }
+                catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return null;
+            }
+        });
+        
+        //Futures are run directly instead of being wrapped
+        final Future<?> future = this.executorService.submit(task);
+        assertSame(task, future);
+        
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        future.cancel(true);
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertTrue(future.isCancelled());
+    }
+    
+    @Test
+    public void testShutdownRejects() throws Exception {
+        this.executorService.shutdown();
+        assertTrue(this.executorService.isShutdown());
+        assertTrue(this.executorService.isTerminated());
+        
+        try {
+            this.executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            throw new AssertionError("execute should fail after shutdown");
+        }
+        catch (RejectedExecutionException e) {
+            //expected
+        }
+        
+        assertFalse(this.executorService.getActiveCount() > 0);
+    }
+}
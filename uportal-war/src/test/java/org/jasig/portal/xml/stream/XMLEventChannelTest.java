@@ -0,0 +1,116 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.xml.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class XMLEventChannelTest {
+    
+    @Test
+    public void testChannelEvents() throws Exception {
+        final XMLEventChannel eventChannel = new XMLEventChannel(2, 10000);
+        
+        final Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    final XMLInputFactory xmlInputFactory = XMLInputFactory.newFactory();
+                    final InputStream xmlStream = XMLEventChannelTest.class.getResourceAsStream("document.xml");
+                    final XMLEventReader xmlEventReader = xmlInputFactory.createXMLEventReader(xmlStream);
+                    
+                    final XMLEventWriter eventWriter = eventChannel.getEventWriter();
+                    eventWriter.add(xmlEventReader);
+                    eventWriter.close();
+                }
+                catch (XMLStreamException e) {
+                    eventChannel.fail(e);
+                }
+            }
+        };
+        producer.start();
+        
+        final XMLEventReader reader = eventChannel.getEventReader();
+        int eventCount = 0;
+        while (reader.hasNext()) {
+            reader.nextEvent();
+            eventCount++;
+        }
+        assertEquals(122, eventCount);
+        
+        producer.join();
+    }
+    
+    @Test
+    public void testProducerFailure() throws Exception {
+        final XMLEventChannel eventChannel = new XMLEventChannel(2, 10000);
+        eventChannel.fail(new Exception("test failure"));
+        
+        final XMLEventReader reader = eventChannel.getEventReader();
+        try {
+            reader.hasNext();
+            fail("Expected IllegalStateException");
+        }
+        catch (IllegalStateException e) {
+            assertEquals("test failure", e.getCause().getMessage());
+        }
+    }
+    
+    @Test
+    public void testReaderAbandoned() throws Exception {
+        final XMLEventChannel eventChannel = new XMLEventChannel(2, 10000);
+        
+        final XMLEventReader reader = eventChannel.getEventReader();
+        reader.close();
+        
+        try {
+            eventChannel.getEventWriter().close();
+            fail("Expected XMLStreamException");
+        }
+        catch (XMLStreamException e) {
+            //expected
+        }
+    }
+    
+    @Test
+    public void testEmptyChannel() throws Exception {
+        final XMLEventChannel eventChannel = new XMLEventChannel(2, 10000);
+        eventChannel.getEventWriter().close();
+        
+        final XMLEventReader reader = eventChannel.getEventReader();
+        assertFalse(reader.hasNext());
+        assertTrue(reader.peek() == null);
+    }
+}